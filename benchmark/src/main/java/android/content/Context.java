@@ -0,0 +1,38 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.content;
+
+/**
+ * JVM stand-in of android.content.Context for benchmarks.
+ * No system service is available.
+ */
+public class Context {
+  public static final String LOCATION_SERVICE = "location";
+  public static final String NOTIFICATION_SERVICE = "notification";
+  public static final String POWER_SERVICE = "power";
+
+  public Context getApplicationContext(){
+    return this;
+  }
+  public Object getSystemService(String name){
+    return null;
+  }
+}
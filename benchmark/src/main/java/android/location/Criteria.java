@@ -0,0 +1,29 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.location;
+
+/**
+ * JVM stand-in of android.location.Criteria for benchmarks.
+ */
+public class Criteria {
+  public static final int ACCURACY_FINE = 1;
+  public static final int POWER_MEDIUM = 2;
+}
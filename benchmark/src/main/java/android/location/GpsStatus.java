@@ -0,0 +1,39 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.location;
+
+/**
+ * JVM stand-in of android.location.GpsStatus for benchmarks.
+ */
+public final class GpsStatus {
+  public static final int GPS_EVENT_STARTED = 1;
+  public static final int GPS_EVENT_STOPPED = 2;
+  public static final int GPS_EVENT_FIRST_FIX = 3;
+  public static final int GPS_EVENT_SATELLITE_STATUS = 4;
+
+  public interface Listener {
+    void onGpsStatusChanged(int event);
+  }
+
+  public interface NmeaListener {
+    void onNmeaReceived(long timestamp, String nmea);
+  }
+}
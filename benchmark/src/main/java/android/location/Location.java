@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.location;
+
+import android.os.Bundle;
+
+/**
+ * JVM stand-in of android.location.Location for benchmarks.
+ */
+public class Location {
+  private String provider;
+  private long time;
+  private long elapsedRealtimeNanos;
+  private double latitude;
+  private double longitude;
+  private double altitude;
+  private float speed;
+  private float bearing;
+  private float accuracy;
+  private boolean hasAltitude = false;
+  private boolean hasSpeed = false;
+  private boolean hasBearing = false;
+  private boolean hasAccuracy = false;
+  private Bundle extras;
+
+  public Location(String provider){
+    this.provider = provider;
+  }
+
+  public Location(Location l){
+    set(l);
+  }
+
+  public void set(Location l){
+    provider = l.provider;
+    time = l.time;
+    elapsedRealtimeNanos = l.elapsedRealtimeNanos;
+    latitude = l.latitude;
+    longitude = l.longitude;
+    altitude = l.altitude;
+    speed = l.speed;
+    bearing = l.bearing;
+    accuracy = l.accuracy;
+    hasAltitude = l.hasAltitude;
+    hasSpeed = l.hasSpeed;
+    hasBearing = l.hasBearing;
+    hasAccuracy = l.hasAccuracy;
+    extras = (l.extras == null) ? null : new Bundle(l.extras);
+  }
+
+  public void reset(){
+    time = 0;
+    elapsedRealtimeNanos = 0;
+    latitude = 0;
+    longitude = 0;
+    altitude = 0;
+    speed = 0;
+    bearing = 0;
+    accuracy = 0;
+    hasAltitude = false;
+    hasSpeed = false;
+    hasBearing = false;
+    hasAccuracy = false;
+    extras = null;
+  }
+
+  public String getProvider(){
+    return provider;
+  }
+  public void setProvider(String provider){
+    this.provider = provider;
+  }
+  public long getTime(){
+    return time;
+  }
+  public void setTime(long time){
+    this.time = time;
+  }
+  public long getElapsedRealtimeNanos(){
+    return elapsedRealtimeNanos;
+  }
+  public void setElapsedRealtimeNanos(long nanos){
+    this.elapsedRealtimeNanos = nanos;
+  }
+  public double getLatitude(){
+    return latitude;
+  }
+  public void setLatitude(double latitude){
+    this.latitude = latitude;
+  }
+  public double getLongitude(){
+    return longitude;
+  }
+  public void setLongitude(double longitude){
+    this.longitude = longitude;
+  }
+  public boolean hasAltitude(){
+    return hasAltitude;
+  }
+  public double getAltitude(){
+    return altitude;
+  }
+  public void setAltitude(double altitude){
+    this.altitude = altitude;
+    this.hasAltitude = true;
+  }
+  public void removeAltitude(){
+    this.altitude = 0;
+    this.hasAltitude = false;
+  }
+  public boolean hasSpeed(){
+    return hasSpeed;
+  }
+  public float getSpeed(){
+    return speed;
+  }
+  public void setSpeed(float speed){
+    this.speed = speed;
+    this.hasSpeed = true;
+  }
+  public void removeSpeed(){
+    this.speed = 0;
+    this.hasSpeed = false;
+  }
+  public boolean hasBearing(){
+    return hasBearing;
+  }
+  public float getBearing(){
+    return bearing;
+  }
+  public void setBearing(float bearing){
+    this.bearing = bearing;
+    this.hasBearing = true;
+  }
+  public void removeBearing(){
+    this.bearing = 0;
+    this.hasBearing = false;
+  }
+  public boolean hasAccuracy(){
+    return hasAccuracy;
+  }
+  public float getAccuracy(){
+    return accuracy;
+  }
+  public void setAccuracy(float accuracy){
+    this.accuracy = accuracy;
+    this.hasAccuracy = true;
+  }
+  public void removeAccuracy(){
+    this.accuracy = 0;
+    this.hasAccuracy = false;
+  }
+  public Bundle getExtras(){
+    return extras;
+  }
+  public void setExtras(Bundle extras){
+    this.extras = (extras == null) ? null : new Bundle(extras);
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.location;
+
+import android.os.Bundle;
+
+/**
+ * JVM stand-in of android.location.LocationManager for benchmarks.
+ * Test provider calls are accepted and dropped.
+ */
+public class LocationManager {
+  public static final String GPS_PROVIDER = "gps";
+
+  public LocationProvider getProvider(String name){
+    return null;
+  }
+  public boolean isProviderEnabled(String provider){
+    return false;
+  }
+  public void addTestProvider(String name, boolean requiresNetwork, boolean requiresSatellite,
+      boolean requiresCell, boolean hasMonetaryCost, boolean supportsAltitude,
+      boolean supportsSpeed, boolean supportsBearing, int powerRequirement, int accuracy){
+  }
+  public void removeTestProvider(String provider){
+  }
+  public void setTestProviderEnabled(String provider, boolean enabled){
+  }
+  public void clearTestProviderEnabled(String provider){
+  }
+  public void clearTestProviderStatus(String provider){
+  }
+  public void setTestProviderLocation(String provider, Location loc){
+  }
+  public void setTestProviderStatus(String provider, int status, Bundle extras, long updateTime){
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.os;
+
+import java.util.HashMap;
+
+/**
+ * JVM stand-in of android.os.Bundle for benchmarks.
+ */
+public class Bundle {
+  private final HashMap<String, Object> map;
+
+  public Bundle(){
+    map = new HashMap<String, Object>();
+  }
+  public Bundle(Bundle b){
+    map = new HashMap<String, Object>(b.map);
+  }
+  public boolean containsKey(String key){
+    return map.containsKey(key);
+  }
+  public void putInt(String key, int value){
+    map.put(key, value);
+  }
+  public int getInt(String key){
+    Object o = map.get(key);
+    return (o instanceof Integer) ? (Integer)o : 0;
+  }
+  public void putLong(String key, long value){
+    map.put(key, value);
+  }
+  public long getLong(String key){
+    Object o = map.get(key);
+    return (o instanceof Long) ? (Long)o : 0L;
+  }
+  public void putFloat(String key, float value){
+    map.put(key, value);
+  }
+  public float getFloat(String key){
+    Object o = map.get(key);
+    return (o instanceof Float) ? (Float)o : 0f;
+  }
+  public void putBoolean(String key, boolean value){
+    map.put(key, value);
+  }
+  public boolean getBoolean(String key, boolean defaultValue){
+    Object o = map.get(key);
+    return (o instanceof Boolean) ? (Boolean)o : defaultValue;
+  }
+  public void putString(String key, String value){
+    map.put(key, value);
+  }
+  public String getString(String key){
+    Object o = map.get(key);
+    return (o instanceof String) ? (String)o : null;
+  }
+}
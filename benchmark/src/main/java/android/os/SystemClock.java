@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.os;
+
+/**
+ * JVM stand-in of android.os.SystemClock for benchmarks.
+ */
+public final class SystemClock {
+  private static final long START = System.nanoTime();
+
+  private SystemClock(){
+  }
+
+  public static long uptimeMillis(){
+    return (System.nanoTime() - START) / 1000000L;
+  }
+  public static long elapsedRealtime(){
+    return uptimeMillis();
+  }
+  public static long elapsedRealtimeNanos(){
+    return System.nanoTime() - START;
+  }
+  public static void sleep(long ms){
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
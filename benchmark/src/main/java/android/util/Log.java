@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package android.util;
+
+/**
+ * JVM stand-in of android.util.Log for benchmarks: logging is disabled.
+ */
+public final class Log {
+  public static final int VERBOSE = 2;
+  public static final int DEBUG = 3;
+  public static final int INFO = 4;
+  public static final int WARN = 5;
+  public static final int ERROR = 6;
+
+  private Log(){
+  }
+
+  public static boolean isLoggable(String tag, int level){
+    return false;
+  }
+  public static int v(String tag, String msg){
+    return 0;
+  }
+  public static int v(String tag, String msg, Throwable tr){
+    return 0;
+  }
+  public static int d(String tag, String msg){
+    return 0;
+  }
+  public static int d(String tag, String msg, Throwable tr){
+    return 0;
+  }
+  public static int i(String tag, String msg){
+    return 0;
+  }
+  public static int i(String tag, String msg, Throwable tr){
+    return 0;
+  }
+  public static int w(String tag, String msg){
+    return 0;
+  }
+  public static int w(String tag, String msg, Throwable tr){
+    return 0;
+  }
+  public static int e(String tag, String msg){
+    return 0;
+  }
+  public static int e(String tag, String msg, Throwable tr){
+    return 0;
+  }
+}
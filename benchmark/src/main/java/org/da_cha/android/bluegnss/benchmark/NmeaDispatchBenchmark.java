@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.da_cha.android.bluegnss.util.nmea.NmeaDispatcher;
+import org.da_cha.android.bluegnss.util.nmea.NmeaSentenceHandler;
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+
+/**
+ * Per sentence dispatch cost on a mixed multi-GNSS stream with some
+ * proprietary and unknown sentences, comparing the NmeaDispatcher table
+ * with the former chain of address comparisons.
+ * Subtract tokenizeOnly from the other scores to get the dispatch cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NmeaDispatchBenchmark {
+
+  private static final String[] ADDRESSES = {
+    "GPGGA", "GNGGA", "GPVTG", "GNVTG", "GPRMC", "GNRMC",
+    "GPGSA", "GNGSA", "QZGSA", "BDGSA", "GPGSV", "GLGSV", "QZGSV", "BDGSV",
+    "GPGLL", "GNGLL", "GNGNS", "GPGRS", "GPLLQ"
+  };
+
+  private String[] sentences;
+  private int cursor;
+  private NmeaTokenizer tokenizer;
+  private NmeaDispatcher dispatcher;
+  private int handled;
+
+  @Setup
+  public void setup(){
+    List<String> stream = new ArrayList<String>();
+    for (List<String> epoch : NmeaStreamGenerator.generate("GN_ALL", 10, 10)){
+      stream.addAll(epoch);
+      // sentences which are at the end of the former chain, or not known at all
+      stream.add(NmeaStreamGenerator.sentence("GNGNS,014035.00,4332.69262,S,17235.48549,E,RR,13,0.9,25.63,11.24,,"));
+      stream.add(NmeaStreamGenerator.sentence("GPLLQ,034137.00,210712,,M,,M,3,15,0.011,,M"));
+      stream.add(NmeaStreamGenerator.sentence("PUBX,00,081350.00,4717.113210,N,00833.915187,E,546.589,G3,2.1,2.0,0.007,77.52,0.007,,0.92,1.19,0.77,9,0,0"));
+    }
+    sentences = stream.toArray(new String[stream.size()]);
+    tokenizer = new NmeaTokenizer();
+    dispatcher = new NmeaDispatcher();
+    NmeaSentenceHandler counter = new NmeaSentenceHandler(){
+      @Override
+      public void handleSentence(NmeaTokenizer t){
+        handled++;
+      }
+    };
+    for (String address : ADDRESSES){
+      dispatcher.register(address, counter);
+    }
+  }
+
+  private NmeaTokenizer next(){
+    String s = sentences[cursor];
+    cursor = (cursor + 1 == sentences.length) ? 0 : cursor + 1;
+    tokenizer.tokenize(s);
+    return tokenizer;
+  }
+
+  @Benchmark
+  public int tokenizeOnly(){
+    return next().getFieldCount();
+  }
+
+  @Benchmark
+  public int dispatchTable(){
+    dispatcher.dispatch(next());
+    return handled;
+  }
+
+  @Benchmark
+  public int dispatchEqualsChain(){
+    NmeaTokenizer t = next();
+    for (int i = 0; i < ADDRESSES.length; i++){
+      if (t.fieldEquals(0, ADDRESSES[i])){
+        handled++;
+        break;
+      }
+    }
+    return handled;
+  }
+}
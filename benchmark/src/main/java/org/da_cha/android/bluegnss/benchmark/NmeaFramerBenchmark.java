@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.benchmark;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.da_cha.android.bluegnss.provider.MockLocationProvider;
+import org.da_cha.android.bluegnss.util.nmea.DataDemand;
+import org.da_cha.android.bluegnss.util.nmea.NmeaFramer;
+import org.da_cha.android.bluegnss.util.nmea.NmeaParser;
+
+import android.app.Service;
+
+/**
+ * Cost of turning bytes read from the connection into parsed sentences,
+ * one second of stream per operation:
+ *
+ * <ul>
+ *  <li>readLine: InputStreamReader + BufferedReader.readLine(), then
+ *  parsing line+"\r\n", as the read loop used to do.</li>
+ *  <li>framer: NmeaFramer over 1 KB reads, parsing the byte slices.</li>
+ * </ul>
+ *
+ * With demand "position", only the data needed by the mock provider is
+ * requested, as when no screen is displayed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NmeaFramerBenchmark {
+
+  private static final int READ_SIZE = 1024;
+
+  @Param({"GP", "GN_ALL"})
+  public String mix;
+
+  @Param({"1", "10"})
+  public int rate;
+
+  @Param({"all", "position"})
+  public String demand;
+
+  private byte[] stream;
+  private NmeaParser parser;
+  private NmeaFramer framer;
+  private Blackhole blackhole;
+
+  @Setup
+  public void setup(Blackhole bh){
+    StringBuilder sb = new StringBuilder();
+    for (String s : NmeaStreamGenerator.flatten(NmeaStreamGenerator.generate(mix, rate, 1))){
+      sb.append(s);
+    }
+    try {
+      stream = sb.toString().getBytes("US-ASCII");
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    blackhole = bh;
+    parser = new NmeaParser(5.1f);
+    parser.setGpsMockProvider(new MockLocationProvider(new Service()));
+    if ("position".equals(demand)){
+      DataDemand dataDemand = new DataDemand();
+      dataDemand.request(this, DataDemand.POSITION);
+      parser.setDataDemand(dataDemand);
+    }
+    framer = new NmeaFramer(new NmeaFramer.FrameListener(){
+      @Override
+      public void onSentence(byte[] buffer, int offset, int length){
+        blackhole.consume(parser.parseNmeaSentence(buffer, offset, length));
+      }
+      @Override
+      public void onSirfFrame(byte[] buffer, int offset, int length){
+      }
+      @Override
+      public void onUbxFrame(byte[] buffer, int offset, int length){
+      }
+    });
+  }
+
+  @Benchmark
+  public void readLine(Blackhole bh) throws IOException {
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new ByteArrayInputStream(stream), "US-ASCII"));
+    String s;
+    while ((s = reader.readLine()) != null){
+      bh.consume(parser.parseNmeaSentence(s+"\r\n"));
+    }
+  }
+
+  @Benchmark
+  public void framer(){
+    for (int i = 0; i < stream.length; i += READ_SIZE){
+      framer.feed(stream, i, Math.min(READ_SIZE, stream.length - i));
+    }
+  }
+}
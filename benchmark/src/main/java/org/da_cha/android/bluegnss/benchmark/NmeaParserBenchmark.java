@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.da_cha.android.bluegnss.provider.MockLocationProvider;
+import org.da_cha.android.bluegnss.util.nmea.NmeaParser;
+
+import android.app.Service;
+
+/**
+ * Cost of NmeaParser.parseNmeaSentence per sentence, for each talker mix
+ * and output rate.
+ *
+ * Run with "-prof gc" to get the bytes allocated per sentence
+ * (gc.alloc.rate.norm).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NmeaParserBenchmark {
+
+  @Param({"GP", "GN_GL", "GN_BD", "GN_QZ", "GN_ALL"})
+  public String mix;
+
+  @Param({"1", "5", "10", "20"})
+  public int rate;
+
+  private String[] sentences;
+  private int cursor;
+  private NmeaParser parser;
+
+  @Setup
+  public void setup(){
+    List<String> stream = NmeaStreamGenerator.flatten(NmeaStreamGenerator.generate(mix, rate, 10));
+    sentences = stream.toArray(new String[stream.size()]);
+    cursor = 0;
+    parser = new NmeaParser(5.1f);
+    parser.setGpsMockProvider(new MockLocationProvider(new Service()));
+  }
+
+  /**
+   * One operation is one sentence, so the score is ns/sentence.
+   */
+  @Benchmark
+  public String parseSentence(){
+    String s = sentences[cursor];
+    cursor = (cursor + 1 == sentences.length) ? 0 : cursor + 1;
+    return parser.parseNmeaSentence(s);
+  }
+}
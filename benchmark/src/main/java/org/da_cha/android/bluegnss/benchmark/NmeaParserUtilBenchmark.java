@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.da_cha.android.bluegnss.util.nmea.NmeaParserUtil;
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+
+/**
+ * Field decoders of NmeaParserUtil, String and tokenizer variants.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NmeaParserUtilBenchmark {
+
+  private static final String GGA =
+    NmeaStreamGenerator.sentence("GNGGA,123519.25,4807.03812345,N,01131.00012345,E,4,12,0.9,545.4,M,46.9,M,,");
+
+  private NmeaParserUtil util;
+  private NmeaTokenizer tokenizer;
+
+  @Setup
+  public void setup(){
+    util = new NmeaParserUtil();
+    tokenizer = new NmeaTokenizer();
+    tokenizer.tokenize(GGA);
+  }
+
+  @Benchmark
+  public long timeString(){
+    return util.parseNmeaTime("123519.25");
+  }
+
+  @Benchmark
+  public long timeTokenizer(){
+    return util.parseNmeaTime(tokenizer, 1);
+  }
+
+  @Benchmark
+  public double latitudeString(){
+    return util.parseNmeaLatitude("4807.03812345", "N");
+  }
+
+  @Benchmark
+  public double latitudeTokenizer(){
+    return util.parseNmeaLatitude(tokenizer, 2);
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Generates NMEA streams shaped like the ones recorded from our receivers.
+ *
+ * Every epoch carries GGA, GSA, RMC and VTG; GSV groups come once per
+ * second as most receivers do, so the sentence mix changes with the rate.
+ * Talker mixes follow the sequences documented in NmeaState:
+ *
+ * <ul>
+ *  <li>GP: GPGGA GPGSA GPGSV.. GPRMC GPVTG</li>
+ *  <li>GN_GL: GNGGA GNGSA GNGSA GPGSV.. GLGSV.. GNRMC GNVTG</li>
+ *  <li>GN_BD: GNGGA GNGSA GNGSA GPGSV.. BDGSV.. GNRMC GNVTG</li>
+ *  <li>GN_QZ: GPGGA GPGSA QZGSA GPGSV.. QZGSV GPRMC GPVTG</li>
+ *  <li>GN_ALL: GNGGA GNGSA x3 GPGSV.. GLGSV.. BDGSV.. QZGSV GNRMC GNVTG</li>
+ * </ul>
+ *
+ * The output is deterministic, so runs can be compared.
+ */
+public final class NmeaStreamGenerator {
+
+  public static final String[] MIXES = {"GP", "GN_GL", "GN_BD", "GN_QZ", "GN_ALL"};
+
+  private static final int[] GPS_PRN = {2, 5, 6, 9, 12, 17, 19, 23, 25, 29};
+  private static final int[] GLONASS_PRN = {65, 66, 72, 73, 74, 80, 81, 88};
+  private static final int[] BEIDOU_PRN = {1, 3, 4, 6, 8, 11, 13, 14};
+  private static final int[] QZSS_PRN = {193, 194, 195};
+
+  private NmeaStreamGenerator(){
+  }
+
+  /**
+   * @param mix   one of MIXES
+   * @param rate  epochs per second
+   * @param seconds length of the stream
+   * @return sentences, each with its CR/LF, grouped by epoch
+   */
+  public static List<List<String>> generate(String mix, int rate, int seconds){
+    boolean multi = !"GP".equals(mix) && !"GN_QZ".equals(mix);
+    boolean glonass = "GN_GL".equals(mix) || "GN_ALL".equals(mix);
+    boolean beidou = "GN_BD".equals(mix) || "GN_ALL".equals(mix);
+    boolean qzss = "GN_QZ".equals(mix) || "GN_ALL".equals(mix);
+    String fixTalker = multi ? "GN" : "GP";
+
+    List<List<String>> epochs = new ArrayList<List<String>>();
+    // start at 12:00:00 UTC so that the midnight wrap of the parser does not interfere
+    long millisOfDay = 12 * 3600 * 1000L;
+    long step = 1000L / rate;
+    double lat = 4807.038;
+    double lon = 1131.000;
+    for (int n = 0; n < seconds * rate; n++){
+      List<String> epoch = new ArrayList<String>();
+      String time = formatTime(millisOfDay);
+      lat += 0.00011;
+      lon += 0.00017;
+      int used = GPS_PRN.length + (glonass ? GLONASS_PRN.length : 0)
+        + (beidou ? BEIDOU_PRN.length : 0) + (qzss ? QZSS_PRN.length : 0);
+
+      epoch.add(sentence(String.format(Locale.US,
+              "%sGGA,%s,%09.5f,N,%010.5f,E,1,%02d,0.9,545.4,M,46.9,M,,",
+              fixTalker, time, lat, lon, Math.min(used, 99))));
+
+      epoch.add(sentence(gsa(multi ? "GN" : "GP", GPS_PRN)));
+      if (glonass){
+        epoch.add(sentence(gsa("GN", GLONASS_PRN)));
+      }
+      if (beidou){
+        epoch.add(sentence(gsa("GN", BEIDOU_PRN)));
+      }
+      if (qzss){
+        epoch.add(sentence(gsa(multi ? "GN" : "QZ", QZSS_PRN)));
+      }
+
+      if (millisOfDay % 1000 == 0){
+        gsv(epoch, "GP", GPS_PRN);
+        if (glonass){
+          gsv(epoch, "GL", GLONASS_PRN);
+        }
+        if (beidou){
+          gsv(epoch, "BD", BEIDOU_PRN);
+        }
+        if (qzss){
+          gsv(epoch, "QZ", QZSS_PRN);
+        }
+      }
+
+      epoch.add(sentence(String.format(Locale.US,
+              "%sRMC,%s,A,%09.5f,N,%010.5f,E,022.4,084.4,230394,003.1,W,A",
+              fixTalker, time, lat, lon)));
+      epoch.add(sentence(fixTalker+"VTG,084.4,T,081.3,M,022.4,N,041.5,K,A"));
+
+      epochs.add(epoch);
+      millisOfDay += step;
+    }
+    return epochs;
+  }
+
+  /**
+   * @return all sentences of the stream in order.
+   */
+  public static List<String> flatten(List<List<String>> epochs){
+    List<String> all = new ArrayList<String>();
+    for (List<String> epoch : epochs){
+      all.addAll(epoch);
+    }
+    return all;
+  }
+
+  private static String formatTime(long millisOfDay){
+    long h = millisOfDay / 3600000L;
+    long m = (millisOfDay / 60000L) % 60;
+    long s = (millisOfDay / 1000L) % 60;
+    long cs = (millisOfDay % 1000L) / 10;
+    return String.format(Locale.US, "%02d%02d%02d.%02d", h, m, s, cs);
+  }
+
+  private static String gsa(String talker, int[] prns){
+    StringBuilder sb = new StringBuilder(talker).append("GSA,A,3");
+    for (int i = 0; i < 12; i++){
+      sb.append(',');
+      if (i < prns.length){
+        sb.append(String.format(Locale.US, "%02d", prns[i]));
+      }
+    }
+    sb.append(",1.8,0.9,1.5");
+    return sb.toString();
+  }
+
+  private static void gsv(List<String> epoch, String talker, int[] prns){
+    int total = (prns.length + 3) / 4;
+    for (int part = 0; part < total; part++){
+      StringBuilder sb = new StringBuilder(talker).append("GSV,")
+        .append(total).append(',').append(part+1).append(',')
+        .append(String.format(Locale.US, "%02d", prns.length));
+      for (int i = part*4; i < Math.min(prns.length, part*4+4); i++){
+        int elevation = 10 + (prns[i] * 7) % 80;
+        int azimuth = (prns[i] * 37) % 360;
+        int snr = 25 + (prns[i] * 3) % 25;
+        sb.append(String.format(Locale.US, ",%02d,%02d,%03d,%02d", prns[i], elevation, azimuth, snr));
+      }
+      epoch.add(sentence(sb.toString()));
+    }
+  }
+
+  /**
+   * @return "$" + body + "*" + checksum + CR/LF
+   */
+  public static String sentence(String body){
+    int checksum = 0;
+    for (int i = 0; i < body.length(); i++){
+      checksum ^= body.charAt(i);
+    }
+    return String.format(Locale.US, "$%s*%02X\r\n", body, checksum & 0xff);
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.da_cha.android.bluegnss.provider.MockLocationProvider;
+import org.da_cha.android.bluegnss.util.nmea.NmeaFramer;
+import org.da_cha.android.bluegnss.util.nmea.NmeaParser;
+import org.da_cha.android.bluegnss.util.sirf.SirfUtils;
+
+import android.app.Service;
+
+/**
+ * Cost of one GPS epoch, from the bytes read to the published fix and
+ * sky view, one epoch per operation:
+ *
+ * <ul>
+ *  <li>nmea: the sentences of a GP epoch (GGA, GSA, GSV, RMC...),
+ *  framed and parsed.</li>
+ *  <li>sirf: the same fix and 12 satellites as SiRF binary MID 4, MID 7
+ *  and MID 41 frames, framed and decoded.</li>
+ *  <li>ubx: the same fix and 12 satellites as u-blox NAV-SAT and NAV-PVT
+ *  frames, framed and decoded.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SirfDecoderBenchmark {
+
+  private static final int EPOCHS = 10;
+
+  private byte[][] nmeaEpochs;
+  private byte[][] sirfEpochs;
+  private byte[][] ubxEpochs;
+  private int cursor;
+  private NmeaParser parser;
+  private NmeaFramer framer;
+
+  @Setup
+  public void setup() throws IOException {
+    List<List<String>> epochs = NmeaStreamGenerator.generate("GP", 1, EPOCHS);
+    nmeaEpochs = new byte[EPOCHS][];
+    sirfEpochs = new byte[EPOCHS][];
+    ubxEpochs = new byte[EPOCHS][];
+    for (int i = 0; i < EPOCHS; i++){
+      StringBuilder sb = new StringBuilder();
+      for (String s : epochs.get(i)){
+        sb.append(s);
+      }
+      nmeaEpochs[i] = sb.toString().getBytes("US-ASCII");
+      ByteArrayOutputStream frames = new ByteArrayOutputStream();
+      frames.write(SirfUtils.genSirfCommandFromPayload(measuredTracker(i)));
+      frames.write(SirfUtils.genSirfCommandFromPayload(clockStatus(i)));
+      frames.write(SirfUtils.genSirfCommandFromPayload(geodeticNav(i)));
+      sirfEpochs[i] = frames.toByteArray();
+      frames.reset();
+      frames.write(ubxFrame(0x01, 0x35, navSat()));
+      frames.write(ubxFrame(0x01, 0x07, navPvt(i)));
+      ubxEpochs[i] = frames.toByteArray();
+    }
+    cursor = 0;
+    parser = new NmeaParser(5.1f);
+    parser.setGpsMockProvider(new MockLocationProvider(new Service()));
+    framer = new NmeaFramer(new NmeaFramer.FrameListener(){
+      @Override
+      public void onSentence(byte[] buffer, int offset, int length){
+        parser.parseNmeaSentence(buffer, offset, length);
+      }
+      @Override
+      public void onSirfFrame(byte[] buffer, int offset, int length){
+        parser.parseSirfFrame(buffer, offset, length);
+      }
+      @Override
+      public void onUbxFrame(byte[] buffer, int offset, int length){
+        parser.parseUbxFrame(buffer, offset, length);
+      }
+    });
+  }
+
+  @Benchmark
+  public long nmea(){
+    byte[] epoch = nmeaEpochs[next()];
+    framer.feed(epoch, 0, epoch.length);
+    return parser.getFixCount();
+  }
+
+  @Benchmark
+  public long sirf(){
+    byte[] epoch = sirfEpochs[next()];
+    framer.feed(epoch, 0, epoch.length);
+    return parser.getFixCount();
+  }
+
+  @Benchmark
+  public long ubx(){
+    byte[] epoch = ubxEpochs[next()];
+    framer.feed(epoch, 0, epoch.length);
+    return parser.getFixCount();
+  }
+
+  private int next(){
+    int i = cursor;
+    cursor = (cursor + 1 == EPOCHS) ? 0 : cursor + 1;
+    return i;
+  }
+
+  private static String hex(long value, int bytes){
+    return String.format("%0"+(bytes * 2)+"X", value & ((1L << (bytes * 8)) - 1));
+  }
+
+  private static String geodeticNav(int second){
+    StringBuilder sb = new StringBuilder("29");
+    sb.append(hex(0, 2)).append(hex(4, 2)).append(hex(1800, 2)).append(hex(45296000L + second * 1000, 4));
+    sb.append(hex(2014, 2)).append(hex(6, 1)).append(hex(15, 1)).append(hex(12, 1)).append(hex(34, 1))
+        .append(hex(56000 + second * 1000, 2));
+    sb.append(hex(0x00000fffL, 4)).append(hex(356123456 + second * 10, 4)).append(hex(1397654321, 4))
+        .append(hex(5123, 4)).append(hex(1234, 4)).append(hex(21, 1));
+    sb.append(hex(134, 2)).append(hex(27000, 2)).append(hex(0, 2)).append(hex(0, 2)).append(hex(0, 2));
+    sb.append(hex(500, 4)).append(hex(800, 4)).append(hex(0, 4)).append(hex(0, 2));
+    sb.append(hex(0, 4)).append(hex(0, 4)).append(hex(0, 4)).append(hex(0, 4)).append(hex(0, 4))
+        .append(hex(0, 2)).append(hex(0, 2));
+    sb.append(hex(12, 1)).append(hex(6, 1)).append(hex(0, 1));
+    return sb.toString();
+  }
+
+  private static String measuredTracker(int second){
+    StringBuilder sb = new StringBuilder("04");
+    sb.append(hex(1800, 2)).append(hex(4529600 + second * 100, 4)).append(hex(12, 1));
+    for (int c = 0; c < 12; c++){
+      sb.append(hex(c + 1, 1)).append(hex(c * 20, 1)).append(hex(20 + c * 10, 1)).append(hex(0xbf, 2));
+      for (int k = 0; k < 10; k++){
+        sb.append(hex(30 + c, 1));
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String clockStatus(int second){
+    return "07"+hex(1800, 2)+hex(4529600 + second * 100, 4)+hex(12, 1)+hex(96250, 4)+hex(123456, 4)
+        +hex(45296000L + second * 1000, 4);
+  }
+
+  private static byte[] ubxFrame(int messageClass, int id, byte[] payload){
+    byte[] frame = new byte[payload.length + 8];
+    frame[0] = (byte)0xB5;
+    frame[1] = 0x62;
+    frame[2] = (byte)messageClass;
+    frame[3] = (byte)id;
+    frame[4] = (byte)payload.length;
+    frame[5] = (byte)(payload.length >> 8);
+    System.arraycopy(payload, 0, frame, 6, payload.length);
+    int a = 0;
+    int b = 0;
+    for (int i = 2; i < frame.length - 2; i++){
+      a = (a + (frame[i] & 0xff)) & 0xff;
+      b = (b + a) & 0xff;
+    }
+    frame[frame.length - 2] = (byte)a;
+    frame[frame.length - 1] = (byte)b;
+    return frame;
+  }
+
+  private static byte[] navPvt(int second){
+    ByteBuffer pvt = ByteBuffer.allocate(92).order(ByteOrder.LITTLE_ENDIAN);
+    pvt.putInt(0, 45296000 + second * 1000);
+    pvt.putShort(4, (short)2014).put(6, (byte)6).put(7, (byte)15).put(8, (byte)12).put(9, (byte)34)
+        .put(10, (byte)second).put(11, (byte)0x07);
+    pvt.put(20, (byte)3).put(21, (byte)0x01).put(23, (byte)12);
+    pvt.putInt(24, 1397654321).putInt(28, 356123456 + second * 10).putInt(32, 51230).putInt(36, 12340)
+        .putInt(40, 2500);
+    pvt.putInt(60, 5000).putInt(64, 0).putShort(76, (short)134);
+    return pvt.array();
+  }
+
+  private static byte[] navSat(){
+    ByteBuffer sat = ByteBuffer.allocate(8 + 12 * 12).order(ByteOrder.LITTLE_ENDIAN);
+    sat.put(4, (byte)1).put(5, (byte)12);
+    for (int c = 0; c < 12; c++){
+      int q = 8 + c * 12;
+      sat.put(q, (byte)0).put(q+1, (byte)(c + 1)).put(q+2, (byte)(30 + c)).put(q+3, (byte)(c * 7))
+          .putShort(q+4, (short)(20 + c * 10)).putInt(q+8, 0x08);
+    }
+    return sat.array();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.da_cha.android.bluegnss.bluetooth.NmeaBatchListener;
+import org.da_cha.android.bluegnss.provider.MockLocationProvider;
+import org.da_cha.android.bluegnss.tracker.TrackReplay;
+import org.da_cha.android.bluegnss.util.nmea.NmeaParser;
+
+import android.app.Service;
+
+/**
+ * Whole pipeline throughput without a device: replays ten minutes of
+ * generated track, as fast as possible, from a memory-mapped file through
+ * the framer, the parser and a batch listener.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackReplayBenchmark {
+
+  private static final int SECONDS = 600;
+
+  @Param({"GP", "GN_ALL"})
+  public String mix;
+
+  @Param({"10"})
+  public int rate;
+
+  private File track;
+  private NmeaParser parser;
+  private TrackReplay replay;
+  private long sentences;
+
+  @Setup
+  public void setup() throws IOException {
+    track = File.createTempFile("replay", ".nmea");
+    FileOutputStream out = new FileOutputStream(track);
+    try {
+      for (String s : NmeaStreamGenerator.flatten(NmeaStreamGenerator.generate(mix, rate, SECONDS))){
+        out.write(s.getBytes("US-ASCII"));
+      }
+    } finally {
+      out.close();
+    }
+    parser = new NmeaParser(5.1f);
+    parser.setGpsMockProvider(new MockLocationProvider(new Service()));
+    replay = new TrackReplay(track, parser);
+    replay.setSpeed(TrackReplay.AS_FAST_AS_POSSIBLE);
+    replay.setNmeaBatchListener(new NmeaBatchListener(){
+      @Override
+      public void onNmeaBatch(long[] timestamps, byte[] data, int[] offsets, int[] lengths, int count){
+        sentences += count;
+      }
+    });
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown(){
+    track.delete();
+  }
+
+  @Benchmark
+  public long replay() throws IOException {
+    replay.run();
+    return sentences;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class GnssStatusPublisherTest {
+
+  private final GnssStatus status = new GnssStatus();
+  private final GnssStatusPublisher publisher = new GnssStatusPublisher(status);
+
+  /*
+   * An epoch whose fields and satellites all derive from n.
+   */
+  private void epoch(int n){
+    status.setFixTimestamp(n);
+    status.setLatitude(n);
+    status.setLongitude(-n);
+    status.setMode(Integer.toString(n));
+    status.beginSatellitesEpoch();
+    status.clearTrackedSatellites();
+    for (int i = 0; i < n % 8; i++){
+      status.updateSatellite("GP", 1 + i, n % 90, i, 20 + i);
+      status.addTrackedSatellites(1 + i);
+    }
+    status.evictStaleSatellites();
+    status.setNumSatellites(n % 8);
+  }
+
+  @Test
+  public void publishesCopyOfEpoch(){
+    epoch(3);
+    assertTrue(publisher.publish(status));
+    epoch(4);
+    GnssSnapshot snapshot = publisher.acquire();
+    try {
+      assertEquals(3, snapshot.getFixTimestamp());
+      assertEquals(3, snapshot.getLatitude(), 0);
+      assertEquals(-3, snapshot.getLongitude(), 0);
+      assertEquals("3", snapshot.getMode());
+      assertEquals(3, snapshot.getSatellitesCount());
+      assertEquals(2, snapshot.getSatelliteRpn(1));
+      assertEquals(21f, snapshot.getSatelliteSnr(1), 0);
+      assertEquals(Arrays.asList(1, 2, 3), snapshot.getTrackedSatellites());
+      assertEquals(status.getSatellite(2).getName(), snapshot.getSatellitesList().get(1).getName());
+    } finally {
+      snapshot.release();
+    }
+  }
+
+  @Test
+  public void reusesTwoBuffers(){
+    GnssSnapshot first = publisher.acquire();
+    first.release();
+    publisher.publish(status);
+    GnssSnapshot second = publisher.acquire();
+    second.release();
+    assertNotSame(first, second);
+    publisher.publish(status);
+    GnssSnapshot third = publisher.acquire();
+    third.release();
+    assertSame(first, third);
+  }
+
+  @Test
+  public void skipsEpochWhileSpareIsHeld(){
+    GnssSnapshot held = publisher.acquire();
+    epoch(1);
+    assertTrue(publisher.publish(status));
+    // the spare buffer is the one still held
+    epoch(2);
+    assertFalse(publisher.publish(status));
+    assertEquals(1, publisher.getSkippedCount());
+    assertEquals(0, held.getFixTimestamp());
+    GnssSnapshot latest = publisher.acquire();
+    assertEquals(1, latest.getFixTimestamp());
+    latest.release();
+    held.release();
+    assertTrue(publisher.publish(status));
+    latest = publisher.acquire();
+    assertEquals(2, latest.getFixTimestamp());
+    latest.release();
+  }
+
+  @Test
+  public void readersNeverSeeTornEpoch() throws InterruptedException {
+    final AtomicBoolean done = new AtomicBoolean();
+    final AtomicReference<String> error = new AtomicReference<String>();
+    epoch(0);
+    publisher.publish(status);
+    Thread[] readers = new Thread[3];
+    for (int r = 0; r < readers.length; r++){
+      readers[r] = new Thread(new Runnable(){
+        @Override
+        public void run(){
+          try {
+            read();
+          } catch (RuntimeException e){
+            error.set(e.toString());
+          }
+        }
+
+        private void read(){
+          while (!done.get() && error.get() == null){
+            GnssSnapshot s = publisher.acquire();
+            long n = s.getFixTimestamp();
+            if (s.getLatitude() != n || s.getLongitude() != -n || !s.getMode().equals(Long.toString(n))
+                || s.getSatellitesCount() != n % 8 || s.getTrackedSatellitesCount() != n % 8){
+              error.set("torn epoch "+n);
+            }
+            for (int i = 0; i < s.getSatellitesCount(); i++){
+              if (s.getSatelliteElevation(i) != n % 90){
+                error.set("torn satellite of epoch "+n);
+              }
+            }
+            s.release();
+          }
+        }
+      });
+      readers[r].start();
+    }
+    long deadline = System.currentTimeMillis() + 300;
+    for (int n = 1; System.currentTimeMillis() < deadline && error.get() == null; n++){
+      epoch(n);
+      publisher.publish(status);
+    }
+    done.set(true);
+    for (Thread t : readers){
+      t.join(5000);
+    }
+    assertEquals(null, error.get());
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+import org.junit.Test;
+
+public class CommandQueueTest {
+
+  private final CommandQueue commands = new CommandQueue();
+  private final List<String> results = new ArrayList<String>();
+  private final CommandListener listener = new CommandListener(){
+    @Override
+    public void onCommandDone(String command, int result, long latencyNanos){
+      results.add(command+"="+result);
+    }
+  };
+
+  /*
+   * Keeps every write apart, and fails them while failing is set.
+   */
+  private static class Writes extends OutputStream {
+    final List<byte[]> writes = new ArrayList<byte[]>();
+    boolean failing = false;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (failing){
+        throw new IOException("broken pipe");
+      }
+      writes.add(Arrays.copyOfRange(b, off, off + len));
+    }
+  }
+
+  private void nmea(String command, boolean ack){
+    commands.add(command, bytes(command), ack, listener);
+  }
+
+  private static byte[] bytes(String s){
+    return s.getBytes(NmeaTokenizer.US_ASCII);
+  }
+
+  private static byte[] sirf(int... payload){
+    byte[] frame = new byte[payload.length + 8];
+    frame[0] = (byte)0xA0;
+    frame[1] = (byte)0xA2;
+    frame[3] = (byte)payload.length;
+    int checksum = 0;
+    for (int i = 0; i < payload.length; i++){
+      frame[4+i] = (byte)payload[i];
+      checksum += payload[i];
+    }
+    frame[4+payload.length] = (byte)((checksum >> 8) & 0x7f);
+    frame[5+payload.length] = (byte)checksum;
+    frame[6+payload.length] = (byte)0xB0;
+    frame[7+payload.length] = (byte)0xB3;
+    return frame;
+  }
+
+  @Test
+  public void writesQueuedCommandsInOrderAtOnce() throws IOException {
+    nmea("$PSRF103,00,00,01,01*25\r\n", false);
+    nmea("$PSRF103,02,00,01,01*27\r\n", false);
+    nmea("$PSRF103,03,00,01,01*26\r\n", false);
+    Writes out = new Writes();
+    assertFalse(commands.writeTo(out));
+    assertEquals(1, out.writes.size());
+    assertEquals("$PSRF103,00,00,01,01*25\r\n$PSRF103,02,00,01,01*27\r\n$PSRF103,03,00,01,01*26\r\n",
+        new String(out.writes.get(0), NmeaTokenizer.US_ASCII));
+    assertEquals(Arrays.asList("$PSRF103,00,00,01,01*25\r\n=0", "$PSRF103,02,00,01,01*27\r\n=0",
+        "$PSRF103,03,00,01,01*26\r\n=0"), results);
+    assertFalse(commands.writeTo(out));
+    assertEquals(1, out.writes.size());
+  }
+
+  @Test
+  public void splitsWritesLargerThanMaxWrite() throws IOException {
+    byte[] half = new byte[CommandQueue.MAX_WRITE / 2 + 1];
+    byte[] large = new byte[CommandQueue.MAX_WRITE * 2];
+    commands.add("a", half, false, listener);
+    commands.add("b", half, false, listener);
+    commands.add("c", large, false, listener);
+    Writes out = new Writes();
+    assertTrue(commands.writeTo(out));
+    assertTrue(commands.writeTo(out));
+    assertFalse(commands.writeTo(out));
+    assertEquals(3, out.writes.size());
+    assertEquals(half.length, out.writes.get(0).length);
+    assertEquals(half.length, out.writes.get(1).length);
+    // a single command larger than MAX_WRITE is written whole
+    assertEquals(large.length, out.writes.get(2).length);
+  }
+
+  @Test
+  public void keepsCommandsOfFailedWrite() throws IOException {
+    nmea("$PSRF100,1,4800,8,1,0*0E\r\n", false);
+    Writes out = new Writes();
+    out.failing = true;
+    try {
+      commands.writeTo(out);
+      fail();
+    } catch (IOException e){
+      // expected
+    }
+    assertTrue(results.isEmpty());
+    nmea("$PSRF103,00,00,01,01*25\r\n", false);
+    out.failing = false;
+    assertFalse(commands.writeTo(out));
+    // the failed command is written first
+    assertEquals("$PSRF100,1,4800,8,1,0*0E\r\n$PSRF103,00,00,01,01*25\r\n",
+        new String(out.writes.get(0), NmeaTokenizer.US_ASCII));
+  }
+
+  @Test
+  public void matchesNmeaEchoByAddress() throws IOException {
+    nmea("$PSRF103,00,01,00,01*25\r\n", true);
+    commands.writeTo(new Writes());
+    assertTrue(results.isEmpty());
+    byte[] other = bytes("$PSRF1030,00*00\r\n");
+    commands.onSentence(other, 0, other.length);
+    byte[] gga = bytes("$GPGGA,,,,,,0,00,,,,,,,*66\r\n");
+    commands.onSentence(gga, 0, gga.length);
+    assertTrue(results.isEmpty());
+    byte[] echo = bytes("xx$PSRF103,00,01,00,01*25\r\n");
+    commands.onSentence(echo, 2, echo.length - 2);
+    assertEquals(Arrays.asList("$PSRF103,00,01,00,01*25\r\n=" + CommandListener.ACKED), results);
+    // acknowledged once only
+    commands.onSentence(echo, 2, echo.length - 2);
+    assertEquals(1, results.size());
+  }
+
+  @Test
+  public void matchesSirfAckByMessageId() throws IOException {
+    commands.add("poll version", sirf(0x84, 0x00), true, listener);
+    commands.add("set mode", sirf(0x88, 0x00), true, listener);
+    commands.writeTo(new Writes());
+    byte[] ackOther = sirf(0x0B, 0x97);
+    commands.onSirfFrame(ackOther, 0, ackOther.length);
+    assertTrue(results.isEmpty());
+    byte[] nack = sirf(0x0C, 0x88);
+    commands.onSirfFrame(nack, 0, nack.length);
+    byte[] ack = sirf(0x0B, 0x84);
+    commands.onSirfFrame(ack, 0, ack.length);
+    assertEquals(Arrays.asList("set mode=" + CommandListener.NACKED,
+        "poll version=" + CommandListener.ACKED), results);
+  }
+
+  @Test
+  public void dropsCommandsOnClear() throws IOException {
+    nmea("$PSRF103,00,01,00,01*25\r\n", true);
+    commands.writeTo(new Writes());
+    nmea("$PSRF103,02,00,01,01*27\r\n", false);
+    commands.clear();
+    assertEquals(Arrays.asList("$PSRF103,02,00,01,01*27\r\n=" + CommandListener.DROPPED,
+        "$PSRF103,00,01,00,01*25\r\n=" + CommandListener.DROPPED), results);
+    Writes out = new Writes();
+    assertFalse(commands.writeTo(out));
+    assertTrue(out.writes.isEmpty());
+  }
+}
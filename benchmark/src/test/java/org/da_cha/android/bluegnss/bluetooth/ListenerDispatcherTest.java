@@ -0,0 +1,352 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+import org.junit.After;
+import org.junit.Test;
+
+import android.location.GpsStatus;
+
+public class ListenerDispatcherTest {
+
+  private final ListenerDispatcher dispatcher = new ListenerDispatcher();
+
+  /*
+   * Keeps the sentences it gets, and waits for a latch in its first batch
+   * when one is set, to stand for a slow listener.
+   */
+  private static class Recorder implements NmeaBatchListener {
+    final List<String> sentences = new ArrayList<String>();
+    final List<Integer> batches = new ArrayList<Integer>();
+    CountDownLatch entered = new CountDownLatch(1);
+    CountDownLatch release = null;
+
+    @Override
+    public void onNmeaBatch(long[] timestamps, byte[] data, int[] offsets, int[] lengths, int count){
+      synchronized (this){
+        int end = 0;
+        for (int i = 0; i < count; i++){
+          // packed one after the other
+          assertEquals(end, offsets[i]);
+          end = offsets[i] + lengths[i];
+          sentences.add(timestamps[i]+":"+new String(data, offsets[i], lengths[i], NmeaTokenizer.US_ASCII));
+        }
+        batches.add(count);
+      }
+      entered.countDown();
+      CountDownLatch r = release;
+      if (r != null){
+        release = null;
+        try {
+          r.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e){
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    synchronized List<String> get(){
+      return new ArrayList<String>(sentences);
+    }
+  }
+
+  @After
+  public void tearDown(){
+    dispatcher.clear();
+  }
+
+  private void publish(long timestamp, String sentence){
+    // published from the middle of a larger buffer, as the framer does
+    byte[] buffer = ("xx"+sentence+"yy").getBytes(NmeaTokenizer.US_ASCII);
+    dispatcher.publishSentence(timestamp, buffer, 2, sentence.length());
+  }
+
+  private static String sentence(int i){
+    return "$GPTXT,"+i+"*00\r\n";
+  }
+
+  private void awaitDelivered(Object listener, long count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (dispatcher.getMetrics(listener).getDelivered() < count){
+      assertTrue("delivered "+dispatcher.getMetrics(listener), System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void handsSentencesOverAsBytes() throws InterruptedException {
+    Recorder recorder = new Recorder();
+    assertTrue(dispatcher.addNmeaBatchListener(recorder, ListenerDispatcher.RING_SIZE, OverflowPolicy.DROP_OLDEST));
+    assertFalse(dispatcher.addNmeaBatchListener(recorder, 64, OverflowPolicy.DROP_OLDEST));
+    assertTrue(dispatcher.hasNmeaListeners());
+    assertFalse(dispatcher.hasGpsStatusListeners());
+    for (int i = 0; i < 200; i++){
+      publish(1000 + i, sentence(i));
+      if (i % 50 == 0){
+        dispatcher.publishGpsStatus(GpsStatus.GPS_EVENT_SATELLITE_STATUS);
+      }
+    }
+    awaitDelivered(recorder, 200);
+    List<String> got = recorder.get();
+    assertEquals(200, got.size());
+    for (int i = 0; i < 200; i++){
+      assertEquals((1000 + i)+":"+sentence(i), got.get(i));
+    }
+    for (int count : recorder.batches){
+      assertTrue(count <= ListenerDispatcher.BATCH_SIZE);
+    }
+    assertEquals(0, dispatcher.getMetrics(recorder).getDropped());
+  }
+
+  @Test
+  public void makesStringsForNmeaListener() throws InterruptedException {
+    final List<String> got = new ArrayList<String>();
+    GpsStatus.NmeaListener listener = new GpsStatus.NmeaListener(){
+      @Override
+      public void onNmeaReceived(long timestamp, String nmea){
+        synchronized (got){
+          got.add(timestamp+":"+nmea);
+        }
+      }
+    };
+    dispatcher.addNmeaListener(listener, 16, OverflowPolicy.DROP_OLDEST);
+    publish(1, sentence(1));
+    publish(2, sentence(2));
+    awaitDelivered(listener, 2);
+    synchronized (got){
+      assertEquals("[1:"+sentence(1)+", 2:"+sentence(2)+"]", got.toString());
+    }
+  }
+
+  @Test
+  public void handsEventsToStatusListener() throws InterruptedException {
+    final List<Integer> events = new ArrayList<Integer>();
+    GpsStatus.Listener listener = new GpsStatus.Listener(){
+      @Override
+      public void onGpsStatusChanged(int event){
+        synchronized (events){
+          events.add(event);
+        }
+      }
+    };
+    dispatcher.addGpsStatusListener(listener, 16, OverflowPolicy.DROP_OLDEST);
+    assertTrue(dispatcher.hasGpsStatusListeners());
+    dispatcher.publishGpsStatus(GpsStatus.GPS_EVENT_FIRST_FIX);
+    publish(1, sentence(1));
+    dispatcher.publishGpsStatus(GpsStatus.GPS_EVENT_SATELLITE_STATUS);
+    awaitDelivered(listener, 2);
+    synchronized (events){
+      assertEquals("[3, 4]", events.toString());
+    }
+  }
+
+  @Test
+  public void dropsOldestBeyondQueueSize() throws InterruptedException {
+    Recorder recorder = new Recorder();
+    recorder.release = new CountDownLatch(1);
+    CountDownLatch release = recorder.release;
+    dispatcher.addNmeaBatchListener(recorder, 4, OverflowPolicy.DROP_OLDEST);
+    publish(0, sentence(0));
+    assertTrue(recorder.entered.await(5, TimeUnit.SECONDS));
+    // the listener is stuck in its first batch
+    for (int i = 1; i <= 10; i++){
+      publish(i, sentence(i));
+    }
+    assertEquals(4, dispatcher.getMetrics(recorder).getDepth());
+    release.countDown();
+    awaitDelivered(recorder, 5);
+    List<String> got = recorder.get();
+    assertEquals("[0:"+sentence(0)+", 7:"+sentence(7)+", 8:"+sentence(8)+", 9:"+sentence(9)+", 10:"+sentence(10)+"]",
+        got.toString());
+    ListenerMetrics metrics = dispatcher.getMetrics(recorder);
+    assertEquals(6, metrics.getDropped());
+    assertEquals(5, metrics.getDelivered());
+    assertEquals(0, metrics.getDepth());
+    assertEquals(OverflowPolicy.DROP_OLDEST, metrics.getPolicy());
+    assertEquals(4, metrics.getCapacity());
+  }
+
+  @Test
+  public void coalescesToLatest() throws InterruptedException {
+    Recorder recorder = new Recorder();
+    recorder.release = new CountDownLatch(1);
+    CountDownLatch release = recorder.release;
+    dispatcher.addNmeaBatchListener(recorder, 4, OverflowPolicy.COALESCE_LATEST);
+    publish(0, sentence(0));
+    assertTrue(recorder.entered.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i <= 10; i++){
+      publish(i, sentence(i));
+    }
+    release.countDown();
+    awaitDelivered(recorder, 2);
+    assertEquals("[0:"+sentence(0)+", 10:"+sentence(10)+"]", recorder.get().toString());
+    ListenerMetrics metrics = dispatcher.getMetrics(recorder);
+    assertEquals(9, metrics.getCoalesced());
+    assertEquals(0, metrics.getDropped());
+  }
+
+  @Test
+  public void blocksUntilListenerHasRoom() throws InterruptedException {
+    Recorder recorder = new Recorder();
+    recorder.release = new CountDownLatch(1);
+    final CountDownLatch release = recorder.release;
+    dispatcher.addNmeaBatchListener(recorder, 4, OverflowPolicy.BLOCK);
+    publish(0, sentence(0));
+    assertTrue(recorder.entered.await(5, TimeUnit.SECONDS));
+    new Thread(new Runnable(){
+      @Override
+      public void run(){
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e){
+          // released at once
+        }
+        release.countDown();
+      }
+    }).start();
+    long start = System.nanoTime();
+    for (int i = 1; i <= 10; i++){
+      publish(i, sentence(i));
+    }
+    // waited for the listener, less than BLOCK_TIMEOUT
+    long waited = (System.nanoTime() - start) / 1000000L;
+    assertTrue("waited "+waited, waited < ListenerDispatcher.BLOCK_TIMEOUT);
+    awaitDelivered(recorder, 11);
+    assertEquals(11, recorder.get().size());
+    assertEquals(0, dispatcher.getMetrics(recorder).getDropped());
+  }
+
+  @Test
+  public void stopsWaitingForStuckListener() throws InterruptedException {
+    Recorder recorder = new Recorder();
+    recorder.release = new CountDownLatch(1);
+    CountDownLatch release = recorder.release;
+    dispatcher.addNmeaBatchListener(recorder, 4, OverflowPolicy.BLOCK);
+    publish(0, sentence(0));
+    assertTrue(recorder.entered.await(5, TimeUnit.SECONDS));
+    long start = System.nanoTime();
+    for (int i = 1; i <= 50; i++){
+      publish(i, sentence(i));
+    }
+    // waited BLOCK_TIMEOUT once, not for every following sentence
+    long waited = (System.nanoTime() - start) / 1000000L;
+    assertTrue("waited "+waited, waited >= ListenerDispatcher.BLOCK_TIMEOUT
+        && waited < 2 * ListenerDispatcher.BLOCK_TIMEOUT);
+    release.countDown();
+    awaitDelivered(recorder, 5);
+    ListenerMetrics metrics = dispatcher.getMetrics(recorder);
+    assertEquals(46, metrics.getDropped());
+    assertEquals(OverflowPolicy.BLOCK, metrics.getPolicy());
+    // caught up: blocks again instead of dropping
+    recorder.release = new CountDownLatch(1);
+    recorder.entered = new CountDownLatch(1);
+    final CountDownLatch again = recorder.release;
+    publish(51, sentence(51));
+    assertTrue(recorder.entered.await(5, TimeUnit.SECONDS));
+    new Thread(new Runnable(){
+      @Override
+      public void run(){
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e){
+          // released at once
+        }
+        again.countDown();
+      }
+    }).start();
+    for (int i = 52; i <= 60; i++){
+      publish(i, sentence(i));
+    }
+    awaitDelivered(recorder, 15);
+    assertEquals(46, dispatcher.getMetrics(recorder).getDropped());
+  }
+
+  @Test
+  public void countsOnlyWantedEntries() throws InterruptedException {
+    Recorder recorder = new Recorder();
+    recorder.release = new CountDownLatch(1);
+    CountDownLatch release = recorder.release;
+    dispatcher.addNmeaBatchListener(recorder, 4, OverflowPolicy.DROP_OLDEST);
+    publish(0, sentence(0));
+    assertTrue(recorder.entered.await(5, TimeUnit.SECONDS));
+    for (int i = 1; i <= 3; i++){
+      for (int j = 0; j < 20; j++){
+        dispatcher.publishGpsStatus(GpsStatus.GPS_EVENT_SATELLITE_STATUS);
+      }
+      publish(i, sentence(i));
+    }
+    assertEquals(3, dispatcher.getMetrics(recorder).getDepth());
+    release.countDown();
+    awaitDelivered(recorder, 4);
+    assertEquals(4, recorder.get().size());
+    assertEquals(0, dispatcher.getMetrics(recorder).getDropped());
+  }
+
+  @Test
+  public void blocksOnlyForWantedEntries() throws InterruptedException {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    GpsStatus.Listener listener = new GpsStatus.Listener(){
+      @Override
+      public void onGpsStatusChanged(int event){
+        entered.countDown();
+        try {
+          release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e){
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    dispatcher.addGpsStatusListener(listener, 1, OverflowPolicy.BLOCK);
+    dispatcher.publishGpsStatus(GpsStatus.GPS_EVENT_SATELLITE_STATUS);
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    long start = System.nanoTime();
+    for (int i = 0; i < 100; i++){
+      publish(i, sentence(i));
+    }
+    long waited = (System.nanoTime() - start) / 1000000L;
+    assertTrue("waited "+waited, waited < ListenerDispatcher.BLOCK_TIMEOUT / 2);
+    release.countDown();
+    assertEquals(0, dispatcher.getMetrics(listener).getDropped());
+  }
+
+  @Test
+  public void stopsDeliveringOnRemoval() throws InterruptedException {
+    Recorder recorder = new Recorder();
+    dispatcher.addNmeaBatchListener(recorder, 16, OverflowPolicy.DROP_OLDEST);
+    dispatcher.remove(recorder);
+    assertFalse(dispatcher.hasNmeaListeners());
+    assertEquals(null, dispatcher.getMetrics(recorder));
+    publish(0, sentence(0));
+    Thread.sleep(20);
+    assertTrue(recorder.get().isEmpty());
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReconnectSchedulerTest {
+
+  // any streaming is long enough to forget the failures, but in quickLossBacksOff()
+  private ReconnectScheduler scheduler = new ReconnectScheduler(0);
+  private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+  private final Semaphore attempts = new Semaphore(0);
+  private final List<ConnectionState> states = new ArrayList<ConnectionState>();
+
+  @Before
+  public void setUp(){
+    scheduler.addListener(new ConnectionStateListener(){
+      @Override
+      public void onConnectionStateChanged(ConnectionState state, long delayMillis){
+        synchronized (states){
+          states.add(state);
+        }
+      }
+    });
+  }
+
+  @After
+  public void tearDown(){
+    scheduler.stop();
+    executor.shutdownNow();
+  }
+
+  private void start() throws InterruptedException {
+    scheduler.start(executor, new Runnable(){
+      @Override
+      public void run(){
+        attempts.release();
+      }
+    });
+    assertTrue(attempts.tryAcquire(5, TimeUnit.SECONDS));
+  }
+
+  private void assertBackoff(long min, long max){
+    assertEquals(ConnectionState.BACKOFF, scheduler.getState());
+    long delay = scheduler.getNextDelay();
+    assertTrue("delay "+delay, delay >= min && delay <= max);
+  }
+
+  @Test
+  public void firstAttemptIsAtOnce() throws InterruptedException {
+    start();
+    assertEquals(ConnectionState.BACKOFF, scheduler.getState());
+    assertEquals(0, scheduler.getNextDelay());
+    scheduler.connecting();
+    assertEquals(ConnectionState.CONNECTING, scheduler.getState());
+    assertEquals(1, scheduler.getAttemptCount());
+  }
+
+  @Test
+  public void backsOffExponentiallyWithJitter() throws InterruptedException {
+    start();
+    long base = ReconnectScheduler.BASE_DELAY;
+    for (int failures = 1; failures <= 20; failures++){
+      scheduler.connecting();
+      scheduler.connectFailed();
+      long delay = Math.min(ReconnectScheduler.MAX_DELAY, base << Math.min(failures - 1, 16));
+      assertBackoff(delay / 2, delay);
+    }
+    assertEquals(20, scheduler.getFailedAttemptCount());
+  }
+
+  @Test
+  public void reconnectsAtOnceAfterStreaming() throws InterruptedException {
+    start();
+    scheduler.connecting();
+    scheduler.connectFailed();
+    scheduler.connecting();
+    scheduler.connected();
+    scheduler.streaming();
+    assertEquals(ConnectionState.STREAMING, scheduler.getState());
+    assertEquals(2, scheduler.getLastAttemptCount());
+    scheduler.stalled();
+    assertEquals(ConnectionState.STALLED, scheduler.getState());
+    scheduler.connectionLost();
+    assertBackoff(0, 0);
+    assertTrue(attempts.tryAcquire(5, TimeUnit.SECONDS));
+    // the failures before streaming are forgotten
+    scheduler.connecting();
+    scheduler.connectFailed();
+    assertBackoff(ReconnectScheduler.BASE_DELAY / 2, ReconnectScheduler.BASE_DELAY);
+  }
+
+  @Test
+  public void quickLossBacksOff() throws InterruptedException {
+    scheduler = new ReconnectScheduler();
+    start();
+    for (int failures = 1; failures <= 3; failures++){
+      scheduler.connecting();
+      scheduler.connected();
+      scheduler.streaming();
+      // lost after a few sentences: not reconnected at once
+      scheduler.connectionLost();
+      long delay = ReconnectScheduler.BASE_DELAY << (failures - 1);
+      assertBackoff(delay / 2, delay);
+    }
+    assertEquals(3, scheduler.getFailedAttemptCount());
+  }
+
+  @Test
+  public void lossBeforeStreamingIsFailedAttempt() throws InterruptedException {
+    start();
+    scheduler.connecting();
+    scheduler.connected();
+    scheduler.connectionLost();
+    assertBackoff(ReconnectScheduler.BASE_DELAY / 2, ReconnectScheduler.BASE_DELAY);
+    assertEquals(1, scheduler.getFailedAttemptCount());
+  }
+
+  @Test
+  public void stalledOnlyWhileStreaming() throws InterruptedException {
+    start();
+    scheduler.connecting();
+    scheduler.stalled();
+    assertEquals(ConnectionState.CONNECTING, scheduler.getState());
+  }
+
+  @Test
+  public void ignoresReportsOnceStopped() throws InterruptedException {
+    start();
+    scheduler.stop();
+    assertEquals(ConnectionState.IDLE, scheduler.getState());
+    scheduler.connecting();
+    scheduler.connectFailed();
+    scheduler.streaming();
+    scheduler.connectionLost();
+    assertEquals(ConnectionState.IDLE, scheduler.getState());
+    assertEquals(0, scheduler.getAttemptCount());
+  }
+
+  @Test
+  public void notifiesStateChanges() throws InterruptedException {
+    start();
+    scheduler.connecting();
+    scheduler.streaming();
+    scheduler.stop();
+    synchronized (states){
+      assertEquals("[BACKOFF, CONNECTING, STREAMING, IDLE]", states.toString());
+    }
+  }
+}
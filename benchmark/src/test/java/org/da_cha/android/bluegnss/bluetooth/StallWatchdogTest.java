@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Locale;
+
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StallWatchdogTest {
+
+  private static final long MS = 1000000L;
+
+  private final StallWatchdog watchdog = new StallWatchdog();
+
+  @Before
+  public void setUp(){
+    watchdog.reset(0);
+  }
+
+  private void sentence(String sentence, long millis){
+    byte[] bytes = sentence.getBytes(NmeaTokenizer.US_ASCII);
+    watchdog.onSentence(bytes, 0, bytes.length, millis * MS);
+  }
+
+  private static String gga(long millisOfDay){
+    return String.format(Locale.US, "$GPGGA,%02d%02d%02d.%02d,,,,,0,00,,,,,,,*00\r\n",
+        millisOfDay / 3600000, (millisOfDay / 60000) % 60, (millisOfDay / 1000) % 60,
+        (millisOfDay % 1000) / 10);
+  }
+
+  @Test
+  public void keepsAliveUntilEpochIsKnown(){
+    assertEquals(StallWatchdog.MAX_TIMEOUT, watchdog.getTimeout());
+    // acquiring: sentences without time
+    for (long t = 1000; t <= 20000; t += 1000){
+      sentence("$GPRMC,,V,,,,,,,,,,N*53\r\n", t);
+    }
+    assertEquals(StallWatchdog.MAX_TIMEOUT * MS, watchdog.timeLeft(20000 * MS));
+    assertEquals(0, watchdog.getEpoch());
+  }
+
+  @Test
+  public void learnsEpochAndDetectsStall(){
+    for (int i = 0; i <= 3; i++){
+      sentence(gga(43200000L + i * 1000), 1000 + i * 1000);
+    }
+    assertEquals(1000, watchdog.getEpoch());
+    // 3 missed epochs plus half of one
+    assertEquals(3500, watchdog.getTimeout());
+    assertEquals(3500 * MS, watchdog.timeLeft(4000 * MS));
+    // frames without a new time do not keep it alive
+    sentence("$GPGSV,1,1,00*79\r\n", 6000);
+    sentence(gga(43203000L), 7000);
+    assertTrue(watchdog.timeLeft(8000 * MS) < 0);
+  }
+
+  @Test
+  public void learnsEpochAcrossMidnight(){
+    long[] times = {86398000L, 86399000L, 0, 1000};
+    for (int i = 0; i < times.length; i++){
+      sentence(gga(times[i]), 1000 + i * 1000);
+    }
+    assertEquals(1000, watchdog.getEpoch());
+  }
+
+  @Test
+  public void ignoresSingleMissedEpoch(){
+    for (int i = 0; i <= 3; i++){
+      sentence(gga(i * 200), i * 200);
+    }
+    assertEquals(200, watchdog.getEpoch());
+    // one epoch lost, then back to the nominal rate
+    sentence(gga(1000), 1000);
+    sentence(gga(1200), 1200);
+    sentence(gga(1400), 1400);
+    assertEquals(200, watchdog.getEpoch());
+    assertEquals(700, watchdog.getTimeout());
+  }
+
+  @Test
+  public void followsRateChange(){
+    for (int i = 0; i <= 3; i++){
+      sentence(gga(i * 1000), i * 1000);
+    }
+    for (int i = 1; i <= 3; i++){
+      sentence(gga(3000 + i * 2000), 3000 + i * 2000);
+    }
+    assertEquals(2000, watchdog.getEpoch());
+    assertEquals(StallWatchdog.MAX_TIMEOUT, watchdog.getTimeout());
+  }
+
+  @Test
+  public void keepsAliveWhileTimeIsFrozenOnNewConnection(){
+    for (int i = 0; i <= 3; i++){
+      sentence(gga(i * 1000), i * 1000);
+    }
+    watchdog.reset(10000 * MS);
+    for (long t = 11000; t <= 20000; t += 1000){
+      sentence(gga(3000), t);
+    }
+    assertEquals(1000, watchdog.getEpoch());
+    assertEquals(3500 * MS, watchdog.timeLeft(20000 * MS));
+  }
+
+  @Test
+  public void boundsTimeoutByMissedEpochs(){
+    watchdog.setMissedEpochs(0);
+    for (int i = 0; i <= 3; i++){
+      sentence(gga(i * 1000), i * 1000);
+    }
+    // at least one missed epoch
+    assertEquals(1500, watchdog.getTimeout());
+    watchdog.setMissedEpochs(10);
+    assertEquals(StallWatchdog.MAX_TIMEOUT, watchdog.getTimeout());
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.tracker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.da_cha.android.bluegnss.util.GnssTime;
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BlockTrackReaderTest {
+
+  private static final int EPOCHS_PER_BLOCK = 10;
+  private static final int BLOCKS = 3;
+  // 2014-06-01 23:59:50 UTC: the track crosses midnight in the second block
+  private static final long START = GnssTime.toMillis(2014, 6, 1, 23, 59, 50000);
+  // the host clock is two hours ahead, and a sentence is received 150 ms late
+  private static final long HOST_OFFSET = 2 * 3600 * 1000 + 150;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<String> sentences = new ArrayList<String>();
+  private final List<Long> receptionTimes = new ArrayList<Long>();
+  private final List<Long> utcs = new ArrayList<Long>();
+
+  /*
+   * GGA and RMC carry the time, and RMC the date; GSV takes the time of
+   * the sentence before it.
+   */
+  private void epoch(int i){
+    long utc = START + i * 1000L;
+    String time = String.format(Locale.US, "%1$tH%1$tM%1$tS.00", utc);
+    String date = String.format(Locale.US, "%1$td%1$tm%1$ty", utc);
+    add("$GPGGA,"+time+",4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47\r\n", utc);
+    add("$GPRMC,"+time+",A,4807.038,N,01131.000,E,022.4,084.4,"+date+",003.1,W*6A\r\n", utc);
+    add("$GPGSV,1,1,01,12,45,120,40*4A\r\n", utc);
+  }
+
+  private void add(String sentence, long utc){
+    sentences.add(sentence);
+    // some reception jitter, which must not change the order
+    receptionTimes.add(utc + HOST_OFFSET + sentences.size() % 3);
+    utcs.add(utc);
+  }
+
+  /*
+   * Writes BLOCKS blocks of EPOCHS_PER_BLOCK epochs.
+   *
+   * @param close  false to leave the file without its index, as after a crash
+   */
+  private File write(boolean close) throws IOException {
+    for (int i = 0; i < BLOCKS * EPOCHS_PER_BLOCK; i++){
+      epoch(i);
+    }
+    File file = folder.newFile("track"+BlockTrackReader.EXTENSION);
+    RandomAccessFile out = new RandomAccessFile(file, "rw");
+    try {
+      FileChannel channel = out.getChannel();
+      BlockTrackWriter writer = new BlockTrackWriter();
+      writer.begin(channel);
+      int perBlock = sentences.size() / BLOCKS;
+      TrackBlock block = new TrackBlock(64 * 1024);
+      for (int b = 0; b < BLOCKS; b++){
+        block.clear();
+        for (int i = b * perBlock; i < (b + 1) * perBlock; i++){
+          block.data.put(sentences.get(i).getBytes(NmeaTokenizer.US_ASCII));
+          block.endSentence(receptionTimes.get(i));
+        }
+        block.data.flip();
+        writer.write(channel, block);
+      }
+      if (close){
+        writer.end(channel);
+      }
+    } finally {
+      out.close();
+    }
+    return file;
+  }
+
+  private String all(){
+    StringBuilder all = new StringBuilder();
+    for (String s : sentences){
+      all.append(s);
+    }
+    return all.toString();
+  }
+
+  private static String export(BlockTrackReader reader, long from, long to) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    reader.export(out, from, to);
+    return new String(out.toByteArray(), NmeaTokenizer.US_ASCII);
+  }
+
+  private void assertRoundTrip(BlockTrackReader reader) throws IOException {
+    assertEquals(BLOCKS, reader.getBlockCount());
+    assertEquals(all(), export(reader, Long.MIN_VALUE, Long.MAX_VALUE));
+    int perBlock = sentences.size() / BLOCKS;
+    for (int b = 0; b < BLOCKS; b++){
+      int first = b * perBlock;
+      int last = first + perBlock - 1;
+      assertEquals(receptionTimes.get(first).longValue(), reader.getFirstReceptionTime(b));
+      assertEquals(receptionTimes.get(last).longValue(), reader.getLastReceptionTime(b));
+      assertEquals(utcs.get(first).longValue(), reader.getFirstUtc(b));
+      assertEquals(utcs.get(last).longValue(), reader.getLastUtc(b));
+      BlockTrackReader.Block block = reader.readBlock(b);
+      assertEquals(perBlock, block.getSentenceCount());
+      for (int i = 0; i < perBlock; i++){
+        assertEquals(sentences.get(first + i), block.getSentence(i));
+        assertEquals(receptionTimes.get(first + i).longValue(), block.getReceptionTime(i));
+        assertEquals(utcs.get(first + i).longValue(), block.getUtc(i));
+      }
+    }
+  }
+
+  @Test
+  public void readsBackWhatWasWritten() throws IOException {
+    BlockTrackReader reader = new BlockTrackReader(write(true));
+    try {
+      assertRoundTrip(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void scansBlocksWithoutIndex() throws IOException {
+    File file = write(false);
+    // a block cut short by a crash
+    FileOutputStream out = new FileOutputStream(file, true);
+    try {
+      out.write(new byte[]{ BlockTrackReader.BLOCK_MARK, 0, 0, 1, 0, 0, 0 });
+    } finally {
+      out.close();
+    }
+    BlockTrackReader reader = new BlockTrackReader(file);
+    try {
+      assertRoundTrip(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void findsBlocksByUtc() throws IOException {
+    BlockTrackReader reader = new BlockTrackReader(write(true));
+    try {
+      long second = START + EPOCHS_PER_BLOCK * 1000L;
+      assertEquals(0, reader.findBlock(Long.MIN_VALUE));
+      assertEquals(0, reader.findBlock(START));
+      assertEquals(0, reader.findBlock(second - 1000));
+      assertEquals(1, reader.findBlock(second - 999));
+      assertEquals(1, reader.findBlock(second));
+      assertEquals(2, reader.findBlock(second + EPOCHS_PER_BLOCK * 1000L));
+      assertEquals(-1, reader.findBlock(START + BLOCKS * EPOCHS_PER_BLOCK * 1000L));
+      // by the times in the sentences, not the ones of the host
+      assertEquals(-1, reader.findBlock(receptionTimes.get(0)));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void exportsRangeOfUtcTimes() throws IOException {
+    BlockTrackReader reader = new BlockTrackReader(write(true));
+    try {
+      // the epochs 8 to 11, across two blocks and midnight
+      String expected = "";
+      for (int i = 8 * 3; i < 12 * 3; i++){
+        expected += sentences.get(i);
+      }
+      assertEquals(expected, export(reader, START + 8000, START + 12000));
+      assertEquals("", export(reader, START - 10000, START));
+    } finally {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.tracker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TrackRecorderTest {
+
+  private static final Pattern NAME =
+      Pattern.compile("(track_\\d{4}-\\d\\d-\\d\\d_\\d\\d-\\d\\d-\\d\\d)(?:-(\\d+))?\\.nmea");
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /*
+   * Fails the writes while failing is set, as a full or removed storage would.
+   */
+  private static class FailingRecorder extends TrackRecorder {
+    volatile boolean failing = false;
+
+    FailingRecorder(File directory, int commitSize, long commitInterval){
+      super(directory, "track", commitSize, commitInterval);
+    }
+
+    @Override
+    TrackWriter newTrackWriter(){
+      return new TrackWriter(){
+        private final TrackWriter nmea = new TrackWriter.Nmea();
+
+        @Override
+        String getExtension(){
+          return nmea.getExtension();
+        }
+
+        @Override
+        long write(FileChannel channel, TrackBlock block) throws IOException {
+          if (failing){
+            throw new IOException("no space left on device");
+          }
+          return nmea.write(channel, block);
+        }
+      };
+    }
+  }
+
+  private static String sentence(int i){
+    return String.format("$GPTXT,01,01,02,%04d*00\r\n", i);
+  }
+
+  /*
+   * Hands sentences from..to-1 over as one batch, as the dispatcher does.
+   */
+  private static void batch(TrackRecorder recorder, int from, int to){
+    int count = to - from;
+    long[] timestamps = new long[count];
+    int[] offsets = new int[count];
+    int[] lengths = new int[count];
+    StringBuilder all = new StringBuilder();
+    for (int i = 0; i < count; i++){
+      String s = sentence(from + i);
+      timestamps[i] = 1000L * (from + i);
+      offsets[i] = all.length();
+      lengths[i] = s.length();
+      all.append(s);
+    }
+    byte[] data = all.toString().getBytes(NmeaTokenizer.US_ASCII);
+    recorder.onNmeaBatch(timestamps, data, offsets, lengths, count);
+  }
+
+  private static String sentences(int from, int to){
+    StringBuilder all = new StringBuilder();
+    for (int i = from; i < to; i++){
+      all.append(sentence(i));
+    }
+    return all.toString();
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), NmeaTokenizer.US_ASCII);
+  }
+
+  /*
+   * @return track files in the order they were written: by time, then by
+   *         the number added to the name of files of the same second.
+   */
+  private static File[] files(File directory){
+    File[] files = directory.listFiles();
+    Arrays.sort(files, new Comparator<File>(){
+      @Override
+      public int compare(File a, File b){
+        return key(a).compareTo(key(b));
+      }
+      private String key(File f){
+        // prefix_yyyy-MM-dd_HH-mm-ss[-N].nmea
+        Matcher m = NAME.matcher(f.getName());
+        assertTrue(f.getName(), m.matches());
+        int number = (m.group(2) == null) ? 0 : Integer.parseInt(m.group(2));
+        return String.format("%s/%06d", m.group(1), number);
+      }
+    });
+    return files;
+  }
+
+  private static void awaitWritten(TrackRecorder recorder, long bytes) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (recorder.getBytesWritten() + recorder.getDroppedBytes() < bytes){
+      assertTrue(recorder.toString(), System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void commitsEveryInterval() throws IOException, InterruptedException {
+    TrackRecorder recorder = new TrackRecorder(folder.getRoot(), "track", 64 * 1024, 20);
+    recorder.start();
+    assertTrue(recorder.isRecording());
+    batch(recorder, 0, 10);
+    // written before close, within the commit interval
+    awaitWritten(recorder, sentences(0, 10).length());
+    assertEquals(sentences(0, 10), read(recorder.getFile()));
+    batch(recorder, 10, 20);
+    recorder.close(5000);
+    assertFalse(recorder.isRecording());
+    assertEquals(sentences(0, 20), read(recorder.getFile()));
+    assertEquals(0, recorder.getDroppedBytes());
+  }
+
+  @Test
+  public void commitsFullBuffers() throws IOException, InterruptedException {
+    int length = sentence(0).length();
+    // a commit interval too long to matter
+    TrackRecorder recorder = new TrackRecorder(folder.getRoot(), "track", 4 * length, 60000);
+    recorder.start();
+    batch(recorder, 0, 9);
+    awaitWritten(recorder, 8 * length);
+    recorder.close(5000);
+    assertEquals(sentences(0, 9), read(recorder.getFile()));
+  }
+
+  @Test
+  public void rotatesBySize() throws IOException, InterruptedException {
+    int length = sentence(0).length();
+    TrackRecorder recorder = new TrackRecorder(folder.getRoot(), "track", 2 * length, 60000);
+    recorder.setRotation(5 * length, 0);
+    recorder.start();
+    for (int i = 0; i < 20; i += 2){
+      batch(recorder, i, i + 2);
+      awaitWritten(recorder, i * length);
+    }
+    recorder.close(5000);
+    File[] files = files(folder.getRoot());
+    assertEquals(5, files.length);
+    StringBuilder all = new StringBuilder();
+    for (File file : files){
+      // rotated between two commits, never within one
+      assertEquals(4 * length, file.length());
+      all.append(read(file));
+    }
+    assertEquals(sentences(0, 20), all.toString());
+  }
+
+  @Test
+  public void startsNewFileAfterWriteError() throws IOException, InterruptedException {
+    int length = sentence(0).length();
+    FailingRecorder recorder = new FailingRecorder(folder.getRoot(), 64 * 1024, 20);
+    recorder.start();
+    File first = recorder.getFile();
+    recorder.failing = true;
+    batch(recorder, 0, 4);
+    awaitWritten(recorder, 4 * length);
+    assertEquals(4 * length, recorder.getDroppedBytes());
+    recorder.failing = false;
+    batch(recorder, 4, 8);
+    awaitWritten(recorder, 8 * length);
+    assertTrue(recorder.isRecording());
+    recorder.close(5000);
+    File second = recorder.getFile();
+    assertFalse(first.equals(second));
+    assertEquals("", read(first));
+    assertEquals(sentences(4, 8), read(second));
+  }
+
+  @Test
+  public void stopsWhenNewFileFailsToo() throws IOException, InterruptedException {
+    int length = sentence(0).length();
+    FailingRecorder recorder = new FailingRecorder(folder.getRoot(), 64 * 1024, 20);
+    recorder.start();
+    recorder.failing = true;
+    batch(recorder, 0, 4);
+    awaitWritten(recorder, 4 * length);
+    batch(recorder, 4, 8);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (recorder.isRecording()){
+      assertTrue(recorder.toString(), System.currentTimeMillis() < deadline);
+      Thread.sleep(1);
+    }
+    // no longer taken
+    batch(recorder, 8, 12);
+    recorder.close(5000);
+    assertEquals(8 * length, recorder.getDroppedBytes());
+    assertEquals(0, recorder.getBytesWritten());
+  }
+
+  @Test(expected = IOException.class)
+  public void failsToStartWithoutDirectory() throws IOException {
+    File file = folder.newFile("not-a-directory");
+    new TrackRecorder(file, "track").start();
+  }
+}
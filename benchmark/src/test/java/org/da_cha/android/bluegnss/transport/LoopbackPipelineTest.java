@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.transport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.da_cha.android.bluegnss.benchmark.NmeaStreamGenerator;
+import org.da_cha.android.bluegnss.provider.MockLocationProvider;
+import org.da_cha.android.bluegnss.tracker.TrackRecorder;
+import org.da_cha.android.bluegnss.util.nmea.NmeaFramer;
+import org.da_cha.android.bluegnss.util.nmea.NmeaParser;
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import android.app.Service;
+
+/**
+ * Runs a generated track through a transport, the framer, the parser and
+ * the recorder, the way the manager reads a receiver.
+ */
+public class LoopbackPipelineTest {
+
+  private static final int SECONDS = 30;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /*
+   * Frames what is read, parses the sentences and records the recognized ones.
+   */
+  private static class Pipeline implements NmeaFramer.FrameListener {
+    final NmeaFramer framer = new NmeaFramer(this);
+    final NmeaParser parser = new NmeaParser(5.1f);
+    final TrackRecorder recorder;
+    int sentences = 0;
+    int recognized = 0;
+
+    Pipeline(File directory) throws IOException {
+      parser.setGpsMockProvider(new MockLocationProvider(new Service()));
+      recorder = new TrackRecorder(directory, "track");
+      recorder.start();
+    }
+
+    /*
+     * Reads until the end of the stream, as the reading loop of the manager.
+     */
+    void read(GnssTransport transport) throws IOException {
+      transport.connect();
+      try {
+        InputStream in = transport.getInputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) > 0){
+          framer.feed(buffer, 0, n);
+        }
+      } finally {
+        transport.close();
+      }
+      recorder.close(5000);
+    }
+
+    @Override
+    public void onSentence(byte[] buffer, int offset, int length){
+      sentences++;
+      if (parser.parseNmeaSentence(buffer, offset, length)){
+        recognized++;
+        recorder.onNmeaBatch(new long[]{ System.currentTimeMillis() }, buffer,
+            new int[]{ offset }, new int[]{ length }, 1);
+      }
+    }
+
+    @Override
+    public void onSirfFrame(byte[] buffer, int offset, int length){
+    }
+
+    @Override
+    public void onUbxFrame(byte[] buffer, int offset, int length){
+    }
+  }
+
+  private List<String> sentences;
+
+  private byte[] track() throws IOException {
+    sentences = NmeaStreamGenerator.flatten(NmeaStreamGenerator.generate("GN_ALL", 5, SECONDS));
+    StringBuilder all = new StringBuilder();
+    for (String s : sentences){
+      all.append(s);
+    }
+    return all.toString().getBytes(NmeaTokenizer.US_ASCII);
+  }
+
+  private File trackFile(byte[] track) throws IOException {
+    File file = folder.newFile("input.nmea");
+    Files.write(file.toPath(), track);
+    return file;
+  }
+
+  private void assertRecorded(Pipeline pipeline, byte[] track) throws IOException {
+    assertEquals(sentences.size(), pipeline.sentences);
+    assertEquals(sentences.size(), pipeline.recognized);
+    assertEquals(0, pipeline.framer.getErrorCount());
+    assertEquals(SECONDS * 5, pipeline.parser.getFixCount());
+    assertArrayEquals(track, Files.readAllBytes(pipeline.recorder.getFile().toPath()));
+  }
+
+  @Test
+  public void runsTrackThroughTcp() throws IOException, InterruptedException {
+    byte[] track = track();
+    LoopbackGnssServer server = new LoopbackGnssServer(trackFile(track), 0);
+    try {
+      server.start();
+      Pipeline pipeline = new Pipeline(folder.newFolder("tcp"));
+      GnssTransport transport = server.newTransport();
+      assertTrue(transport instanceof TcpTransport);
+      transport.connect();
+      // the server keeps what the client writes, ex. commands
+      byte[] command = "$PSRF103,00,00,01,01*25\r\n".getBytes(NmeaTokenizer.US_ASCII);
+      OutputStream out = transport.getOutputStream();
+      out.write(command);
+      out.flush();
+      long deadline = System.currentTimeMillis() + 5000;
+      while (server.getReceived().length < command.length && System.currentTimeMillis() < deadline){
+        Thread.sleep(10);
+      }
+      assertArrayEquals(command, server.getReceived());
+      transport.close();
+
+      pipeline.read(transport);
+      assertEquals(2, server.getConnectionCount());
+      assertRecorded(pipeline, track);
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void runsTrackThroughFifo() throws IOException, InterruptedException {
+    final byte[] track = track();
+    final File fifo = new File(folder.getRoot(), "receiver");
+    int exit;
+    try {
+      exit = new ProcessBuilder("mkfifo", fifo.getAbsolutePath()).start().waitFor();
+    } catch (IOException e){
+      exit = -1;
+    }
+    Assume.assumeTrue("mkfifo is not available", exit == 0);
+
+    Thread writer = new Thread(new Runnable(){
+      @Override
+      public void run(){
+        try {
+          // opening blocks until the transport opens the other end
+          OutputStream out = new FileOutputStream(fifo);
+          try {
+            // in pieces, as a receiver would send it
+            for (int i = 0; i < track.length; i += 100){
+              out.write(track, i, Math.min(100, track.length - i));
+              out.flush();
+            }
+          } finally {
+            out.close();
+          }
+        } catch (IOException e){
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    writer.start();
+    FileTransport transport = new FileTransport(fifo, null);
+    // a pipe does not end the connection for good
+    assertEquals(false, transport.isEndOfData());
+    Pipeline pipeline = new Pipeline(folder.newFolder("fifo"));
+    pipeline.read(transport);
+    writer.join(5000);
+    assertRecorded(pipeline, track);
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.da_cha.android.bluegnss.GnssSatellite;
+import org.da_cha.android.bluegnss.GnssStatus;
+import org.junit.Test;
+
+public class GsvAssemblerTest {
+
+  private final GsvAssembler assembler = new GsvAssembler(SatelliteNumbering.TALKERS);
+  private final GnssStatus status = new GnssStatus();
+  private final NmeaTokenizer tokenizer = new NmeaTokenizer();
+
+  private boolean add(int talker, String sentence){
+    assertTrue(sentence, tokenizer.tokenize(sentence));
+    return assembler.add(talker, tokenizer, status);
+  }
+
+  private String satellites(){
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < status.getSatellitesCount(); i++){
+      names.add(status.getSatelliteAt(i).getName());
+    }
+    Collections.sort(names);
+    return names.toString();
+  }
+
+  private GnssSatellite satellite(String name){
+    for (int i = 0; i < status.getSatellitesCount(); i++){
+      if (status.getSatelliteAt(i).getName().equals(name)){
+        return status.getSatelliteAt(i);
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void commitsCompleteGroupInAnyOrder(){
+    assertFalse(add(SatelliteNumbering.GP, "$GPGSV,2,2,05,05,10,010,10"));
+    assertEquals("[]", satellites());
+    assertTrue(add(SatelliteNumbering.GP, "$GPGSV,2,1,05,01,40,083,46,02,17,308,41,03,07,344,39,04,22,228,45"));
+    assertEquals("[G1, G2, G3, G4, G5]", satellites());
+    assertEquals(5, status.getNumSatellites());
+    GnssSatellite g1 = satellite("G1");
+    assertEquals(40f, g1.getElevation(), 0);
+    assertEquals(83f, g1.getAzimuth(), 0);
+    assertEquals(46f, g1.getSnr(), 0);
+  }
+
+  @Test
+  public void keepsLastCompleteGroupWhenPartIsMissing(){
+    add(SatelliteNumbering.GP, "$GPGSV,1,1,02,01,40,083,46,02,17,308,41");
+    // part 2 never comes: the next group starts with part 1 again
+    assertFalse(add(SatelliteNumbering.GP, "$GPGSV,2,1,05,07,40,083,46,08,17,308,41,09,07,344,39,10,22,228,45"));
+    assertFalse(add(SatelliteNumbering.GP, "$GPGSV,2,1,05,07,40,083,46,08,17,308,41,09,07,344,39,10,22,228,45"));
+    assertEquals("[G1, G2]", satellites());
+    assertEquals(1, assembler.getDroppedCount());
+    assertTrue(add(SatelliteNumbering.GP, "$GPGSV,2,2,05,11,10,010,10"));
+    assertEquals("[G10, G11, G7, G8, G9]", satellites());
+  }
+
+  @Test
+  public void ignoresMalformedParts(){
+    assertFalse(add(SatelliteNumbering.GP, "$GPGSV,0,1,00"));
+    assertFalse(add(SatelliteNumbering.GP, "$GPGSV,1,2,00"));
+    assertFalse(add(SatelliteNumbering.GP, "$GPGSV,1,1,05,01,40,083,46"));
+    assertFalse(add(SatelliteNumbering.GP, "$GPGSV,,,"));
+    assertEquals("[]", satellites());
+  }
+
+  @Test
+  public void skipsEmptyRecords(){
+    assertTrue(add(SatelliteNumbering.GP, "$GPGSV,1,1,03,01,40,083,,,,,,03,07,344,39"));
+    assertEquals("[G1, G3]", satellites());
+  }
+
+  @Test
+  public void replacesOnlySatellitesOfSameTalker(){
+    add(SatelliteNumbering.GP, "$GPGSV,1,1,02,01,40,083,46,02,17,308,41");
+    add(SatelliteNumbering.GL, "$GLGSV,1,1,02,65,10,020,30,66,11,021,31");
+    assertEquals("[G1, G2, L1, L2]", satellites());
+    add(SatelliteNumbering.GP, "$GPGSV,1,1,01,03,40,083,46");
+    assertEquals("[G3, L1, L2]", satellites());
+    assertEquals(3, status.getNumSatellites());
+  }
+
+  @Test
+  public void forgetsSilentTalker(){
+    add(SatelliteNumbering.GL, "$GLGSV,1,1,01,65,10,020,30");
+    add(SatelliteNumbering.GP, "$GPGSV,1,1,01,01,40,083,46");
+    add(SatelliteNumbering.GP, "$GPGSV,1,1,01,01,40,083,46");
+    assertEquals("[G1, L1]", satellites());
+    add(SatelliteNumbering.GP, "$GPGSV,1,1,01,01,40,083,46");
+    assertEquals("[G1]", satellites());
+    assertEquals(1, status.getNumSatellites());
+  }
+
+  @Test
+  public void mergesSignalsWithPrimarySnr(){
+    // NMEA 4.10: L1 C/A (signal 1) then L5 (signal 8)
+    add(SatelliteNumbering.GP, "$GPGSV,1,1,03,03,40,083,46,04,10,010,10,05,20,020,20,1");
+    add(SatelliteNumbering.GP, "$GPGSV,1,1,01,03,40,083,38,8");
+    assertEquals("[G3, G4, G5]", satellites());
+    assertEquals(46f, satellite("G3").getSnr(), 0);
+    assertEquals(3, status.getNumSatellites());
+    // L5 turned off: its group ages out, L1 stays
+    for (int i = 0; i < 3; i++){
+      add(SatelliteNumbering.GP, "$GPGSV,1,1,02,03,40,083,46,04,10,010,10,1");
+    }
+    assertEquals("[G3, G4]", satellites());
+    assertEquals(2, status.getNumSatellites());
+  }
+
+  @Test
+  public void resolvesExtendedNumbers(){
+    // u-blox: Galileo 301-336, BeiDou 401-463; other numbers are ignored
+    add(SatelliteNumbering.GN, "$GNGSV,1,1,03,301,40,083,46,412,10,010,10,290,05,005,05");
+    assertEquals("[B12, E1]", satellites());
+  }
+
+  @Test
+  public void resetDropsStagedParts(){
+    add(SatelliteNumbering.GP, "$GPGSV,2,1,05,01,40,083,46,02,17,308,41,03,07,344,39,04,22,228,45");
+    assembler.reset();
+    assertFalse(add(SatelliteNumbering.GP, "$GPGSV,2,2,05,05,10,010,10"));
+    assertEquals("[]", satellites());
+  }
+}
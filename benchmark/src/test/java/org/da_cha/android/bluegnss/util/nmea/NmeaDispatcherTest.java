@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class NmeaDispatcherTest {
+
+  private final NmeaDispatcher dispatcher = new NmeaDispatcher();
+  private final NmeaTokenizer tokenizer = new NmeaTokenizer();
+  private final List<String> calls = new ArrayList<String>();
+
+  private NmeaSentenceHandler handler(final String name){
+    return new NmeaSentenceHandler(){
+      @Override
+      public void handleSentence(NmeaTokenizer tokenizer){
+        calls.add(name);
+      }
+    };
+  }
+
+  private boolean dispatch(String sentence){
+    tokenizer.tokenize(sentence);
+    return dispatcher.dispatch(tokenizer);
+  }
+
+  @Test
+  public void packsDistinctKeys(){
+    assertEquals(NmeaDispatcher.INVALID_KEY, NmeaDispatcher.key(""));
+    assertEquals(NmeaDispatcher.INVALID_KEY, NmeaDispatcher.key("GPGGAX"));
+    assertEquals(NmeaDispatcher.INVALID_KEY, NmeaDispatcher.key("gpgga"));
+    assertNotEquals(NmeaDispatcher.key("PUBX"), NmeaDispatcher.key("!PUBX"));
+    assertNotEquals(NmeaDispatcher.key("GPGGA"), NmeaDispatcher.key("GNGGA"));
+    byte[] bytes = "$GPGGA,".getBytes(NmeaTokenizer.US_ASCII);
+    assertEquals(NmeaDispatcher.key("GPGGA"), NmeaDispatcher.key(bytes, 1, 5));
+  }
+
+  @Test
+  public void dispatchesByAddress(){
+    dispatcher.register("GPGGA", handler("gga"));
+    dispatcher.register("PUBX", handler("pubx"));
+    assertTrue(dispatch("$GPGGA,1"));
+    assertTrue(dispatch("$PUBX,00"));
+    assertFalse(dispatch("$GNGGA,1"));
+    assertFalse(dispatch("$"));
+    assertEquals("[gga, pubx]", calls.toString());
+    assertEquals(2, dispatcher.size());
+  }
+
+  @Test
+  public void replacesAndUnregisters(){
+    NmeaSentenceHandler second = handler("second");
+    dispatcher.register("GPGGA", handler("first"));
+    dispatcher.register("GPGGA", second);
+    assertSame(second, dispatcher.lookup(NmeaDispatcher.key("GPGGA")));
+    assertEquals(1, dispatcher.size());
+    dispatcher.unregister("GPGGA");
+    assertNull(dispatcher.lookup(NmeaDispatcher.key("GPGGA")));
+    assertEquals(0, dispatcher.size());
+  }
+
+  @Test
+  public void growsTable(){
+    for (int i = 0; i < 200; i++){
+      dispatcher.register(String.format("P%04d", i), handler(Integer.toString(i)));
+    }
+    assertEquals(200, dispatcher.size());
+    assertTrue(dispatch("$P0123,1"));
+    assertEquals("[123]", calls.toString());
+  }
+
+  @Test
+  public void dispatchesLongProprietaryAddresses(){
+    dispatcher.register("PSRF150", handler("psrf150"));
+    dispatcher.register("PMTK001", handler("pmtk001"));
+    dispatcher.register("PSRF", handler("psrf"));
+    assertTrue(dispatch("$PMTK001,604,3*32"));
+    assertTrue(dispatch("$PSRF150,1"));
+    assertTrue(dispatch("$PSRF,1"));
+    assertFalse(dispatch("$PSRF151,1"));
+    assertFalse(dispatch("$PMTK0010,1"));
+    assertEquals("[pmtk001, psrf150, psrf]", calls.toString());
+    assertEquals(3, dispatcher.size());
+    dispatcher.unregister("PSRF150");
+    assertFalse(dispatch("$PSRF150,1"));
+    assertEquals(2, dispatcher.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidAddress(){
+    dispatcher.register("GP GGA", handler("bad"));
+  }
+}
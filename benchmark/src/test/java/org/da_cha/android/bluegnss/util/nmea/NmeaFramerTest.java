@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.da_cha.android.bluegnss.util.sirf.SirfUtils;
+import org.junit.Test;
+
+public class NmeaFramerTest {
+
+  private static final String GGA = "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47\r\n";
+
+  private final List<String> frames = new ArrayList<String>();
+  private final NmeaFramer framer = new NmeaFramer(new NmeaFramer.FrameListener(){
+    @Override
+    public void onSentence(byte[] buffer, int offset, int length){
+      frames.add("N:"+new String(buffer, offset, length, NmeaTokenizer.US_ASCII));
+    }
+    @Override
+    public void onSirfFrame(byte[] buffer, int offset, int length){
+      frames.add("S:"+hex(buffer, offset, length));
+    }
+    @Override
+    public void onUbxFrame(byte[] buffer, int offset, int length){
+      frames.add("U:"+hex(buffer, offset, length));
+    }
+  });
+
+  private static String hex(byte[] buffer, int offset, int length){
+    StringBuilder sb = new StringBuilder();
+    for (int i = offset; i < offset + length; i++){
+      sb.append(String.format("%02X", buffer[i] & 0xff));
+    }
+    return sb.toString();
+  }
+
+  private static byte[] ascii(String s){
+    return s.getBytes(NmeaTokenizer.US_ASCII);
+  }
+
+  private static byte[] ubxFrame(int messageClass, int id, byte[] payload){
+    byte[] frame = new byte[payload.length + 8];
+    frame[0] = (byte)0xB5;
+    frame[1] = (byte)0x62;
+    frame[2] = (byte)messageClass;
+    frame[3] = (byte)id;
+    frame[4] = (byte)payload.length;
+    frame[5] = (byte)(payload.length >> 8);
+    System.arraycopy(payload, 0, frame, 6, payload.length);
+    int a = 0;
+    int b = 0;
+    for (int i = 2; i < frame.length - 2; i++){
+      a = (a + frame[i]) & 0xff;
+      b = (b + a) & 0xff;
+    }
+    frame[frame.length - 2] = (byte)a;
+    frame[frame.length - 1] = (byte)b;
+    return frame;
+  }
+
+  private void feed(byte[] data){
+    framer.feed(data, 0, data.length);
+  }
+
+  private void feedByteByByte(byte[] data){
+    for (int i = 0; i < data.length; i++){
+      framer.feed(data, i, 1);
+    }
+  }
+
+  @Test
+  public void framesSentences(){
+    feed(ascii(GGA+"$GPGSV,3,1,11*7B\r\n"));
+    assertEquals(2, frames.size());
+    assertEquals("N:"+GGA, frames.get(0));
+    assertEquals("N:$GPGSV,3,1,11*7B\r\n", frames.get(1));
+    assertEquals(2, framer.getSentenceCount());
+  }
+
+  @Test
+  public void framesSentencesSplitOverReads(){
+    feedByteByByte(ascii(GGA));
+    byte[] data = ascii("garbage"+GGA+GGA);
+    framer.feed(data, 0, 20);
+    framer.feed(data, 20, data.length - 20);
+    assertEquals(3, frames.size());
+    for (String frame : frames){
+      assertEquals("N:"+GGA, frame);
+    }
+  }
+
+  @Test
+  public void endsSentencesWithCrLf(){
+    feed(ascii("$GPGSV,1,1,00\n!AIVDM,1,1,,A,1,0\r\n"));
+    assertEquals("[N:$GPGSV,1,1,00\r\n, N:!AIVDM,1,1,,A,1,0\r\n]", frames.toString());
+  }
+
+  @Test
+  public void dropsMalformedSentences(){
+    feed(ascii("$GPGSV,3,1,11*7C\r\n"));
+    feed(ascii("$GPGSV,3,1,11*7\r\n"));
+    // truncated by the start of the next one
+    feed(ascii("$GPGGA,1235"+GGA));
+    // no end of line
+    StringBuilder tooLong = new StringBuilder("$GPTXT,");
+    while (tooLong.length() < NmeaTokenizer.MAX_SENTENCE_LENGTH){
+      tooLong.append('A');
+    }
+    feed(ascii(tooLong+"\r\n"));
+    assertEquals("[N:"+GGA+"]", frames.toString());
+    assertEquals(4, framer.getErrorCount());
+  }
+
+  @Test
+  public void framesSirfInterleavedWithNmea(){
+    byte[] sirf = SirfUtils.genSirfCommandFromPayload("8400");
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    stream.write(sirf, 0, sirf.length);
+    byte[] gga = ascii(GGA);
+    stream.write(gga, 0, gga.length);
+    stream.write(sirf, 0, sirf.length);
+    feedByteByByte(stream.toByteArray());
+    assertEquals(3, frames.size());
+    assertEquals("S:A0A200028400" + "0084B0B3", frames.get(0));
+    assertEquals("N:"+GGA, frames.get(1));
+    assertEquals(frames.get(0), frames.get(2));
+    assertEquals(2, framer.getSirfFrameCount());
+  }
+
+  @Test
+  public void dropsSirfFrameWithBadChecksum(){
+    byte[] sirf = SirfUtils.genSirfCommandFromPayload("8400");
+    sirf[sirf.length - 3] ^= 1;
+    feed(sirf);
+    feed(ascii(GGA));
+    assertEquals("[N:"+GGA+"]", frames.toString());
+    assertEquals(1, framer.getErrorCount());
+  }
+
+  @Test
+  public void dropsSirfFrameWithBadLength(){
+    // 0x7FFF bytes of payload is more than any message
+    feed(new byte[]{(byte)0xA0, (byte)0xA2, 0x7F, (byte)0xFF});
+    feed(ascii(GGA));
+    assertEquals("[N:"+GGA+"]", frames.toString());
+    assertEquals(1, framer.getErrorCount());
+  }
+
+  @Test
+  public void framesUbxSplitOverReads(){
+    byte[] ubx = ubxFrame(0x01, 0x07, new byte[92]);
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    byte[] gga = ascii(GGA);
+    stream.write(gga, 0, gga.length);
+    stream.write(ubx, 0, ubx.length);
+    stream.write(gga, 0, gga.length);
+    byte[] data = stream.toByteArray();
+    // split inside the header, then inside the payload
+    framer.feed(data, 0, gga.length + 3);
+    framer.feed(data, gga.length + 3, 40);
+    framer.feed(data, gga.length + 43, data.length - gga.length - 43);
+    assertEquals(3, frames.size());
+    assertEquals("U:"+hex(ubx, 0, ubx.length), frames.get(1));
+    assertEquals("N:"+GGA, frames.get(2));
+    assertEquals(1, framer.getUbxFrameCount());
+  }
+
+  @Test
+  public void dropsUbxFrameWithBadChecksum(){
+    byte[] ubx = ubxFrame(0x01, 0x35, new byte[8]);
+    ubx[10] = 1;
+    feed(ubx);
+    feed(ascii(GGA));
+    assertEquals("[N:"+GGA+"]", frames.toString());
+    assertEquals(1, framer.getErrorCount());
+  }
+
+  @Test
+  public void resetForgetsPartialFrame(){
+    byte[] gga = ascii(GGA);
+    framer.feed(gga, 0, 10);
+    framer.reset();
+    framer.feed(gga, 10, gga.length - 10);
+    assertEquals(0, frames.size());
+    feed(gga);
+    assertEquals(1, frames.size());
+  }
+}
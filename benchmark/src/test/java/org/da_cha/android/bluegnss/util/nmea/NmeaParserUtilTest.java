@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class NmeaParserUtilTest {
+
+  private static final long DAY = 86400000L;
+  private static final long HALF_DAY = DAY / 2;
+
+  private final NmeaParserUtil util = new NmeaParserUtil();
+  private final NmeaTokenizer tokenizer = new NmeaTokenizer();
+
+  private static long utcMillis(String sentence){
+    byte[] bytes = sentence.getBytes(NmeaTokenizer.US_ASCII);
+    return NmeaParserUtil.getUtcMillis(bytes, 0, bytes.length);
+  }
+
+  private static long dateMillis(String sentence){
+    byte[] bytes = sentence.getBytes(NmeaTokenizer.US_ASCII);
+    return NmeaParserUtil.getUtcDateMillis(bytes, 0, bytes.length);
+  }
+
+  private static String timeOfDay(long millis){
+    long ms = ((millis % DAY) + DAY) % DAY;
+    return String.format(Locale.US, "%02d%02d%02d.%03d",
+        ms / 3600000, (ms / 60000) % 60, (ms / 1000) % 60, ms % 1000);
+  }
+
+  @Test
+  public void readsTimeOfRawSentences(){
+    assertEquals(((12 * 60 + 35) * 60 + 19) * 1000L, utcMillis("$GPGGA,123519,4807.038,N*00\r\n"));
+    assertEquals(45296789L, utcMillis("$GNRMC,123456.789,A"));
+    assertEquals(45296789L, utcMillis("$GPZDA,123456.789*00"));
+    assertEquals(45296789L, utcMillis("$GNGNS,123456.789\r\n"));
+    assertEquals(45296789L, utcMillis("$GPGLL,4807.038,N,01131.000,E,123456.789,A"));
+    assertEquals(86399999L, utcMillis("$GPGGA,235959.999,"));
+  }
+
+  @Test
+  public void readsDateOfRawSentences(){
+    // 2014-06-01
+    long date = 16222 * DAY;
+    assertEquals(date, dateMillis("$GPRMC,123519,A,4807.038,N,01131.000,E,022.4,084.4,010614,003.1,W*6A"));
+    assertEquals(date, dateMillis("$GNRMC,123519,A,4807.038,N,01131.000,E,022.4,084.4,010614*00"));
+    assertEquals(date, dateMillis("$GPZDA,123519.00,01,06,2014,00,00*00\r\n"));
+    assertEquals(-1, dateMillis("$GPRMC,,V,,,,,,,,,,N*53"));
+    assertEquals(-1, dateMillis("$GPRMC,123519,A,4807.038,N,01131.000,E,022.4,084.4,011314,,"));
+    assertEquals(-1, dateMillis("$GPZDA,123519.00,,,,00,00*00"));
+    assertEquals(-1, dateMillis("$GPGGA,123519,4807.038,N*00"));
+  }
+
+  @Test
+  public void roundsSubMillisecondDigits(){
+    assertEquals(45296790L, utcMillis("$GPGGA,123456.7895,"));
+    assertEquals(45296700L, utcMillis("$GPGGA,123456.7,"));
+  }
+
+  @Test
+  public void rejectsMissingOrMalformedTime(){
+    assertEquals(-1, utcMillis("$GPGSV,3,1,11"));
+    assertEquals(-1, utcMillis("$GPRMC,,V,,,,,,,,,,N*53"));
+    assertEquals(-1, utcMillis("$GPGGA"));
+    assertEquals(-1, utcMillis("$GPGGA,12345"));
+    assertEquals(-1, utcMillis("$GPGGA,246000,"));
+    assertEquals(-1, utcMillis("$GPGGA,126000,"));
+    assertEquals(-1, utcMillis("$GPGGA,1234a6,"));
+    assertEquals(-1, utcMillis("$GPGGA,123456.x,"));
+    assertEquals(-1, utcMillis("$GPGLL,4807.038,N,01131.000"));
+  }
+
+  @Test
+  public void placesTimeOfDayWithinHalfADayOfNow(){
+    // one of the offsets crosses midnight, unless run around noon UTC
+    long[] offsets = {-HALF_DAY + 60000, -1000, 0, 1000, HALF_DAY - 60000};
+    for (long offset : offsets){
+      long now = System.currentTimeMillis();
+      long expected = now + offset;
+      expected -= expected % 1000;
+      String time = timeOfDay(expected).substring(0, 6);
+      long timestamp = util.parseNmeaTime(time);
+      assertEquals("offset "+offset+" time "+time, expected, timestamp);
+      tokenizer.tokenize("$GPGGA,"+time+",");
+      assertEquals(timestamp, util.parseNmeaTime(tokenizer, 1));
+    }
+  }
+
+  @Test
+  public void parsesMalformedTimeAsZero(){
+    assertEquals(0, util.parseNmeaTime((String)null));
+    assertEquals(0, util.parseNmeaTime("12:00:00"));
+    tokenizer.tokenize("$GPGGA,,");
+    assertEquals(0, util.parseNmeaTime(tokenizer, 1));
+  }
+
+  @Test
+  public void parsesCoordinates(){
+    tokenizer.tokenize("$GPGGA,123519,4807.038,N,01131.000,E,1");
+    assertEquals(48.1173, util.parseNmeaLatitude(tokenizer, 2), 1e-12);
+    assertEquals(11.516666666666667, util.parseNmeaLongitude(tokenizer, 4), 1e-12);
+    tokenizer.tokenize("$GPGGA,123519,3351.1234567,S,15112.5,W,1");
+    assertEquals(-(33 + 51.1234567 / 60), util.parseNmeaLatitude(tokenizer, 2), 1e-12);
+    assertEquals(-(151 + 12.5 / 60), util.parseNmeaLongitude(tokenizer, 4), 1e-12);
+    assertEquals(48.1173, util.parseNmeaLatitude("4807.038", "N"), 1e-12);
+    assertEquals(-11.516666666666667, util.parseNmeaLongitude("01131.000", "W"), 1e-12);
+  }
+
+  @Test
+  public void rejectsMalformedCoordinates(){
+    String[] sentences = {
+      "$GPGGA,1,,N,,E",
+      "$GPGGA,1,4807.038,,01131.000,",
+      "$GPGGA,1,4807.038,X,01131.000,N",
+      "$GPGGA,1,48x7.038,N,011-1.000,E",
+      "$GPGGA,1,9100.000,N,18100.000,E",
+      "$GPGGA,1,.,N,-,E",
+    };
+    for (String sentence : sentences){
+      tokenizer.tokenize(sentence);
+      assertTrue(sentence, Double.isNaN(util.parseNmeaLatitude(tokenizer, 2)));
+      assertTrue(sentence, Double.isNaN(util.parseNmeaLongitude(tokenizer, 4)));
+    }
+    tokenizer.tokenize("$GPGGA,1,9000.000,N,18000.000,W");
+    assertEquals(90.0, util.parseNmeaLatitude(tokenizer, 2), 0);
+    assertEquals(-180.0, util.parseNmeaLongitude(tokenizer, 4), 0);
+  }
+
+  @Test
+  public void convertsAltitudeAndSpeed(){
+    tokenizer.tokenize("$GPGGA,1,545.4,M,1.5,KM,,M,022.4");
+    assertEquals(545.4, util.parseNmeaAlt(tokenizer, 2), 1e-9);
+    assertEquals(1500.0, util.parseNmeaAlt(tokenizer, 4), 1e-9);
+    assertTrue(Double.isNaN(util.parseNmeaAlt(tokenizer, 6)));
+    assertEquals(22.4f / 3.6f * 1.852f, util.parseNmeaSpeed(tokenizer, 8, 'N'), 1e-6);
+    assertEquals(0.0f, util.parseNmeaSpeed(tokenizer, 6, 'N'), 0);
+  }
+}
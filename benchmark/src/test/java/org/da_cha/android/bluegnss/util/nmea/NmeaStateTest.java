@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NmeaStateTest {
+
+  private static final int GGA = NmeaDispatcher.key("GPGGA");
+
+  private final NmeaState state = new NmeaState();
+
+  /*
+   * Feeds a sentence the way the parser does, "GPGSV-" being a part of
+   * GSV which is not the last one.
+   *
+   * @return true when it completed the epoch.
+   */
+  private boolean sentence(long time, String address){
+    boolean canEnd = !address.endsWith("-");
+    if (!canEnd){
+      address = address.substring(0, address.length() - 1);
+    }
+    int key = NmeaDispatcher.key(address);
+    if (state.isNewEpoch(time, key)){
+      state.beginEpoch(time);
+    } else if (time != 0){
+      state.recvTime(time);
+    }
+    if (state.recvSentence(key, canEnd)){
+      state.complete();
+      return true;
+    }
+    return false;
+  }
+
+  /*
+   * @return index of the sentence which completed the epoch, -1 if none.
+   */
+  private int epoch(long time, String... addresses){
+    int ended = -1;
+    for (int i = 0; i < addresses.length; i++){
+      // only the first sentences carry the time, as GSA and GSV
+      if (sentence(i < 2 ? time : 0, addresses[i])){
+        ended = i;
+      }
+    }
+    return ended;
+  }
+
+  @Test
+  public void startsEpochOnNewTime(){
+    assertTrue(state.isNewEpoch(0, GGA));
+    state.beginEpoch(1000);
+    assertFalse(state.isNewEpoch(1000, GGA));
+    assertFalse(state.isNewEpoch(0, GGA));
+    assertTrue(state.isNewEpoch(2000, GGA));
+    assertTrue(state.isReceiving());
+    state.complete();
+    assertFalse(state.isReceiving());
+    assertTrue(state.isNewEpoch(2000, GGA));
+  }
+
+  @Test
+  public void takesTimeOfFirstTimedSentence(){
+    state.beginEpoch(0);
+    assertFalse(state.isNewEpoch(3000, GGA));
+    state.recvTime(3000);
+    state.recvTime(4000);
+    assertEquals(3000, state.getTimestamp());
+    assertTrue(state.isNewEpoch(4000, GGA));
+  }
+
+  @Test
+  public void attachesLateSentenceToCompletedEpoch(){
+    for (int i = 1; i <= 3; i++){
+      epoch(i * 1000, "GPGGA", "GPRMC", "GPVTG");
+    }
+    assertFalse(state.isReceiving());
+    // same time, or no time: still the epoch of 3000
+    assertFalse(sentence(3000, "GPZDA"));
+    assertFalse(sentence(0, "GPGSA"));
+    assertFalse(sentence(0, "GPVTG"));
+    assertFalse(state.isReceiving());
+    assertEquals(3000, state.getTimestamp());
+    // the sentence which began the epoch begins the next one
+    assertFalse(sentence(0, "GPGGA"));
+    assertTrue(state.isReceiving());
+    state.complete();
+    assertTrue(state.isNewEpoch(4000, GGA));
+  }
+
+  @Test
+  public void learnsLastSentenceOfEpoch(){
+    assertEquals(-1, epoch(1000, "GPGGA", "GPRMC", "GPGSA", "GPVTG"));
+    assertEquals(-1, epoch(2000, "GPGGA", "GPRMC", "GPGSA", "GPVTG"));
+    // VTG ended two epochs in a row
+    assertEquals(3, epoch(3000, "GPGGA", "GPRMC", "GPGSA", "GPVTG"));
+    assertFalse(state.isReceiving());
+    assertEquals(3000, state.getTimestamp());
+    assertEquals(3, epoch(4000, "GPGGA", "GPRMC", "GPGSA", "GPVTG"));
+  }
+
+  @Test
+  public void endsWithLastPartOfGsv(){
+    for (int i = 1; i <= 3; i++){
+      epoch(i * 1000, "GPGGA", "GPRMC", "GPGSV-", "GPGSV-", "GPGSV");
+    }
+    assertEquals(4, epoch(4000, "GPGGA", "GPRMC", "GPGSV-", "GPGSV-", "GPGSV"));
+    // a shorter group still ends with its last part
+    assertEquals(3, epoch(5000, "GPGGA", "GPRMC", "GPGSV-", "GPGSV"));
+  }
+
+  @Test
+  public void endsWithSameCountOfRepeatedSentence(){
+    for (int i = 1; i <= 3; i++){
+      epoch(i * 1000, "GNGGA", "GNRMC", "GNGSA", "GNGSA");
+    }
+    assertEquals(3, epoch(4000, "GNGGA", "GNRMC", "GNGSA", "GNGSA"));
+  }
+
+  @Test
+  public void relearnsWhenSequenceChanges(){
+    for (int i = 1; i <= 3; i++){
+      epoch(i * 1000, "GPGGA", "GPRMC", "GPVTG");
+    }
+    // VTG turned off: epochs are ended by the change of time again
+    assertEquals(-1, epoch(4000, "GPGGA", "GPRMC"));
+    assertEquals(-1, epoch(5000, "GPGGA", "GPRMC"));
+    assertEquals(1, epoch(6000, "GPGGA", "GPRMC"));
+  }
+
+  @Test
+  public void prefersGgaFix(){
+    state.beginEpoch(1000);
+    state.recvGGA(false);
+    state.recvRMC(true);
+    assertFalse(state.isFixed());
+    assertTrue(state.hasRMC());
+    assertFalse(state.shouldUseGLL());
+    state.beginEpoch(2000);
+    assertFalse(state.isFixed());
+  }
+
+  @Test
+  public void usesRmcFixWithoutGga(){
+    state.beginEpoch(1000);
+    assertTrue(state.shouldUseGLL());
+    state.recvRMC(true);
+    assertTrue(state.isFixed());
+    assertFalse(state.shouldUseGLL());
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NmeaTokenizerTest {
+
+  private final NmeaTokenizer tokenizer = new NmeaTokenizer();
+
+  @Test
+  public void splitsFields(){
+    assertTrue(tokenizer.tokenize("$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47\r\n"));
+    assertEquals(15, tokenizer.getFieldCount());
+    assertTrue(tokenizer.fieldEquals(0, "GPGGA"));
+    assertEquals("123519", tokenizer.getString(1));
+    assertEquals('N', tokenizer.getChar(3));
+    assertTrue(tokenizer.hasChecksum());
+    assertEquals(0x47, tokenizer.getChecksum());
+  }
+
+  @Test
+  public void keepsEmptyFields(){
+    assertTrue(tokenizer.tokenize("$GPRMC,,V,,,,,,,,,,N*53"));
+    assertEquals(13, tokenizer.getFieldCount());
+    assertTrue(tokenizer.isEmpty(1));
+    assertTrue(tokenizer.isEmpty(11));
+    assertEquals('\0', tokenizer.getChar(3));
+    assertEquals("", tokenizer.getString(3));
+    assertEquals(-1, tokenizer.getInt(3, -1));
+    assertTrue(Double.isNaN(tokenizer.getDouble(3)));
+  }
+
+  @Test
+  public void acceptsSentenceWithoutChecksum(){
+    assertTrue(tokenizer.tokenize("$GPGSV,1,1,00"));
+    assertFalse(tokenizer.hasChecksum());
+    assertEquals(4, tokenizer.getFieldCount());
+  }
+
+  @Test
+  public void rejectsMalformedFrames(){
+    assertFalse(tokenizer.tokenize("$GPRMC,,V,,,,,,,,,,N*54"));
+    assertFalse(tokenizer.tokenize("$GPRMC,,V,,,,,,,,,,N*5"));
+    assertFalse(tokenizer.tokenize("$GPRMC,,V,,,,,,,,,,N*5z"));
+    assertFalse(tokenizer.tokenize("GPRMC,,V,,,,,,,,,,N*53"));
+    assertFalse(tokenizer.tokenize("$GPGGA,1$GPRMC,2"));
+    assertFalse(tokenizer.tokenize("$"));
+    StringBuilder longSentence = new StringBuilder("$GPTXT,");
+    while (longSentence.length() <= NmeaTokenizer.MAX_SENTENCE_LENGTH){
+      longSentence.append('A');
+    }
+    assertFalse(tokenizer.tokenize(longSentence));
+    StringBuilder manyFields = new StringBuilder("$GPTXT");
+    for (int i = 0; i < NmeaTokenizer.MAX_FIELDS; i++){
+      manyFields.append(',');
+    }
+    assertFalse(tokenizer.tokenize(manyFields));
+  }
+
+  @Test
+  public void tokenizesBytes(){
+    byte[] data = "xx$GPGSV,3,1,11*7B\r\nyy".getBytes(NmeaTokenizer.US_ASCII);
+    assertTrue(tokenizer.tokenize(data, 2, 18));
+    assertEquals(3, tokenizer.getInt(1));
+    assertEquals("$GPGSV,3,1,11*7B", tokenizer.toString());
+  }
+
+  @Test
+  public void parsesIntegers(){
+    tokenizer.tokenize("$X,12,-7,+3,-,1a,,007");
+    assertEquals(12, tokenizer.getInt(1, 0));
+    assertEquals(-7, tokenizer.getInt(2, 0));
+    assertEquals(3, tokenizer.getInt(3, 0));
+    assertEquals(99, tokenizer.getInt(4, 99));
+    assertEquals(99, tokenizer.getInt(5, 99));
+    assertEquals(99, tokenizer.getInt(6, 99));
+    assertEquals(7, tokenizer.getInt(7, 99));
+  }
+
+  @Test
+  public void rejectsIntegersThatOverflow(){
+    tokenizer.tokenize("$X,999999999,-999999999,1000000000,4294967297,0000000001");
+    assertEquals(999999999, tokenizer.getInt(1, 0));
+    assertEquals(-999999999, tokenizer.getInt(2, 0));
+    assertEquals(-1, tokenizer.getInt(3, -1));
+    assertEquals(-1, tokenizer.getInt(4, -1));
+    assertEquals(-1, tokenizer.getInt(5, -1));
+  }
+
+  @Test
+  public void parsesDecimals(){
+    tokenizer.tokenize("$X,4807.038,-0012.3450,+.5,5.,0.000000000000000000001,123456789012345678901");
+    assertEquals(4807.038, tokenizer.getDouble(1), 1e-9);
+    assertEquals(-12.345, tokenizer.getDouble(2), 1e-9);
+    assertEquals(0.5, tokenizer.getDouble(3), 0);
+    assertEquals(5.0, tokenizer.getDouble(4), 0);
+    assertEquals(0.0, tokenizer.getDouble(5), 1e-18);
+    assertEquals(1.2345678901234568e20, tokenizer.getDouble(6), 1e6);
+  }
+
+  @Test
+  public void rejectsMalformedDecimals(){
+    tokenizer.tokenize("$X,-,.,+,1.2.3,1e3,12a,-.");
+    for (int field = 1; field < tokenizer.getFieldCount(); field++){
+      assertEquals("field "+field, 99.0, tokenizer.getDouble(field, 99.0), 0);
+    }
+    assertTrue(Float.isNaN(tokenizer.getFloat(1)));
+  }
+}
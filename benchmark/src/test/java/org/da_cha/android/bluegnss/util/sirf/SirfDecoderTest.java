@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.util.sirf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.da_cha.android.bluegnss.GnssSatellite;
+import org.da_cha.android.bluegnss.GnssStatus;
+import org.da_cha.android.bluegnss.util.GnssTime;
+import org.junit.Test;
+
+public class SirfDecoderTest {
+
+  private static final double E = 1e-6;
+
+  private final SirfDecoder decoder = new SirfDecoder();
+  private final GnssStatus status = new GnssStatus();
+
+  /*
+   * Wraps a payload, big-endian as all of SiRF, into a frame; the decoder
+   * leaves the checksum to the framer.
+   */
+  private static byte[] frame(ByteBuffer payload){
+    byte[] p = payload.array();
+    ByteBuffer frame = ByteBuffer.allocate(p.length + 8);
+    frame.put((byte)0xA0).put((byte)0xA2).putShort((short)p.length).put(p)
+      .putShort((short)0).put((byte)0xB0).put((byte)0xB3);
+    return frame.array();
+  }
+
+  private int decode(byte[] frame){
+    return decoder.decode(frame, 0, frame.length, status);
+  }
+
+  /*
+   * MID 41 of 2014-06-15 12:34:56.789, with satellites 1, 3 and 32 used.
+   */
+  private static ByteBuffer geodeticNav(int navValid, int navType){
+    ByteBuffer b = ByteBuffer.allocate(91);
+    b.put(0, (byte)SirfDecoder.MID_GEODETIC_NAV)
+      .putShort(1, (short)navValid).putShort(3, (short)navType)
+      .putShort(11, (short)2014).put(13, (byte)6).put(14, (byte)15)
+      .put(15, (byte)12).put(16, (byte)34).putShort(17, (short)56789)
+      .putInt(19, 0x80000005)
+      .putInt(23, 356123456).putInt(27, -1397654321)
+      .putInt(31, 5123).putInt(35, 1234)
+      .putShort(40, (short)1340).putShort(42, (short)27050)
+      .putInt(50, 550)
+      .put(88, (byte)3).put(89, (byte)6);
+    return b;
+  }
+
+  @Test
+  public void decodesGeodeticNav(){
+    byte[] frame = frame(geodeticNav(0, 4));
+    assertEquals(SirfDecoder.MID_GEODETIC_NAV, decode(frame));
+    assertTrue(decoder.isFixed());
+    long time = GnssTime.toMillis(2014, 6, 15, 12, 34, 56789);
+    assertEquals(time, decoder.getFixTime());
+    assertEquals(time, status.getFixTimestamp());
+    assertEquals(time % 86400000L, SirfDecoder.getUtcMillis(frame, 0, frame.length));
+    assertEquals(35.6123456, status.getLatitude(), E);
+    assertEquals(-139.7654321, status.getLongitude(), E);
+    assertEquals(12.34, status.getAltitude(), E);
+    assertEquals(51.23 - 12.34, status.getHeight(), E);
+    assertEquals(13.4f, status.getSpeed(), E);
+    assertEquals(270.5, status.getBearing(), E);
+    assertEquals(5.5f, status.getAccuracy(), E);
+    assertEquals(3, status.getNbSat());
+    assertEquals(1.2, status.getHDOP(), E);
+    assertEquals(3, status.getFixMode());
+    assertEquals(1, status.getQuality());
+    assertEquals("A", status.getMode());
+    assertEquals(Arrays.asList(1, 3, 32), status.getTrackedSatellites());
+    assertEquals(1, decoder.getMessageCount());
+  }
+
+  @Test
+  public void decodesSolutionType(){
+    // 1 to 3 satellites: 2D
+    decode(frame(geodeticNav(0, 3)));
+    assertEquals(2, status.getFixMode());
+    // DGPS corrections
+    decode(frame(geodeticNav(0, 0x84)));
+    assertEquals(3, status.getFixMode());
+    assertEquals(2, status.getQuality());
+    assertEquals("D", status.getMode());
+    // dead reckoning
+    decode(frame(geodeticNav(0, 7)));
+    assertEquals(6, status.getQuality());
+    assertEquals("E", status.getMode());
+    // only "not over-determined": still a fix
+    decode(frame(geodeticNav(1, 4)));
+    assertTrue(decoder.isFixed());
+  }
+
+  @Test
+  public void keepsTimeWithoutFix(){
+    decode(frame(geodeticNav(0x0004, 4)));
+    assertFalse(decoder.isFixed());
+    assertEquals(GnssTime.toMillis(2014, 6, 15, 12, 34, 56789), status.getTimestamp());
+    assertEquals(1, status.getFixMode());
+    assertEquals(0, status.getQuality());
+    assertEquals("N", status.getMode());
+    decode(frame(geodeticNav(0, 0)));
+    assertFalse(decoder.isFixed());
+  }
+
+  @Test
+  public void decodesMeasuredTracker(){
+    ByteBuffer b = ByteBuffer.allocate(188);
+    b.put(0, (byte)SirfDecoder.MID_MEASURED_TRACKER).put(7, (byte)12);
+    // channel 0: GPS 5, C/N0 of 40 and 44, other samples missing
+    b.put(8, (byte)5).put(9, (byte)60).put(10, (byte)90).put(13, (byte)40).put(14, (byte)44);
+    // channel 1 is empty; channel 2: SBAS 122
+    int q = 8 + 2 * 15;
+    b.put(q, (byte)122).put(q+1, (byte)200).put(q+2, (byte)20);
+    for (int i = 0; i < 10; i++){
+      b.put(q+5+i, (byte)30);
+    }
+    assertEquals(SirfDecoder.MID_MEASURED_TRACKER, decode(frame(b)));
+    assertEquals(2, status.getNumSatellites());
+    assertEquals(2, status.getSatellitesCount());
+    GnssSatellite gps = status.getSatellite(5);
+    assertEquals("GP", gps.getSystemPrefix());
+    assertEquals(90f, gps.getAzimuth(), E);
+    assertEquals(45f, gps.getElevation(), E);
+    assertEquals(42f, gps.getSnr(), E);
+    GnssSatellite sbas = status.getSatellite(122);
+    assertEquals("SB", sbas.getSystemPrefix());
+    assertEquals(300f, sbas.getAzimuth(), E);
+    assertEquals(10f, sbas.getElevation(), E);
+    assertEquals(30f, sbas.getSnr(), E);
+
+    // the next epoch drops the satellites no longer tracked
+    b.put(q, (byte)0);
+    decode(frame(b));
+    assertEquals(1, status.getSatellitesCount());
+    assertNull(status.getSatellite(122));
+  }
+
+  @Test
+  public void decodesClockStatus(){
+    ByteBuffer b = ByteBuffer.allocate(20);
+    b.put(0, (byte)SirfDecoder.MID_CLOCK_STATUS).putInt(8, 96250).putInt(12, 0xfffffff0);
+    assertEquals(SirfDecoder.MID_CLOCK_STATUS, decode(frame(b)));
+    assertEquals(96250, status.getClockDrift());
+    assertEquals(0xfffffff0L, status.getClockBias());
+  }
+
+  @Test
+  public void ignoresOtherAndShortMessages(){
+    ByteBuffer other = ByteBuffer.allocate(10);
+    other.put(0, (byte)2);
+    assertEquals(-1, decode(frame(other)));
+    ByteBuffer shortNav = ByteBuffer.allocate(90);
+    shortNav.put(0, (byte)SirfDecoder.MID_GEODETIC_NAV);
+    byte[] frame = frame(shortNav);
+    assertEquals(-1, decode(frame));
+    assertEquals(-1, SirfDecoder.getUtcMillis(frame, 0, frame.length));
+    assertEquals(-1, decoder.decode(frame, 0, 8, status));
+    assertEquals(0, decoder.getMessageCount());
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.util.ubx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.da_cha.android.bluegnss.GnssSatellite;
+import org.da_cha.android.bluegnss.GnssStatus;
+import org.da_cha.android.bluegnss.util.GnssTime;
+import org.junit.Test;
+
+public class UbxDecoderTest {
+
+  private static final double E = 1e-6;
+
+  private final UbxDecoder decoder = new UbxDecoder();
+  private final GnssStatus status = new GnssStatus();
+
+  private static ByteBuffer payload(int length){
+    return ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /*
+   * Wraps a payload into a frame; the decoder leaves the checksum to the framer.
+   */
+  private static byte[] frame(int id, ByteBuffer payload){
+    byte[] p = payload.array();
+    ByteBuffer frame = ByteBuffer.allocate(p.length + 8).order(ByteOrder.LITTLE_ENDIAN);
+    frame.put((byte)0xB5).put((byte)0x62).put((byte)(id >> 8)).put((byte)id)
+      .putShort((short)p.length).put(p);
+    return frame.array();
+  }
+
+  private int decode(byte[] frame){
+    return decoder.decode(frame, 0, frame.length, status);
+  }
+
+  /*
+   * NAV-PVT of 2014-06-15 12:34:56.789, as sent since u-blox 8.
+   */
+  private static ByteBuffer navPvt(int fixType, int flags){
+    ByteBuffer b = payload(92);
+    b.putShort(4, (short)2014).put(6, (byte)6).put(7, (byte)15)
+      .put(8, (byte)12).put(9, (byte)34).put(10, (byte)56).put(11, (byte)0x07)
+      .putInt(16, 789000000)
+      .put(20, (byte)fixType).put(21, (byte)flags).put(23, (byte)14)
+      .putInt(24, -1397654321).putInt(28, 356123456)
+      .putInt(32, 51230).putInt(36, 12340).putInt(40, 2500)
+      .putInt(60, 13400).putInt(64, 27050000).putShort(76, (short)185);
+    return b;
+  }
+
+  @Test
+  public void decodesNavPvt(){
+    byte[] frame = frame(UbxDecoder.NAV_PVT, navPvt(3, 0x01));
+    assertEquals(UbxDecoder.NAV_PVT, decode(frame));
+    assertTrue(decoder.isFixed());
+    long time = GnssTime.toMillis(2014, 6, 15, 12, 34, 56789);
+    assertEquals(time, decoder.getFixTime());
+    assertEquals(time, status.getFixTimestamp());
+    assertEquals(time % 86400000L, UbxDecoder.getUtcMillis(frame, 0, frame.length));
+    assertEquals(35.6123456, status.getLatitude(), E);
+    assertEquals(-139.7654321, status.getLongitude(), E);
+    assertEquals(12.34, status.getAltitude(), E);
+    assertEquals(51.23 - 12.34, status.getHeight(), E);
+    assertEquals(2.5f, status.getAccuracy(), E);
+    assertEquals(13.4f, status.getSpeed(), E);
+    assertEquals(270.5, status.getBearing(), 1e-4);
+    assertEquals(1.85, status.getPDOP(), 1e-6);
+    assertEquals(14, status.getNbSat());
+    assertEquals(3, status.getFixMode());
+    assertEquals(1, status.getQuality());
+    assertEquals("A", status.getMode());
+    assertEquals(1, decoder.getMessageCount());
+  }
+
+  @Test
+  public void decodesShorterNavPvtOfUblox7(){
+    ByteBuffer b = payload(84);
+    b.put(navPvt(2, 0x01).array(), 0, 84);
+    assertEquals(UbxDecoder.NAV_PVT, decode(frame(UbxDecoder.NAV_PVT, b)));
+    assertEquals(2, status.getFixMode());
+  }
+
+  @Test
+  public void decodesFixQuality(){
+    decode(frame(UbxDecoder.NAV_PVT, navPvt(3, 0x01 | 0x02)));
+    assertEquals(2, status.getQuality());
+    assertEquals("D", status.getMode());
+    decode(frame(UbxDecoder.NAV_PVT, navPvt(3, 0x01 | 0x80)));
+    assertEquals(4, status.getQuality());
+    decode(frame(UbxDecoder.NAV_PVT, navPvt(3, 0x01 | 0x40)));
+    assertEquals(5, status.getQuality());
+    decode(frame(UbxDecoder.NAV_PVT, navPvt(4, 0x01)));
+    assertEquals(6, status.getQuality());
+    assertEquals("E", status.getMode());
+  }
+
+  @Test
+  public void keepsTimeWithoutFix(){
+    // fix not OK
+    decode(frame(UbxDecoder.NAV_PVT, navPvt(3, 0)));
+    assertFalse(decoder.isFixed());
+    assertEquals(GnssTime.toMillis(2014, 6, 15, 12, 34, 56789), status.getTimestamp());
+    assertEquals(1, status.getFixMode());
+    assertEquals(0, status.getQuality());
+    assertEquals("N", status.getMode());
+    // dead reckoning only
+    decode(frame(UbxDecoder.NAV_PVT, navPvt(1, 0x01)));
+    assertFalse(decoder.isFixed());
+    assertEquals("E", status.getMode());
+    // time not known yet
+    ByteBuffer b = navPvt(0, 0);
+    b.put(11, (byte)0);
+    byte[] frame = frame(UbxDecoder.NAV_PVT, b);
+    decode(frame);
+    assertEquals(0, decoder.getFixTime());
+    assertEquals(-1, UbxDecoder.getUtcMillis(frame, 0, frame.length));
+  }
+
+  private static void satellite(ByteBuffer b, int i, int gnssId, int svId, int cno, int elev, int azim, int flags){
+    int q = 8 + i * 12;
+    b.put(q, (byte)gnssId).put(q+1, (byte)svId).put(q+2, (byte)cno).put(q+3, (byte)elev)
+      .putShort(q+4, (short)azim).putInt(q+8, flags);
+  }
+
+  @Test
+  public void decodesNavSat(){
+    ByteBuffer b = payload(8 + 5 * 12);
+    b.put(4, (byte)1).put(5, (byte)5);
+    satellite(b, 0, 0, 12, 42, 45, 270, 0x08);
+    satellite(b, 1, 6, 3, 35, -2, 90, 0);
+    satellite(b, 2, 3, 7, 30, 60, 180, 0x08);
+    // IMES has no satellite number: skipped
+    satellite(b, 3, 4, 1, 20, 10, 10, 0x08);
+    satellite(b, 4, 5, 1, 25, 70, 0, 0);
+    assertEquals(UbxDecoder.NAV_SAT, decode(frame(UbxDecoder.NAV_SAT, b)));
+    assertEquals(4, status.getNumSatellites());
+    assertEquals(4, status.getSatellitesCount());
+    GnssSatellite gps = status.getSatellite(12);
+    assertEquals("GP", gps.getSystemPrefix());
+    assertEquals(42f, gps.getSnr(), E);
+    assertEquals(45f, gps.getElevation(), E);
+    assertEquals(270f, gps.getAzimuth(), E);
+    GnssSatellite glonass = status.getSatellite(67);
+    assertEquals("GL", glonass.getSystemPrefix());
+    // signed: below the horizon, which the satellite takes as 0, not 90
+    assertEquals(0f, glonass.getElevation(), E);
+    assertEquals("BD", status.getSatellite(207).getSystemPrefix());
+    assertEquals("QZ", status.getSatellite(193).getSystemPrefix());
+    assertEquals(Arrays.asList(12, 207), status.getTrackedSatellites());
+
+    // a shorter list evicts the others
+    b.put(5, (byte)1);
+    decode(frame(UbxDecoder.NAV_SAT, b));
+    assertEquals(1, status.getSatellitesCount());
+    assertNull(status.getSatellite(67));
+    assertEquals(Arrays.asList(12), status.getTrackedSatellites());
+  }
+
+  @Test
+  public void ignoresOtherAndShortMessages(){
+    assertEquals(-1, decode(frame(0x0501, payload(2))));
+    byte[] frame = frame(UbxDecoder.NAV_PVT, payload(83));
+    assertEquals(-1, decode(frame));
+    assertEquals(-1, UbxDecoder.getUtcMillis(frame, 0, frame.length));
+    assertEquals(-1, decode(frame(UbxDecoder.NAV_SAT, payload(7))));
+    assertEquals(0, decoder.getMessageCount());
+  }
+}
@@ -24,13 +24,8 @@
  */
 package org.da_cha.android.bluegnss;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 
 import android.app.Notification;
 import android.app.PendingIntent;
@@ -39,7 +34,6 @@ import android.bluetooth.BluetoothAdapter;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.location.GpsStatus.NmeaListener;
 import android.location.GpsStatus.Listener;
 import android.os.Bundle;
 import android.os.IBinder;
@@ -51,10 +45,17 @@ import android.widget.Toast;
 
 import org.da_cha.android.bluegnss.MainActivity;
 import org.da_cha.android.bluegnss.bluetooth.BluetoothGnssManager;
-import org.da_cha.android.bluegnss.GnssStatus;
+import org.da_cha.android.bluegnss.bluetooth.OverflowPolicy;
+import org.da_cha.android.bluegnss.GnssSnapshot;
 import org.da_cha.android.bluegnss.provider.MockLocationProvider;
+import org.da_cha.android.bluegnss.tracker.TrackRecorder;
+import org.da_cha.android.bluegnss.transport.BluetoothTransport;
+import org.da_cha.android.bluegnss.transport.GnssTransport;
+import org.da_cha.android.bluegnss.transport.GnssTransports;
+import org.da_cha.android.bluegnss.util.nmea.DataDemand;
 import org.da_cha.android.bluegnss.util.nmea.NmeaParser;
 import org.da_cha.android.bluegnss.util.sirf.SirfCommander;
+import org.da_cha.android.bluegnss.util.sirf.SirfRateController;
 import org.da_cha.android.bluegnss.R;
 
 /**
@@ -64,7 +65,7 @@ import org.da_cha.android.bluegnss.R;
  * @author Herbert von Broeuschmeul
  *
  */
-public class GnssProviderService extends Service implements NmeaListener, Listener {
+public class GnssProviderService extends Service implements Listener {
 
     public static final String ACTION_START_TRACK_RECORDING = "org.da_cha.android.bluegnss.tracker.intent.action.START_TRACK_RECORDING";
     public static final String ACTION_STOP_TRACK_RECORDING = "org.da_cha.android.bluegnss.tracker.intent.action.STOP_TRACK_RECORDING";
@@ -74,10 +75,16 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
     public static final String PREF_GPS_LOCATION_PROVIDER = "gpsLocationProviderKey";
     public static final String PREF_FORCE_ENABLE_PROVIDER = "forceEnableProvider";
     public static final String PREF_CONNECTION_RETRIES = "connectionRetries";
+    public static final String PREF_STALL_EPOCHS = "stallEpochs";
     public static final String PREF_SIRF_GPS = "sirfGps";
     public static final String PREF_TRACK_FILE_DIR = "trackFileDirectory";
     public static final String PREF_TRACK_FILE_PREFIX = "trackFilePrefix";
+    public static final String PREF_TRACK_SYNC_INTERVAL = "trackSyncInterval";
+    public static final String PREF_TRACK_ROTATE_SIZE = "trackRotateSize";
+    public static final String PREF_TRACK_ROTATE_TIME = "trackRotateTime";
+    public static final String PREF_TRACK_COMPRESSED = "trackCompressed";
     public static final String PREF_BLUETOOTH_DEVICE = "bluetoothDevice";
+    public static final String PREF_GNSS_TRANSPORT = "gnssTransport";
     public static final String PREF_ABOUT = "about";
     public static final String NOTIFY_UPDATE = "org.da_cha.android.bluegnss.provider.intent.notify.UPDATE";
     public static final String NOTIFY_UPDATE_GPS_STATUS = "org.da_cha.android.bluegnss.provider.intent.notify.UPDATE_GPS_STATUS";
@@ -96,15 +103,21 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
      * Tag used for log messages
      */
     private static final String LOG_TAG = "BlueGNSS";
+    /**
+     * Longest time to wait for the track file to be written on stop, in ms.
+     */
+    private static final long TRACK_CLOSE_TIMEOUT = 2000;
 
     private BluetoothGnssManager gpsManager = null;
     private MockLocationProvider gpsMockProvider = null;
-    private PrintWriter writer;
-    private File trackFile;
-    private boolean preludeWritten = false;
+    private TrackRecorder trackRecorder;
     private Toast toast;
     private static boolean isRunning = false;
     private NmeaParser nmeaParser;
+    // kinds of data needed by the provider, the recorder and visible screens
+    private final DataDemand dataDemand = new DataDemand();
+    // SiRF NMEA output rates following the data needed
+    private SirfRateController sirfRateController;
 
     private static PowerManager.WakeLock wl;
     private static boolean isWakeLocked=false;
@@ -131,7 +144,9 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
     public int onStartCommand(Intent intent, int flags, int startId) {
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
         String deviceAddress = sharedPreferences.getString(PREF_BLUETOOTH_DEVICE, null);
+        String transportUri = sharedPreferences.getString(PREF_GNSS_TRANSPORT, "");
         int maxConRetries = Integer.parseInt(sharedPreferences.getString(PREF_CONNECTION_RETRIES, this.getString(R.string.defaultConnectionRetries)));
+        int stallEpochs = Integer.parseInt(sharedPreferences.getString(PREF_STALL_EPOCHS, this.getString(R.string.defaultStallEpochs)));
         Log.d(LOG_TAG, "prefs device addr: "+deviceAddress);
         String action;
         if (intent != null){
@@ -144,11 +159,23 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
         }
         if (ACTION_START_GPS_PROVIDER.equals(action)) {
             if (gpsManager == null){
-                if (BluetoothAdapter.checkBluetoothAddress(deviceAddress)){
+                GnssTransport transport = null;
+                if (transportUri.length() > 0){
+                    // receiver not on Bluetooth, ex. TCP
+                    try {
+                        transport = GnssTransports.create(transportUri);
+                    } catch (IllegalArgumentException e) {
+                        Log.e(LOG_TAG, "Bad GNSS transport: "+transportUri, e);
+                    }
+                } else if (BluetoothAdapter.checkBluetoothAddress(deviceAddress)){
+                    transport = new BluetoothTransport(deviceAddress);
+                }
+                if (transport != null){
                 /*
                  * Instanciate btgps manager, mock provider and nmea parser
                  */
-                    gpsManager = new BluetoothGnssManager(this, deviceAddress, maxConRetries);
+                    gpsManager = new BluetoothGnssManager(this, transport, maxConRetries);
+                    gpsManager.setStallEpochs(stallEpochs);
                     gpsMockProvider = new MockLocationProvider(this);
                     /*
                      * Use the result of
@@ -184,6 +211,8 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
                     gpsManager.setGpsMockProvider(gpsMockProvider);
                     gpsManager.setNMEAParser(nmeaParser);
                     nmeaParser.setGpsMockProvider(gpsMockProvider);
+                    nmeaParser.setDataDemand(dataDemand);
+                    dataDemand.request(gpsMockProvider, DataDemand.POSITION);
 
                     // now ready to enable it.
                     boolean enabled = gpsManager.enable();
@@ -193,7 +222,8 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
                         wlacquire();
                         boolean force = sharedPreferences.getBoolean(PREF_FORCE_ENABLE_PROVIDER, false);
                         gpsMockProvider.enableMockLocationProvider(force);
-                        gpsManager.addGpsStatusListener(this);
+                        // only the current status is displayed
+                        gpsManager.addGpsStatusListener(this, 1, OverflowPolicy.COALESCE_LATEST);
                         Intent myIntent = new Intent(this, MainActivity.class);
                         PendingIntent myPendingIntent = PendingIntent.getActivity(this, 0, myIntent, PendingIntent.FLAG_CANCEL_CURRENT);
                         Context appContext = getApplicationContext();
@@ -208,6 +238,9 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
                         if (sharedPreferences.getBoolean(PREF_SIRF_GPS, false)){
                             SirfCommander sirfCommander = new SirfCommander(gpsManager, this);
                             sirfCommander.enableSirfConfig(sharedPreferences);
+                            if (sharedPreferences.getBoolean(SirfCommander.PREF_SIRF_ADAPTIVE_RATES, true)){
+                                beginRateControl(sirfCommander, sharedPreferences);
+                            }
                         }                   
                         toast.setText(this.getString(R.string.msg_gps_provider_started));
                         toast.show();   
@@ -224,10 +257,10 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
                 toast.show();
             }
         } else if (ACTION_START_TRACK_RECORDING.equals(action)){
-            if (trackFile == null){
-                if (gpsManager != null){
-                    beginTrack();
-                    gpsManager.addNmeaListener(this);
+            if (trackRecorder == null){
+                if (gpsManager != null && beginTrack()){
+                    gpsManager.addNmeaBatchListener(trackRecorder);
+                    dataDemand.request(trackRecorder, DataDemand.RAW);
                     toast.setText(this.getString(R.string.msg_nmea_recording_started));
                     toast.show();
                 } else {
@@ -239,7 +272,6 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
             }
         } else if (ACTION_STOP_TRACK_RECORDING.equals(action)){
             if (gpsManager != null){
-                gpsManager.removeNmeaListener(this);
                 endTrack();
                 toast.setText(this.getString(R.string.msg_nmea_recording_stopped));
                 toast.show();
@@ -254,6 +286,16 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
                 Bundle extras = intent.getExtras();
                 SirfCommander sirfCommander = new SirfCommander(gpsManager, this);
                 sirfCommander.enableSirfConfig(extras);
+                if (extras.containsKey(SirfCommander.PREF_SIRF_ADAPTIVE_RATES)){
+                    if (extras.getBoolean(SirfCommander.PREF_SIRF_ADAPTIVE_RATES, true)
+                            && sharedPreferences.getBoolean(PREF_SIRF_GPS, false)){
+                        beginRateControl(sirfCommander, sharedPreferences);
+                    } else {
+                        endRateControl(true);
+                    }
+                } else if (sirfRateController != null){
+                    sirfRateController.configured();
+                }
             }
         }
         return Service.START_STICKY;
@@ -284,50 +326,72 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
                 toast.setText(R.string.msg_gps_provider_stopped);
                 toast.show();
             }
-            manager.removeNmeaListener(this);
+            if (trackRecorder != null){
+                manager.removeNmeaBatchListener(trackRecorder);
+            }
             gpsMockProvider.disableMockLocationProvider();
             manager.disable();
         }
         endTrack();
+        endRateControl(false);
         isRunning = false;
         super.onDestroy();
     }
 
-    private void beginTrack(){
-        SimpleDateFormat fmt = new SimpleDateFormat("_yyyy-MM-dd_HH-mm-ss'.nmea'");
+    private boolean beginTrack(){
         SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(this);
         String trackDirName = sharedPreferences.getString(PREF_TRACK_FILE_DIR, this.getString(R.string.defaultTrackFileDirectory));
         String trackFilePrefix = sharedPreferences.getString(PREF_TRACK_FILE_PREFIX, this.getString(R.string.defaultTrackFilePrefix));
-        trackFile = new File(trackDirName,trackFilePrefix+fmt.format(new Date()));
-        Log.d(LOG_TAG, "Writing the prelude of the NMEA file: "+trackFile.getAbsolutePath());
-        File trackDir = trackFile.getParentFile();
+        int syncInterval = Integer.parseInt(sharedPreferences.getString(PREF_TRACK_SYNC_INTERVAL, this.getString(R.string.defaultTrackSyncInterval)));
+        int rotateSize = Integer.parseInt(sharedPreferences.getString(PREF_TRACK_ROTATE_SIZE, this.getString(R.string.defaultTrackRotateSize)));
+        int rotateTime = Integer.parseInt(sharedPreferences.getString(PREF_TRACK_ROTATE_TIME, this.getString(R.string.defaultTrackRotateTime)));
+        boolean compressed = sharedPreferences.getBoolean(PREF_TRACK_COMPRESSED, false);
+        TrackRecorder recorder;
+        if (compressed){
+            recorder = new TrackRecorder(new File(trackDirName), trackFilePrefix,
+                    TrackRecorder.DEFAULT_COMMIT_SIZE, TrackRecorder.COMPRESSED_COMMIT_INTERVAL);
+            recorder.setCompressed(true);
+        } else {
+            recorder = new TrackRecorder(new File(trackDirName), trackFilePrefix);
+        }
+        // seconds, megabytes and hours in the preferences
+        recorder.setSyncInterval(syncInterval * 1000L);
+        recorder.setRotation(rotateSize * 1024L * 1024L, rotateTime * 3600000L);
         try {
-            if ((! trackDir.mkdirs()) && (! trackDir.isDirectory())){
-                Log.e(LOG_TAG, "Error while creating parent dir of NMEA file: "+trackDir.getAbsolutePath());
-            }
-            writer = new PrintWriter(new BufferedWriter(new FileWriter(trackFile)));
-            preludeWritten = true;
+            recorder.start();
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Error while writing the prelude of the NMEA file: "+trackFile.getAbsolutePath(), e);
-            // there was an error while writing the prelude of the NMEA file, stopping the service...
+            Log.e(LOG_TAG, "Error while creating the NMEA file in: "+trackDirName, e);
+            // there was an error while creating the NMEA file, stopping the service...
             stopSelf();
+            return false;
         }
+        trackRecorder = recorder;
+        return true;
     }
     private void endTrack(){
-        if (trackFile != null && writer != null){
-            Log.d(LOG_TAG, "Ending the NMEA file: "+trackFile.getAbsolutePath());
-            preludeWritten = false;
-            writer.close();
-            trackFile = null;
+        if (trackRecorder != null){
+            dataDemand.release(trackRecorder);
+            if (gpsManager != null){
+                gpsManager.removeNmeaBatchListener(trackRecorder);
+            }
+            trackRecorder.close(TRACK_CLOSE_TIMEOUT);
+            trackRecorder = null;
         }
     }
-    private void addNMEAString(String data){
-        if (! preludeWritten){
-            beginTrack();
+    private void beginRateControl(SirfCommander sirfCommander, SharedPreferences sharedPreferences){
+        if (sirfRateController == null){
+            sirfRateController = new SirfRateController(sirfCommander, sharedPreferences);
+            dataDemand.addListener(sirfRateController);
+            sirfRateController.start(dataDemand.getKinds());
         }
-        Log.v(LOG_TAG, "Adding data in the NMEA file: "+ data);
-        if (trackFile != null && writer != null){
-            writer.print(data);
+    }
+    private void endRateControl(boolean restore){
+        if (sirfRateController != null){
+            dataDemand.removeListener(sirfRateController);
+            if (restore){
+                sirfRateController.restore();
+            }
+            sirfRateController = null;
         }
     }
     public static boolean isRunning()
@@ -336,11 +400,28 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
     }
 
 
-    public GnssStatus getGnssStatus(){
+    /*
+     * Returns a snapshot of the last epoch, safe to read from the UI thread,
+     * to be released once read.
+     */
+    public GnssSnapshot acquireGnssStatus(){
         if (nmeaParser == null){
             return null;
         }
-        return nmeaParser.getGnssStatus();
+        return nmeaParser.acquireGnssStatus();
+    }
+
+    /*
+     * Declares the kinds of data of DataDemand a consumer, ex. a visible
+     * screen, needs until it releases them. Sentences carrying other
+     * data are not decoded.
+     */
+    public void requestData(Object consumer, int kinds){
+        dataDemand.request(consumer, kinds);
+    }
+
+    public void releaseData(Object consumer){
+        dataDemand.release(consumer);
     }
 
     public class GnssProviderServiceBinder extends Binder {
@@ -369,8 +450,9 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
     }
     private void sendGpsUpdate() {
         if (nmeaParser != null){
-            GnssStatus gnssStatus = nmeaParser.getGnssStatus();
+            GnssSnapshot gnssStatus = nmeaParser.acquireGnssStatus();
             long timestamp = gnssStatus.getTimestamp();
+            gnssStatus.release();
             Intent broadcastIntent = new Intent();
             broadcastIntent.putExtra("notification", NOTIFY_UPDATE_GPS_STATUS);
             broadcastIntent.putExtra("timestamp", timestamp);
@@ -383,10 +465,5 @@ public class GnssProviderService extends Service implements NmeaListener, Listen
     public void onGpsStatusChanged(int event){
         sendGpsUpdate();
     }
-
-    @Override
-    public void onNmeaReceived(long timestamp, String data) {
-        addNMEAString(data);
-    }
 }
 // vim: tabstop=4 expandtab shiftwidth=4 softtabstop=4
@@ -26,6 +26,7 @@ public class GnssSatellite {
   private int rpn;
 
   private enum SatelliteSystem {GPS, GLONASS, GALILEO, QZSS, IRNASS, BEIDOU, SBS, UNKNOWN}
+  private static final SatelliteSystem[] SYSTEMS = SatelliteSystem.values();
   private SatelliteSystem system;
 
   /*
@@ -59,9 +60,11 @@ public class GnssSatellite {
    *                                             7            L1-BC
    *                                             8-F          Reserved
    *
-   * BEIDOU  unknown(BD)
+   * BEIDOU  4 (GB, BD)      1-63, stored as 201-263
+   *
+   * IRNSS   6 (GI)          1-14
    * 
-   * QZSS     ? (QZ)         193                 unknown      unknown
+   * QZSS    5 (GQ, QZ)      1-10, stored as 193-202
    *
    */
 
@@ -70,25 +73,51 @@ public class GnssSatellite {
     setSystem(systemid);
   }
 
+  GnssSatellite(int systemIndex, int rpn){
+    this.rpn = rpn;
+    this.system = SYSTEMS[systemIndex];
+  }
+
   private void setSystem(String systemid){
+    this.system = toSystem(systemid);
+  }
+
+  private static SatelliteSystem toSystem(String systemid){
     if (systemid.equals("GP")){
-      this.system = SatelliteSystem.GPS;
+      return SatelliteSystem.GPS;
     } else if (systemid.equals("GL")){
-      this.system = SatelliteSystem.GLONASS;
+      return SatelliteSystem.GLONASS;
     } else if (systemid.equals("QZ")){
-      this.system = SatelliteSystem.QZSS;
+      return SatelliteSystem.QZSS;
     } else if (systemid.equals("GA")){
-      this.system = SatelliteSystem.GALILEO;
+      return SatelliteSystem.GALILEO;
     } else if (systemid.equals("SB")){
-      this.system = SatelliteSystem.SBS;
+      return SatelliteSystem.SBS;
     } else if (systemid.equals("BD")){
-      this.system = SatelliteSystem.BEIDOU;
+      return SatelliteSystem.BEIDOU;
+    } else if (systemid.equals("GI")){
+      return SatelliteSystem.IRNASS;
     } else {
       // unknown satellite
-      this.system = SatelliteSystem.UNKNOWN;
+      return SatelliteSystem.UNKNOWN;
     }
   }
 
+  /*
+   * Index of satellite system, used by GnssStatus to lay out its
+   * satellite table by constellation and PRN, and by parsers to resolve
+   * the system of a talker once instead of for every satellite.
+   */
+  static final int NUM_SYSTEMS = SYSTEMS.length;
+
+  public static int systemIndex(String systemid){
+    return toSystem(systemid).ordinal();
+  }
+
+  int getSystemIndex(){
+    return this.system.ordinal();
+  }
+
   public int getRpn(){
     return this.rpn;
   }
@@ -156,6 +185,8 @@ public class GnssSatellite {
             return "BD";
           case SBS:
             return "SB";
+          case IRNASS:
+            return "GI";
           default:
             return "UN";
         }
@@ -173,6 +204,8 @@ public class GnssSatellite {
             return "B";
           case SBS:
             return "S";
+          case IRNASS:
+            return "I";
           default:
             return "U";
         }
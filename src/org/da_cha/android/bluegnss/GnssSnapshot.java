@@ -0,0 +1,299 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.location.Location;
+
+/**
+ * Read-only view of a published epoch, taken from a GnssStatusPublisher.
+ *
+ * It has getters only; satellites are read by position, without
+ * allocating, or copied into a list for views. A snapshot is one of the
+ * two buffers of its publisher, and is filled again once released:
+ * release() it when done, and do not read it afterwards.
+ */
+public final class GnssSnapshot {
+
+  private static final int INITIAL_SATELLITES = 64;
+
+  final AtomicInteger readers = new AtomicInteger();
+
+  private long timestamp;
+  private long fixTimestamp;
+  private long ttff;
+  private float pdop;
+  private float hdop;
+  private float vdop;
+  private float precision;
+  private float accuracy;
+  private double latitude;
+  private double longitude;
+  private double altitude;
+  private double height;
+  private float speed;
+  private float bearing;
+  private int nbsat;
+  private int numSatellites;
+  private int fixMode;
+  private int quality;
+  private String mode;
+  private long clockDrift;
+  private long clockBias;
+
+  // satellites in view, grown only when more are in view than ever before
+  private int satelliteCount = 0;
+  private int[] systems = new int[INITIAL_SATELLITES];
+  private int[] rpns = new int[INITIAL_SATELLITES];
+  private float[] elevations = new float[INITIAL_SATELLITES];
+  private float[] azimuths = new float[INITIAL_SATELLITES];
+  private float[] snrs = new float[INITIAL_SATELLITES];
+  private int trackedCount = 0;
+  private int[] tracked = new int[INITIAL_SATELLITES];
+
+  GnssSnapshot(){
+  }
+
+  /*
+   * Copies the status, from the publishing thread, while no reader holds
+   * this snapshot.
+   */
+  void fill(GnssStatus status){
+    timestamp = status.getTimestamp();
+    fixTimestamp = status.getFixTimestamp();
+    ttff = status.getTTFF();
+    pdop = (float)status.getPDOP();
+    hdop = (float)status.getHDOP();
+    vdop = (float)status.getVDOP();
+    precision = status.getPrecision();
+    accuracy = status.getAccuracy();
+    latitude = status.getLatitude();
+    longitude = status.getLongitude();
+    altitude = status.getAltitude();
+    height = status.getHeight();
+    speed = status.getSpeed();
+    bearing = (float)status.getBearing();
+    nbsat = status.getNbSat();
+    numSatellites = status.getNumSatellites();
+    fixMode = status.getFixMode();
+    quality = status.getQuality();
+    mode = status.getMode();
+    clockDrift = status.getClockDrift();
+    clockBias = status.getClockBias();
+
+    int count = status.getSatellitesCount();
+    if (count > rpns.length){
+      int size = Math.max(count, rpns.length * 2);
+      systems = new int[size];
+      rpns = new int[size];
+      elevations = new float[size];
+      azimuths = new float[size];
+      snrs = new float[size];
+    }
+    for (int i = 0; i < count; i++){
+      GnssSatellite sat = status.getSatelliteAt(i);
+      systems[i] = sat.getSystemIndex();
+      rpns[i] = sat.getRpn();
+      elevations[i] = sat.getElevation();
+      azimuths[i] = sat.getAzimuth();
+      snrs[i] = sat.getSnr();
+    }
+    satelliteCount = count;
+
+    count = status.getTrackedSatellitesCount();
+    if (count > tracked.length){
+      tracked = new int[Math.max(count, tracked.length * 2)];
+    }
+    for (int i = 0; i < count; i++){
+      tracked[i] = status.getTrackedSatelliteAt(i);
+    }
+    trackedCount = count;
+  }
+
+  /**
+   * Gives the snapshot back to its publisher, once per acquire.
+   */
+  public void release(){
+    readers.decrementAndGet();
+  }
+
+  /**
+   * @return a new fix, as GnssStatus.getFixLocation().
+   */
+  public Location getFixLocation(){
+    return GnssStatus.newLocation(latitude, longitude, (accuracy > 0f) ? accuracy : hdop * precision,
+        fixTimestamp, altitude, nbsat, bearing, speed);
+  }
+
+  public long getTimestamp(){
+    return timestamp;
+  }
+
+  public long getFixTimestamp(){
+    return fixTimestamp;
+  }
+
+  public long getTTFF(){
+    return ttff;
+  }
+
+  public double getLatitude(){
+    return latitude;
+  }
+
+  public double getLongitude(){
+    return longitude;
+  }
+
+  public double getAltitude(){
+    return altitude;
+  }
+
+  public double getHeight(){
+    return height;
+  }
+
+  public float getPrecision(){
+    return precision;
+  }
+
+  public float getAccuracy(){
+    return accuracy;
+  }
+
+  public double getPDOP(){
+    return pdop;
+  }
+
+  public double getHDOP(){
+    return hdop;
+  }
+
+  public double getVDOP(){
+    return vdop;
+  }
+
+  public float getSpeed(){
+    return speed;
+  }
+
+  public double getBearing(){
+    return bearing;
+  }
+
+  public int getQuality(){
+    return quality;
+  }
+
+  public int getNbSat(){
+    return nbsat;
+  }
+
+  public String getMode(){
+    return mode;
+  }
+
+  public int getNumSatellites(){
+    return numSatellites;
+  }
+
+  public int getFixMode(){
+    return fixMode;
+  }
+
+  public long getClockDrift(){
+    return clockDrift;
+  }
+
+  public long getClockBias(){
+    return clockBias;
+  }
+
+  public int getSatellitesCount(){
+    return satelliteCount;
+  }
+
+  public int getSatelliteRpn(int index){
+    checkSatellite(index);
+    return rpns[index];
+  }
+
+  public float getSatelliteElevation(int index){
+    checkSatellite(index);
+    return elevations[index];
+  }
+
+  public float getSatelliteAzimuth(int index){
+    checkSatellite(index);
+    return azimuths[index];
+  }
+
+  public float getSatelliteSnr(int index){
+    checkSatellite(index);
+    return snrs[index];
+  }
+
+  /**
+   * @return new copies of the satellites in view, which the caller owns.
+   */
+  public ArrayList<GnssSatellite> getSatellitesList(){
+    ArrayList<GnssSatellite> list = new ArrayList<GnssSatellite>(satelliteCount);
+    for (int i = 0; i < satelliteCount; i++){
+      GnssSatellite sat = new GnssSatellite(systems[i], rpns[i]);
+      sat.setStatus(elevations[i], azimuths[i], snrs[i]);
+      list.add(sat);
+    }
+    return list;
+  }
+
+  public int getTrackedSatellitesCount(){
+    return trackedCount;
+  }
+
+  public int getTrackedSatelliteAt(int index){
+    if (index < 0 || index >= trackedCount){
+      throw new IndexOutOfBoundsException("tracked satellite "+index+" of "+trackedCount);
+    }
+    return tracked[index];
+  }
+
+  /**
+   * @return a copy of the PRN list of the satellites used in the fix.
+   */
+  public List<Integer> getTrackedSatellites(){
+    ArrayList<Integer> list = new ArrayList<Integer>(trackedCount);
+    for (int i = 0; i < trackedCount; i++){
+      list.add(tracked[i]);
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+  private void checkSatellite(int index){
+    if (index < 0 || index >= satelliteCount){
+      throw new IndexOutOfBoundsException("satellite "+index+" of "+satelliteCount);
+    }
+  }
+}
@@ -20,9 +20,10 @@
 package org.da_cha.android.bluegnss;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import android.os.Bundle;
 import android.os.SystemClock;
@@ -41,6 +42,8 @@ public class GnssStatus {
   private float HDOP;
   private float VDOP;
   private float precision;
+  // horizontal accuracy estimated by the receiver in m, 0 when unknown
+  private float accuracy;
   private double latitude;
   private double longitude;
   private double altitude;
@@ -66,6 +69,9 @@ public class GnssStatus {
   // for NMEA 0183 version 3.00 active the Mode indicator field is added
   // Mode indicator, (A=autonomous, D=differential, E=Estimated, N=not valid, S=Simulator )
   private String mode;
+  // receiver clock, from SiRF binary clock status: drift in Hz, bias in ns
+  private long clockDrift;
+  private long clockBias;
 
 
   /******************************************************************************
@@ -74,45 +80,206 @@ public class GnssStatus {
    * satellites PRN list in fix
    *
    */
-  private HashMap<Integer, GnssSatellite> gnssSatellitesList = new HashMap<Integer, GnssSatellite>();
+  /*
+   * Satellites in view are kept in a fixed table indexed by satellite
+   * system and PRN, so an update is an array access and a GnssSatellite is
+   * created only the first time a satellite is seen, then updated in place.
+   *
+   * Each entry is stamped with the sky view epoch it was last reported in,
+   * and entries left behind by an epoch are evicted when it ends.
+   * An epoch may cover the satellites of one source only, ex. one GSV
+   * talker, and then only evicts the satellites that source reported.
+   * Slots in view are also listed densely in liveSlots for iteration;
+   * livePosition holds their position there plus one, 0 when not in view.
+   */
+  // BeiDou is numbered up to 263
+  private static final int MAX_PRN = 264;
+  private static final int TABLE_SIZE = GnssSatellite.NUM_SYSTEMS * MAX_PRN;
+
+  private final GnssSatellite[] satellites;
+  private final int[] satelliteEpoch;
+  private final int[] satelliteSource;
+  private final int[] livePosition;
+  private final int[] liveSlots;
+  private int liveCount = 0;
+  private int skyEpoch = 0;
+  private int skySource = ALL_SOURCES;
+
+  /**
+   * Source of sky view epochs covering all satellites.
+   */
+  public static final int ALL_SOURCES = -1;
+
+  public GnssStatus(){
+    satellites = new GnssSatellite[TABLE_SIZE];
+    satelliteEpoch = new int[TABLE_SIZE];
+    satelliteSource = new int[TABLE_SIZE];
+    livePosition = new int[TABLE_SIZE];
+    liveSlots = new int[TABLE_SIZE];
+  }
+
+  private static int slot(int system, int rpn){
+    if (rpn < 0 || rpn >= MAX_PRN){
+      return -1;
+    }
+    return system * MAX_PRN + rpn;
+  }
+
+  private void stamp(int slot){
+    satelliteEpoch[slot] = skyEpoch;
+    satelliteSource[slot] = skySource;
+    if (livePosition[slot] == 0){
+      liveSlots[liveCount++] = slot;
+      livePosition[slot] = liveCount;
+    }
+  }
+
+  private void removeSlot(int slot){
+    int pos = livePosition[slot] - 1;
+    int last = liveSlots[--liveCount];
+    liveSlots[pos] = last;
+    livePosition[last] = pos + 1;
+    livePosition[slot] = 0;
+  }
+
+  private int findSlot(int rpn){
+    for (int i = 0; i < liveCount; i++){
+      if (satellites[liveSlots[i]].isRpn(rpn)){
+        return liveSlots[i];
+      }
+    }
+    return -1;
+  }
 
   // satallite list
   // accessor
   public void addSatellite(GnssSatellite sat){
-    gnssSatellitesList.put(sat.getRpn(), sat);
+    int slot = slot(sat.getSystemIndex(), sat.getRpn());
+    if (slot >= 0){
+      satellites[slot] = sat;
+      stamp(slot);
+    }
   }
-  // clear list at all
-  public void clearSatellitesList(){
-    gnssSatellitesList.clear();
+  /*
+   * Updates satellite in place, creating it on first sight.
+   *
+   * @return updated satellite, or null when rpn is out of range.
+   */
+  public GnssSatellite updateSatellite(String systemid, int rpn, float elevation, float azimuth, float snr){
+    return updateSatellite(GnssSatellite.systemIndex(systemid), rpn, elevation, azimuth, snr);
   }
-  // clear list except for ones in activeList
-  public void clearSatellitesList(ArrayList<Integer> activeList){
-    ArrayList<Integer> currentRpnList = new ArrayList<Integer>();
-    for (Integer rpn: gnssSatellitesList.keySet()){
-      currentRpnList.add(rpn);
+  /*
+   * Same as above, with the system index of GnssSatellite.systemIndex().
+   */
+  public GnssSatellite updateSatellite(int system, int rpn, float elevation, float azimuth, float snr){
+    int slot = slot(system, rpn);
+    if (slot < 0){
+      return null;
     }
-    for (Integer i : currentRpnList){
-      if (!activeList.contains(i)) {
-        removeSatellite(i);
+    GnssSatellite sat = satellites[slot];
+    if (sat == null){
+      sat = new GnssSatellite(system, rpn);
+      satellites[slot] = sat;
+    }
+    sat.setStatus(elevation, azimuth, snr);
+    stamp(slot);
+    return sat;
+  }
+  // start a new sky view; satellites not updated until its end are evicted
+  public void beginSatellitesEpoch(){
+    beginSatellitesEpoch(ALL_SOURCES);
+  }
+  // start a new sky view of a source; only its satellites may be evicted
+  public void beginSatellitesEpoch(int source){
+    skyEpoch++;
+    skySource = source;
+  }
+  // evict satellites not reported since beginSatellitesEpoch()
+  public void evictStaleSatellites(){
+    // backward, as removal moves the last slot into the removed position
+    for (int i = liveCount - 1; i >= 0; i--){
+      int slot = liveSlots[i];
+      if (satelliteEpoch[slot] != skyEpoch
+          && (skySource == ALL_SOURCES || satelliteSource[slot] == skySource)){
+        removeSlot(slot);
       }
     }
   }
+  // clear list at all
+  public void clearSatellitesList(){
+    for (int i = 0; i < liveCount; i++){
+      livePosition[liveSlots[i]] = 0;
+    }
+    liveCount = 0;
+  }
 
   // remove sat data, return cleared satellite
   public GnssSatellite removeSatellite(int rpn){
-    return gnssSatellitesList.remove(rpn);
+    int slot = findSlot(rpn);
+    if (slot < 0){
+      return null;
+    }
+    removeSlot(slot);
+    return satellites[slot];
   }
   // get sat data with index
   public GnssSatellite getSatellite(int rpn){
-    return gnssSatellitesList.get(rpn);
+    int slot = findSlot(rpn);
+    return (slot < 0) ? null : satellites[slot];
+  }
+  public int getSatellitesCount(){
+    return liveCount;
+  }
+  // get sat data by position, 0 to getSatellitesCount()-1, without allocating
+  public GnssSatellite getSatelliteAt(int index){
+    if (index < 0 || index >= liveCount){
+      throw new IndexOutOfBoundsException("satellite "+index+" of "+liveCount);
+    }
+    return satellites[liveSlots[index]];
   }
   // get iterator
-  public Iterator<Entry<Integer, GnssSatellite>> getSatellitesIter(){
-    return gnssSatellitesList.entrySet().iterator();
+  public Iterator<GnssSatellite> getSatellitesIter(){
+    return new SatelliteIterator();
   }
   // get list of satellites
   public ArrayList<GnssSatellite> getSatellitesList(){
-    return new ArrayList<GnssSatellite>(gnssSatellitesList.values());
+    ArrayList<GnssSatellite> list = new ArrayList<GnssSatellite>(liveCount);
+    for (int i = 0; i < liveCount; i++){
+      list.add(satellites[liveSlots[i]]);
+    }
+    return list;
+  }
+
+  /*
+   * Iterator view over satellites in view; remove() evicts the satellite
+   * returned last.
+   */
+  private class SatelliteIterator implements Iterator<GnssSatellite> {
+    private int cursor = 0;
+    private int current = -1;
+
+    @Override
+    public boolean hasNext(){
+      return cursor < liveCount;
+    }
+    @Override
+    public GnssSatellite next(){
+      if (cursor >= liveCount){
+        throw new NoSuchElementException();
+      }
+      current = liveSlots[cursor++];
+      return satellites[current];
+    }
+    @Override
+    public void remove(){
+      if (current < 0){
+        throw new IllegalStateException();
+      }
+      removeSlot(current);
+      // the last slot has been moved where current was
+      cursor--;
+      current = -1;
+    }
   }
 
 
@@ -134,8 +301,19 @@ public class GnssStatus {
       satellitesPrnListInFix.add(rpn);
   }
 
-  public ArrayList<Integer> getTrackedSatellites() {
-      return satellitesPrnListInFix;
+  /*
+   * @return a copy of the PRN list, which does not change afterwards.
+   */
+  public List<Integer> getTrackedSatellites() {
+      return Collections.unmodifiableList(new ArrayList<Integer>(satellitesPrnListInFix));
+  }
+
+  // without a copy, to fill a GnssSnapshot
+  int getTrackedSatellitesCount(){
+      return satellitesPrnListInFix.size();
+  }
+  int getTrackedSatelliteAt(int index){
+      return satellitesPrnListInFix.get(index);
   }
 
   public void clearTrackedSatellites(){
@@ -194,6 +372,7 @@ public class GnssStatus {
     startTimestamp = 0;
 	  fixTimestamp = 0;
     precision = 10f;
+    accuracy = 0f;
     PDOP = 0f;
     HDOP = 0f;
     VDOP = 0f;
@@ -208,6 +387,8 @@ public class GnssStatus {
     fixMode = 0;
     quality = 0;
     mode = "N";
+    clockDrift = 0;
+    clockBias = 0;
   }
 
   /**********************************************************************
@@ -215,20 +396,27 @@ public class GnssStatus {
    * @return Location fix
    */
   public Location getFixLocation(){
+    return newLocation(latitude, longitude, (accuracy > 0f) ? accuracy : HDOP*precision,
+        fixTimestamp, altitude, nbsat, angle, speed);
+  }
+
+  // also builds the fix of a GnssSnapshot
+  static Location newLocation(double latitude, double longitude, float accuracy,
+      long time, double altitude, int nbsat, float bearing, float speed){
     Location fix = new Location(LocationManager.GPS_PROVIDER);
 
     if (android.os.Build.VERSION.SDK_INT >= 17)
         fix.setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos());
 
-    fix.setLatitude(this.latitude);
-    fix.setLongitude(this.longitude);
-    fix.setAccuracy(this.HDOP*this.precision);
-    fix.setTime(this.fixTimestamp);
-    fix.setAltitude(this.altitude);
+    fix.setLatitude(latitude);
+    fix.setLongitude(longitude);
+    fix.setAccuracy(accuracy);
+    fix.setTime(time);
+    fix.setAltitude(altitude);
     Bundle extras = new Bundle();
-    extras.putInt("satellites", this.nbsat);
+    extras.putInt("satellites", nbsat);
     fix.setExtras(extras);
-    fix.setBearing(angle);
+    fix.setBearing(bearing);
     fix.setSpeed(speed);
 
     return fix;
@@ -264,6 +452,12 @@ public class GnssStatus {
   public void setPrecision(float p){
     this.precision = p;
   }
+  public float getAccuracy(){
+    return this.accuracy;
+  }
+  public void setAccuracy(float accuracy){
+    this.accuracy = accuracy;
+  }
   public double getPDOP(){
     return this.PDOP;
   }
@@ -334,6 +528,19 @@ public class GnssStatus {
   public void setFixMode(int mode){
     this.fixMode = mode;
   }
+  // receiver clock
+  public long getClockDrift(){
+    return this.clockDrift;
+  }
+  public void setClockDrift(long drift){
+    this.clockDrift = drift;
+  }
+  public long getClockBias(){
+    return this.clockBias;
+  }
+  public void setClockBias(long bias){
+    this.clockBias = bias;
+  }
 
 }
 // vim: tabstop=4 expandtab shiftwidth=4 softtabstop=4
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss;
+
+/**
+ * Publishes the epochs assembled in a GnssStatus to other threads, ex.
+ * the UI, without allocating.
+ *
+ * There are two GnssSnapshot buffers: readers acquire the published one,
+ * and the publisher fills the other one, then publishes it with a single
+ * volatile write. Each buffer counts its readers; the publisher only fills
+ * a buffer nobody holds. A reader takes a snapshot by incrementing its
+ * count, then checks that it is still the published one, so that a
+ * buffer being filled is never read.
+ *
+ * A reader holding a snapshot for more than an epoch delays the following
+ * ones: they are skipped, and the next epoch after its release is
+ * published.
+ */
+public class GnssStatusPublisher {
+
+  private final GnssSnapshot first = new GnssSnapshot();
+  private final GnssSnapshot second = new GnssSnapshot();
+  private volatile GnssSnapshot published;
+  private volatile long skipped = 0;
+
+  /**
+   * @param initial  status published until the first epoch
+   */
+  public GnssStatusPublisher(GnssStatus initial){
+    first.fill(initial);
+    published = first;
+  }
+
+  /**
+   * Publishes a copy of the status, from the thread assembling it.
+   *
+   * @return false if the epoch was skipped, the other buffer being held.
+   */
+  public boolean publish(GnssStatus status){
+    GnssSnapshot spare = (published == first) ? second : first;
+    if (spare.readers.get() != 0){
+      skipped++;
+      return false;
+    }
+    spare.fill(status);
+    published = spare;
+    return true;
+  }
+
+  /**
+   * Takes the last published epoch, from any thread, to be released once read.
+   */
+  public GnssSnapshot acquire(){
+    while (true){
+      GnssSnapshot snapshot = published;
+      snapshot.readers.incrementAndGet();
+      if (snapshot == published){
+        return snapshot;
+      }
+      // republished meanwhile: the buffer may be being filled
+      snapshot.release();
+    }
+  }
+
+  /**
+   * @return number of epochs not published because a reader held the spare buffer.
+   */
+  public long getSkippedCount(){
+    return skipped;
+  }
+}
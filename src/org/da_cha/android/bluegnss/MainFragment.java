@@ -21,11 +21,11 @@
 package org.da_cha.android.bluegnss;
 
 import org.da_cha.android.bluegnss.GnssProviderService;
-import org.da_cha.android.bluegnss.GnssStatus;
+import org.da_cha.android.bluegnss.GnssSnapshot;
 import org.da_cha.android.bluegnss.R;
+import org.da_cha.android.bluegnss.util.nmea.DataDemand;
 
 import java.text.NumberFormat;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
@@ -104,6 +104,9 @@ public class MainFragment extends Fragment {
     }
     private void doUnbindService() {
         if (mIsBound) {
+            if (mService != null){
+                mService.releaseData(this);
+            }
             getActivity().unbindService(mConnection);
             mIsBound = false;
         }
@@ -297,8 +300,14 @@ public class MainFragment extends Fragment {
     private ServiceConnection mConnection = new ServiceConnection() {
         public void onServiceConnected(ComponentName className, IBinder service) {
             mService = (GnssProviderService)((GnssProviderService.GnssProviderServiceBinder)service).getService();
+            // position, DOP and satellites counts are displayed
+            mService.requestData(MainFragment.this, DataDemand.POSITION | DataDemand.DOP | DataDemand.SKY_VIEW);
         }
         public void onServiceDisconnected(ComponentName className) {
+            // doUnbindService() can not release the request once mService is null
+            if (mService != null){
+                mService.releaseData(MainFragment.this);
+            }
             mService = null;
         }
     };
@@ -306,18 +315,27 @@ public class MainFragment extends Fragment {
      * for reciever
      */
      private class GnssUpdateReceiver extends BroadcastReceiver {
-        private GnssStatus status;
+        private GnssSnapshot status;
         @Override
         public void onReceive(Context context, Intent intent) {
             Bundle bundle = intent.getExtras();
             String message = bundle.getString("notification");
             if (GnssProviderService.NOTIFY_UPDATE_GPS_STATUS.equals(message)){
-               status = mService.getGnssStatus();
-               long fix = status.getFixTimestamp();
-               if (fix != 0) {
-                   update_view(bundle);
-               } else {
-                   update_view_nonfix(bundle);
+               status = mService.acquireGnssStatus();
+               if (status == null){
+                   return;
+               }
+               try {
+                   long fix = status.getFixTimestamp();
+                   if (fix != 0) {
+                       update_view(bundle);
+                   } else {
+                       update_view_nonfix(bundle);
+                   }
+               } finally {
+                   // the snapshot is filled again once released
+                   status.release();
+                   status = null;
                }
             } else if (GnssProviderService.NOTIFY_DISCONNECT.equals(message)){
                stopProviderService();
@@ -360,7 +378,7 @@ public class MainFragment extends Fragment {
             int numSat = status.getNumSatellites();
             tv = (TextView) myView.findViewById(R.id.main_num_satellites);
             tv.setText(Integer.toString(numNbSat)+"/"+Integer.toString(numSat));
-            ArrayList<Integer> satList = status.getTrackedSatellites();
+            List<Integer> satList = status.getTrackedSatellites();
             tv = (TextView) myView.findViewById(R.id.main_used_satellites);
             tv.setText(getCSV(satList));
        }
@@ -381,7 +399,7 @@ public class MainFragment extends Fragment {
         }
     }
 
-    public static String getCSV(ArrayList<Integer> integers){
+    public static String getCSV(List<Integer> integers){
         String ret = "";
         Iterator<Integer> iterator = integers.iterator();
         for (int i = 0; i < integers.size(); i++)
@@ -167,6 +167,14 @@ public class SettingActivity extends PreferenceActivity implements OnPreferenceC
         } else {
             Log.e(LOG_TAG, "preference state is wrong!");
         }
+        // update missed epochs before a stall
+        pref = (Preference)findPreferenceActivity(GnssProviderService.PREF_STALL_EPOCHS);
+        String stallEpochs = sharedPref.getString(GnssProviderService.PREF_STALL_EPOCHS, getString(R.string.defaultStallEpochs));
+        if (pref != null){
+            pref.setSummary(getString(R.string.pref_stall_epochs_summary,stallEpochs));
+        } else {
+            Log.e(LOG_TAG, "preference state is wrong!");
+        }
         this.onContentChanged();
     }
     
@@ -195,7 +203,8 @@ public class SettingActivity extends PreferenceActivity implements OnPreferenceC
         || SirfCommander.PREF_SIRF_ENABLE_ZDA.equals(key)
         || SirfCommander.PREF_SIRF_ENABLE_SBAS.equals(key)
         || SirfCommander.PREF_SIRF_ENABLE_NMEA.equals(key)
-        || SirfCommander.PREF_SIRF_ENABLE_STATIC_NAVIGATION.equals(key)){
+        || SirfCommander.PREF_SIRF_ENABLE_STATIC_NAVIGATION.equals(key)
+        || SirfCommander.PREF_SIRF_ADAPTIVE_RATES.equals(key)){
         enableSirfFeature(key);
     }
     this.updateDevicePreferenceList();
@@ -23,7 +23,8 @@ package org.da_cha.android.bluegnss;
 import java.util.ArrayList;
 
 import org.da_cha.android.bluegnss.GnssProviderService;
-import org.da_cha.android.bluegnss.GnssStatus;
+import org.da_cha.android.bluegnss.GnssSnapshot;
+import org.da_cha.android.bluegnss.util.nmea.DataDemand;
 import org.da_cha.android.bluegnss.view.GnssStatusView;
 import org.da_cha.android.bluegnss.R;
 
@@ -95,6 +96,9 @@ public class StatusFragment extends Fragment {
     }
     private void doUnbindService() {
         if (mIsBound) {
+            if (mService != null){
+                mService.releaseData(this);
+            }
             getActivity().unbindService(mConnection);
             mIsBound = false;
         }
@@ -122,8 +126,14 @@ public class StatusFragment extends Fragment {
     private ServiceConnection mConnection = new ServiceConnection() {
         public void onServiceConnected(ComponentName className, IBinder service) {
             mService = (GnssProviderService)((GnssProviderService.GnssProviderServiceBinder)service).getService();
+            // the sky view is decoded while it is displayed
+            mService.requestData(StatusFragment.this, DataDemand.SKY_VIEW);
         }
         public void onServiceDisconnected(ComponentName className) {
+            // doUnbindService() can not release the request once mService is null
+            if (mService != null){
+                mService.releaseData(StatusFragment.this);
+            }
             mService = null;
         }
     };
@@ -131,16 +141,19 @@ public class StatusFragment extends Fragment {
      * for reciever
      */
      private class GnssUpdateReceiver extends BroadcastReceiver {
-        private GnssStatus status;
         @Override
         public void onReceive(Context context, Intent intent) {
             if (mService != null){
                 Bundle bundle = intent.getExtras();
                 String message = bundle.getString("notification");
                 if (GnssProviderService.NOTIFY_UPDATE_GPS_STATUS.equals(message)){
-                    status = mService.getGnssStatus();
-                    ArrayList<GnssSatellite> satList = status.getSatellitesList();
-                    mGnssStatusView.setSatelliteList(satList);
+                    GnssSnapshot status = mService.acquireGnssStatus();
+                    if (status != null){
+                        // copies, which stay valid once the snapshot is released
+                        ArrayList<GnssSatellite> satList = status.getSatellitesList();
+                        status.release();
+                        mGnssStatusView.setSatelliteList(satList);
+                    }
                 } else if (GnssProviderService.NOTIFY_DISCONNECT.equals(message)){
                     doUnbindService();
                 }
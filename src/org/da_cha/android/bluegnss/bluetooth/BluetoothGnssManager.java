@@ -24,17 +24,12 @@
 
 package org.da_cha.android.bluegnss.bluetooth;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.PrintStream;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Locale;
-import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -42,28 +37,35 @@ import java.util.concurrent.TimeUnit;
 
 import org.da_cha.android.bluegnss.GnssProviderService;
 import org.da_cha.android.bluegnss.provider.MockLocationProvider;
+import org.da_cha.android.bluegnss.transport.BluetoothTransport;
+import org.da_cha.android.bluegnss.transport.GnssTransport;
+import org.da_cha.android.bluegnss.util.LatencyStats;
+import org.da_cha.android.bluegnss.util.nmea.NmeaFramer;
 import org.da_cha.android.bluegnss.util.nmea.NmeaParser;
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+import org.da_cha.android.bluegnss.util.sirf.SirfDecoder;
 import org.da_cha.android.bluegnss.util.sirf.SirfUtils;
+import org.da_cha.android.bluegnss.util.ubx.UbxDecoder;
 import org.da_cha.android.bluegnss.R;
 
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.Context;
 import android.content.Intent;
 import android.location.GpsStatus.Listener;
 import android.location.GpsStatus.NmeaListener;
 import android.provider.Settings;
-import android.os.SystemClock;
 import android.util.Log;
 
 /**
  * This class is used to establish and manage the connection with the bluetooth GPS.
  * 
+ * The link itself is a GnssTransport: Bluetooth RFCOMM by default, but the
+ * same connection, retry, framing, parsing and notification logic runs
+ * over TCP or files as well.
+ * 
  * @author Herbert von Broeuschmeul
  *
  */
@@ -74,164 +76,297 @@ public class BluetoothGnssManager {
    */
   private static final String LOG_TAG = "BlueGNSS";
 
+  /**
+   * Size and number of the buffers that the reading thread fills with
+   * bytes from the socket and hands to the framing thread.
+   */
+  private static final int READ_BUFFER_SIZE = 1024;
+  private static final int READ_BUFFERS = 8;
+  /**
+   * Longest time the reading thread waits for a free buffer before
+   * checking that the connection is still open, in ms.
+   */
+  private static final long FREE_BUFFER_WAIT = 500;
+  /**
+   * Largest number of sentences and events a listener may fall behind.
+   */
+  public static final int DEFAULT_QUEUE_SIZE = ListenerDispatcher.RING_SIZE;
+
+  /**
+   * Bytes read from the socket at once, recycled between reading and framing threads.
+   */
+  private static final class ReadBuffer {
+    final byte[] data = new byte[READ_BUFFER_SIZE];
+    int length;
+    long readNanos;
+  }
+
   /**
    * A utility class used to manage the communication with the bluetooth GPS whn the connection has been established.
    * It is used to read NMEA data from the GPS or to send SIRF III binary commands or SIRF III NMEA commands to the GPS.
-   * You should run the main read loop in one thread and send the commands in a separate one.   
+   * The main read loop runs in one thread, and the commands queued in the CommandQueue
+   * are written by a separate one.
+   * 
+   * The read loop blocks on the socket and passes what it gets to a framing thread,
+   * which splits the bytes into sentences with a NmeaFramer, parses and notifies
+   * them without decoding them into characters. The framing thread
+   * also acts as a watchdog: when the StallWatchdog sees no new fix for the
+   * allowed number of epochs, it marks the provider temporarily unavailable
+   * and closes the connection, which ends the blocked read and triggers
+   * a reconnection.
    * 
    * @author Herbert von Broeuschmeul
    *
    */
   private class ConnectedGps extends Thread {
     /**
-     * GPS bluetooth socket used for communication. 
+     * Link to the GPS used for communication. 
      */
-    private final BluetoothSocket socket;
+    private final GnssTransport transport;
     /**
      * GPS InputStream from which we read data. 
      */
     private final InputStream in;
     /**
-     * GPS output stream to which we send data (SIRF III binary commands). 
+     * GPS output stream to which we send data (SIRF III binary and NMEA commands). 
      */
     private final OutputStream out;
-    /**
-     * GPS output stream to which we send data (SIRF III NMEA commands). 
-     */
-    private final PrintStream out2;
     /**
      * A boolean which indicates if the GPS is ready to receive data. 
      * In fact we consider that the GPS is ready when it begins to sends data...
      */
-    private boolean ready = false;
+    private volatile boolean ready = false;
+    private volatile boolean closed = false;
+
+    private final BlockingQueue<ReadBuffer> freeBuffers = new ArrayBlockingQueue<ReadBuffer>(READ_BUFFERS);
+    private final BlockingQueue<ReadBuffer> filledBuffers = new ArrayBlockingQueue<ReadBuffer>(READ_BUFFERS);
+    /**
+     * Time the buffer being framed was read, for latency measurement.
+     */
+    private long readNanos;
+    private final NmeaFramer framer = new NmeaFramer(new NmeaFramer.FrameListener(){
+      @Override
+      public void onSentence(byte[] buffer, int offset, int length){
+        stallWatchdog.onSentence(buffer, offset, length, readNanos);
+        commands.onSentence(buffer, offset, length);
+        notifyNmeaSentence(buffer, offset, length);
+        notifyGpsStatus();
+        streaming();
+        readLatency.record(System.nanoTime() - readNanos);
+      }
+      @Override
+      public void onSirfFrame(byte[] buffer, int offset, int length){
+        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)){
+          Log.v(LOG_TAG, "SiRF binary frame: "+length+" bytes");
+        }
+        stallWatchdog.onTime(SirfDecoder.getUtcMillis(buffer, offset, length), readNanos);
+        commands.onSirfFrame(buffer, offset, length);
+        notifySirfFrame(buffer, offset, length);
+        notifyGpsStatus();
+        streaming();
+        readLatency.record(System.nanoTime() - readNanos);
+      }
+      @Override
+      public void onUbxFrame(byte[] buffer, int offset, int length){
+        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)){
+          Log.v(LOG_TAG, "UBX frame: "+length+" bytes");
+        }
+        stallWatchdog.onTime(UbxDecoder.getUtcMillis(buffer, offset, length), readNanos);
+        notifyUbxFrame(buffer, offset, length);
+        notifyGpsStatus();
+        streaming();
+        readLatency.record(System.nanoTime() - readNanos);
+      }
+    });
 
-    public ConnectedGps(BluetoothSocket socket) {
-      this.socket = socket;
+    public ConnectedGps(GnssTransport transport) {
+      this.transport = transport;
       InputStream tmpIn = null;
       OutputStream tmpOut = null;
-      PrintStream tmpOut2 = null;
       try {
-        tmpIn = socket.getInputStream();
-        tmpOut = socket.getOutputStream();
-        if (tmpOut != null){
-          tmpOut2 = new PrintStream(tmpOut, false, "US-ASCII");
-        }
+        tmpIn = transport.getInputStream();
+        tmpOut = transport.getOutputStream();
       } catch (IOException e) {
-        Log.e(LOG_TAG, "error while getting socket streams", e);
+        Log.e(LOG_TAG, "error while getting transport streams", e);
       } 
       in = tmpIn;
       out = tmpOut;
-      out2 = tmpOut2;
+      for (int i = 0; i < READ_BUFFERS; i++){
+        freeBuffers.add(new ReadBuffer());
+      }
     }
   
-    public boolean isReady(){
-      return ready;
+    /**
+     * The GPS is considered ready once it sends data.
+     */
+    private void streaming(){
+      if (!ready){
+        ready = true;
+        reconnectScheduler.streaming();
+        commands.wakeUp();
+      }
     }
-    
+
     public void run() {
+      Thread framingThread = new Thread(new Runnable(){
+        @Override
+        public void run() {
+          frame();
+        }
+      }, "BlueGNSS framer");
+      framingThread.start();
+      if (out != null){
+        Thread writingThread = new Thread(new Runnable(){
+          @Override
+          public void run() {
+            writeCommands();
+          }
+        }, "BlueGNSS command writer");
+        writingThread.start();
+      }
+      boolean endOfData = false;
       try {
-        BufferedReader reader = new BufferedReader(new InputStreamReader(in,"US-ASCII"));
-        String s;
-        long now = SystemClock.uptimeMillis();
-        long lastRead = now;
-        while((enabled) && (now < lastRead+5000 )){
-          if (reader.ready()){
-            s = reader.readLine();
-            //Log.v(LOG_TAG, "data: "+System.currentTimeMillis()+" "+s);
-            notifyNmeaSentence(s+"\r\n");
-            notifyGpsStatus();
-            ready = true;
-            lastRead = SystemClock.uptimeMillis();
-          } else {
-            Log.d(LOG_TAG, "data: not ready "+System.currentTimeMillis());
-            SystemClock.sleep(500);
+        while ((enabled) && (!closed)){
+          // the framing thread may have closed the connection meanwhile
+          ReadBuffer buffer = freeBuffers.poll(FREE_BUFFER_WAIT, TimeUnit.MILLISECONDS);
+          if (buffer == null){
+            continue;
           }
-          now = SystemClock.uptimeMillis();
+          // blocks until data comes, or the connection is closed
+          int length = in.read(buffer.data, 0, buffer.data.length);
+          if (length < 0){
+            Log.d(LOG_TAG, "end of GPS data stream");
+            endOfData = transport.isEndOfData();
+            break;
+          }
+          buffer.length = length;
+          buffer.readNanos = System.nanoTime();
+          filledBuffers.put(buffer);
         }
       } catch (IOException e) {
-        Log.e(LOG_TAG, "error while getting data", e);
-        mockProvider.setMockLocationProviderOutOfService();
+        if (!closed){
+          Log.e(LOG_TAG, "error while getting data", e);
+          mockProvider.setMockLocationProviderOutOfService();
+        }
+      } catch (InterruptedException e) {
+        Log.d(LOG_TAG, "reading thread interrupted");
       } catch (Throwable t) {
         Log.e(LOG_TAG,"Unexpected error", t);
       } finally {
         // cleanly closing everything...
         this.close();
-        disableIfNeeded();
+        framingThread.interrupt();
+        Log.d(LOG_TAG, "read to parse latency: "+readLatency+", frames: "+framer.getSentenceCount()
+            +" NMEA, "+framer.getSirfFrameCount()+" SiRF, "+framer.getErrorCount()+" errors");
+        if (endOfData){
+          // connecting again would replay the same data
+          disable();
+        } else {
+          disableIfNeeded();
+          reconnectScheduler.connectionLost();
+        }
       }
     }
 
     /**
-     * Write to the connected OutStream.
-     * @param buffer  The bytes to write
+     * Framing thread: splits buffers read from the socket into sentences.
      */
-    public void write(byte[] buffer) {
+    private void frame() {
+      stallWatchdog.reset(System.nanoTime());
       try {
-        do {
-          Thread.sleep(100);
-        } while ((enabled) && (! ready));
-        if ((enabled) && (ready)){
-          out.write(buffer);
-          out.flush();
+        while ((enabled) && (!closed)){
+          long timeLeft = stallWatchdog.timeLeft(System.nanoTime());
+          ReadBuffer buffer = (timeLeft > 0) ? filledBuffers.poll(timeLeft, TimeUnit.NANOSECONDS) : null;
+          if (buffer == null){
+            Log.e(LOG_TAG, "no fix from GPS for "+stallWatchdog.getTimeout()+" ms, closing connection");
+            stallWatchdog.stalled();
+            mockProvider.setMockLocationProviderTemporarilyUnavailable();
+            reconnectScheduler.stalled();
+            this.close();
+            break;
+          }
+          readNanos = buffer.readNanos;
+          try {
+            framer.feed(buffer.data, 0, buffer.length);
+          } finally {
+            freeBuffers.offer(buffer);
+          }
         }
-      } catch (IOException e) {
-        Log.e(LOG_TAG, "Exception during write", e);
       } catch (InterruptedException e) {
-        Log.e(LOG_TAG, "Exception during write", e);
+        // connection closed by the reading thread
+      } catch (Throwable t) {
+        Log.e(LOG_TAG,"Unexpected error", t);
+      } finally {
+        // the reading thread ends once the connection is closed
+        this.close();
       }
     }
+
     /**
-     * Write to the connected OutStream.
-     * @param buffer  The data to write
+     * Writing thread: writes the queued commands once the GPS is streaming,
+     * and parks otherwise.
      */
-    public void write(String buffer) {
+    private void writeCommands() {
+      commands.attach();
       try {
-        do {
-          Thread.sleep(100);
-        } while ((enabled) && (! ready));
-        if ((enabled) && (ready)){
-          out2.print(buffer);
-          out2.flush();
+        while ((enabled) && (!closed)){
+          if (ready){
+            while (commands.writeTo(out)){
+              // more commands than one write
+            }
+          }
+          commands.expireAcks();
+          commands.await(ready);
         }
-      } catch (InterruptedException e) {
-        Log.e(LOG_TAG, "Exception during write", e);
+      } catch (IOException e) {
+        if (!closed){
+          Log.e(LOG_TAG, "error while writing commands", e);
+        }
+      } catch (Throwable t) {
+        Log.e(LOG_TAG,"Unexpected error", t);
+      } finally {
+        commands.detach();
+        // a connection which cannot be written is lost too
+        this.close();
       }
     }
-    
-    public void close(){
+
+    public synchronized void close(){
       ready = false;
+      if (closed){
+        return;
+      }
+      closed = true;
+      commands.wakeUp();
       try {
-            Log.d(LOG_TAG, "closing Bluetooth GPS output stream");
-        in.close();
+            Log.d(LOG_TAG, "closing GPS input stream");
+        if (in != null){
+          in.close();
+        }
       } catch (IOException e) {
-        Log.e(LOG_TAG, "error while closing GPS NMEA output stream", e);
+        Log.e(LOG_TAG, "error while closing GPS NMEA input stream", e);
       } finally {
         try {
-              Log.d(LOG_TAG, "closing Bluetooth GPS input streams");
-          out2.close();
-          out.close();
+              Log.d(LOG_TAG, "closing GPS output streams");
+          if (out != null){
+            out.close();
+          }
         } catch (IOException e) {
-          Log.e(LOG_TAG, "error while closing GPS input streams", e);
+          Log.e(LOG_TAG, "error while closing GPS output streams", e);
         } finally {
-          try {
-                Log.d(LOG_TAG, "closing Bluetooth GPS socket");
-            socket.close();
-          } catch (IOException e) {
-            Log.e(LOG_TAG, "error while closing GPS socket", e);
-          }
+          transport.close();
         }
       }
     }
   }
 
   private Service callingService;
-  private BluetoothSocket gpsSocket;
-  private String gpsDeviceAddress;
+  private final GnssTransport transport;
   private NmeaParser parser = null ;
   private boolean enabled = false;
   private ExecutorService notificationPool;
   private ScheduledExecutorService connectionAndReadingPool;
-  private List<NmeaListener> nmeaListeners = Collections.synchronizedList(new LinkedList<NmeaListener>()); 
-  private List<Listener> gpsStatusListeners = Collections.synchronizedList(new LinkedList<Listener>());
+  private final ListenerDispatcher listeners = new ListenerDispatcher();
   private MockLocationProvider mockProvider;
   private ConnectedGps connectedGps;
   private int disableReason = 0;
@@ -242,6 +377,10 @@ public class BluetoothGnssManager {
   private int maxConnectionRetries;
   private int nbRetriesRemaining;
   private boolean connected = false;
+  private final LatencyStats readLatency = new LatencyStats();
+  private final ReconnectScheduler reconnectScheduler = new ReconnectScheduler();
+  private final StallWatchdog stallWatchdog = new StallWatchdog();
+  private final CommandQueue commands = new CommandQueue();
 
   /**
    * @param callingService
@@ -249,7 +388,16 @@ public class BluetoothGnssManager {
    * @param maxRetries
    */
   public BluetoothGnssManager(Service callingService, String deviceAddress, int maxRetries) {
-    this.gpsDeviceAddress = deviceAddress;
+    this(callingService, new BluetoothTransport(deviceAddress), maxRetries);
+  }
+
+  /**
+   * @param callingService
+   * @param transport   link to the GPS
+   * @param maxRetries
+   */
+  public BluetoothGnssManager(Service callingService, GnssTransport transport, int maxRetries) {
+    this.transport = transport;
     this.callingService = callingService;
     this.maxConnectionRetries = maxRetries;
     this.nbRetriesRemaining = 1+maxRetries;
@@ -269,6 +417,70 @@ public class BluetoothGnssManager {
   }
 
 
+  /**
+   * @return latency between reading the data of a sentence from the socket
+   * and the end of its parsing.
+   */
+  public LatencyStats getReadLatency(){
+    return readLatency;
+  }
+
+  /**
+   * @param missedEpochs  number of fixes the GPS may miss before the
+   * connection is considered stalled and reopened.
+   */
+  public void setStallEpochs(int missedEpochs){
+    stallWatchdog.setMissedEpochs(missedEpochs);
+  }
+
+  /**
+   * @return nominal time between two fixes of the GPS in ms, as learnt
+   * from the stream, 0 until known.
+   */
+  public long getEpoch(){
+    return stallWatchdog.getEpoch();
+  }
+
+  /**
+   * @return state of the connection with the GPS.
+   */
+  public ConnectionState getConnectionState(){
+    return reconnectScheduler.getState();
+  }
+
+  /**
+   * @return time from losing the connection to getting sentences again.
+   */
+  public LatencyStats getReconnectTime(){
+    return reconnectScheduler.getReconnectTime();
+  }
+
+  /**
+   * @return number of connection attempts, successful or not.
+   */
+  public long getConnectionAttempts(){
+    return reconnectScheduler.getAttemptCount();
+  }
+
+  /**
+   * Adds a listener of the connection state: connecting, streaming,
+   * stalled or waiting before the next attempt.
+   *
+   * @param listener  a {@link ConnectionStateListener} object to register
+   */
+  public void addConnectionStateListener(ConnectionStateListener listener){
+    reconnectScheduler.addListener(listener);
+  }
+
+  /**
+   * Removes a connection state listener.
+   *
+   * @param listener  a {@link ConnectionStateListener} object to remove
+   */
+  public void removeConnectionStateListener(ConnectionStateListener listener){
+    reconnectScheduler.removeListener(listener);
+  }
+
   /**
    * @return
    */
@@ -290,107 +502,63 @@ public class BluetoothGnssManager {
   public synchronized boolean enable() {
     notificationManager.cancel(R.string.service_closed_because_connection_problem_notification_title);
     if (! enabled){
-          Log.d(LOG_TAG, "enabling Bluetooth GPS manager");
-      final BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
-          if (bluetoothAdapter == null) {
-              // Device does not support Bluetooth
-            Log.e(LOG_TAG, "Device does not support Bluetooth");
-            disable(R.string.msg_bluetooth_unsupported);
-          } else if (!bluetoothAdapter.isEnabled()) {
-            Log.e(LOG_TAG, "Bluetooth is not enabled");
-            disable(R.string.msg_bluetooth_disabled);
-          } else if (Settings.Secure.getInt(callingService.getContentResolver(),Settings.Secure.ALLOW_MOCK_LOCATION, 0)==0){
-            Log.e(LOG_TAG, "Mock location provider OFF");
-            disable(R.string.msg_mock_location_disabled);
-          } else {
-        final BluetoothDevice gpsDevice = bluetoothAdapter.getRemoteDevice(gpsDeviceAddress);
-        if (gpsDevice == null){
-          Log.e(LOG_TAG, "GPS device not found");               
-              disable(R.string.msg_bluetooth_gps_unavaible);
-        } else {
-            Log.e(LOG_TAG, "current device: "+gpsDevice.getName() + " -- " + gpsDevice.getAddress());
-          try {
-            gpsSocket = gpsDevice.createRfcommSocketToServiceRecord(UUID.fromString("00001101-0000-1000-8000-00805F9B34FB"));
-          } catch (IOException e) {
-              Log.e(LOG_TAG, "Error during connection", e);
-              gpsSocket = null;
-          }
-          if (gpsSocket == null){
-              Log.e(LOG_TAG, "Error while establishing connection: no socket");
-                disable(R.string.msg_bluetooth_gps_unavaible);
-          } else {
-            Runnable connectThread = new Runnable() {             
-              @Override
-              public void run() {
-                try {
-                  connected = false;
-                  Log.v(LOG_TAG, "current device: "+gpsDevice.getName() + " -- " + gpsDevice.getAddress());
-                  if ((bluetoothAdapter.isEnabled()) && (nbRetriesRemaining > 0 )){                   
-                    try {
-                      if (connectedGps != null){
-                        connectedGps.close();
-                      }
-                      if ((gpsSocket != null) && ((connectedGps == null) || (connectedGps.socket != gpsSocket))){
-                        Log.d(LOG_TAG, "trying to close old socket");
-                        gpsSocket.close();
-                      }
-                    } catch (IOException e) {
-                      Log.e(LOG_TAG, "Error during disconnection", e);
-                    }
-                    try {
-                      gpsSocket = gpsDevice.createRfcommSocketToServiceRecord(UUID.fromString("00001101-0000-1000-8000-00805F9B34FB"));
-                    } catch (IOException e) {
-                      Log.e(LOG_TAG, "Error during connection", e);
-                        gpsSocket = null;
-                    }
-                    if (gpsSocket == null){
-                      Log.e(LOG_TAG, "Error while establishing connection: no socket");
-                          disable(R.string.msg_bluetooth_gps_unavaible);
-                    } else {
-                      // Cancel discovery because it will slow down the connection
-                      bluetoothAdapter.cancelDiscovery();
-                      // we increment the number of connection tries
-                      // Connect the device through the socket. This will block
-                      // until it succeeds or throws an exception
-                      Log.v(LOG_TAG, "connecting to socket");
-                      gpsSocket.connect();
-                          Log.d(LOG_TAG, "connected to socket");
-                      connected = true;
-                      // reset eventual disabling cause
-//                      setDisableReason(0);
-                      // connection obtained so reset the number of connection try
-                      nbRetriesRemaining = 1+maxConnectionRetries ;
-                      notificationManager.cancel(R.string.connection_problem_notification_title);
-                          Log.v(LOG_TAG, "starting socket reading task");
-                      connectedGps = new ConnectedGps(gpsSocket);
-                      connectionAndReadingPool.execute(connectedGps);
-                          Log.v(LOG_TAG, "socket reading thread started");
-                    }
-//                  } else if (! bluetoothAdapter.isEnabled()) {
-//                    setDisableReason(R.string.msg_bluetooth_disabled);
-                  }
-                } catch (IOException connectException) {
-                  // Unable to connect
-                  Log.e(LOG_TAG, "error while connecting to socket", connectException);                 
-                  // disable(R.string.msg_bluetooth_gps_unavaible);
-                } finally {
-                  nbRetriesRemaining--;
-                  if (! connected) {
-                    disableIfNeeded();
-                  }
+          Log.d(LOG_TAG, "enabling GPS manager over "+transport);
+      int unavailableReason = transport.getUnavailableReason();
+      if (unavailableReason != 0) {
+        disable(unavailableReason);
+      } else if (Settings.Secure.getInt(callingService.getContentResolver(),Settings.Secure.ALLOW_MOCK_LOCATION, 0)==0){
+        Log.e(LOG_TAG, "Mock location provider OFF");
+        disable(R.string.msg_mock_location_disabled);
+      } else {
+        Runnable connectThread = new Runnable() {             
+          @Override
+          public void run() {
+            reconnectScheduler.connecting();
+            try {
+              connected = false;
+              if ((transport.getUnavailableReason() == 0) && (nbRetriesRemaining > 0 )){                   
+                if (connectedGps != null){
+                  connectedGps.close();
                 }
+                // we increment the number of connection tries
+                // Connect the device through the transport. This will block
+                // until it succeeds or throws an exception
+                Log.v(LOG_TAG, "connecting to "+transport);
+                transport.connect();
+                    Log.d(LOG_TAG, "connected to "+transport);
+                connected = true;
+                reconnectScheduler.connected();
+                // reset eventual disabling cause
+//                setDisableReason(0);
+                // connection obtained so reset the number of connection try
+                nbRetriesRemaining = 1+maxConnectionRetries ;
+                notificationManager.cancel(R.string.connection_problem_notification_title);
+                    Log.v(LOG_TAG, "starting socket reading task");
+                connectedGps = new ConnectedGps(transport);
+                connectionAndReadingPool.execute(connectedGps);
+                    Log.v(LOG_TAG, "socket reading thread started");
+              }
+            } catch (IOException connectException) {
+              // Unable to connect
+              Log.e(LOG_TAG, "error while connecting to "+transport, connectException);                 
+              transport.close();
+            } finally {
+              nbRetriesRemaining--;
+              if (! connected) {
+                disableIfNeeded();
+                reconnectScheduler.connectFailed();
               }
-            };
-            this.enabled = true;
-                Log.d(LOG_TAG, "Bluetooth GPS manager enabled");
-                Log.v(LOG_TAG, "starting notification thread");
-            notificationPool = Executors.newSingleThreadExecutor();
-                Log.v(LOG_TAG, "starting connection and reading thread");
-            connectionAndReadingPool = Executors.newSingleThreadScheduledExecutor();
-                Log.v(LOG_TAG, "starting connection to socket task");
-            connectionAndReadingPool.scheduleWithFixedDelay(connectThread, 5000, 60000, TimeUnit.MILLISECONDS);
+            }
           }
-        }
+        };
+        this.enabled = true;
+            Log.d(LOG_TAG, "GPS manager enabled");
+            Log.v(LOG_TAG, "starting notification thread");
+        notificationPool = Executors.newSingleThreadExecutor();
+            Log.v(LOG_TAG, "starting connection and reading thread");
+        connectionAndReadingPool = Executors.newSingleThreadScheduledExecutor();
+            Log.v(LOG_TAG, "starting connection to socket task");
+        reconnectScheduler.start(connectionAndReadingPool, connectThread);
       }
     }
     return this.enabled;
@@ -478,6 +646,10 @@ public class BluetoothGnssManager {
     if (enabled){
       Log.d(LOG_TAG, "disabling Bluetooth GPS/GNSS manager");
       enabled = false;
+      reconnectScheduler.stop();
+      Log.d(LOG_TAG, "connection: "+reconnectScheduler+", "+stallWatchdog);
+      commands.clear();
+      Log.d(LOG_TAG, commands.toString());
       connectionAndReadingPool.shutdown();
       Runnable closeAndShutdown = new Runnable() {        
         @Override
@@ -492,20 +664,12 @@ public class BluetoothGnssManager {
             if (connectedGps != null){
               connectedGps.close();
             }
-            if ((gpsSocket != null) && ((connectedGps == null) || (connectedGps.socket != gpsSocket))){
-              try {
-                Log.d(LOG_TAG, "closing Bluetooth GPS/GNSS socket");
-                gpsSocket.close();
-              } catch (IOException closeException) {
-                Log.e(LOG_TAG, "error while closing socket", closeException);
-              }
-            }
+            transport.close();
           }
         }
       };
       notificationPool.execute(closeAndShutdown);
-      nmeaListeners.clear();
-      gpsStatusListeners.clear();
+      listeners.clear();
       mockProvider.disableMockLocationProvider();
       notificationPool.shutdown();
 //      connectionAndReadingPool.shutdown();
@@ -517,16 +681,56 @@ public class BluetoothGnssManager {
 
   /**
    * Adds a NMEA listener.
-   * In fact, it delegates to the NMEA parser. 
+   * It is called once for each sentence, from the batches handed over by
+   * its notification thread, and drops the oldest sentences when it falls
+   * behind by more than DEFAULT_QUEUE_SIZE.
    * 
-   * @see NmeaParser#addNmeaListener(NmeaListener)
+   * @see #addNmeaBatchListener(NmeaBatchListener, int, OverflowPolicy)
    * @param listener  a {@link NmeaListener} object to register
    * @return  true if the listener was successfully added
    */
   public boolean addNmeaListener(NmeaListener listener){
-    if (!nmeaListeners.contains(listener)){
+    return addNmeaListener(listener, DEFAULT_QUEUE_SIZE, OverflowPolicy.DROP_OLDEST);
+  }
+
+  /**
+   * Adds a NMEA listener.
+   *
+   * @param listener  a {@link NmeaListener} object to register
+   * @param queueSize number of sentences the listener may fall behind, at most DEFAULT_QUEUE_SIZE
+   * @param policy    what to do beyond it
+   * @return  true if the listener was successfully added
+   */
+  public boolean addNmeaListener(NmeaListener listener, int queueSize, OverflowPolicy policy){
+    if (listeners.addNmeaListener(listener, queueSize, policy)){
           Log.d(LOG_TAG, "adding new NMEA listener");
-      nmeaListeners.add(listener);
+    }
+    return true;
+  }
+
+  /**
+   * Adds a NMEA batch listener, called with all the sentences received
+   * since its previous call. It drops the oldest sentences when it falls
+   * behind by more than DEFAULT_QUEUE_SIZE.
+   *
+   * @param listener  a {@link NmeaBatchListener} object to register
+   * @return  true if the listener was successfully added
+   */
+  public boolean addNmeaBatchListener(NmeaBatchListener listener){
+    return addNmeaBatchListener(listener, DEFAULT_QUEUE_SIZE, OverflowPolicy.DROP_OLDEST);
+  }
+
+  /**
+   * Adds a NMEA batch listener.
+   *
+   * @param listener  a {@link NmeaBatchListener} object to register
+   * @param queueSize number of sentences the listener may fall behind, at most DEFAULT_QUEUE_SIZE
+   * @param policy    what to do beyond it
+   * @return  true if the listener was successfully added
+   */
+  public boolean addNmeaBatchListener(NmeaBatchListener listener, int queueSize, OverflowPolicy policy){
+    if (listeners.addNmeaBatchListener(listener, queueSize, policy)){
+      Log.d(LOG_TAG, "adding new NMEA batch listener, "+policy);
     }
     return true;
   }
@@ -538,23 +742,42 @@ public class BluetoothGnssManager {
    * @return true if the listener was successfully added
    */
   public boolean addGpsStatusListener(Listener listener){
-    if (!gpsStatusListeners.contains(listener)){
-      Log.d(LOG_TAG, "adding new GpsStatus Listener");
-      gpsStatusListeners.add(listener);
+    return addGpsStatusListener(listener, DEFAULT_QUEUE_SIZE, OverflowPolicy.DROP_OLDEST);
+  }
+
+  /**
+   * Adds a GpsStatus Listener.
+   *
+   * @param listener  a GpsStatus.Listener object to register
+   * @param queueSize number of events the listener may fall behind, at most DEFAULT_QUEUE_SIZE
+   * @param policy    what to do beyond it
+   * @return true if the listener was successfully added
+   */
+  public boolean addGpsStatusListener(Listener listener, int queueSize, OverflowPolicy policy){
+    if (listeners.addGpsStatusListener(listener, queueSize, policy)){
+      Log.d(LOG_TAG, "adding new GpsStatus Listener, "+policy);
     }
     return true;
   }
 
   /**
    * Removes a NMEA listener.
-   * In fact, it delegates to the NMEA parser. 
    * 
-   * @see NmeaParser#removeNmeaListener(NmeaListener)
    * @param listener  a {@link NmeaListener} object to remove 
    */
   public void removeNmeaListener(NmeaListener listener){
         Log.d(LOG_TAG, "removing NMEA listener");
-    nmeaListeners.remove(listener);
+    listeners.remove(listener);
+  }
+
+  /**
+   * Removes a NMEA batch listener.
+   *
+   * @param listener  a {@link NmeaBatchListener} object to remove
+   */
+  public void removeNmeaBatchListener(NmeaBatchListener listener){
+    Log.d(LOG_TAG, "removing NMEA batch listener");
+    listeners.remove(listener);
   }
 
   /**
@@ -564,40 +787,77 @@ public class BluetoothGnssManager {
    */
   public void removeGpsStatusListener(Listener listener){
     Log.d(LOG_TAG, "removing GpsStatus Listener");
-    gpsStatusListeners.remove(listener);
+    listeners.remove(listener);
+  }
+
+  /**
+   * @param listener  a registered listener, of any kind
+   * @return queue depth, drops and lag of the listener, or null if it is not registered.
+   */
+  public ListenerMetrics getListenerMetrics(Object listener){
+    return listeners.getMetrics(listener);
   }
 
   /**
    * Notifies the reception of a NMEA sentence from the bluetooth GPS to registered NMEA listeners.
    * 
-   * @param nmeaSentence  the complete NMEA sentence received from the bluetooth GPS (i.e. $....*XY where XY is the checksum)
+   * The sentence is only queued here, listeners get it from the notification thread.
+   * 
+   * @param buffer  buffer holding the complete NMEA sentence received from the bluetooth GPS
+   * (i.e. $....*XY\r\n where XY is the checksum)
    */
-  private void notifyNmeaSentence(final String nmeaSentence){
+  private void notifyNmeaSentence(byte[] buffer, int offset, int length){
     if (enabled){
-      //    Log.v(LOG_TAG, "parsing and notifying NMEA sentence: "+nmeaSentence);
-      String sentence = null;
+      boolean recognized = false;
       try {
-        sentence = parser.parseNmeaSentence(nmeaSentence);
+        recognized = parser.parseNmeaSentence(buffer, offset, length);
       } catch (SecurityException e){
-            Log.e(LOG_TAG, "error while parsing NMEA sentence: "+nmeaSentence, e);
+            Log.e(LOG_TAG, "error while parsing NMEA sentence", e);
         // a priori Mock Location is disabled
-        sentence = null;
+        recognized = false;
         disable(R.string.msg_mock_location_disabled);
       }
-      final String recognizedSentence = sentence;
-      final long timestamp = System.currentTimeMillis();
-      if (recognizedSentence != null){
-        Log.v(LOG_TAG, "notifying NMEA sentence: "+recognizedSentence);
-        synchronized(nmeaListeners) {
-          for(final NmeaListener listener : nmeaListeners){
-            notificationPool.execute(new Runnable(){
-              @Override
-              public void run() {
-                listener.onNmeaReceived(timestamp, recognizedSentence);
-              }          
-            });
-          }
+      if (recognized && listeners.hasNmeaListeners()){
+        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)){
+          Log.v(LOG_TAG, "notifying NMEA sentence: "+new String(buffer, offset, length, NmeaTokenizer.US_ASCII));
         }
+        listeners.publishSentence(System.currentTimeMillis(), buffer, offset, length);
+      }
+    }
+  }
+
+  /**
+   * Parses a SiRF binary frame from a GPS in binary mode. Its fix and
+   * satellites are notified like those of NMEA sentences.
+   *
+   * @param buffer  buffer holding the frame, from 0xA0 0xA2 up to 0xB0 0xB3
+   */
+  private void notifySirfFrame(byte[] buffer, int offset, int length){
+    if (enabled){
+      try {
+        parser.parseSirfFrame(buffer, offset, length);
+      } catch (SecurityException e){
+        Log.e(LOG_TAG, "error while parsing SiRF frame", e);
+        // a priori Mock Location is disabled
+        disable(R.string.msg_mock_location_disabled);
+      }
+    }
+  }
+
+  /**
+   * Parses a UBX frame from a u-blox GPS. Its fix and satellites are
+   * notified like those of NMEA sentences.
+   *
+   * @param buffer  buffer holding the frame, from 0xB5 0x62 up to the checksum
+   */
+  private void notifyUbxFrame(byte[] buffer, int offset, int length){
+    if (enabled){
+      try {
+        parser.parseUbxFrame(buffer, offset, length);
+      } catch (SecurityException e){
+        Log.e(LOG_TAG, "error while parsing UBX frame", e);
+        // a priori Mock Location is disabled
+        disable(R.string.msg_mock_location_disabled);
       }
     }
   }
@@ -608,44 +868,53 @@ public class BluetoothGnssManager {
    */
   private void notifyGpsStatus(){
     if (enabled){
-      final int gpsStatus = parser.getGpsStatusChange();
-      if (gpsStatus != 0){
-        Log.v(LOG_TAG, "notified GpsStatus: "+gpsStatus);
-        synchronized(gpsStatusListeners) {
-          for(final Listener listener : gpsStatusListeners){
-            notificationPool.execute(new Runnable(){
-              @Override
-              public void run() {
-                listener.onGpsStatusChanged(gpsStatus);
-              }
-            });
-          }
+      int gpsStatus = parser.getGpsStatusChange();
+      if (gpsStatus != 0 && listeners.hasGpsStatusListeners()){
+        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)){
+          Log.v(LOG_TAG, "notified GpsStatus: "+gpsStatus);
         }
+        listeners.publishGpsStatus(gpsStatus);
       }
     }
   }
 
+  /**
+   * @return time from queueing a command to writing it to the GPS.
+   */
+  public LatencyStats getCommandLatency(){
+    return commands.getWriteLatency();
+  }
+
+  /**
+   * @return time from queueing a command to its acknowledgement by the GPS.
+   */
+  public LatencyStats getCommandAckLatency(){
+    return commands.getAckLatency();
+  }
+
   /**
    * Sends a NMEA sentence to the bluetooth GPS.
    * 
+   * The command is queued, and written in order with the other commands as
+   * soon as the GPS is connected and sends data.
+   * 
+   * @param command the complete NMEA sentence (i.e. $....*XY where XY is the checksum).
+   */
+  public void sendPackagedNmeaCommand(String command){
+    sendPackagedNmeaCommand(command, null);
+  }
+
+  /**
+   * Sends a NMEA sentence to the bluetooth GPS, and waits for its echo.
+   * 
    * @param command the complete NMEA sentence (i.e. $....*XY where XY is the checksum).
+   * @param listener  told when a sentence with the same address comes back,
+   * or after a timeout; null not to wait for it
    */
-  public void sendPackagedNmeaCommand(final String command){
+  public void sendPackagedNmeaCommand(String command, CommandListener listener){
     Log.d(LOG_TAG, "sending NMEA sentence: "+command);
     if (isEnabled()){
-      notificationPool.execute( new Runnable() {      
-        @Override
-        public void run() {
-          while ((enabled) && ((!connected) || (connectedGps == null) || (!connectedGps.isReady()))){
-            Log.v(LOG_TAG, "writing thread is not ready");
-            SystemClock.sleep(500);
-          }
-          if (isEnabled() && (connectedGps != null)){
-            connectedGps.write(command);
-            Log.d(LOG_TAG, "sent NMEA sentence: "+command);
-          }
-        }
-      });
+      commands.add(command, command.getBytes(NmeaTokenizer.US_ASCII), listener != null, listener);
     }
   }
 
@@ -655,23 +924,22 @@ public class BluetoothGnssManager {
    * @param commandHexa an hexadecimal string representing a complete binary command 
    * (i.e. with the <em>Start Sequence</em>, <em>Payload Length</em>, <em>Payload</em>, <em>Message Checksum</em> and <em>End Sequence</em>).
    */
-  public void sendPackagedSirfCommand(final String commandHexa){
+  public void sendPackagedSirfCommand(String commandHexa){
+    sendPackagedSirfCommand(commandHexa, null);
+  }
+
+  /**
+   * Sends a SIRF III binary command to the bluetooth GPS, and waits for its
+   * acknowledgement.
+   * 
+   * @param commandHexa an hexadecimal string representing a complete binary command 
+   * @param listener  told when the GPS acknowledges or rejects the command,
+   * or after a timeout; null not to wait for it
+   */
+  public void sendPackagedSirfCommand(String commandHexa, CommandListener listener){
     Log.d(LOG_TAG, "sending SIRF sentence: "+commandHexa);
     if (isEnabled()){
-      final byte[] command = SirfUtils.genSirfCommand(commandHexa);
-      notificationPool.execute( new Runnable() {      
-        @Override
-        public void run() {
-          while ((enabled) && ((!connected) || (connectedGps == null) || (!connectedGps.isReady()))){
-            Log.v(LOG_TAG, "writing thread is not ready");
-            SystemClock.sleep(500);
-          }
-          if (isEnabled() && (connectedGps != null)){
-            connectedGps.write(command);
-            Log.d(LOG_TAG, "sent SIRF sentence: "+commandHexa);
-          }
-        }
-      });
+      commands.add(commandHexa, SirfUtils.genSirfCommand(commandHexa), listener != null, listener);
     }
   }
 
@@ -681,8 +949,18 @@ public class BluetoothGnssManager {
    * @param sentence  the NMEA sentence without the first "$", the last "*" and the checksum.
    */
   public void sendNmeaCommand(String sentence){
+    sendNmeaCommand(sentence, null);
+  }
+
+  /**
+   * Sends a NMEA sentence to the bluetooth GPS, and waits for its echo.
+   * 
+   * @param sentence  the NMEA sentence without the first "$", the last "*" and the checksum.
+   * @param listener  told of the outcome, null not to wait for the echo
+   */
+  public void sendNmeaCommand(String sentence, CommandListener listener){
     String command = String.format((Locale)null,"$%s*%02X\r\n", sentence, parser.computeChecksum(sentence));
-    sendPackagedNmeaCommand(command);
+    sendPackagedNmeaCommand(command, listener);
   }
 
   /**
@@ -692,7 +970,18 @@ public class BluetoothGnssManager {
    * (i.e. without <em>Start Sequence</em>, <em>Payload Length</em>, <em>Message Checksum</em> and <em>End Sequence</em>).
    */
   public void sendSirfCommand(String payload){
+    sendSirfCommand(payload, null);
+  }
+
+  /**
+   * Sends a SIRF III binary command to the bluetooth GPS, and waits for its
+   * acknowledgement.
+   * 
+   * @param payload an hexadecimal string representing the payload of the binary command
+   * @param listener  told of the outcome, null not to wait for the acknowledgement
+   */
+  public void sendSirfCommand(String payload, CommandListener listener){
     String command = SirfUtils.createSirfCommandFromPayload(payload);
-    sendPackagedSirfCommand(command);
+    sendPackagedSirfCommand(command, listener);
   }
 }
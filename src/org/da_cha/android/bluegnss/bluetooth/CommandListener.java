@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+/**
+ * Used for receiving the outcome of a command sent to the receiver.
+ *
+ * It is called on the writing or framing thread, so it must return
+ * quickly.
+ */
+public interface CommandListener {
+  /**
+   * Written to the receiver, no acknowledgement was expected.
+   */
+  int SENT = 0;
+  /**
+   * Acknowledged: SiRF binary ACK (MID 11), or NMEA echo.
+   */
+  int ACKED = 1;
+  /**
+   * Rejected: SiRF binary NACK (MID 12).
+   */
+  int NACKED = 2;
+  /**
+   * Written, but no acknowledgement came in time.
+   */
+  int TIMED_OUT = 3;
+  /**
+   * Given up before being written or acknowledged, ex. the manager was
+   * disabled first.
+   */
+  int DROPPED = 4;
+
+  /**
+   * @param command       the command as given to the manager
+   * @param result        one of SENT, ACKED, NACKED, TIMED_OUT or DROPPED
+   * @param latencyNanos  time from queueing to the result
+   */
+  void onCommandDone(String command, int result, long latencyNanos);
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.da_cha.android.bluegnss.util.LatencyStats;
+
+/**
+ * Commands on their way to the receiver.
+ *
+ * Any thread may queue a command: the queue is a lock-free linked queue,
+ * and queueing only wakes up the writer. The writer is a thread of the
+ * connection, which parks until there is something to do. Once the
+ * receiver is streaming, it takes all the queued commands, in order, and
+ * writes them with a single write of up to MAX_WRITE bytes. Commands
+ * whose write failed are written first on the next connection.
+ *
+ * A command may wait for an acknowledgement: a SiRF binary command is
+ * acknowledged by a SiRF ACK (MID 11) or NACK (MID 12) frame carrying
+ * its message id, and a NMEA command by a sentence with the same address
+ * field, ex. an echoed $PSRF103. The framing thread hands the incoming
+ * frames over; they are only looked at while acknowledgements are
+ * pending. Without one within ACK_TIMEOUT, the command times out.
+ *
+ * The time from queueing to writing and to acknowledgement is recorded
+ * for every command.
+ */
+class CommandQueue {
+
+  /**
+   * Largest number of bytes written at once, unless a single command is larger.
+   */
+  static final int MAX_WRITE = 1024;
+  static final long ACK_TIMEOUT = 2000;
+
+  private static final int SIRF_ACK = 0x0B;
+  private static final int SIRF_NACK = 0x0C;
+
+  private static final class Command {
+    final String label;
+    final byte[] bytes;
+    final boolean ack;
+    final CommandListener listener;
+    final long queuedNanos = System.nanoTime();
+    long writtenNanos;
+
+    Command(String label, byte[] bytes, boolean ack, CommandListener listener){
+      this.label = label;
+      this.bytes = bytes;
+      this.ack = ack;
+      this.listener = listener;
+    }
+
+    boolean isSirf(){
+      return bytes.length > 4 && (bytes[0] & 0xff) == 0xA0 && (bytes[1] & 0xff) == 0xA2;
+    }
+
+    /**
+     * @return message id of a SiRF command.
+     */
+    int getSirfId(){
+      return bytes[4] & 0xff;
+    }
+
+    void done(int result, long nanos){
+      if (listener != null){
+        listener.onCommandDone(label, result, nanos - queuedNanos);
+      }
+    }
+  }
+
+  private final ConcurrentLinkedQueue<Command> queue = new ConcurrentLinkedQueue<Command>();
+  /**
+   * Commands whose write failed, guarded by this.
+   */
+  private final ArrayDeque<Command> unsent = new ArrayDeque<Command>();
+  private final ArrayList<Command> batch = new ArrayList<Command>();
+  private byte[] buffer = new byte[MAX_WRITE];
+  /**
+   * Commands written and waiting for their acknowledgement.
+   */
+  private final ArrayList<Command> pending = new ArrayList<Command>();
+  private volatile int pendingCount = 0;
+  private volatile Thread writer;
+
+  private final LatencyStats writeLatency = new LatencyStats();
+  private final LatencyStats ackLatency = new LatencyStats();
+  private final AtomicLong queued = new AtomicLong();
+  private volatile long written = 0;
+  private volatile long writes = 0;
+  private volatile long acked = 0;
+  private volatile long nacked = 0;
+  private volatile long timedOut = 0;
+  private volatile long dropped = 0;
+
+  /**
+   * Queues a command, from any thread.
+   *
+   * @param label     the command as given, for logs and the listener
+   * @param bytes     what is written to the receiver
+   * @param ack       true to wait for an acknowledgement
+   * @param listener  told of the outcome, may be null
+   */
+  void add(String label, byte[] bytes, boolean ack, CommandListener listener){
+    queue.offer(new Command(label, bytes, ack, listener));
+    queued.incrementAndGet();
+    wakeUp();
+  }
+
+  /**
+   * Makes the calling thread the writer, woken up by add() and wakeUp().
+   */
+  void attach(){
+    writer = Thread.currentThread();
+  }
+
+  void detach(){
+    if (writer == Thread.currentThread()){
+      writer = null;
+    }
+  }
+
+  /**
+   * Wakes up the writer, ex. when the receiver starts streaming or the
+   * connection is closed.
+   */
+  void wakeUp(){
+    Thread w = writer;
+    if (w != null){
+      LockSupport.unpark(w);
+    }
+  }
+
+  /**
+   * Parks the writer until there is something to do.
+   *
+   * @param ready  true if commands can be written
+   */
+  void await(boolean ready){
+    if (ready && hasCommands()){
+      return;
+    }
+    long deadline = nextAckDeadline();
+    if (deadline == 0){
+      LockSupport.park(this);
+    } else {
+      LockSupport.parkNanos(this, deadline - System.nanoTime());
+    }
+  }
+
+  /**
+   * Writes the next queued commands at once.
+   *
+   * @return true if there are more commands to write.
+   * @throws IOException if the write failed, the commands are then kept.
+   */
+  synchronized boolean writeTo(OutputStream out) throws IOException {
+    batch.clear();
+    int length = 0;
+    while (true){
+      boolean retry = !unsent.isEmpty();
+      Command c = retry ? unsent.peekFirst() : queue.peek();
+      if (c == null || (length > 0 && length + c.bytes.length > buffer.length)){
+        break;
+      }
+      if (retry){
+        unsent.pollFirst();
+      } else {
+        queue.poll();
+      }
+      if (c.bytes.length > buffer.length){
+        buffer = Arrays.copyOf(buffer, c.bytes.length);
+      }
+      System.arraycopy(c.bytes, 0, buffer, length, c.bytes.length);
+      length += c.bytes.length;
+      batch.add(c);
+    }
+    if (length == 0){
+      return false;
+    }
+    try {
+      out.write(buffer, 0, length);
+      out.flush();
+    } catch (IOException e){
+      for (int i = batch.size() - 1; i >= 0; i--){
+        unsent.addFirst(batch.get(i));
+      }
+      throw e;
+    }
+    long now = System.nanoTime();
+    writes++;
+    written += batch.size();
+    for (Command c : batch){
+      writeLatency.record(now - c.queuedNanos);
+      if (c.ack){
+        c.writtenNanos = now;
+        synchronized (pending){
+          pending.add(c);
+          pendingCount = pending.size();
+        }
+      } else {
+        c.done(CommandListener.SENT, now);
+      }
+    }
+    batch.clear();
+    return !queue.isEmpty();
+  }
+
+  /**
+   * Gives up the acknowledgements which did not come in time.
+   */
+  void expireAcks(){
+    if (pendingCount == 0){
+      return;
+    }
+    long now = System.nanoTime();
+    ArrayList<Command> expired = null;
+    synchronized (pending){
+      Iterator<Command> i = pending.iterator();
+      while (i.hasNext()){
+        Command c = i.next();
+        if (now - c.writtenNanos >= ACK_TIMEOUT * 1000000L){
+          i.remove();
+          timedOut++;
+          if (expired == null){
+            expired = new ArrayList<Command>();
+          }
+          expired.add(c);
+        }
+      }
+      pendingCount = pending.size();
+    }
+    if (expired != null){
+      for (Command c : expired){
+        c.done(CommandListener.TIMED_OUT, now);
+      }
+    }
+  }
+
+  /**
+   * Looks for the acknowledgement of a SiRF command, from the framing thread.
+   *
+   * @param buffer  buffer holding the frame, from 0xA0 0xA2 up to 0xB0 0xB3.
+   */
+  void onSirfFrame(byte[] buffer, int offset, int length){
+    if (pendingCount == 0 || length < 10){
+      return;
+    }
+    int id = buffer[offset+4] & 0xff;
+    if (id != SIRF_ACK && id != SIRF_NACK){
+      return;
+    }
+    int ackedId = buffer[offset+5] & 0xff;
+    Command found = null;
+    synchronized (pending){
+      for (int i = 0; i < pending.size(); i++){
+        Command c = pending.get(i);
+        if (c.isSirf() && c.getSirfId() == ackedId){
+          found = pending.remove(i);
+          break;
+        }
+      }
+      pendingCount = pending.size();
+      if (found != null){
+        if (id == SIRF_ACK){
+          acked++;
+        } else {
+          nacked++;
+        }
+      }
+    }
+    if (found != null){
+      long now = System.nanoTime();
+      ackLatency.record(now - found.queuedNanos);
+      found.done(id == SIRF_ACK ? CommandListener.ACKED : CommandListener.NACKED, now);
+    }
+  }
+
+  /**
+   * Looks for the echo of a NMEA command, from the framing thread.
+   *
+   * @param buffer  buffer holding the sentence, from '$' up to CR/LF.
+   */
+  void onSentence(byte[] buffer, int offset, int length){
+    if (pendingCount == 0){
+      return;
+    }
+    Command found = null;
+    synchronized (pending){
+      for (int i = 0; i < pending.size(); i++){
+        Command c = pending.get(i);
+        if (!c.isSirf() && sameAddress(c.bytes, buffer, offset, length)){
+          found = pending.remove(i);
+          acked++;
+          break;
+        }
+      }
+      pendingCount = pending.size();
+    }
+    if (found != null){
+      long now = System.nanoTime();
+      ackLatency.record(now - found.queuedNanos);
+      found.done(CommandListener.ACKED, now);
+    }
+  }
+
+  /**
+   * Drops all the commands, and wakes up the writer, when the manager is
+   * disabled.
+   */
+  synchronized void clear(){
+    ArrayList<Command> cleared = new ArrayList<Command>(unsent);
+    unsent.clear();
+    Command c;
+    while ((c = queue.poll()) != null){
+      cleared.add(c);
+    }
+    synchronized (pending){
+      cleared.addAll(pending);
+      pending.clear();
+      pendingCount = 0;
+    }
+    dropped += cleared.size();
+    long now = System.nanoTime();
+    for (Command d : cleared){
+      d.done(CommandListener.DROPPED, now);
+    }
+    wakeUp();
+  }
+
+  /**
+   * @return time from queueing a command to writing it.
+   */
+  LatencyStats getWriteLatency(){
+    return writeLatency;
+  }
+
+  /**
+   * @return time from queueing a command to its acknowledgement.
+   */
+  LatencyStats getAckLatency(){
+    return ackLatency;
+  }
+
+  @Override
+  public String toString(){
+    return String.format(Locale.US,
+        "commands: queued=%d written=%d in %d writes, acked=%d nacked=%d timed out=%d dropped=%d, write: %s, ack: %s",
+        queued.get(), written, writes, acked, nacked, timedOut, dropped, writeLatency, ackLatency);
+  }
+
+  private synchronized boolean hasCommands(){
+    return !queue.isEmpty() || !unsent.isEmpty();
+  }
+
+  private long nextAckDeadline(){
+    if (pendingCount == 0){
+      return 0;
+    }
+    long deadline = 0;
+    synchronized (pending){
+      for (Command c : pending){
+        long d = c.writtenNanos + ACK_TIMEOUT * 1000000L;
+        if (deadline == 0 || d < deadline){
+          deadline = d;
+        }
+      }
+    }
+    return deadline;
+  }
+
+  /*
+   * Compares the address fields, ex. "$PSRF103", of a command and a sentence.
+   */
+  private static boolean sameAddress(byte[] command, byte[] buffer, int offset, int length){
+    for (int i = 0; i < command.length && i < length; i++){
+      byte b = command[i];
+      if (b == ',' || b == '*'){
+        byte e = buffer[offset+i];
+        return e == ',' || e == '*';
+      }
+      if (b != buffer[offset+i]){
+        return false;
+      }
+    }
+    return false;
+  }
+}
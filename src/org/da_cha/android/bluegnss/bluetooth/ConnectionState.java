@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+/**
+ * State of the connection with the receiver, as driven by the
+ * ReconnectScheduler.
+ */
+public enum ConnectionState {
+  /**
+   * Not enabled, or given up.
+   */
+  IDLE,
+  /**
+   * Opening the link.
+   */
+  CONNECTING,
+  /**
+   * Connected, and sentences are coming.
+   */
+  STREAMING,
+  /**
+   * Connected, but no data came for too long: the link is being closed.
+   */
+  STALLED,
+  /**
+   * Waiting before the next connection attempt.
+   */
+  BACKOFF
+}
@@ -0,0 +1,605 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+
+import android.location.GpsStatus.Listener;
+import android.location.GpsStatus.NmeaListener;
+import android.util.Log;
+
+/**
+ * Hands sentences and GpsStatus events from the framing thread over to the
+ * registered listeners.
+ *
+ * The framing thread is the only producer: it copies entries into the
+ * reused slots of a bounded ring, so that nothing is allocated per
+ * sentence. Every listener keeps its own cursor in the ring, which makes
+ * its queue, and has its own notification thread, so that a slow listener
+ * only delays itself. A drain task is scheduled on that thread only when
+ * none is pending; it copies all the entries the listener has not seen
+ * yet into buffers of the listener, and hands them over in batches of up
+ * to BATCH_SIZE. Sentences stay bytes: only the NmeaListener adapter
+ * makes Strings of them.
+ *
+ * A slot is filled and copied out with its lock held. The framing thread
+ * never waits for a listener to return: the lock is only held for a copy,
+ * and only contended when a listener is a whole ring behind.
+ *
+ * When a listener falls more than its queue size behind, its
+ * OverflowPolicy applies. Only the entries of the kind it wants, sentences
+ * or events, count against its queue size and in its metrics. Whatever
+ * the policy, memory stays bounded by the ring, and entries a listener
+ * misses are counted in its metrics.
+ *
+ * A BLOCK listener which keeps the framing thread waiting for
+ * BLOCK_TIMEOUT is handled as a DROP_OLDEST one until it catches up, down
+ * to half of its queue size, so that a stuck listener does not slow down
+ * every following entry.
+ *
+ * The listener table is copy-on-write: registering and removing replace the
+ * array, and the producer and the drain tasks only read it.
+ */
+class ListenerDispatcher {
+
+  private static final String LOG_TAG = "BlueGNSS";
+
+  /**
+   * Ring capacity, and largest queue size: about one second of a 10Hz
+   * multi-constellation stream. Must be a power of two.
+   */
+  static final int RING_SIZE = 512;
+  static final int BATCH_SIZE = 64;
+  /**
+   * Longest time the framing thread waits for a BLOCK listener.
+   */
+  static final long BLOCK_TIMEOUT = 1000;
+
+  /**
+   * Longest sentence handed over: the parser does not recognize longer ones.
+   */
+  static final int MAX_SENTENCE = NmeaTokenizer.MAX_SENTENCE_LENGTH;
+
+  /**
+   * A ring slot: either a sentence, or a GpsStatus event. Guarded by itself.
+   */
+  private static final class Slot {
+    /**
+     * Sequence of the entry in the slot, -1 while empty.
+     */
+    long sequence = -1;
+    long timestamp;
+    long nanos;
+    final byte[] data = new byte[MAX_SENTENCE];
+    /**
+     * Length of the sentence, 0 for an event.
+     */
+    int length;
+    int event;
+    /**
+     * Sentences and events published up to this entry, included.
+     */
+    long sentences;
+    long events;
+  }
+
+  /**
+   * A registered listener, its position in the ring and its thread.
+   */
+  private final class Subscriber implements Runnable {
+    /**
+     * Listener as registered, to find it back on removal.
+     */
+    final Object key;
+    /**
+     * Where sentences go, null for a GpsStatus listener.
+     */
+    final NmeaBatchListener nmeaListener;
+    final Listener statusListener;
+    final int capacity;
+    final OverflowPolicy policy;
+    // batch handed to the NMEA listener, null for a GpsStatus listener
+    final long[] timestamps;
+    final byte[] data;
+    final int[] offsets;
+    final int[] lengths;
+    final ExecutorService thread;
+    final AtomicBoolean drainPending = new AtomicBoolean(false);
+    /**
+     * Sequence of the next entry to look at, written by the drain task only.
+     */
+    volatile long cursor;
+    /**
+     * Number of the next wanted entry to hand over, among the entries of
+     * its kind; written by the drain task only.
+     */
+    volatile long wanted;
+    /**
+     * Set on BLOCK_TIMEOUT, used by the framing thread only.
+     */
+    boolean demoted = false;
+    volatile boolean removed = false;
+    volatile long delivered = 0;
+    volatile long dropped = 0;
+    volatile long coalesced = 0;
+    volatile long maxLagNanos = 0;
+    /**
+     * Publication time of the oldest entry of the batch being copied, and
+     * number of the last entry copied among the entries of its kind.
+     */
+    long oldestNanos;
+    long copiedNumber;
+
+    Subscriber(Object key, NmeaBatchListener nmeaListener, Listener statusListener,
+        int capacity, OverflowPolicy policy){
+      this.key = key;
+      this.nmeaListener = nmeaListener;
+      this.statusListener = statusListener;
+      this.capacity = Math.max(1, Math.min(capacity, RING_SIZE));
+      this.policy = policy;
+      long start = head;
+      this.cursor = start;
+      this.wanted = Math.max(countBefore(this, start), 0);
+      if (nmeaListener != null){
+        timestamps = new long[BATCH_SIZE];
+        data = new byte[BATCH_SIZE * MAX_SENTENCE];
+        offsets = new int[BATCH_SIZE];
+        lengths = new int[BATCH_SIZE];
+      } else {
+        timestamps = null;
+        data = null;
+        offsets = null;
+        lengths = null;
+      }
+      thread = Executors.newSingleThreadExecutor(LISTENER_THREADS);
+    }
+
+    /**
+     * @param length  length of the sentence, 0 for an event
+     */
+    boolean wants(int length){
+      return (nmeaListener != null) == (length > 0);
+    }
+
+    void schedule(){
+      if (drainPending.compareAndSet(false, true)){
+        try {
+          thread.execute(this);
+        } catch (RejectedExecutionException e){
+          // removed meanwhile
+          drainPending.set(false);
+        }
+      }
+    }
+
+    /**
+     * Drain task.
+     */
+    @Override
+    public void run(){
+      drainPending.set(false);
+      try {
+        if (policy == OverflowPolicy.COALESCE_LATEST){
+          drainLatest(this);
+        } else {
+          drain(this);
+        }
+      } catch (RuntimeException e){
+        Log.e(LOG_TAG, "error in listener", e);
+      }
+    }
+
+    ListenerMetrics getMetrics(){
+      int depth = (int)Math.max(0, Math.min(countBefore(this, head) - wanted, capacity));
+      return new ListenerMetrics(policy, capacity, depth,
+          delivered, dropped, coalesced, maxLagNanos);
+    }
+  }
+
+  private static final ThreadFactory LISTENER_THREADS = new ThreadFactory(){
+    @Override
+    public Thread newThread(Runnable r){
+      return new Thread(r, "BlueGNSS listener");
+    }
+  };
+
+  private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+  private final Slot[] ring = new Slot[RING_SIZE];
+  /**
+   * Sequence of the next entry to publish; entries before it are readable.
+   */
+  private volatile long head = 0;
+  // sentences and events published, written by the framing thread only
+  private long sentenceCount = 0;
+  private long eventCount = 0;
+  private volatile Subscriber[] subscribers = NO_SUBSCRIBERS;
+  private volatile int nmeaSubscribers = 0;
+  private volatile int statusSubscribers = 0;
+
+  ListenerDispatcher(){
+    for (int i = 0; i < RING_SIZE; i++){
+      ring[i] = new Slot();
+    }
+  }
+
+  boolean hasNmeaListeners(){
+    return nmeaSubscribers > 0;
+  }
+
+  boolean hasGpsStatusListeners(){
+    return statusSubscribers > 0;
+  }
+
+  /**
+   * Registers a batch listener, which gets the sentences published from now on.
+   * @return false if already registered
+   */
+  boolean addNmeaBatchListener(NmeaBatchListener listener, int capacity, OverflowPolicy policy){
+    return add(new Subscriber(listener, listener, null, capacity, policy));
+  }
+
+  /**
+   * Registers a NmeaListener, called once for each sentence of a batch.
+   * @return false if already registered
+   */
+  boolean addNmeaListener(final NmeaListener listener, int capacity, OverflowPolicy policy){
+    NmeaBatchListener adapter = new NmeaBatchListener(){
+      @Override
+      public void onNmeaBatch(long[] timestamps, byte[] data, int[] offsets, int[] lengths, int count){
+        for (int i = 0; i < count; i++){
+          listener.onNmeaReceived(timestamps[i],
+              new String(data, offsets[i], lengths[i], NmeaTokenizer.US_ASCII));
+        }
+      }
+    };
+    return add(new Subscriber(listener, adapter, null, capacity, policy));
+  }
+
+  /**
+   * @return false if already registered
+   */
+  boolean addGpsStatusListener(Listener listener, int capacity, OverflowPolicy policy){
+    return add(new Subscriber(listener, null, listener, capacity, policy));
+  }
+
+  /**
+   * Removes a listener, whatever it was registered as.
+   */
+  synchronized void remove(Object listener){
+    Subscriber[] current = subscribers;
+    for (int i = 0; i < current.length; i++){
+      if (current[i].key == listener){
+        Subscriber[] next = new Subscriber[current.length - 1];
+        System.arraycopy(current, 0, next, 0, i);
+        System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+        setSubscribers(next);
+        stop(current[i]);
+        return;
+      }
+    }
+  }
+
+  synchronized void clear(){
+    Subscriber[] current = subscribers;
+    setSubscribers(NO_SUBSCRIBERS);
+    for (Subscriber s : current){
+      stop(s);
+    }
+  }
+
+  private synchronized boolean add(Subscriber subscriber){
+    Subscriber[] current = subscribers;
+    for (Subscriber s : current){
+      if (s.key == subscriber.key){
+        subscriber.thread.shutdown();
+        return false;
+      }
+    }
+    Subscriber[] next = new Subscriber[current.length + 1];
+    System.arraycopy(current, 0, next, 0, current.length);
+    next[current.length] = subscriber;
+    setSubscribers(next);
+    return true;
+  }
+
+  private void setSubscribers(Subscriber[] next){
+    int nmea = 0;
+    for (Subscriber s : next){
+      if (s.nmeaListener != null){
+        nmea++;
+      }
+    }
+    nmeaSubscribers = nmea;
+    statusSubscribers = next.length - nmea;
+    subscribers = next;
+  }
+
+  private void stop(Subscriber s){
+    s.removed = true;
+    synchronized (s){
+      // wake up the framing thread if it waits for this listener
+      s.notifyAll();
+    }
+    // entries still queued are not delivered
+    s.thread.shutdown();
+    Log.d(LOG_TAG, "listener removed: "+s.getMetrics());
+  }
+
+  /**
+   * Publishes a sentence, copied from the buffer. Only called by the
+   * framing thread.
+   */
+  void publishSentence(long timestamp, byte[] buffer, int offset, int length){
+    if (length <= 0 || length > MAX_SENTENCE){
+      // never recognized by the parser
+      return;
+    }
+    publish(timestamp, buffer, offset, length, 0);
+  }
+
+  /**
+   * Publishes a GpsStatus event. Only called by the framing thread.
+   */
+  void publishGpsStatus(int event){
+    publish(System.currentTimeMillis(), null, 0, 0, event);
+  }
+
+  private void publish(long timestamp, byte[] buffer, int offset, int length, int event){
+    Subscriber[] current = subscribers;
+    long sequence = head;
+    long published = (length > 0) ? sentenceCount : eventCount;
+    for (Subscriber s : current){
+      if (s.policy == OverflowPolicy.BLOCK && s.wants(length)){
+        awaitRoom(s, published);
+      }
+    }
+    if (length > 0){
+      sentenceCount++;
+    } else {
+      eventCount++;
+    }
+    Slot slot = ring[(int)sequence & (RING_SIZE - 1)];
+    synchronized (slot){
+      slot.sequence = sequence;
+      slot.timestamp = timestamp;
+      slot.nanos = System.nanoTime();
+      if (length > 0){
+        System.arraycopy(buffer, offset, slot.data, 0, length);
+      }
+      slot.length = length;
+      slot.event = event;
+      slot.sentences = sentenceCount;
+      slot.events = eventCount;
+    }
+    head = sequence + 1;
+    for (Subscriber s : current){
+      if (s.wants(length)){
+        s.schedule();
+      }
+    }
+  }
+
+  /**
+   * Waits, up to BLOCK_TIMEOUT, until the listener has room for the entry
+   * about to be published. On timeout, the oldest entries of the listener
+   * are dropped as with DROP_OLDEST, without waiting any more, until it
+   * catches up.
+   *
+   * @param published  entries of the kind the listener wants published so far
+   */
+  private void awaitRoom(Subscriber s, long published){
+    long queued = published - s.wanted;
+    if (s.demoted){
+      if (queued > s.capacity / 2){
+        return;
+      }
+      Log.i(LOG_TAG, "blocked listener caught up");
+      s.demoted = false;
+    }
+    if (queued < s.capacity){
+      return;
+    }
+    long deadline = System.currentTimeMillis() + BLOCK_TIMEOUT;
+    synchronized (s){
+      while (published - s.wanted >= s.capacity && !s.removed){
+        long wait = deadline - System.currentTimeMillis();
+        if (wait <= 0){
+          Log.w(LOG_TAG, "listener blocked for "+BLOCK_TIMEOUT+" ms, dropping its oldest entries until it catches up");
+          s.demoted = true;
+          return;
+        }
+        s.schedule();
+        try {
+          s.wait(wait);
+        } catch (InterruptedException e){
+          // connection closing
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return metrics of the listener, or null if it is not registered.
+   */
+  ListenerMetrics getMetrics(Object listener){
+    for (Subscriber s : subscribers){
+      if (s.key == listener){
+        return s.getMetrics();
+      }
+    }
+    return null;
+  }
+
+  /*
+   * @return number of entries of the kind wanted by the listener published
+   *         before end, or -1 if it cannot be told any more.
+   */
+  private long countBefore(Subscriber s, long end){
+    if (end == 0){
+      return 0;
+    }
+    Slot slot = ring[(int)(end - 1) & (RING_SIZE - 1)];
+    synchronized (slot){
+      if (slot.sequence != end - 1){
+        return -1;
+      }
+      return (s.nmeaListener != null) ? slot.sentences : slot.events;
+    }
+  }
+
+  /*
+   * Copies the entry of the given sequence into the batch of a NMEA
+   * listener, or tells the event of a GpsStatus listener.
+   *
+   * @param count  index in the batch
+   * @param first  number of the first wanted entry to copy, among the
+   *               entries of its kind: older ones are beyond the queue size
+   * @return the event, 1 for a copied sentence, 0 if the entry is not
+   *         wanted or is too old, or -1 if it has been overwritten.
+   */
+  private int copyEntry(Subscriber s, long sequence, int count, long first){
+    Slot slot = ring[(int)sequence & (RING_SIZE - 1)];
+    synchronized (slot){
+      if (slot.sequence != sequence){
+        return -1;
+      }
+      if (!s.wants(slot.length)){
+        return 0;
+      }
+      long number = ((slot.length > 0) ? slot.sentences : slot.events) - 1;
+      if (number < first){
+        return 0;
+      }
+      s.copiedNumber = number;
+      if (count == 0){
+        s.oldestNanos = slot.nanos;
+      }
+      if (s.nmeaListener == null){
+        return slot.event;
+      }
+      int offset = (count == 0) ? 0 : s.offsets[count - 1] + s.lengths[count - 1];
+      System.arraycopy(slot.data, 0, s.data, offset, slot.length);
+      s.timestamps[count] = slot.timestamp;
+      s.offsets[count] = offset;
+      s.lengths[count] = slot.length;
+      return 1;
+    }
+  }
+
+  private void drain(Subscriber s){
+    long end = head;
+    // older slots have been overwritten
+    long cursor = Math.max(s.cursor, end - RING_SIZE);
+    // wanted entries beyond the queue size are dropped
+    long first = countBefore(s, end) - s.capacity;
+    long wanted = s.wanted;
+    int count = 0;
+    while (cursor < end && !s.removed){
+      int copied = copyEntry(s, cursor++, count, first);
+      if (copied <= 0){
+        // not wanted, or missed: counted by the gap before the next one
+        continue;
+      }
+      if (s.copiedNumber > wanted){
+        s.dropped += s.copiedNumber - wanted;
+      }
+      wanted = s.copiedNumber + 1;
+      if (s.nmeaListener == null){
+        s.cursor = cursor;
+        s.wanted = wanted;
+        notifyWaiting(s);
+        deliver(s, copied);
+        continue;
+      }
+      if (++count == BATCH_SIZE){
+        s.cursor = cursor;
+        s.wanted = wanted;
+        notifyWaiting(s);
+        deliver(s, count);
+        count = 0;
+      }
+    }
+    s.cursor = cursor;
+    s.wanted = wanted;
+    notifyWaiting(s);
+    if (count > 0){
+      deliver(s, count);
+    }
+  }
+
+  private void drainLatest(Subscriber s){
+    long end = head;
+    long cursor = Math.max(s.cursor, end - RING_SIZE);
+    s.cursor = end;
+    for (long sequence = end - 1; sequence >= cursor && !s.removed; sequence--){
+      int copied = copyEntry(s, sequence, 0, 0);
+      if (copied > 0){
+        // only the latest entry matters: older ones are coalesced, not dropped
+        if (s.copiedNumber > s.wanted){
+          s.coalesced += s.copiedNumber - s.wanted;
+        }
+        s.wanted = s.copiedNumber + 1;
+        deliver(s, (s.nmeaListener == null) ? copied : 1);
+        return;
+      }
+    }
+  }
+
+  private static void notifyWaiting(Subscriber s){
+    if (s.policy == OverflowPolicy.BLOCK){
+      synchronized (s){
+        s.notifyAll();
+      }
+    }
+  }
+
+  private static void recordLag(Subscriber s, long nanos, int count){
+    long lag = System.nanoTime() - nanos;
+    if (lag > s.maxLagNanos){
+      s.maxLagNanos = lag;
+    }
+    s.delivered += count;
+  }
+
+  /*
+   * Hands a batch of count sentences to a NMEA listener, or an event to a
+   * GpsStatus listener.
+   */
+  private static void deliver(Subscriber s, int countOrEvent){
+    if (s.nmeaListener == null){
+      recordLag(s, s.oldestNanos, 1);
+      s.statusListener.onGpsStatusChanged(countOrEvent);
+    } else {
+      recordLag(s, s.oldestNanos, countOrEvent);
+      s.nmeaListener.onNmeaBatch(s.timestamps, s.data, s.offsets, s.lengths, countOrEvent);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of the notification queue of one listener.
+ */
+public class ListenerMetrics {
+
+  private final OverflowPolicy policy;
+  private final int capacity;
+  private final int depth;
+  private final long delivered;
+  private final long dropped;
+  private final long coalesced;
+  private final long maxLagNanos;
+
+  ListenerMetrics(OverflowPolicy policy, int capacity, int depth,
+      long delivered, long dropped, long coalesced, long maxLagNanos){
+    this.policy = policy;
+    this.capacity = capacity;
+    this.depth = depth;
+    this.delivered = delivered;
+    this.dropped = dropped;
+    this.coalesced = coalesced;
+    this.maxLagNanos = maxLagNanos;
+  }
+
+  public OverflowPolicy getPolicy(){
+    return policy;
+  }
+
+  public int getCapacity(){
+    return capacity;
+  }
+
+  /**
+   * @return entries waiting for the listener.
+   */
+  public int getDepth(){
+    return depth;
+  }
+
+  public long getDelivered(){
+    return delivered;
+  }
+
+  /**
+   * @return entries lost because the listener fell behind.
+   */
+  public long getDropped(){
+    return dropped;
+  }
+
+  /**
+   * @return entries skipped on purpose by the COALESCE_LATEST policy.
+   */
+  public long getCoalesced(){
+    return coalesced;
+  }
+
+  /**
+   * @return longest time between the publication of an entry and its
+   * hand over to the listener.
+   */
+  public long getMaxLagNanos(){
+    return maxLagNanos;
+  }
+
+  @Override
+  public String toString(){
+    return String.format(Locale.US, "%s/%d depth=%d delivered=%d dropped=%d coalesced=%d maxLag=%.3fms",
+        policy, capacity, depth, delivered, dropped, coalesced, maxLagNanos / 1e6);
+  }
+}
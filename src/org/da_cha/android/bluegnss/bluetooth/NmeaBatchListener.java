@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+/**
+ * Receives NMEA sentences in batches, rather than one call per sentence
+ * as a GpsStatus.NmeaListener does.
+ */
+public interface NmeaBatchListener {
+  /**
+   * Called on the notification thread with the sentences received since
+   * the previous call, oldest first.
+   *
+   * Sentence i is the lengths[i] bytes of data from offsets[i], a complete
+   * sentence ($....*XY\r\n) in 7-bit ASCII. The arrays are reused between
+   * calls: only the first count elements are meaningful, and only until
+   * this method returns.
+   *
+   * @param timestamps  reception time of each sentence, in milliseconds
+   * @param data        bytes of the sentences
+   * @param offsets     where each sentence starts in data
+   * @param lengths     length of each sentence
+   * @param count       number of sentences in the batch
+   */
+  void onNmeaBatch(long[] timestamps, byte[] data, int[] offsets, int[] lengths, int count);
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+/**
+ * What to do when a listener falls behind by more than its queue size.
+ */
+public enum OverflowPolicy {
+  /**
+   * Make the framing thread wait for the listener, for a bounded time
+   * after which the oldest entries are dropped anyway, without waiting,
+   * until the listener catches up. Nothing is lost for short stalls, but
+   * the provider itself is slowed down meanwhile.
+   */
+  BLOCK,
+  /**
+   * Drop the oldest entries the listener has not got yet.
+   */
+  DROP_OLDEST,
+  /**
+   * Only hand over the latest entry each time the listener is called,
+   * ex. for a display which only needs the current status.
+   */
+  COALESCE_LATEST
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.da_cha.android.bluegnss.util.LatencyStats;
+
+/**
+ * Decides when to (re)connect to the receiver, and tracks the state of the
+ * connection.
+ *
+ * Connection attempts are not polled: the first one is scheduled when the
+ * manager is enabled, and the next one when an attempt fails or when the
+ * reading thread ends. After a connection which was streaming for at
+ * least MIN_STREAMING is lost, the first attempt is made at once.
+ * Following failed attempts wait an exponential backoff, from BASE_DELAY
+ * doubling up to MAX_DELAY, with "equal jitter": half of the delay is
+ * fixed and half is random, so that a dead device is not tried at a
+ * steady beat, yet never in a tight loop. A connection lost before any
+ * sentence came, or streaming for less than MIN_STREAMING, counts as a
+ * failed attempt: a link which drops every few sentences backs off too.
+ *
+ * State changes are notified to ConnectionStateListeners, outside of the
+ * scheduler lock. The time from a loss to streaming again and the number
+ * of attempts it took are recorded, to tune the time to first fix after a
+ * dropout.
+ */
+class ReconnectScheduler {
+
+  static final long BASE_DELAY = 1000;
+  /**
+   * Longest wait between attempts: the former fixed connection period.
+   */
+  static final long MAX_DELAY = 60000;
+  /**
+   * Shortest streaming, a few epochs, after which the failures are forgotten.
+   */
+  static final long MIN_STREAMING = 5000;
+
+  private final CopyOnWriteArrayList<ConnectionStateListener> listeners =
+      new CopyOnWriteArrayList<ConnectionStateListener>();
+  private final Random random = new Random();
+  private final LatencyStats reconnectTime = new LatencyStats();
+  private final LatencyStats connectTime = new LatencyStats();
+  private final long minStreamingNanos;
+
+  private ScheduledExecutorService executor;
+  private Runnable connectTask;
+  private ScheduledFuture<?> pending;
+  private ConnectionState state = ConnectionState.IDLE;
+  private long nextDelay = 0;
+  /**
+   * Failed attempts since the connection last streamed for MIN_STREAMING.
+   */
+  private int failures = 0;
+  private long streamingNanos = 0;
+  /**
+   * When the connection was lost, or when the scheduler started.
+   */
+  private long downNanos = 0;
+  private long attemptNanos = 0;
+  private boolean streamedOnce = false;
+  private long startupNanos = -1;
+  private int attemptsSinceDown = 0;
+  private int lastAttempts = 0;
+  private long attempts = 0;
+  private long failedAttempts = 0;
+  private long reconnects = 0;
+
+  ReconnectScheduler(){
+    this(MIN_STREAMING);
+  }
+
+  /**
+   * @param minStreaming  shortest streaming after which the failures are forgotten, in ms
+   */
+  ReconnectScheduler(long minStreaming){
+    this.minStreamingNanos = minStreaming * 1000000L;
+  }
+
+  void addListener(ConnectionStateListener listener){
+    listeners.addIfAbsent(listener);
+  }
+
+  void removeListener(ConnectionStateListener listener){
+    listeners.remove(listener);
+  }
+
+  /**
+   * Schedules the first attempt at once.
+   *
+   * @param executor     where connectTask runs
+   * @param connectTask  attempts to connect once, and reports the result
+   */
+  void start(ScheduledExecutorService executor, Runnable connectTask){
+    synchronized (this){
+      this.executor = executor;
+      this.connectTask = connectTask;
+      failures = 0;
+      streamedOnce = false;
+      startupNanos = -1;
+      attemptsSinceDown = 0;
+      downNanos = System.nanoTime();
+      schedule(0);
+    }
+    notifyState();
+  }
+
+  /**
+   * Cancels the pending attempt, if any. Later reports are ignored until
+   * started again.
+   */
+  void stop(){
+    synchronized (this){
+      if (pending != null){
+        pending.cancel(false);
+        pending = null;
+      }
+      if (state == ConnectionState.IDLE){
+        return;
+      }
+      state = ConnectionState.IDLE;
+      nextDelay = 0;
+    }
+    notifyState();
+  }
+
+  /**
+   * Reported by the connect task when it begins an attempt.
+   */
+  void connecting(){
+    synchronized (this){
+      pending = null;
+      if (state == ConnectionState.IDLE){
+        return;
+      }
+      attempts++;
+      attemptsSinceDown++;
+      attemptNanos = System.nanoTime();
+      state = ConnectionState.CONNECTING;
+      nextDelay = 0;
+    }
+    notifyState();
+  }
+
+  /**
+   * Reported by the connect task when the link is open.
+   */
+  synchronized void connected(){
+    connectTime.record(System.nanoTime() - attemptNanos);
+  }
+
+  /**
+   * Reported by the connect task when the attempt failed.
+   */
+  void connectFailed(){
+    synchronized (this){
+      if (state == ConnectionState.IDLE){
+        return;
+      }
+      failedAttempts++;
+      failures++;
+      schedule(backoffDelay());
+    }
+    notifyState();
+  }
+
+  /**
+   * Reported when the first sentence of a connection comes.
+   */
+  void streaming(){
+    synchronized (this){
+      if (state == ConnectionState.IDLE || state == ConnectionState.STREAMING){
+        return;
+      }
+      long elapsed = System.nanoTime() - downNanos;
+      if (streamedOnce){
+        reconnects++;
+        reconnectTime.record(elapsed);
+      } else {
+        startupNanos = elapsed;
+      }
+      streamedOnce = true;
+      lastAttempts = attemptsSinceDown;
+      attemptsSinceDown = 0;
+      streamingNanos = System.nanoTime();
+      state = ConnectionState.STREAMING;
+      nextDelay = 0;
+    }
+    notifyState();
+  }
+
+  /**
+   * Reported when no data came for too long, before the link is closed.
+   */
+  void stalled(){
+    synchronized (this){
+      if (state != ConnectionState.STREAMING){
+        return;
+      }
+      state = ConnectionState.STALLED;
+    }
+    notifyState();
+  }
+
+  /**
+   * Reported when the reading thread ends.
+   */
+  void connectionLost(){
+    synchronized (this){
+      if (state == ConnectionState.IDLE){
+        return;
+      }
+      boolean streamed = (state == ConnectionState.STREAMING || state == ConnectionState.STALLED);
+      long now = System.nanoTime();
+      if (streamed){
+        downNanos = now;
+      }
+      if (streamed && now - streamingNanos >= minStreamingNanos){
+        failures = 0;
+        schedule(0);
+      } else {
+        // lost before anything came, or soon after: no better than a failed attempt
+        failedAttempts++;
+        failures++;
+        schedule(backoffDelay());
+      }
+    }
+    notifyState();
+  }
+
+  synchronized ConnectionState getState(){
+    return state;
+  }
+
+  /**
+   * @return time until the next attempt, when in BACKOFF.
+   */
+  synchronized long getNextDelay(){
+    return nextDelay;
+  }
+
+  /**
+   * @return time from losing a streaming connection to streaming again.
+   */
+  LatencyStats getReconnectTime(){
+    return reconnectTime;
+  }
+
+  /**
+   * @return time taken by the successful attempts to open the link.
+   */
+  LatencyStats getConnectTime(){
+    return connectTime;
+  }
+
+  synchronized long getAttemptCount(){
+    return attempts;
+  }
+
+  synchronized long getFailedAttemptCount(){
+    return failedAttempts;
+  }
+
+  /**
+   * @return attempts it took to stream again, for the last connection.
+   */
+  synchronized int getLastAttemptCount(){
+    return lastAttempts;
+  }
+
+  @Override
+  public synchronized String toString(){
+    return String.format(Locale.US,
+        "%s, attempts=%d failed=%d startup=%.1fs reconnects=%d last attempts=%d reconnect time: %s",
+        state, attempts, failedAttempts, startupNanos / 1e9, reconnects, lastAttempts, reconnectTime);
+  }
+
+  /*
+   * Equal jitter: half of the exponential delay, plus up to the other half.
+   */
+  private long backoffDelay(){
+    long delay = Math.min(MAX_DELAY, BASE_DELAY << Math.min(failures - 1, 16));
+    long half = delay / 2;
+    return half + (long)(random.nextDouble() * (delay - half));
+  }
+
+  private void schedule(long delay){
+    if (pending != null){
+      pending.cancel(false);
+    }
+    state = ConnectionState.BACKOFF;
+    nextDelay = delay;
+    try {
+      pending = executor.schedule(connectTask, delay, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e){
+      // shutting down
+      pending = null;
+    }
+  }
+
+  private void notifyState(){
+    ConnectionState current;
+    long delay;
+    synchronized (this){
+      current = state;
+      delay = nextDelay;
+    }
+    for (ConnectionStateListener listener : listeners){
+      listener.onConnectionStateChanged(current, delay);
+    }
+  }
+}
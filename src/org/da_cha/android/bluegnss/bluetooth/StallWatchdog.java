@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.bluetooth;
+
+import java.util.Locale;
+
+import org.da_cha.android.bluegnss.util.nmea.NmeaParserUtil;
+
+/**
+ * Tells when a connection which is open has stopped bringing fixes.
+ *
+ * It learns the epoch of the receiver, the time between two fixes, from
+ * the stream itself: the time of day of GGA, RMC, GNS, GLL and ZDA
+ * sentences, or of SiRF binary MID 41 messages, changes once per epoch, and a change becomes the nominal
+ * epoch once it has been seen LEARN_EPOCHS times in a row, so that a
+ * missed sentence is not taken for a new rate, while a rate change (ex.
+ * when the output rate is lowered) is followed. Using the receiver's own
+ * clock keeps the Bluetooth jitter out of the estimate.
+ *
+ * The connection is stalled when no new epoch has come for the allowed
+ * number of missed epochs, plus half an epoch of tolerance, bounded by
+ * MIN_TIMEOUT and MAX_TIMEOUT. Until an epoch is known, and until the
+ * time has moved on the current connection, any valid frame keeps the
+ * connection alive for MAX_TIMEOUT: a receiver acquiring time sends
+ * sentences without time, or with a frozen one, and is not stalled.
+ *
+ * The watchdog has no thread: the framing thread feeds it the sentences,
+ * and waits for data at most timeLeft(), so it notices a silent stream
+ * without polling. The learnt epoch is kept across connections.
+ */
+class StallWatchdog {
+
+  static final int DEFAULT_MISSED_EPOCHS = 3;
+  static final long MIN_TIMEOUT = 250;
+  static final long MAX_TIMEOUT = 5000;
+  private static final int LEARN_EPOCHS = 3;
+  private static final long DAY_MILLIS = 24 * 3600 * 1000L;
+
+  private volatile int missedEpochs = DEFAULT_MISSED_EPOCHS;
+  /**
+   * Nominal epoch in ms, 0 until known.
+   */
+  private volatile long epoch = 0;
+  private long candidate = 0;
+  private int candidateCount = 0;
+  private long lastUtc = -1;
+  private long lastEpochNanos;
+  // the time has moved on the current connection
+  private boolean timed = false;
+  private volatile long stalls = 0;
+
+  /**
+   * @param missedEpochs  epochs without a fix after which the connection is stalled
+   */
+  void setMissedEpochs(int missedEpochs){
+    this.missedEpochs = Math.max(1, missedEpochs);
+  }
+
+  /**
+   * Starts watching a new connection.
+   */
+  void reset(long nanos){
+    lastUtc = -1;
+    lastEpochNanos = nanos;
+    timed = false;
+  }
+
+  /**
+   * @param nanos  time the sentence was read
+   */
+  void onSentence(byte[] buffer, int offset, int length, long nanos){
+    onTime(NmeaParserUtil.getUtcMillis(buffer, offset, length), nanos);
+  }
+
+  /**
+   * @param utc    time of day carried by a sentence or message in ms, -1 if none
+   * @param nanos  time it was read
+   */
+  void onTime(long utc, long nanos){
+    if (epoch == 0 || !timed){
+      // no epoch to wait for yet, any frame is alive
+      lastEpochNanos = nanos;
+    }
+    if (utc < 0 || utc == lastUtc){
+      return;
+    }
+    if (lastUtc >= 0){
+      timed = true;
+      long delta = utc - lastUtc;
+      if (delta < 0){
+        // past midnight
+        delta += DAY_MILLIS;
+      }
+      learn(delta);
+    }
+    lastUtc = utc;
+    lastEpochNanos = nanos;
+  }
+
+  /**
+   * @return nanoseconds left before the connection is stalled, if no epoch comes.
+   */
+  long timeLeft(long nanos){
+    return lastEpochNanos + getTimeout() * 1000000L - nanos;
+  }
+
+  /**
+   * Counts a stall, once the connection is closed because of it.
+   */
+  void stalled(){
+    stalls++;
+  }
+
+  /**
+   * @return time without a new epoch after which the connection is stalled, in ms.
+   */
+  long getTimeout(){
+    long e = epoch;
+    if (e == 0){
+      return MAX_TIMEOUT;
+    }
+    return Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, missedEpochs * e + e / 2));
+  }
+
+  /**
+   * @return nominal epoch of the receiver in ms, 0 until known.
+   */
+  long getEpoch(){
+    return epoch;
+  }
+
+  long getStallCount(){
+    return stalls;
+  }
+
+  @Override
+  public String toString(){
+    return String.format(Locale.US, "epoch=%dms timeout=%dms stalls=%d", epoch, getTimeout(), stalls);
+  }
+
+  private void learn(long delta){
+    if (delta > MAX_TIMEOUT || delta == epoch){
+      // a gap, or the known epoch
+      candidateCount = 0;
+      return;
+    }
+    if (delta == candidate){
+      candidateCount++;
+    } else {
+      candidate = delta;
+      candidateCount = 1;
+    }
+    if (candidateCount >= LEARN_EPOCHS){
+      epoch = delta;
+      candidateCount = 0;
+    }
+  }
+}
@@ -132,6 +132,9 @@ public class MockLocationProvider {
   public void setMockLocationProviderOutOfService(){
     notifyStatusChanged(LocationProvider.OUT_OF_SERVICE, null, System.currentTimeMillis());
   }
+  public void setMockLocationProviderTemporarilyUnavailable(){
+    notifyStatusChanged(LocationProvider.TEMPORARILY_UNAVAILABLE, null, System.currentTimeMillis());
+  }
   public void setMockLocationProviderAvailable(){
     notifyStatusChanged(LocationProvider.AVAILABLE, null, System.currentTimeMillis());
   }
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.tracker;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+
+/**
+ * Reads compressed track files (.nmz), written by the TrackRecorder.
+ *
+ * Such a file holds the sentences as received, in Deflate compressed
+ * blocks which can be read independently of each other:
+ *
+ * <pre>
+ *  "BGNZ" version(1)
+ *  block*:   'B' compressedLength(4) rawLength(4) count(4) firstTime(8) lastTime(8)
+ *            firstUtc(8) lastUtc(8)
+ *            deflate(count x [varint zigzag time delta, varint length], sentence bytes)
+ *  index:    count x [firstTime(8) lastTime(8) firstUtc(8) lastUtc(8) offset(8)]
+ *  trailer:  indexOffset(8) count(4) "BGNX"
+ * </pre>
+ *
+ * Times are in ms since the epoch. The reception time of each sentence is
+ * kept, as a delta from the previous one, for replaying at the pace it
+ * was received. The UTC time of a sentence is the one it carries, see
+ * SentenceClock; blocks are indexed and exported by the range of UTC times
+ * of their sentences, as the host clock may be off. The index is only
+ * written when the file is closed: when it is missing, ex. after a crash,
+ * the blocks are found by scanning the file, and a truncated last block
+ * is ignored.
+ *
+ * Sentences are kept byte for byte, so that export() gives back the plain
+ * NMEA file which would have been recorded.
+ */
+public class BlockTrackReader implements Closeable {
+
+  public static final String EXTENSION = ".nmz";
+
+  static final int FILE_MAGIC = 0x42474e5a;     // "BGNZ"
+  static final int TRAILER_MAGIC = 0x42474e58;  // "BGNX"
+  static final byte VERSION = 2;
+  static final byte BLOCK_MARK = 'B';
+  static final int FILE_HEADER_SIZE = 5;
+  static final int BLOCK_HEADER_SIZE = 45;
+  static final int INDEX_ENTRY_SIZE = 40;
+  static final int TRAILER_SIZE = 16;
+
+  /**
+   * The sentences of one block.
+   */
+  public static final class Block {
+    private final byte[] data;
+    private final long[] times;
+    private final long[] utcs;
+    private final int[] ends;
+    private final int count;
+
+    Block(byte[] data, long[] times, long[] utcs, int[] ends, int count){
+      this.data = data;
+      this.times = times;
+      this.utcs = utcs;
+      this.ends = ends;
+      this.count = count;
+    }
+
+    public int getSentenceCount(){
+      return count;
+    }
+
+    /**
+     * @return reception time of the sentence, in ms since the epoch.
+     */
+    public long getReceptionTime(int i){
+      return times[i];
+    }
+
+    /**
+     * @return UTC time of the sentence, in ms since the epoch.
+     */
+    public long getUtc(int i){
+      return utcs[i];
+    }
+
+    /**
+     * @return the sentence, with its CR/LF.
+     */
+    public String getSentence(int i){
+      int start = getStart(i);
+      return new String(data, start, ends[i] - start, NmeaTokenizer.US_ASCII);
+    }
+
+    /**
+     * Writes the sentences whose UTC time is in [from, to) as plain NMEA.
+     */
+    public void writeTo(OutputStream out, long from, long to) throws IOException {
+      int i = 0;
+      while (i < count){
+        if (utcs[i] < from || utcs[i] >= to){
+          i++;
+          continue;
+        }
+        // write consecutive sentences at once
+        int start = getStart(i);
+        while (i < count && utcs[i] >= from && utcs[i] < to){
+          i++;
+        }
+        out.write(data, start, ends[i-1] - start);
+      }
+    }
+
+    /**
+     * @return bytes of all the sentences of the block.
+     */
+    byte[] getData(){
+      return data;
+    }
+
+    private int getStart(int i){
+      return (i == 0) ? 0 : ends[i-1];
+    }
+  }
+
+  private final RandomAccessFile file;
+  private final Inflater inflater = new Inflater();
+  private final byte[] header = new byte[BLOCK_HEADER_SIZE];
+  private byte[] compressed = new byte[0];
+  private long[] firstTimes;
+  private long[] lastTimes;
+  private long[] firstUtcs;
+  private long[] lastUtcs;
+  private long[] offsets;
+  private final SentenceClock clock = new SentenceClock();
+  private int blocks;
+
+  public BlockTrackReader(File trackFile) throws IOException {
+    file = new RandomAccessFile(trackFile, "r");
+    try {
+      if (file.length() < FILE_HEADER_SIZE || file.readInt() != FILE_MAGIC){
+        throw new IOException("not a compressed track file: "+trackFile);
+      }
+      if (file.readByte() != VERSION){
+        throw new IOException("unsupported track file version: "+trackFile);
+      }
+      if (!readIndex()){
+        scanBlocks();
+      }
+    } catch (IOException e){
+      file.close();
+      throw e;
+    }
+  }
+
+  public int getBlockCount(){
+    return blocks;
+  }
+
+  /**
+   * @return reception time of the first sentence of the block.
+   */
+  public long getFirstReceptionTime(int block){
+    return firstTimes[block];
+  }
+
+  /**
+   * @return reception time of the last sentence of the block.
+   */
+  public long getLastReceptionTime(int block){
+    return lastTimes[block];
+  }
+
+  /**
+   * @return earliest UTC time of the sentences of the block.
+   */
+  public long getFirstUtc(int block){
+    return firstUtcs[block];
+  }
+
+  /**
+   * @return latest UTC time of the sentences of the block.
+   */
+  public long getLastUtc(int block){
+    return lastUtcs[block];
+  }
+
+  /**
+   * @return first block holding sentences of UTC time utc or later, -1 if none.
+   */
+  public int findBlock(long utc){
+    int low = 0;
+    int high = blocks - 1;
+    int found = -1;
+    while (low <= high){
+      int mid = (low + high) >>> 1;
+      if (lastUtcs[mid] >= utc){
+        found = mid;
+        high = mid - 1;
+      } else {
+        low = mid + 1;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Reads and decompresses one block.
+   */
+  public Block readBlock(int block) throws IOException {
+    file.seek(offsets[block]);
+    file.readFully(header);
+    int compressedLength = getInt(header, 1);
+    int rawLength = getInt(header, 5);
+    int count = getInt(header, 9);
+    long firstTime = getLong(header, 13);
+    if (compressed.length < compressedLength){
+      compressed = new byte[compressedLength];
+    }
+    file.readFully(compressed, 0, compressedLength);
+    byte[] raw = new byte[rawLength];
+    inflater.reset();
+    inflater.setInput(compressed, 0, compressedLength);
+    try {
+      int n = 0;
+      while (n < rawLength && !inflater.finished()){
+        int inflated = inflater.inflate(raw, n, rawLength - n);
+        if (inflated == 0 && inflater.needsInput()){
+          break;
+        }
+        n += inflated;
+      }
+      if (n != rawLength){
+        throw new IOException("corrupted track block at "+offsets[block]);
+      }
+    } catch (DataFormatException e){
+      throw new IOException("corrupted track block at "+offsets[block], e);
+    }
+
+    long[] times = new long[count];
+    long[] utcs = new long[count];
+    int[] ends = new int[count];
+    int[] pos = {0};
+    long time = firstTime;
+    int end = 0;
+    for (int i = 0; i < count; i++){
+      time += unzigzag(getVarint(raw, pos));
+      end += getVarint(raw, pos);
+      times[i] = time;
+      ends[i] = end;
+    }
+    byte[] data = new byte[rawLength - pos[0]];
+    System.arraycopy(raw, pos[0], data, 0, data.length);
+    clock.reset();
+    int start = 0;
+    for (int i = 0; i < count; i++){
+      utcs[i] = clock.next(times[i], data, start, ends[i] - start);
+      start = ends[i];
+    }
+    return new Block(data, times, utcs, ends, count);
+  }
+
+  /**
+   * Writes the whole track as plain NMEA.
+   */
+  public void export(OutputStream out) throws IOException {
+    export(out, Long.MIN_VALUE, Long.MAX_VALUE);
+  }
+
+  /**
+   * Writes the sentences whose UTC time is in [from, to) as plain NMEA,
+   * only reading the blocks which hold some.
+   */
+  public void export(OutputStream out, long from, long to) throws IOException {
+    int first = findBlock(from);
+    if (first < 0){
+      return;
+    }
+    for (int i = first; i < blocks && firstUtcs[i] < to; i++){
+      readBlock(i).writeTo(out, from, to);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    inflater.end();
+    file.close();
+  }
+
+  /*
+   * Reads the trailing index.
+   * @return false if there is none.
+   */
+  private boolean readIndex() throws IOException {
+    long length = file.length();
+    if (length < FILE_HEADER_SIZE + TRAILER_SIZE){
+      return false;
+    }
+    file.seek(length - TRAILER_SIZE);
+    long indexOffset = file.readLong();
+    int count = file.readInt();
+    if (file.readInt() != TRAILER_MAGIC
+        || count < 0
+        || indexOffset + (long)count * INDEX_ENTRY_SIZE + TRAILER_SIZE != length){
+      return false;
+    }
+    allocate(count);
+    file.seek(indexOffset);
+    for (int i = 0; i < count; i++){
+      firstTimes[i] = file.readLong();
+      lastTimes[i] = file.readLong();
+      firstUtcs[i] = file.readLong();
+      lastUtcs[i] = file.readLong();
+      offsets[i] = file.readLong();
+    }
+    blocks = count;
+    return true;
+  }
+
+  /*
+   * Builds the index from the block headers, when the file was not closed.
+   */
+  private void scanBlocks() throws IOException {
+    allocate(64);
+    long length = file.length();
+    long offset = FILE_HEADER_SIZE;
+    blocks = 0;
+    while (offset + BLOCK_HEADER_SIZE <= length){
+      file.seek(offset);
+      try {
+        file.readFully(header);
+      } catch (EOFException e){
+        break;
+      }
+      int compressedLength = getInt(header, 1);
+      long next = offset + BLOCK_HEADER_SIZE + compressedLength;
+      if (header[0] != BLOCK_MARK || compressedLength < 0 || next > length){
+        // truncated or not a block: end of what was written
+        break;
+      }
+      if (blocks == offsets.length){
+        long[] f = firstTimes, l = lastTimes, fu = firstUtcs, lu = lastUtcs, o = offsets;
+        allocate(blocks * 2);
+        System.arraycopy(f, 0, firstTimes, 0, blocks);
+        System.arraycopy(l, 0, lastTimes, 0, blocks);
+        System.arraycopy(fu, 0, firstUtcs, 0, blocks);
+        System.arraycopy(lu, 0, lastUtcs, 0, blocks);
+        System.arraycopy(o, 0, offsets, 0, blocks);
+      }
+      firstTimes[blocks] = getLong(header, 13);
+      lastTimes[blocks] = getLong(header, 21);
+      firstUtcs[blocks] = getLong(header, 29);
+      lastUtcs[blocks] = getLong(header, 37);
+      offsets[blocks] = offset;
+      blocks++;
+      offset = next;
+    }
+  }
+
+  private void allocate(int size){
+    firstTimes = new long[size];
+    lastTimes = new long[size];
+    firstUtcs = new long[size];
+    lastUtcs = new long[size];
+    offsets = new long[size];
+  }
+
+  static int zigzag(int value){
+    return (value << 1) ^ (value >> 31);
+  }
+
+  static int unzigzag(int value){
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static int getVarint(byte[] buffer, int[] pos){
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer[pos[0]++];
+      value |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  private static int getInt(byte[] b, int off){
+    return ((b[off] & 0xff) << 24) | ((b[off+1] & 0xff) << 16)
+      | ((b[off+2] & 0xff) << 8) | (b[off+3] & 0xff);
+  }
+
+  private static long getLong(byte[] b, int off){
+    return ((long)getInt(b, off) << 32) | (getInt(b, off + 4) & 0xffffffffL);
+  }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.tracker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a compressed track file, as described in BlockTrackReader:
+ * each block of the recorder is deflated on its own, and an index of the
+ * blocks is appended when the file is closed.
+ */
+final class BlockTrackWriter extends TrackWriter {
+
+  private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+  private final ByteBuffer header = ByteBuffer.allocate(BlockTrackReader.BLOCK_HEADER_SIZE);
+  private byte[] raw = new byte[0];
+  private byte[] compressed = new byte[0];
+  private final SentenceClock clock = new SentenceClock();
+  private long firstUtc;
+  private long lastUtc;
+
+  private long[] firstTimes = new long[64];
+  private long[] lastTimes = new long[64];
+  private long[] firstUtcs = new long[64];
+  private long[] lastUtcs = new long[64];
+  private long[] offsets = new long[64];
+  private int blocks = 0;
+
+  @Override
+  String getExtension(){
+    return BlockTrackReader.EXTENSION;
+  }
+
+  @Override
+  void begin(FileChannel channel) throws IOException {
+    ByteBuffer magic = ByteBuffer.allocate(BlockTrackReader.FILE_HEADER_SIZE);
+    magic.putInt(BlockTrackReader.FILE_MAGIC).put(BlockTrackReader.VERSION).flip();
+    writeFully(channel, magic);
+  }
+
+  @Override
+  long write(FileChannel channel, TrackBlock block) throws IOException {
+    int rawLength = fill(block);
+    deflater.reset();
+    deflater.setInput(raw, 0, rawLength);
+    deflater.finish();
+    int compressedLength = 0;
+    while (!deflater.finished()){
+      if (compressedLength == compressed.length){
+        byte[] larger = new byte[Math.max(4096, compressed.length * 2)];
+        System.arraycopy(compressed, 0, larger, 0, compressedLength);
+        compressed = larger;
+      }
+      compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+    }
+
+    long offset = channel.position();
+    header.clear();
+    header.put(BlockTrackReader.BLOCK_MARK)
+      .putInt(compressedLength).putInt(rawLength).putInt(block.count)
+      .putLong(block.firstTime).putLong(block.lastTime)
+      .putLong(firstUtc).putLong(lastUtc)
+      .flip();
+    writeFully(channel, header);
+    writeFully(channel, ByteBuffer.wrap(compressed, 0, compressedLength));
+    addToIndex(block.firstTime, block.lastTime, offset);
+    return BlockTrackReader.BLOCK_HEADER_SIZE + compressedLength;
+  }
+
+  /**
+   * Writes the index, so that the reader has not to scan the blocks.
+   */
+  @Override
+  void end(FileChannel channel) throws IOException {
+    long indexOffset = channel.position();
+    ByteBuffer index = ByteBuffer.allocate(blocks * BlockTrackReader.INDEX_ENTRY_SIZE + BlockTrackReader.TRAILER_SIZE);
+    for (int i = 0; i < blocks; i++){
+      index.putLong(firstTimes[i]).putLong(lastTimes[i])
+        .putLong(firstUtcs[i]).putLong(lastUtcs[i]).putLong(offsets[i]);
+    }
+    index.putLong(indexOffset).putInt(blocks).putInt(BlockTrackReader.TRAILER_MAGIC).flip();
+    writeFully(channel, index);
+    deflater.end();
+  }
+
+  /*
+   * Copies the block into raw: for each sentence, its time from the
+   * previous one and its length as varints, then the bytes of all the
+   * sentences. Also finds the range of their UTC times.
+   * @return length of raw
+   */
+  private int fill(TrackBlock block){
+    int dataLength = block.data.remaining();
+    int needed = block.count * 10 + dataLength;
+    if (raw.length < needed){
+      raw = new byte[needed];
+    }
+    int pos = 0;
+    int previousTime = 0;
+    int previousEnd = 0;
+    for (int i = 0; i < block.count; i++){
+      pos = putVarint(raw, pos, BlockTrackReader.zigzag(block.times[i] - previousTime));
+      pos = putVarint(raw, pos, block.ends[i] - previousEnd);
+      previousTime = block.times[i];
+      previousEnd = block.ends[i];
+    }
+    block.data.get(raw, pos, dataLength);
+    clock.reset();
+    firstUtc = Long.MAX_VALUE;
+    lastUtc = Long.MIN_VALUE;
+    int start = 0;
+    for (int i = 0; i < block.count; i++){
+      long utc = clock.next(block.firstTime + block.times[i], raw, pos + start, block.ends[i] - start);
+      firstUtc = Math.min(firstUtc, utc);
+      lastUtc = Math.max(lastUtc, utc);
+      start = block.ends[i];
+    }
+    return pos + dataLength;
+  }
+
+  private static int putVarint(byte[] buffer, int pos, int value){
+    while ((value & ~0x7f) != 0){
+      buffer[pos++] = (byte)((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    buffer[pos++] = (byte)value;
+    return pos;
+  }
+
+  private void addToIndex(long firstTime, long lastTime, long offset){
+    if (blocks == offsets.length){
+      firstTimes = grow(firstTimes);
+      lastTimes = grow(lastTimes);
+      firstUtcs = grow(firstUtcs);
+      lastUtcs = grow(lastUtcs);
+      offsets = grow(offsets);
+    }
+    firstTimes[blocks] = firstTime;
+    lastTimes[blocks] = lastTime;
+    firstUtcs[blocks] = firstUtc;
+    lastUtcs[blocks] = lastUtc;
+    offsets[blocks] = offset;
+    blocks++;
+  }
+
+  private static long[] grow(long[] array){
+    long[] larger = new long[array.length * 2];
+    System.arraycopy(array, 0, larger, 0, array.length);
+    return larger;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()){
+      channel.write(buffer);
+    }
+  }
+}
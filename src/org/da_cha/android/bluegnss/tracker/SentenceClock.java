@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.tracker;
+
+import org.da_cha.android.bluegnss.util.nmea.NmeaParserUtil;
+
+/**
+ * UTC time of the sentences of a block, from their own time fields.
+ *
+ * The time of day of GGA, RMC, GNS, ZDA and GLL is put on the date of
+ * the last RMC or ZDA, or else on the day nearest to the reception time.
+ * Sentences without a time, as GSA and GSV, take the one of the sentence
+ * before them, and the reception time until there is one. Each block is
+ * read on its own, so the writer and the reader start a clock per block.
+ */
+final class SentenceClock {
+
+  private static final long DAY = 86400000L;
+  private static final long HALF_DAY = DAY / 2;
+
+  private long date = -1;
+  private long utc = -1;
+
+  void reset(){
+    date = -1;
+    utc = -1;
+  }
+
+  /**
+   * @return UTC time of the sentence, in ms since the epoch.
+   */
+  long next(long receptionTime, byte[] buffer, int offset, int length){
+    long sentenceDate = NmeaParserUtil.getUtcDateMillis(buffer, offset, length);
+    if (sentenceDate >= 0){
+      date = sentenceDate;
+    }
+    long timeOfDay = NmeaParserUtil.getUtcMillis(buffer, offset, length);
+    if (timeOfDay >= 0){
+      if (date >= 0){
+        long time = date + timeOfDay;
+        if (utc >= 0 && time < utc - HALF_DAY){
+          // past midnight since the last date
+          date += DAY;
+          time += DAY;
+        }
+        utc = time;
+      } else {
+        long time = receptionTime - (receptionTime % DAY) + timeOfDay;
+        if (time - receptionTime > HALF_DAY){
+          time -= DAY;
+        } else if (receptionTime - time > HALF_DAY){
+          time += DAY;
+        }
+        utc = time;
+      }
+    }
+    return (utc >= 0) ? utc : receptionTime;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.tracker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sentences collected by the TrackRecorder between two commits: their
+ * bytes, in a direct buffer, and the time each one was received.
+ */
+final class TrackBlock {
+
+  /**
+   * Shortest sentence we expect, to size the table of times.
+   */
+  private static final int MIN_SENTENCE_LENGTH = 16;
+
+  final ByteBuffer data;
+  /**
+   * Reception time of each sentence, in ms from firstTime.
+   */
+  final int[] times;
+  /**
+   * End of each sentence in data.
+   */
+  final int[] ends;
+  int count = 0;
+  long firstTime = 0;
+  long lastTime = 0;
+
+  TrackBlock(int capacity){
+    data = ByteBuffer.allocateDirect(capacity);
+    times = new int[capacity / MIN_SENTENCE_LENGTH];
+    ends = new int[times.length];
+  }
+
+  /**
+   * @return true if there is room left for a sentence of this length.
+   */
+  boolean hasRoom(int length){
+    return count < times.length && data.remaining() >= length;
+  }
+
+  /**
+   * Records the time and end of a sentence whose bytes have just been put in data.
+   */
+  void endSentence(long time){
+    if (count == 0){
+      firstTime = time;
+    }
+    times[count] = (int)(time - firstTime);
+    ends[count] = data.position();
+    count++;
+    lastTime = time;
+  }
+
+  boolean isEmpty(){
+    return count == 0;
+  }
+
+  void clear(){
+    data.clear();
+    count = 0;
+    firstTime = 0;
+    lastTime = 0;
+  }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.tracker;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.da_cha.android.bluegnss.bluetooth.NmeaBatchListener;
+
+import android.util.Log;
+
+/**
+ * Records NMEA sentences in track files.
+ *
+ * Sentences are appended, as bytes, to large direct buffers on the
+ * notification thread. Buffers are written with a FileChannel by a writer
+ * thread of the recorder, which commits them when they are full or every
+ * commit interval, whichever comes first, and forces the file to the
+ * storage every sync interval. A crash thus loses at most the last commit
+ * interval, and a power loss at most the last sync interval.
+ *
+ * Neither the framing thread nor the notification thread ever waits for
+ * the storage: when all the buffers are waiting to be written, new
+ * sentences are dropped, and counted.
+ *
+ * Files are named prefix_yyyy-MM-dd_HH-mm-ss.nmea, and a new one is started
+ * when the current one reaches the rotation size or age, between two
+ * sentences.
+ *
+ * When writing fails, the file is closed and a new one is started at the
+ * next commit; when the new file fails as well, the recording stops and
+ * isRecording() turns false.
+ *
+ * Tracks can also be recorded compressed (.nmz), one Deflate block per
+ * commit, with an index of the blocks by time; see BlockTrackReader.
+ * A longer commit interval gives larger blocks, which compress better.
+ */
+public class TrackRecorder implements NmeaBatchListener {
+
+  private static final String LOG_TAG = "BlueGNSS";
+
+  public static final int DEFAULT_COMMIT_SIZE = 64 * 1024;
+  public static final long DEFAULT_COMMIT_INTERVAL = 1000;
+  public static final long DEFAULT_SYNC_INTERVAL = 5000;
+  /**
+   * Commit interval advised for compressed tracks.
+   */
+  public static final long COMPRESSED_COMMIT_INTERVAL = 10000;
+  private static final int BUFFERS = 4;
+  /**
+   * Handed over by close() to stop the writer thread.
+   */
+  private static final TrackBlock END = new TrackBlock(0);
+
+  private final File directory;
+  private final String prefix;
+  private final int commitSize;
+  private final long commitInterval;
+  private long syncInterval = DEFAULT_SYNC_INTERVAL;
+  private long rotateSize = 0;
+  private long rotateInterval = 0;
+  private boolean compressed = false;
+
+  private final BlockingQueue<TrackBlock> freeBuffers = new ArrayBlockingQueue<TrackBlock>(BUFFERS);
+  private final BlockingQueue<TrackBlock> fullBuffers = new ArrayBlockingQueue<TrackBlock>(BUFFERS + 1);
+  /**
+   * Buffer being filled, guarded by this.
+   */
+  private TrackBlock current = null;
+  private volatile boolean recording = false;
+  /**
+   * Set by the writer thread when the storage cannot be written.
+   */
+  private volatile boolean failed = false;
+  private Thread writer;
+
+  // used by the writer thread only, once started
+  private FileChannel channel;
+  private TrackWriter trackWriter;
+  private volatile File file;
+  private long fileSize;
+  private long fileOpened;
+  private long lastSync;
+  private boolean writeError = false;
+
+  private volatile long bytesWritten = 0;
+  private volatile long commits = 0;
+  private volatile long syncs = 0;
+  private volatile long droppedBytes = 0;
+  private volatile int files = 0;
+
+  public TrackRecorder(File directory, String prefix){
+    this(directory, prefix, DEFAULT_COMMIT_SIZE, DEFAULT_COMMIT_INTERVAL);
+  }
+
+  /**
+   * @param commitSize      size of the buffers, written as soon as full
+   * @param commitInterval  longest time a sentence stays in a buffer, in ms
+   */
+  public TrackRecorder(File directory, String prefix, int commitSize, long commitInterval){
+    this.directory = directory;
+    this.prefix = prefix;
+    this.commitSize = commitSize;
+    this.commitInterval = commitInterval;
+  }
+
+  /**
+   * @param millis  interval between two fsync of the file, 0 to sync at every commit
+   */
+  public void setSyncInterval(long millis){
+    this.syncInterval = millis;
+  }
+
+  /**
+   * @param maxBytes  size from which a new file is started, 0 for no limit
+   * @param maxMillis age from which a new file is started, 0 for no limit
+   */
+  public void setRotation(long maxBytes, long maxMillis){
+    this.rotateSize = maxBytes;
+    this.rotateInterval = maxMillis;
+  }
+
+  /**
+   * @param compressed  true to write compressed tracks (.nmz) rather than plain NMEA
+   */
+  public void setCompressed(boolean compressed){
+    this.compressed = compressed;
+  }
+
+  /**
+   * Opens the first file and starts the writer thread.
+   *
+   * @throws IOException if the first file cannot be created
+   */
+  public synchronized void start() throws IOException {
+    if (recording){
+      return;
+    }
+    failed = false;
+    writeError = false;
+    openFile(System.currentTimeMillis());
+    for (int i = 0; i < BUFFERS; i++){
+      freeBuffers.add(new TrackBlock(commitSize));
+    }
+    current = freeBuffers.poll();
+    recording = true;
+    writer = new Thread(new Runnable(){
+      @Override
+      public void run() {
+        write();
+      }
+    }, "BlueGNSS track writer");
+    writer.start();
+  }
+
+  /**
+   * Writes what is buffered, syncs and closes the current file.
+   * Waits for the writer thread for at most the given time.
+   */
+  public void close(long timeout){
+    Thread thread;
+    synchronized (this){
+      if (!recording){
+        return;
+      }
+      recording = false;
+      handOver();
+      fullBuffers.offer(END);
+      thread = writer;
+    }
+    try {
+      thread.join(timeout);
+    } catch (InterruptedException e){
+      Log.e(LOG_TAG, "interrupted while closing track file", e);
+    }
+    Log.d(LOG_TAG, "track recorder closed: "+this);
+  }
+
+  /**
+   * @return false once closed, or once the storage failed.
+   */
+  public boolean isRecording(){
+    return recording && !failed;
+  }
+
+  /**
+   * @return file being written, null before start.
+   */
+  public File getFile(){
+    return file;
+  }
+
+  public long getBytesWritten(){
+    return bytesWritten;
+  }
+
+  public long getDroppedBytes(){
+    return droppedBytes;
+  }
+
+  @Override
+  public void onNmeaBatch(long[] timestamps, byte[] data, int[] offsets, int[] lengths, int count){
+    synchronized (this){
+      if (!recording || failed){
+        return;
+      }
+      for (int i = 0; i < count; i++){
+        append(timestamps[i], data, offsets[i], lengths[i]);
+      }
+    }
+  }
+
+  /*
+   * Called with the lock held.
+   */
+  private void append(long timestamp, byte[] data, int offset, int length){
+    if (current == null || !current.hasRoom(length)){
+      handOver();
+      if (current == null || !current.hasRoom(length)){
+        // the writer is late
+        droppedBytes += length;
+        return;
+      }
+    }
+    current.data.put(data, offset, length);
+    current.endSentence(timestamp);
+  }
+
+  /*
+   * Passes the current buffer, if not empty, to the writer thread, and
+   * takes a free one. Called with the lock held.
+   */
+  private void handOver(){
+    if (current != null && !current.isEmpty()){
+      current.data.flip();
+      fullBuffers.offer(current);
+      current = null;
+    }
+    if (current == null){
+      current = freeBuffers.poll();
+    }
+  }
+
+  /**
+   * Writer thread.
+   */
+  private void write(){
+    long nextCommit = System.currentTimeMillis() + commitInterval;
+    try {
+      while (true){
+        long wait = nextCommit - System.currentTimeMillis();
+        TrackBlock buffer = fullBuffers.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+        if (buffer == END){
+          break;
+        }
+        long now = System.currentTimeMillis();
+        if (buffer != null){
+          commit(buffer, now);
+        }
+        if (now >= nextCommit){
+          synchronized (this){
+            handOver();
+          }
+          nextCommit = now + commitInterval;
+        }
+      }
+    } catch (InterruptedException e){
+      Log.e(LOG_TAG, "track writer interrupted", e);
+    } finally {
+      closeFile();
+    }
+  }
+
+  private void commit(TrackBlock buffer, long now){
+    try {
+      if (channel != null && needsRotation(buffer.data.remaining(), now)){
+        closeFile();
+        openFile(now);
+      } else if (channel == null && !failed){
+        // the previous file was closed on an error
+        openFile(now);
+      }
+      if (channel != null){
+        long length = trackWriter.write(channel, buffer);
+        fileSize += length;
+        bytesWritten += length;
+        commits++;
+        if (now - lastSync >= syncInterval){
+          channel.force(false);
+          lastSync = now;
+          syncs++;
+        }
+        writeError = false;
+      } else {
+        droppedBytes += buffer.data.remaining();
+      }
+    } catch (IOException e){
+      Log.e(LOG_TAG, "error while writing track file: "+file, e);
+      droppedBytes += buffer.data.remaining();
+      closeFile();
+      if (writeError){
+        // a new file did not help: the storage is gone or full
+        Log.e(LOG_TAG, "track recording stopped: "+this);
+        failed = true;
+      }
+      writeError = true;
+    } finally {
+      buffer.clear();
+      freeBuffers.offer(buffer);
+    }
+  }
+
+  private boolean needsRotation(int length, long now){
+    return (rotateSize > 0 && fileSize > 0 && fileSize + length > rotateSize)
+      || (rotateInterval > 0 && now - fileOpened >= rotateInterval);
+  }
+
+  private void openFile(long now) throws IOException {
+    if ((! directory.mkdirs()) && (! directory.isDirectory())){
+      throw new IOException("cannot create track directory: "+directory.getAbsolutePath());
+    }
+    SimpleDateFormat fmt = new SimpleDateFormat("_yyyy-MM-dd_HH-mm-ss", Locale.US);
+    String name = prefix + fmt.format(new Date(now));
+    TrackWriter format = newTrackWriter();
+    File next = new File(directory, name+format.getExtension());
+    // two files in the same second when rotating by size
+    for (int i = 1; next.exists(); i++){
+      next = new File(directory, name+"-"+i+format.getExtension());
+    }
+    Log.d(LOG_TAG, "Writing the NMEA file: "+next.getAbsolutePath());
+    file = next;
+    channel = new FileOutputStream(next).getChannel();
+    trackWriter = format;
+    trackWriter.begin(channel);
+    fileSize = 0;
+    fileOpened = now;
+    lastSync = now;
+    files++;
+  }
+
+  /**
+   * @return writer of a new file, in the format set by setCompressed().
+   */
+  TrackWriter newTrackWriter(){
+    return compressed ? new BlockTrackWriter() : new TrackWriter.Nmea();
+  }
+
+  private void closeFile(){
+    if (channel == null){
+      return;
+    }
+    Log.d(LOG_TAG, "Ending the NMEA file: "+file.getAbsolutePath());
+    try {
+      trackWriter.end(channel);
+    } catch (IOException e){
+      Log.e(LOG_TAG, "error while ending track file: "+file, e);
+    }
+    try {
+      channel.force(false);
+      syncs++;
+    } catch (IOException e){
+      Log.e(LOG_TAG, "error while syncing track file: "+file, e);
+    }
+    try {
+      channel.close();
+    } catch (IOException e){
+      Log.e(LOG_TAG, "error while closing track file: "+file, e);
+    }
+    channel = null;
+  }
+
+  @Override
+  public String toString(){
+    return "files="+files+" written="+bytesWritten+" commits="+commits
+      +" syncs="+syncs+" dropped="+droppedBytes;
+  }
+}
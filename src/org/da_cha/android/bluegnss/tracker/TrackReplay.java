@@ -0,0 +1,297 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.tracker;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+import org.da_cha.android.bluegnss.bluetooth.NmeaBatchListener;
+import org.da_cha.android.bluegnss.util.nmea.NmeaFramer;
+import org.da_cha.android.bluegnss.util.nmea.NmeaParser;
+import org.da_cha.android.bluegnss.util.nmea.NmeaParserUtil;
+import org.da_cha.android.bluegnss.util.nmea.NmeaTokenizer;
+
+/**
+ * Replays a recorded track through a NmeaParser, and the sentences it
+ * recognizes to a NmeaBatchListener, as if they came from a receiver.
+ *
+ * Plain tracks are memory-mapped and framed by a NmeaFramer, in chunks
+ * copied from the mapping into one reusable buffer; compressed tracks are
+ * read block by block. Nothing is allocated per sentence: the sentences
+ * handed to the listener are copied into one reusable batch buffer.
+ *
+ * The pace is given by the speed:
+ * <ul>
+ *  <li>REAL_TIME (1.0) follows the UTC time of the sentences,</li>
+ *  <li>N follows it N times faster,</li>
+ *  <li>AS_FAST_AS_POSSIBLE (0) does not wait at all, which makes the
+ *  replay a throughput benchmark of the parser and listeners.</li>
+ * </ul>
+ *
+ * The replay runs on the calling thread, until the end of the track or
+ * stop(). The listener is called on that thread too, in batches of up to
+ * BATCH_SIZE sentences: the replay does not go through the
+ * ListenerDispatcher of a BluetoothGnssManager, so there is no queue,
+ * overflow policy or metrics, and a slow listener slows the replay down.
+ */
+public class TrackReplay {
+
+  public static final double AS_FAST_AS_POSSIBLE = 0;
+  public static final double REAL_TIME = 1;
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+  /**
+   * Size of the mapped windows, so that large tracks can be replayed
+   * without mapping them at once.
+   */
+  private static final long MAP_SIZE = 64L * 1024 * 1024;
+  private static final int BATCH_SIZE = 64;
+  private static final long DAY_MILLIS = 24L * 3600 * 1000;
+
+  private final File track;
+  private final NmeaParser parser;
+  private double speed = AS_FAST_AS_POSSIBLE;
+  private NmeaBatchListener listener = null;
+  private volatile boolean stopped = false;
+
+  private final NmeaFramer framer = new NmeaFramer(new NmeaFramer.FrameListener(){
+    @Override
+    public void onSentence(byte[] buffer, int offset, int length){
+      replaySentence(buffer, offset, length);
+    }
+    @Override
+    public void onSirfFrame(byte[] buffer, int offset, int length){
+    }
+    @Override
+    public void onUbxFrame(byte[] buffer, int offset, int length){
+    }
+  });
+  private final byte[] chunk = new byte[CHUNK_SIZE];
+  private final long[] timestamps = new long[BATCH_SIZE];
+  private final byte[] batchData = new byte[BATCH_SIZE * NmeaTokenizer.MAX_SENTENCE_LENGTH];
+  private final int[] offsets = new int[BATCH_SIZE];
+  private final int[] lengths = new int[BATCH_SIZE];
+  private int batchCount = 0;
+
+  // pacing
+  private long firstUtc = -1;
+  private long lastUtc = -1;
+  private long dayOffset = 0;
+  private long firstUtcNanos;
+
+  private volatile long sentenceCount = 0;
+  private volatile long recognizedCount = 0;
+  private volatile long byteCount = 0;
+  private long fixesAtStart = 0;
+  private volatile long elapsedNanos = 0;
+
+  public TrackReplay(File track, NmeaParser parser){
+    this.track = track;
+    this.parser = parser;
+  }
+
+  /**
+   * @param speed  AS_FAST_AS_POSSIBLE, REAL_TIME or a multiple of it
+   */
+  public void setSpeed(double speed){
+    this.speed = speed;
+  }
+
+  /**
+   * @param listener  gets the recognized sentences, or null
+   */
+  public void setNmeaBatchListener(NmeaBatchListener listener){
+    this.listener = listener;
+  }
+
+  /**
+   * Replays the whole track.
+   */
+  public void run() throws IOException {
+    stopped = false;
+    framer.reset();
+    firstUtc = -1;
+    lastUtc = -1;
+    dayOffset = 0;
+    sentenceCount = 0;
+    recognizedCount = 0;
+    byteCount = 0;
+    fixesAtStart = parser.getFixCount();
+    long startNanos = System.nanoTime();
+    try {
+      if (track.getName().endsWith(BlockTrackReader.EXTENSION)){
+        replayCompressed();
+      } else {
+        replayMapped();
+      }
+      flushBatch();
+    } finally {
+      elapsedNanos = System.nanoTime() - startNanos;
+    }
+  }
+
+  /**
+   * Stops the replay as soon as possible, from any thread.
+   */
+  public void stop(){
+    stopped = true;
+  }
+
+  private void replayMapped() throws IOException {
+    FileInputStream in = new FileInputStream(track);
+    try {
+      FileChannel channel = in.getChannel();
+      long size = channel.size();
+      for (long position = 0; position < size && !stopped; position += MAP_SIZE){
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+            position, Math.min(MAP_SIZE, size - position));
+        while (mapped.hasRemaining() && !stopped){
+          int n = Math.min(chunk.length, mapped.remaining());
+          mapped.get(chunk, 0, n);
+          feed(chunk, n);
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private void replayCompressed() throws IOException {
+    BlockTrackReader reader = new BlockTrackReader(track);
+    try {
+      for (int i = 0; i < reader.getBlockCount() && !stopped; i++){
+        byte[] data = reader.readBlock(i).getData();
+        feed(data, data.length);
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private void feed(byte[] data, int length){
+    byteCount += length;
+    framer.feed(data, 0, length);
+  }
+
+  private void replaySentence(byte[] buffer, int offset, int length){
+    if (stopped){
+      return;
+    }
+    if (speed > 0){
+      pace(buffer, offset, length);
+    }
+    sentenceCount++;
+    if (parser.parseNmeaSentence(buffer, offset, length)){
+      recognizedCount++;
+      if (listener != null){
+        // the framer gives sentences shorter than MAX_SENTENCE_LENGTH
+        int batchOffset = (batchCount == 0) ? 0 : offsets[batchCount - 1] + lengths[batchCount - 1];
+        System.arraycopy(buffer, offset, batchData, batchOffset, length);
+        timestamps[batchCount] = System.currentTimeMillis();
+        offsets[batchCount] = batchOffset;
+        lengths[batchCount] = length;
+        if (++batchCount == BATCH_SIZE){
+          flushBatch();
+        }
+      }
+    }
+  }
+
+  private void flushBatch(){
+    if (batchCount > 0){
+      listener.onNmeaBatch(timestamps, batchData, offsets, lengths, batchCount);
+      batchCount = 0;
+    }
+  }
+
+  /*
+   * Waits until the time of the sentence, if it has one, is due.
+   */
+  private void pace(byte[] buffer, int offset, int length){
+    long utc = NmeaParserUtil.getUtcMillis(buffer, offset, length);
+    if (utc < 0){
+      return;
+    }
+    if (firstUtc < 0){
+      firstUtc = utc;
+      lastUtc = utc;
+      firstUtcNanos = System.nanoTime();
+      return;
+    }
+    if (utc + dayOffset < lastUtc - DAY_MILLIS / 2){
+      // past midnight
+      dayOffset += DAY_MILLIS;
+    }
+    utc += dayOffset;
+    if (utc <= lastUtc){
+      return;
+    }
+    lastUtc = utc;
+    long due = firstUtcNanos + (long)((utc - firstUtc) * 1000000L / speed);
+    long wait = due - System.nanoTime();
+    if (wait > 0){
+      // listeners get the previous epoch before waiting for the next one
+      flushBatch();
+      try {
+        Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+      } catch (InterruptedException e){
+        stopped = true;
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  public long getSentenceCount(){
+    return sentenceCount;
+  }
+
+  public long getRecognizedCount(){
+    return recognizedCount;
+  }
+
+  public long getFixCount(){
+    return parser.getFixCount() - fixesAtStart;
+  }
+
+  public long getElapsedNanos(){
+    return elapsedNanos;
+  }
+
+  public double getSentencesPerSecond(){
+    return (elapsedNanos == 0) ? 0 : sentenceCount * 1e9 / elapsedNanos;
+  }
+
+  public double getFixesPerSecond(){
+    return (elapsedNanos == 0) ? 0 : getFixCount() * 1e9 / elapsedNanos;
+  }
+
+  @Override
+  public String toString(){
+    return String.format(Locale.US, "%d sentences (%d recognized), %d fixes, %d bytes in %.3fs: %.0f sentences/s, %.1f fixes/s",
+        sentenceCount, recognizedCount, getFixCount(), byteCount, elapsedNanos / 1e9,
+        getSentencesPerSecond(), getFixesPerSecond());
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.tracker;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the blocks of a TrackRecorder in one track file format.
+ * An instance writes one file.
+ */
+abstract class TrackWriter {
+
+  /**
+   * @return file name extension, with its dot.
+   */
+  abstract String getExtension();
+
+  /**
+   * Called once the file is created, before the first block.
+   */
+  void begin(FileChannel channel) throws IOException {
+  }
+
+  /**
+   * Writes a block; its data buffer is flipped, ready to be read.
+   * @return bytes written in the file.
+   */
+  abstract long write(FileChannel channel, TrackBlock block) throws IOException;
+
+  /**
+   * Called before the file is closed, after the last block.
+   */
+  void end(FileChannel channel) throws IOException {
+  }
+
+  /**
+   * Plain NMEA: the sentences as received, one after the other.
+   */
+  static final class Nmea extends TrackWriter {
+    @Override
+    String getExtension(){
+      return ".nmea";
+    }
+
+    @Override
+    long write(FileChannel channel, TrackBlock block) throws IOException {
+      int length = block.data.remaining();
+      while (block.data.hasRemaining()){
+        channel.write(block.data);
+      }
+      return length;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import org.da_cha.android.bluegnss.R;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.util.Log;
+
+/**
+ * Bluetooth RFCOMM link, using the Serial Port Profile.
+ */
+public class BluetoothTransport implements GnssTransport {
+
+  private static final String LOG_TAG = "BlueGNSS";
+  private static final UUID SERIAL_PORT_PROFILE = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+  private final String deviceAddress;
+  private volatile BluetoothSocket socket = null;
+  private volatile boolean connected = false;
+
+  public BluetoothTransport(String deviceAddress){
+    this.deviceAddress = deviceAddress;
+  }
+
+  @Override
+  public int getUnavailableReason(){
+    BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    if (bluetoothAdapter == null) {
+      // Device does not support Bluetooth
+      Log.e(LOG_TAG, "Device does not support Bluetooth");
+      return R.string.msg_bluetooth_unsupported;
+    } else if (!bluetoothAdapter.isEnabled()) {
+      Log.e(LOG_TAG, "Bluetooth is not enabled");
+      return R.string.msg_bluetooth_disabled;
+    } else if (bluetoothAdapter.getRemoteDevice(deviceAddress) == null){
+      Log.e(LOG_TAG, "GPS device not found");
+      return R.string.msg_bluetooth_gps_unavaible;
+    }
+    return 0;
+  }
+
+  @Override
+  public void connect() throws IOException {
+    close();
+    BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    BluetoothDevice gpsDevice = bluetoothAdapter.getRemoteDevice(deviceAddress);
+    Log.v(LOG_TAG, "current device: "+gpsDevice.getName() + " -- " + gpsDevice.getAddress());
+    BluetoothSocket gpsSocket = gpsDevice.createRfcommSocketToServiceRecord(SERIAL_PORT_PROFILE);
+    if (gpsSocket == null){
+      throw new IOException("Error while establishing connection: no socket");
+    }
+    socket = gpsSocket;
+    // Cancel discovery because it will slow down the connection
+    bluetoothAdapter.cancelDiscovery();
+    // Connect the device through the socket. This will block
+    // until it succeeds or throws an exception
+    Log.v(LOG_TAG, "connecting to socket");
+    gpsSocket.connect();
+    connected = true;
+  }
+
+  @Override
+  public boolean isConnected(){
+    return connected;
+  }
+
+  @Override
+  public boolean isEndOfData(){
+    return false;
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return socket.getInputStream();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return socket.getOutputStream();
+  }
+
+  @Override
+  public void close(){
+    connected = false;
+    BluetoothSocket gpsSocket = socket;
+    socket = null;
+    if (gpsSocket != null){
+      try {
+        Log.d(LOG_TAG, "closing Bluetooth GPS socket");
+        gpsSocket.close();
+      } catch (IOException e) {
+        Log.e(LOG_TAG, "error while closing GPS socket", e);
+      }
+    }
+  }
+
+  @Override
+  public String toString(){
+    return "bluetooth "+deviceAddress;
+  }
+}
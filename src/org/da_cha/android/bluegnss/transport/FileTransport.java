@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.util.Log;
+
+/**
+ * Link through files: sentences are read from a file or a named pipe
+ * (FIFO), and commands, if wanted, written to another one.
+ *
+ * A regular file is read once, the end of the file ending the
+ * connection and disabling the manager, unless it is looped: it is then
+ * read again from the start on the next connection. A named pipe gives
+ * what its writer sends, ex. a test script, and is opened again when
+ * the writer closes it. Opening a pipe blocks until it has a writer.
+ */
+public class FileTransport implements GnssTransport {
+
+  private static final String LOG_TAG = "BlueGNSS";
+
+  private final File input;
+  private final File output;
+  private final boolean loop;
+  private volatile InputStream in = null;
+  private volatile OutputStream out = null;
+
+  /**
+   * @param input   file or pipe to read from
+   * @param output  file or pipe where commands are written, or null
+   */
+  public FileTransport(File input, File output){
+    this(input, output, false);
+  }
+
+  /**
+   * @param input   file or pipe to read from
+   * @param output  file or pipe where commands are written, or null
+   * @param loop    true to read a regular file again once its end is reached
+   */
+  public FileTransport(File input, File output, boolean loop){
+    this.input = input;
+    this.output = output;
+    this.loop = loop;
+  }
+
+  @Override
+  public int getUnavailableReason(){
+    return 0;
+  }
+
+  @Override
+  public void connect() throws IOException {
+    close();
+    in = new FileInputStream(input);
+    if (output != null){
+      out = new FileOutputStream(output, true);
+    }
+  }
+
+  @Override
+  public boolean isConnected(){
+    return in != null;
+  }
+
+  @Override
+  public boolean isEndOfData(){
+    return !loop && input.isFile();
+  }
+
+  @Override
+  public InputStream getInputStream(){
+    return in;
+  }
+
+  @Override
+  public OutputStream getOutputStream(){
+    return out;
+  }
+
+  @Override
+  public void close(){
+    InputStream i = in;
+    OutputStream o = out;
+    in = null;
+    out = null;
+    try {
+      if (i != null){
+        i.close();
+      }
+      if (o != null){
+        o.close();
+      }
+    } catch (IOException e) {
+      Log.e(LOG_TAG, "error while closing "+this, e);
+    }
+  }
+
+  @Override
+  public String toString(){
+    return "file://"+input.getAbsolutePath()+(loop ? "?loop" : "");
+  }
+}
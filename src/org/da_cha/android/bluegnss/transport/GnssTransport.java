@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A link to a GNSS receiver: the byte stream coming from it, and the one
+ * going to it for commands.
+ *
+ * BluetoothGnssManager connects it, reads, frames and parses what comes,
+ * and retries when it is lost, whatever the transport is.
+ * An instance is reused for all the connection attempts: connect() is
+ * called again after close().
+ */
+public interface GnssTransport {
+
+  /**
+   * Health before connecting.
+   *
+   * @return 0 if a connection can be attempted now, or the id of a string
+   * resource telling why not, ex. Bluetooth disabled.
+   */
+  int getUnavailableReason();
+
+  /**
+   * Opens the link, blocking until it is.
+   */
+  void connect() throws IOException;
+
+  /**
+   * @return true between a successful connect() and close().
+   */
+  boolean isConnected();
+
+  /**
+   * @return true if the end of the input stream is the end of the data:
+   * connecting again would only replay it, ex. a regular file.
+   */
+  boolean isEndOfData();
+
+  /**
+   * @return stream of the bytes sent by the receiver, once connected.
+   */
+  InputStream getInputStream() throws IOException;
+
+  /**
+   * @return stream to send commands to the receiver, once connected,
+   * or null if the transport is read only.
+   */
+  OutputStream getOutputStream() throws IOException;
+
+  /**
+   * Closes the link; a blocked read then ends. Can be called at any time.
+   */
+  void close();
+}
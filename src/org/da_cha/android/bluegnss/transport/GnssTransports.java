@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.transport;
+
+import java.io.File;
+
+/**
+ * Creates transports from a text description, ex. a preference:
+ *
+ * <ul>
+ *  <li>tcp://host:port</li>
+ *  <li>file:///path/to/input[?out=/path/to/output][&amp;loop]</li>
+ *  <li>bt://00:11:22:33:44:55, or the Bluetooth address alone</li>
+ * </ul>
+ */
+public final class GnssTransports {
+
+  private GnssTransports(){
+  }
+
+  /**
+   * @throws IllegalArgumentException if the description is not understood
+   */
+  public static GnssTransport create(String uri){
+    if (uri.startsWith("tcp://")){
+      String hostPort = uri.substring("tcp://".length());
+      int colon = hostPort.lastIndexOf(':');
+      if (colon <= 0){
+        throw new IllegalArgumentException("missing port: "+uri);
+      }
+      try {
+        return new TcpTransport(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+      } catch (NumberFormatException e){
+        throw new IllegalArgumentException("bad port: "+uri);
+      }
+    } else if (uri.startsWith("file://")){
+      String path = uri.substring("file://".length());
+      File output = null;
+      boolean loop = false;
+      int query = path.indexOf('?');
+      if (query >= 0){
+        for (String param : path.substring(query + 1).split("&")){
+          if (param.startsWith("out=")){
+            output = new File(param.substring("out=".length()));
+          } else if (param.equals("loop")){
+            loop = true;
+          } else {
+            throw new IllegalArgumentException("unknown parameter: "+uri);
+          }
+        }
+        path = path.substring(0, query);
+      }
+      return new FileTransport(new File(path), output, loop);
+    } else if (uri.startsWith("bt://")){
+      return new BluetoothTransport(uri.substring("bt://".length()));
+    } else if (uri.matches("([0-9A-Fa-f]{2}:){5}[0-9A-Fa-f]{2}")){
+      return new BluetoothTransport(uri);
+    }
+    throw new IllegalArgumentException("unknown transport: "+uri);
+  }
+}
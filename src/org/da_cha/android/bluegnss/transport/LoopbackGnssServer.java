@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.da_cha.android.bluegnss.util.nmea.NmeaParserUtil;
+
+import android.util.Log;
+
+/**
+ * Stands in for a receiver on the local host: serves a recorded track to
+ * TCP clients, and keeps what they send back.
+ *
+ * With a TcpTransport connected to it, the whole provider, from the
+ * connection and retries down to the parser, listeners and recorder, can
+ * be run on any machine, without a device.
+ *
+ * Clients are served one at a time. The track is sent at the pace of its
+ * sentence times, times the speed, or at once with a speed of 0, and
+ * then again from the start if repeat is set. The server closes the
+ * connection at the end of the track otherwise.
+ */
+public class LoopbackGnssServer implements Closeable {
+
+  private static final String LOG_TAG = "BlueGNSS";
+
+  private final byte[] track;
+  private final double speed;
+  private boolean repeat = false;
+  private final ServerSocket server;
+  private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+  private volatile Socket client = null;
+  private volatile int connections = 0;
+  private volatile boolean closed = false;
+
+  /**
+   * Binds to a free port of the loopback interface.
+   */
+  public LoopbackGnssServer(File trackFile, double speed) throws IOException {
+    this.track = readFully(trackFile);
+    this.speed = speed;
+    this.server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+  }
+
+  /**
+   * @param repeat  true to send the track again and again
+   */
+  public void setRepeat(boolean repeat){
+    this.repeat = repeat;
+  }
+
+  public int getPort(){
+    return server.getLocalPort();
+  }
+
+  /**
+   * @return transport connecting to this server.
+   */
+  public GnssTransport newTransport(){
+    return new TcpTransport("127.0.0.1", getPort());
+  }
+
+  public int getConnectionCount(){
+    return connections;
+  }
+
+  /**
+   * @return bytes sent by the clients so far, ex. commands.
+   */
+  public byte[] getReceived(){
+    synchronized (received){
+      return received.toByteArray();
+    }
+  }
+
+  /**
+   * Starts serving, on a thread of its own.
+   */
+  public void start(){
+    Thread thread = new Thread(new Runnable(){
+      @Override
+      public void run(){
+        serve();
+      }
+    }, "BlueGNSS loopback server");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Drops the current client, as a receiver going out of range would.
+   */
+  public void disconnect(){
+    Socket s = client;
+    if (s != null){
+      try {
+        s.close();
+      } catch (IOException e){
+        Log.e(LOG_TAG, "error while closing loopback client", e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    disconnect();
+    server.close();
+  }
+
+  private void serve(){
+    while (!closed){
+      try {
+        final Socket s = server.accept();
+        client = s;
+        connections++;
+        Thread reader = new Thread(new Runnable(){
+          @Override
+          public void run(){
+            receive(s);
+          }
+        }, "BlueGNSS loopback receiver");
+        reader.setDaemon(true);
+        reader.start();
+        try {
+          do {
+            send(s.getOutputStream());
+          } while (repeat && !s.isClosed());
+        } finally {
+          s.close();
+        }
+      } catch (IOException e){
+        if (!closed){
+          Log.d(LOG_TAG, "loopback client gone: "+e);
+        }
+      } catch (InterruptedException e){
+        return;
+      }
+    }
+  }
+
+  private void receive(Socket s){
+    byte[] buffer = new byte[1024];
+    try {
+      InputStream in = s.getInputStream();
+      int n;
+      while ((n = in.read(buffer)) > 0){
+        synchronized (received){
+          received.write(buffer, 0, n);
+        }
+      }
+    } catch (IOException e){
+      // connection closed
+    }
+  }
+
+  /*
+   * Sends the track line by line, waiting for the time of each sentence.
+   */
+  private void send(OutputStream out) throws IOException, InterruptedException {
+    long firstUtc = -1;
+    long startNanos = 0;
+    int start = 0;
+    while (start < track.length){
+      int end = start;
+      while (end < track.length && track[end] != '\n'){
+        end++;
+      }
+      end = Math.min(end + 1, track.length);
+      if (speed > 0){
+        long utc = NmeaParserUtil.getUtcMillis(track, start, end - start);
+        if (utc >= 0){
+          if (firstUtc < 0 || utc < firstUtc){
+            firstUtc = utc;
+            startNanos = System.nanoTime();
+          }
+          long wait = startNanos + (long)((utc - firstUtc) * 1000000L / speed) - System.nanoTime();
+          if (wait > 0){
+            out.flush();
+            Thread.sleep(wait / 1000000L, (int)(wait % 1000000L));
+          }
+        }
+      }
+      out.write(track, start, end - start);
+      start = end;
+    }
+    out.flush();
+  }
+
+  private static byte[] readFully(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream((int)file.length());
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = in.read(buffer)) > 0){
+        bytes.write(buffer, 0, n);
+      }
+      return bytes.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+}
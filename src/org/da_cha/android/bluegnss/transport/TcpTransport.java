@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import android.util.Log;
+
+/**
+ * TCP link, ex. to a serial-to-network box or to a LoopbackGnssServer.
+ */
+public class TcpTransport implements GnssTransport {
+
+  private static final String LOG_TAG = "BlueGNSS";
+  private static final int CONNECT_TIMEOUT = 10000;
+
+  private final String host;
+  private final int port;
+  private volatile Socket socket = null;
+
+  public TcpTransport(String host, int port){
+    this.host = host;
+    this.port = port;
+  }
+
+  @Override
+  public int getUnavailableReason(){
+    return 0;
+  }
+
+  @Override
+  public void connect() throws IOException {
+    close();
+    Socket s = new Socket();
+    socket = s;
+    s.setTcpNoDelay(true);
+    Log.v(LOG_TAG, "connecting to "+this);
+    s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+  }
+
+  @Override
+  public boolean isConnected(){
+    Socket s = socket;
+    return s != null && s.isConnected() && !s.isClosed();
+  }
+
+  @Override
+  public boolean isEndOfData(){
+    return false;
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    return socket.getInputStream();
+  }
+
+  @Override
+  public OutputStream getOutputStream() throws IOException {
+    return socket.getOutputStream();
+  }
+
+  @Override
+  public void close(){
+    Socket s = socket;
+    socket = null;
+    if (s != null){
+      try {
+        Log.d(LOG_TAG, "closing "+this);
+        s.close();
+      } catch (IOException e) {
+        Log.e(LOG_TAG, "error while closing socket", e);
+      }
+    }
+  }
+
+  @Override
+  public String toString(){
+    return "tcp://"+host+":"+port;
+  }
+}
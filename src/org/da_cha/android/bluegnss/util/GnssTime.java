@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.util;
+
+/**
+ * UTC date and time fields of binary messages to milliseconds since
+ * 1970-01-01, without a Calendar.
+ */
+public class GnssTime {
+
+  private GnssTime(){
+  }
+
+  /**
+   * @return milliseconds since the epoch, 0 if the date is invalid.
+   */
+  public static long toMillis(int year, int month, int day, int hour, int minute, long millis){
+    if (year < 1970 || month < 1 || month > 12 || day < 1 || day > 31){
+      return 0;
+    }
+    // days from civil, with years starting in March
+    int y = (month <= 2) ? year - 1 : year;
+    int era = y / 400;
+    int yoe = y - era * 400;
+    int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+    int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    long days = era * 146097L + doe - 719468L;
+    return ((days * 24 + hour) * 60 + minute) * 60000L + millis;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util;
+
+import java.util.Locale;
+
+/**
+ * Count, last, mean and maximum of a latency, in nanoseconds.
+ *
+ * Recorded by one thread and read by any other.
+ */
+public class LatencyStats {
+
+  private long count = 0;
+  private long last = 0;
+  private long max = 0;
+  private long total = 0;
+
+  public synchronized void record(long nanos){
+    count++;
+    last = nanos;
+    total += nanos;
+    if (nanos > max){
+      max = nanos;
+    }
+  }
+
+  public synchronized void reset(){
+    count = 0;
+    last = 0;
+    max = 0;
+    total = 0;
+  }
+
+  public synchronized long getCount(){
+    return count;
+  }
+
+  public synchronized long getLast(){
+    return last;
+  }
+
+  public synchronized long getMax(){
+    return max;
+  }
+
+  public synchronized long getMean(){
+    return (count == 0) ? 0 : total / count;
+  }
+
+  @Override
+  public synchronized String toString(){
+    return String.format(Locale.US, "n=%d last=%.3fms mean=%.3fms max=%.3fms",
+        count, last / 1e6, getMean() / 1e6, max / 1e6);
+  }
+}
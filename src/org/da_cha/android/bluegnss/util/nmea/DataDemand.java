@@ -0,0 +1,138 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kinds of data the consumers of a receiver currently need.
+ *
+ * Each consumer, ex. the mock location provider, a visible screen or a
+ * track recorder, requests the kinds it uses and releases them when it
+ * goes away or is hidden. The parser only decodes the sentences of the
+ * kinds requested by someone.
+ *
+ * Requests may come from any thread; the kinds requested can be read
+ * from the reader thread without locking.
+ */
+public class DataDemand {
+
+  /**
+   * Told when the kinds of data requested by the consumers change, ex. to
+   * have the receiver send only the sentences needed.
+   */
+  public interface Listener {
+    /**
+     * Called on the thread which requested or released data, with the
+     * demand locked: it must return quickly, and must not request or
+     * release data itself.
+     *
+     * @param kinds kinds of data now requested by at least one consumer.
+     */
+    void onDataDemandChanged(int kinds);
+  }
+
+  /**
+   * Position, time, speed and accuracy of the fix: GGA, RMC, GLL, GNS,
+   * and VTG for receivers without RMC.
+   */
+  public static final int POSITION = 0x01;
+  /**
+   * Satellites in view: GSV, and GSA for the satellites used.
+   */
+  public static final int SKY_VIEW = 0x02;
+  /**
+   * Dilutions of precision and satellites used: GSA.
+   */
+  public static final int DOP = 0x04;
+  /**
+   * Sentences passed through as received, which need no decoding.
+   */
+  public static final int RAW = 0x08;
+  public static final int ALL = POSITION | SKY_VIEW | DOP | RAW;
+
+  private final Map<Object, Integer> requests = new IdentityHashMap<Object, Integer>();
+  private final List<Listener> listeners = new ArrayList<Listener>();
+  private volatile int kinds = 0;
+
+  /**
+   * Sets the kinds of data needed by a consumer, replacing those it
+   * requested before.
+   *
+   * @param consumer object identifying the consumer.
+   * @param kinds    kinds of data, 0 to release them.
+   */
+  public synchronized void request(Object consumer, int kinds){
+    if (kinds == 0){
+      requests.remove(consumer);
+    } else {
+      requests.put(consumer, kinds);
+    }
+    update();
+  }
+
+  /**
+   * Releases the kinds of data requested by a consumer.
+   */
+  public synchronized void release(Object consumer){
+    requests.remove(consumer);
+    update();
+  }
+
+  public synchronized void addListener(Listener listener){
+    listeners.add(listener);
+  }
+
+  public synchronized void removeListener(Listener listener){
+    listeners.remove(listener);
+  }
+
+  /**
+   * @return kinds of data requested by at least one consumer.
+   */
+  public int getKinds(){
+    return kinds;
+  }
+
+  /**
+   * @return true if one of given kinds of data is requested.
+   */
+  public boolean isRequested(int kinds){
+    return (this.kinds & kinds) != 0;
+  }
+
+  private void update(){
+    int union = 0;
+    for (Integer k : requests.values()){
+      union |= k;
+    }
+    if (union != kinds){
+      kinds = union;
+      for (Listener listener : listeners){
+        listener.onDataDemandChanged(union);
+      }
+    }
+  }
+}
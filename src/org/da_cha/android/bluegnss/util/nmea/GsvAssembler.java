@@ -0,0 +1,280 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+import org.da_cha.android.bluegnss.GnssStatus;
+
+/**
+ * Assembles the multi-part GSV groups of each talker, and commits the
+ * satellites of a group to GnssStatus at once when it is complete.
+ *
+ * The parts of a group are staged, in any order, in primitive arrays
+ * reused from group to group, so GnssStatus never holds a constellation
+ * half updated and nothing is allocated per satellite. A group is
+ * dropped, and the last complete one kept, when a part is missing: the
+ * next group is recognised by a part seen twice or by a different
+ * number of parts or satellites.
+ *
+ * NMEA 4.10 receivers send one group per signal of a talker, ex. GPS L1
+ * C/A then L5, told apart by the signal ID in the last field. Groups are
+ * staged per talker and signal ID, 0 when the sentences have none, and
+ * the last complete group of each signal is kept: the satellites of a
+ * talker are the merge of its signals, and a satellite seen on several
+ * signals has the SNR of the lowest signal ID, the primary signal.
+ *
+ * Each talker is a source of GnssStatus sky views: committing a group
+ * only replaces the satellites of the same talker. A group not heard of
+ * during two whole cycles of another one, ex. when a constellation or a
+ * signal is disabled, is forgotten, with the satellites only it reported.
+ *
+ * An instance is not thread safe, and is meant to be fed by the parser.
+ */
+class GsvAssembler {
+
+  // up to 16 parts of 4 satellites
+  private static final int MAX_PARTS = 16;
+  private static final int RECORDS_PER_PART = 4;
+  private static final int MAX_RECORDS = MAX_PARTS * RECORDS_PER_PART;
+  // fields of a part: total, part, in view, then PRN, elevation, azimuth, SNR
+  private static final int FIRST_RECORD = 4;
+  private static final int RECORD_FIELDS = 4;
+  // signal IDs are one hex digit
+  private static final int SIGNALS = 16;
+  // groups of distinct (talker, signal ID)
+  private static final int MAX_GROUPS = 24;
+
+  private final int talkers;
+  // group of talker * SIGNALS + signal ID, -1 until seen
+  private final int[] groupOf;
+  private final int[] groupTalker = new int[MAX_GROUPS];
+  private int groupCount = 0;
+  // staged parts of each group
+  private final int[] totalParts = new int[MAX_GROUPS];
+  private final int[] partsSeen = new int[MAX_GROUPS];
+  private final int[] staged = new int[MAX_GROUPS];
+  // SatelliteNumbering entries, -1 when empty, and status of satellites
+  private final int[] entries = new int[MAX_GROUPS * MAX_RECORDS];
+  private final float[] elevations = new float[MAX_GROUPS * MAX_RECORDS];
+  private final float[] azimuths = new float[MAX_GROUPS * MAX_RECORDS];
+  private final float[] snrs = new float[MAX_GROUPS * MAX_RECORDS];
+  // last complete group of each signal, no records when none
+  private final int[] completeRecords = new int[MAX_GROUPS];
+  private final int[] completeEntries = new int[MAX_GROUPS * MAX_RECORDS];
+  private final float[] completeElevations = new float[MAX_GROUPS * MAX_RECORDS];
+  private final float[] completeAzimuths = new float[MAX_GROUPS * MAX_RECORDS];
+  private final float[] completeSnrs = new float[MAX_GROUPS * MAX_RECORDS];
+  private final int[] inView = new int[MAX_GROUPS];
+  private final long[] committed = new long[MAX_GROUPS];
+  private final long[] previouslyCommitted = new long[MAX_GROUPS];
+  private long commits = 0;
+  private long dropped = 0;
+
+  GsvAssembler(int talkers){
+    this.talkers = talkers;
+    groupOf = new int[talkers * SIGNALS];
+    for (int i = 0; i < groupOf.length; i++){
+      groupOf[i] = -1;
+    }
+  }
+
+  /**
+   * Stages a tokenized GSV sentence of a talker of SatelliteNumbering,
+   * committing its group to status when it is the last part missing.
+   *
+   * @return true when the group has been committed.
+   */
+  boolean add(int talker, NmeaTokenizer tokenizer, GnssStatus status){
+    int total = tokenizer.getInt(1, 0);
+    int part = tokenizer.getInt(2, 0);
+    int satellites = tokenizer.getInt(3, 0);
+    if (total < 1 || total > MAX_PARTS || part < 1 || part > total
+        || satellites < 0 || satellites > total * RECORDS_PER_PART){
+      return false;
+    }
+    int group = group(talker, getSignalId(tokenizer));
+    if (group < 0){
+      return false;
+    }
+    int bit = 1 << (part - 1);
+    if (totalParts[group] != total || staged[group] != satellites
+        || (partsSeen[group] & bit) != 0){
+      // a new group
+      if (partsSeen[group] != 0){
+        dropped++;
+      }
+      totalParts[group] = total;
+      staged[group] = satellites;
+      partsSeen[group] = 0;
+    }
+    int first = (part - 1) * RECORDS_PER_PART;
+    int base = group * MAX_RECORDS + first;
+    int count = Math.min(RECORDS_PER_PART, satellites - first);
+    for (int i = 0; i < RECORDS_PER_PART; i++){
+      int field = FIRST_RECORD + i * RECORD_FIELDS;
+      if (i >= count || tokenizer.isEmpty(field)){
+        entries[base + i] = -1;
+        continue;
+      }
+      entries[base + i] = SatelliteNumbering.lookup(talker, tokenizer.getInt(field, 0));
+      elevations[base + i] = tokenizer.getFloat(field + 1);
+      azimuths[base + i] = tokenizer.getFloat(field + 2);
+      snrs[base + i] = tokenizer.getFloat(field + 3);
+    }
+    partsSeen[group] |= bit;
+    if (partsSeen[group] != (1 << total) - 1){
+      return false;
+    }
+    commit(group, status);
+    partsSeen[group] = 0;
+    return true;
+  }
+
+  /**
+   * Forgets the parts staged, ex. when GSV sentences have not been fed
+   * for a while.
+   */
+  void reset(){
+    for (int g = 0; g < groupCount; g++){
+      partsSeen[g] = 0;
+    }
+  }
+
+  /**
+   * @return number of groups dropped because a part was missing.
+   */
+  long getDroppedCount(){
+    return dropped;
+  }
+
+  /*
+   * NMEA 4.10 adds the signal ID after the last satellite of each part.
+   *
+   * @return signal ID, 0 when the sentence has none.
+   */
+  private static int getSignalId(NmeaTokenizer tokenizer){
+    int last = tokenizer.getFieldCount() - 1;
+    if (last < FIRST_RECORD || (last - FIRST_RECORD) % RECORD_FIELDS != 0
+        || tokenizer.getFieldLength(last) != 1){
+      return 0;
+    }
+    int c = tokenizer.getChar(last);
+    if (c >= '0' && c <= '9'){
+      return c - '0';
+    } else if (c >= 'A' && c <= 'F'){
+      return c - 'A' + 10;
+    }
+    return 0;
+  }
+
+  /*
+   * @return group of a talker and signal ID, -1 when there are too many.
+   */
+  private int group(int talker, int signal){
+    int key = talker * SIGNALS + signal;
+    int group = groupOf[key];
+    if (group < 0 && groupCount < MAX_GROUPS){
+      group = groupCount++;
+      groupOf[key] = group;
+      groupTalker[group] = talker;
+    }
+    return group;
+  }
+
+  private void commit(int group, GnssStatus status){
+    int talker = groupTalker[group];
+    int records = totalParts[group] * RECORDS_PER_PART;
+    int base = group * MAX_RECORDS;
+    System.arraycopy(entries, base, completeEntries, base, records);
+    System.arraycopy(elevations, base, completeElevations, base, records);
+    System.arraycopy(azimuths, base, completeAzimuths, base, records);
+    System.arraycopy(snrs, base, completeSnrs, base, records);
+    completeRecords[group] = records;
+    inView[group] = staged[group];
+
+    long cycles = previouslyCommitted[group];
+    previouslyCommitted[group] = committed[group];
+    committed[group] = ++commits;
+    // talkers which lost a group, as bits
+    int aged = 0;
+    for (int g = 0; g < groupCount; g++){
+      if (g != group && committed[g] != 0 && committed[g] < cycles){
+        // silent for two whole cycles of this group
+        committed[g] = 0;
+        previouslyCommitted[g] = 0;
+        completeRecords[g] = 0;
+        inView[g] = 0;
+        aged |= 1 << groupTalker[g];
+      }
+    }
+    commitTalker(talker, status);
+    for (int t = 0; t < talkers; t++){
+      if (t != talker && (aged & (1 << t)) != 0){
+        commitTalker(t, status);
+      }
+    }
+    status.setNumSatellites(getInView());
+  }
+
+  /*
+   * Replaces the satellites of a talker with the merge of the last
+   * complete groups of its signals.
+   */
+  private void commitTalker(int talker, GnssStatus status){
+    status.beginSatellitesEpoch(talker);
+    // the primary signal last, so that it sets the SNR
+    for (int signal = SIGNALS - 1; signal >= 0; signal--){
+      int group = groupOf[talker * SIGNALS + signal];
+      if (group < 0){
+        continue;
+      }
+      int base = group * MAX_RECORDS;
+      int end = base + completeRecords[group];
+      for (int i = base; i < end; i++){
+        int entry = completeEntries[i];
+        if (entry >= 0){
+          status.updateSatellite(SatelliteNumbering.system(entry), SatelliteNumbering.number(entry),
+              completeElevations[i], completeAzimuths[i], completeSnrs[i]);
+        }
+      }
+    }
+    status.evictStaleSatellites();
+  }
+
+  /*
+   * Satellites in view: for each talker, the most any of its signals
+   * reports, signals being tracked on the same satellites.
+   */
+  private int getInView(){
+    int total = 0;
+    for (int t = 0; t < talkers; t++){
+      int most = 0;
+      for (int signal = 0; signal < SIGNALS; signal++){
+        int group = groupOf[t * SIGNALS + signal];
+        if (group >= 0 && inView[group] > most){
+          most = inView[group];
+        }
+      }
+      total += most;
+    }
+    return total;
+  }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+import java.util.Arrays;
+
+/**
+ * Dispatch table from NMEA address field (talker + sentence ID, or
+ * proprietary address such as "PUBX") to {@link NmeaSentenceHandler}.
+ *
+ * An address of up to 5 printable characters is packed into an int,
+ * 6 bits per character, and looked up in a small open addressing table,
+ * so that dispatching a sentence costs one hash probe instead of a chain
+ * of string comparisons, and does not allocate.
+ *
+ * Longer proprietary addresses, such as "PSRF150" or "PMTK001", cannot be
+ * packed: they are kept in a short fallback list, compared byte by byte,
+ * which is only searched for sentences whose address is too long.
+ */
+public class NmeaDispatcher {
+
+  public static final int MAX_ADDRESS_LENGTH = 5;
+  public static final int INVALID_KEY = 0;
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  /*
+   * The table is never modified once published: registration builds a new
+   * one (copy on write), so the parser thread can look up without locking.
+   */
+  private static final class Table {
+    final int[] keys;
+    final NmeaSentenceHandler[] handlers;
+    final int size;
+    // addresses longer than MAX_ADDRESS_LENGTH
+    final byte[][] longAddresses;
+    final NmeaSentenceHandler[] longHandlers;
+
+    Table(int capacity, int size, byte[][] longAddresses, NmeaSentenceHandler[] longHandlers){
+      this(new int[capacity], new NmeaSentenceHandler[capacity], size, longAddresses, longHandlers);
+    }
+
+    Table(int[] keys, NmeaSentenceHandler[] handlers, int size,
+        byte[][] longAddresses, NmeaSentenceHandler[] longHandlers){
+      this.keys = keys;
+      this.handlers = handlers;
+      this.size = size;
+      this.longAddresses = longAddresses;
+      this.longHandlers = longHandlers;
+    }
+  }
+
+  private volatile Table table = new Table(INITIAL_CAPACITY, 0,
+      new byte[0][], new NmeaSentenceHandler[0]);
+
+  /*
+   * Characters 0x21..0x5F ('!' to '_', which covers digits and upper case
+   * letters) are mapped to 1..63, so a shorter address never collides with
+   * a longer one and 0 is left as the empty slot marker.
+   */
+  private static int packChar(int key, int c){
+    if (c < 0x21 || c > 0x5F){
+      return INVALID_KEY;
+    }
+    return (key << 6) | (c - 0x20);
+  }
+
+  /**
+   * @return packed key of address, or INVALID_KEY when it cannot be packed.
+   */
+  public static int key(CharSequence address){
+    int len = address.length();
+    if (len == 0 || len > MAX_ADDRESS_LENGTH){
+      return INVALID_KEY;
+    }
+    int key = 0;
+    for (int i = 0; i < len; i++){
+      key = packChar(key, address.charAt(i));
+      if (key == INVALID_KEY){
+        return INVALID_KEY;
+      }
+    }
+    return key;
+  }
+
+  /**
+   * @return packed key of the address field of tokenized sentence.
+   */
+  public static int key(NmeaTokenizer tokenizer){
+    return key(tokenizer.getBuffer(), tokenizer.getFieldStart(0), tokenizer.getFieldLength(0));
+  }
+
+  /**
+   * @return packed key of address held in bytes, or INVALID_KEY when it
+   * cannot be packed.
+   */
+  public static int key(byte[] buffer, int start, int len){
+    if (len == 0 || len > MAX_ADDRESS_LENGTH){
+      return INVALID_KEY;
+    }
+    int key = 0;
+    for (int i = 0; i < len; i++){
+      key = packChar(key, buffer[start+i]);
+      if (key == INVALID_KEY){
+        return INVALID_KEY;
+      }
+    }
+    return key;
+  }
+
+  private static int slot(int key, int mask){
+    // spread the bits of the characters (Fibonacci hashing)
+    return ((key * 0x9E3779B9) >>> 16) & mask;
+  }
+
+  /**
+   * @return true when address is longer than MAX_ADDRESS_LENGTH and made
+   * of characters which could be packed.
+   */
+  private static boolean isLongAddress(String address){
+    int len = address.length();
+    if (len <= MAX_ADDRESS_LENGTH){
+      return false;
+    }
+    for (int i = 0; i < len; i++){
+      if (packChar(1, address.charAt(i)) == INVALID_KEY){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Registers handler for address, replacing any previous handler.
+   *
+   * @param address address field, ex. "GPGGA", "GPLLQ", "PUBX", "PSRF150".
+   * @param handler handler to call, or null to unregister.
+   */
+  public synchronized void register(String address, NmeaSentenceHandler handler){
+    int key = key(address);
+    if (key != INVALID_KEY){
+      table = rebuild(table, key, handler);
+    } else if (isLongAddress(address)){
+      table = rebuildLong(table, address, handler);
+    } else {
+      throw new IllegalArgumentException("Invalid NMEA address: "+address);
+    }
+  }
+
+  public synchronized void unregister(String address){
+    int key = key(address);
+    if (key != INVALID_KEY){
+      table = rebuild(table, key, null);
+    } else if (isLongAddress(address)){
+      table = rebuildLong(table, address, null);
+    }
+  }
+
+  /*
+   * Copies current table without key, then adds key/handler if handler is
+   * not null. The capacity is kept at least twice the number of entries.
+   */
+  private static Table rebuild(Table current, int key, NmeaSentenceHandler handler){
+    int count = 0;
+    for (int i = 0; i < current.keys.length; i++){
+      if (current.keys[i] != INVALID_KEY && current.keys[i] != key){
+        count++;
+      }
+    }
+    if (handler != null){
+      count++;
+    }
+    int capacity = INITIAL_CAPACITY;
+    while (capacity < count * 2){
+      capacity *= 2;
+    }
+    Table newTable = new Table(capacity, count, current.longAddresses, current.longHandlers);
+    for (int i = 0; i < current.keys.length; i++){
+      if (current.keys[i] != INVALID_KEY && current.keys[i] != key){
+        put(newTable, current.keys[i], current.handlers[i]);
+      }
+    }
+    if (handler != null){
+      put(newTable, key, handler);
+    }
+    return newTable;
+  }
+
+  /*
+   * Same as rebuild() for the fallback list; the packed table is shared.
+   */
+  private static Table rebuildLong(Table current, String address, NmeaSentenceHandler handler){
+    byte[] bytes = address.getBytes(NmeaTokenizer.US_ASCII);
+    int count = 0;
+    for (int i = 0; i < current.longAddresses.length; i++){
+      if (!Arrays.equals(current.longAddresses[i], bytes)){
+        count++;
+      }
+    }
+    if (handler != null){
+      count++;
+    }
+    byte[][] addresses = new byte[count][];
+    NmeaSentenceHandler[] handlers = new NmeaSentenceHandler[count];
+    int n = 0;
+    for (int i = 0; i < current.longAddresses.length; i++){
+      if (!Arrays.equals(current.longAddresses[i], bytes)){
+        addresses[n] = current.longAddresses[i];
+        handlers[n] = current.longHandlers[i];
+        n++;
+      }
+    }
+    if (handler != null){
+      addresses[n] = bytes;
+      handlers[n] = handler;
+    }
+    return new Table(current.keys, current.handlers, current.size, addresses, handlers);
+  }
+
+  private static void put(Table t, int key, NmeaSentenceHandler handler){
+    int mask = t.keys.length - 1;
+    int i = slot(key, mask);
+    while (t.keys[i] != INVALID_KEY){
+      i = (i + 1) & mask;
+    }
+    t.keys[i] = key;
+    t.handlers[i] = handler;
+  }
+
+  /**
+   * @return number of registered handlers.
+   */
+  public int size(){
+    Table t = table;
+    return t.size + t.longAddresses.length;
+  }
+
+  /**
+   * @return handler registered for packed key, or null.
+   */
+  public NmeaSentenceHandler lookup(int key){
+    if (key == INVALID_KEY){
+      return null;
+    }
+    Table t = table;
+    int mask = t.keys.length - 1;
+    int i = slot(key, mask);
+    while (t.keys[i] != INVALID_KEY){
+      if (t.keys[i] == key){
+        return t.handlers[i];
+      }
+      i = (i + 1) & mask;
+    }
+    return null;
+  }
+
+  /**
+   * @return handler registered for the address held in bytes, or null.
+   */
+  public NmeaSentenceHandler lookup(byte[] buffer, int start, int len){
+    if (len <= MAX_ADDRESS_LENGTH){
+      return lookup(key(buffer, start, len));
+    }
+    Table t = table;
+    for (int i = 0; i < t.longAddresses.length; i++){
+      byte[] address = t.longAddresses[i];
+      if (address.length == len && regionEquals(address, buffer, start)){
+        return t.longHandlers[i];
+      }
+    }
+    return null;
+  }
+
+  private static boolean regionEquals(byte[] address, byte[] buffer, int start){
+    for (int i = 0; i < address.length; i++){
+      if (address[i] != buffer[start+i]){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Calls the handler registered for the address of tokenized sentence.
+   *
+   * @return false when no handler is registered for the address.
+   */
+  public boolean dispatch(NmeaTokenizer tokenizer){
+    NmeaSentenceHandler handler = lookup(tokenizer.getBuffer(),
+        tokenizer.getFieldStart(0), tokenizer.getFieldLength(0));
+    if (handler == null){
+      return false;
+    }
+    handler.handleSentence(tokenizer);
+    return true;
+  }
+}
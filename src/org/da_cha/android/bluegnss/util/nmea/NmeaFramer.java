@@ -0,0 +1,312 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+/**
+ * Splits the raw byte stream of a receiver into frames.
+ *
+ * Bytes are fed as they are read from the connection, in chunks of any
+ * size, and are scanned once:
+ *
+ * <ul>
+ *  <li>NMEA sentences start with '$' (or '!' for encapsulated sentences)
+ *  and end with CR/LF. Their checksum, if any, is checked on the bytes,
+ *  and they are handed over with a CR/LF end, so that they can be passed
+ *  through as received.</li>
+ *  <li>SiRF binary frames, which a SiRF receiver may interleave with NMEA,
+ *  start with 0xA0 0xA2 and end with 0xB0 0xB3. Their length and checksum
+ *  are checked before they are handed over.</li>
+ *  <li>u-blox UBX frames, which u-blox receivers interleave with NMEA,
+ *  start with 0xB5 0x62, followed by class, id and a little-endian
+ *  length. Their 8-bit Fletcher checksum is checked before they are
+ *  handed over.</li>
+ * </ul>
+ *
+ * A frame split over several reads is kept in the frame buffer until its
+ * end comes, so frames are always handed over as one contiguous slice,
+ * valid until the listener returns. Nothing is decoded into characters
+ * and nothing is allocated while framing.
+ *
+ * An instance is not thread safe and is meant to be fed by one thread.
+ */
+public class NmeaFramer {
+
+  /**
+   * Receives the frames found by the framer.
+   */
+  public interface FrameListener {
+    /**
+     * @param buffer buffer holding the sentence, from '$' or '!' up to CR/LF.
+     */
+    void onSentence(byte[] buffer, int offset, int length);
+
+    /**
+     * @param buffer buffer holding the frame, from 0xA0 0xA2 up to 0xB0 0xB3.
+     */
+    void onSirfFrame(byte[] buffer, int offset, int length);
+
+    /**
+     * @param buffer buffer holding the frame, from 0xB5 0x62 up to the checksum.
+     */
+    void onUbxFrame(byte[] buffer, int offset, int length);
+  }
+
+  // SiRF binary protocol: start, length(2), payload, checksum(2), end
+  private static final int SIRF_START1 = 0xA0;
+  private static final int SIRF_START2 = 0xA2;
+  private static final int SIRF_END1 = 0xB0;
+  private static final int SIRF_END2 = 0xB3;
+  private static final int SIRF_MAX_PAYLOAD = 1023;
+  private static final int SIRF_OVERHEAD = 8;
+  // UBX protocol: sync(2), class, id, length(2, little-endian), payload, checksum(2)
+  private static final int UBX_SYNC1 = 0xB5;
+  private static final int UBX_SYNC2 = 0x62;
+  private static final int UBX_HEADER = 6;
+  private static final int UBX_OVERHEAD = 8;
+  // NAV-SAT with 255 satellites is 3068 bytes
+  private static final int UBX_MAX_PAYLOAD = 4096 - UBX_OVERHEAD;
+
+  private static final int IDLE = 0;
+  private static final int SENTENCE = 1;
+  private static final int SIRF_START = 2;
+  private static final int SIRF = 3;
+  private static final int UBX_START = 4;
+  private static final int UBX = 5;
+
+  private final FrameListener listener;
+  private final byte[] frame = new byte[UBX_MAX_PAYLOAD + UBX_OVERHEAD];
+  private int frameLength = 0;
+  private int state = IDLE;
+  private int sirfLength = 0;
+  private int ubxLength = 0;
+
+  private long sentences = 0;
+  private long sirfFrames = 0;
+  private long ubxFrames = 0;
+  private long errors = 0;
+
+  public NmeaFramer(FrameListener listener){
+    this.listener = listener;
+  }
+
+  /**
+   * Scans bytes read from the receiver, calling the listener for every
+   * frame completed by them.
+   */
+  public void feed(byte[] data, int offset, int length){
+    int end = offset + length;
+    for (int i = offset; i < end; i++){
+      int b = data[i] & 0xff;
+      switch (state){
+        case SENTENCE:
+          sentenceByte(b);
+          break;
+        case SIRF_START:
+          if (b == SIRF_START2){
+            frame[frameLength++] = (byte)b;
+            state = SIRF;
+          } else {
+            idleByte(b);
+          }
+          break;
+        case SIRF:
+          sirfByte(b);
+          break;
+        case UBX_START:
+          if (b == UBX_SYNC2){
+            frame[frameLength++] = (byte)b;
+            state = UBX;
+          } else {
+            idleByte(b);
+          }
+          break;
+        case UBX:
+          ubxByte(b);
+          break;
+        default:
+          idleByte(b);
+          break;
+      }
+    }
+  }
+
+  /**
+   * Forgets any partial frame, ex. when the connection is reopened.
+   */
+  public void reset(){
+    state = IDLE;
+    frameLength = 0;
+  }
+
+  public long getSentenceCount(){
+    return sentences;
+  }
+
+  public long getSirfFrameCount(){
+    return sirfFrames;
+  }
+
+  public long getUbxFrameCount(){
+    return ubxFrames;
+  }
+
+  /**
+   * @return number of frames dropped because malformed or with a bad checksum.
+   */
+  public long getErrorCount(){
+    return errors;
+  }
+
+  private void idleByte(int b){
+    frameLength = 0;
+    if (b == '$' || b == '!'){
+      frame[frameLength++] = (byte)b;
+      state = SENTENCE;
+    } else if (b == SIRF_START1){
+      frame[frameLength++] = (byte)b;
+      state = SIRF_START;
+    } else if (b == UBX_SYNC1){
+      frame[frameLength++] = (byte)b;
+      state = UBX_START;
+    } else {
+      state = IDLE;
+    }
+  }
+
+  private void sentenceByte(int b){
+    if (b == '\n'){
+      endSentence();
+      state = IDLE;
+    } else if (b == '\r'){
+      // wait for LF
+    } else if (b == '$' || b == '!' || b >= 0x80){
+      // truncated sentence, start over
+      errors++;
+      idleByte(b);
+    } else if (frameLength >= NmeaTokenizer.MAX_SENTENCE_LENGTH - 2){
+      errors++;
+      state = IDLE;
+    } else {
+      frame[frameLength++] = (byte)b;
+    }
+  }
+
+  /*
+   * Checks "$...[*hh]" collected without its CR/LF, and hands it over
+   * with CR/LF appended.
+   */
+  private void endSentence(){
+    int sum = 0;
+    int i = 1;
+    for (; i < frameLength && frame[i] != '*'; i++){
+      sum ^= frame[i];
+    }
+    if (i < frameLength){
+      if (frameLength - i != 3
+          || hexValue(frame[i+1]) != ((sum >> 4) & 0x0f)
+          || hexValue(frame[i+2]) != (sum & 0x0f)){
+        errors++;
+        return;
+      }
+    }
+    frame[frameLength++] = '\r';
+    frame[frameLength++] = '\n';
+    sentences++;
+    listener.onSentence(frame, 0, frameLength);
+  }
+
+  private static int hexValue(byte b){
+    if (b >= '0' && b <= '9'){
+      return b - '0';
+    } else if (b >= 'A' && b <= 'F'){
+      return b - 'A' + 10;
+    }
+    return -1;
+  }
+
+  private void sirfByte(int b){
+    frame[frameLength++] = (byte)b;
+    if (frameLength == 4){
+      int payload = ((frame[2] & 0x7f) << 8) | (frame[3] & 0xff);
+      if (payload > SIRF_MAX_PAYLOAD){
+        errors++;
+        state = IDLE;
+        return;
+      }
+      sirfLength = payload + SIRF_OVERHEAD;
+    } else if (frameLength > 4 && frameLength == sirfLength){
+      endSirfFrame();
+      state = IDLE;
+    }
+  }
+
+  private void endSirfFrame(){
+    int payloadEnd = sirfLength - 4;
+    int sum = 0;
+    for (int i = 4; i < payloadEnd; i++){
+      sum += frame[i] & 0xff;
+    }
+    int checksum = ((frame[payloadEnd] & 0x7f) << 8) | (frame[payloadEnd+1] & 0xff);
+    if ((sum & 0x7fff) != checksum
+        || (frame[sirfLength-2] & 0xff) != SIRF_END1
+        || (frame[sirfLength-1] & 0xff) != SIRF_END2){
+      errors++;
+      return;
+    }
+    sirfFrames++;
+    listener.onSirfFrame(frame, 0, sirfLength);
+  }
+
+  private void ubxByte(int b){
+    frame[frameLength++] = (byte)b;
+    if (frameLength == UBX_HEADER){
+      int payload = (frame[4] & 0xff) | ((frame[5] & 0xff) << 8);
+      if (payload > UBX_MAX_PAYLOAD){
+        errors++;
+        state = IDLE;
+        return;
+      }
+      ubxLength = payload + UBX_OVERHEAD;
+    } else if (frameLength > UBX_HEADER && frameLength == ubxLength){
+      endUbxFrame();
+      state = IDLE;
+    }
+  }
+
+  /*
+   * 8-bit Fletcher checksum over class, id, length and payload.
+   */
+  private void endUbxFrame(){
+    int end = ubxLength - 2;
+    int a = 0;
+    int b = 0;
+    for (int i = 2; i < end; i++){
+      a = (a + frame[i]) & 0xff;
+      b = (b + a) & 0xff;
+    }
+    if (a != (frame[end] & 0xff) || b != (frame[end+1] & 0xff)){
+      errors++;
+      return;
+    }
+    ubxFrames++;
+    listener.onUbxFrame(frame, 0, ubxLength);
+  }
+}
@@ -22,22 +22,17 @@
 
 package org.da_cha.android.bluegnss.util.nmea;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import android.location.GpsStatus;
 import android.location.Location;
 import android.location.LocationProvider;
-import android.text.TextUtils;
-import android.text.TextUtils.SimpleStringSplitter;
 import android.util.Log;
 
-import org.da_cha.android.bluegnss.GnssSatellite;
+import org.da_cha.android.bluegnss.GnssSnapshot;
 import org.da_cha.android.bluegnss.GnssStatus;
+import org.da_cha.android.bluegnss.GnssStatusPublisher;
 import org.da_cha.android.bluegnss.provider.MockLocationProvider;
+import org.da_cha.android.bluegnss.util.sirf.SirfDecoder;
+import org.da_cha.android.bluegnss.util.ubx.UbxDecoder;
 
 /**
  * This class is used to parse NMEA sentences an generate the Android Locations when there is a new GPS FIX.
@@ -54,6 +49,7 @@ public class NmeaParser {
 	private static final String LOG_TAG = "BlueGNSS";
 
 	private long firstFixTimestamp;
+  private volatile long fixCount = 0;
   private NmeaState currentNmeaStatus = new NmeaState();
 	private MockLocationProvider mockProvider;
   private final int GPS_NONE      = 0;
@@ -63,10 +59,43 @@ public class NmeaParser {
   private boolean gpsFixNotified = false;
 
 	private GnssStatus gnssStatus;
+  /*
+   * Epochs are assembled in gnssStatus by the reader thread, then copied
+   * into the spare buffer of the publisher, and published.
+   */
+  private final GnssStatusPublisher publisher;
   private NmeaParserUtil parserUtil;
-	private ArrayList<Integer> activeSatellites = new ArrayList<Integer>();
 
-	private	SimpleStringSplitter splitter;
+	private NmeaTokenizer tokenizer = new NmeaTokenizer();
+  private NmeaDispatcher dispatcher = new NmeaDispatcher();
+  private SirfDecoder sirfDecoder = new SirfDecoder();
+  private UbxDecoder ubxDecoder = new UbxDecoder();
+  private GsvAssembler gsvAssembler = new GsvAssembler(SatelliteNumbering.TALKERS);
+
+  /*
+   * Sentences are only decoded for the kinds of data requested in demand,
+   * all of them when there is no demand. Sentences of the current epoch
+   * left undecoded are kept as raw slices, so that they can still be
+   * decoded when a consumer asks for their data before the epoch ends.
+   */
+  private DataDemand demand = null;
+  private int decodedKinds = DataDemand.ALL;
+  private static final int SKIPPED_BYTES = 4096;
+  private static final int MAX_SKIPPED = 64;
+  // slice types: talker of SatelliteNumbering for GSV, or one of these
+  private static final int SKIPPED_GSA = 0x100;
+  private static final int SKIPPED_VTG = 0x101;
+  private static final int SKIPPED_DECODED = -1;
+  private final byte[] skippedBytes = new byte[SKIPPED_BYTES];
+  private final int[] skippedEnds = new int[MAX_SKIPPED];
+  private final int[] skippedTypes = new int[MAX_SKIPPED];
+  private int skippedCount = 0;
+  private long skippedSentences = 0;
+  // addresses of the sentences which may be left undecoded, and their type
+  private static final int MAX_LAZY = 32;
+  private final int[] lazyKeys = new int[MAX_LAZY];
+  private final int[] lazyTypes = new int[MAX_LAZY];
+  private int lazyCount = 0;
 
 	public NmeaParser(){
 		this(5f);
@@ -75,21 +104,57 @@ public class NmeaParser {
 	public NmeaParser(float precision){
 		this.gnssStatus = new GnssStatus();
 		gnssStatus.setPrecision(precision);
+    publisher = new GnssStatusPublisher(gnssStatus);
     this.parserUtil = new NmeaParserUtil();
+    registerDefaultHandlers();
 	}
 
 	public void setGpsMockProvider(MockLocationProvider mockProvider){
 		this.mockProvider = mockProvider;
 	}
 
-	public GnssStatus getGnssStatus(){
-		return this.gnssStatus;
+	/**
+	 * Returns the last published epoch. It is a consistent read-only
+	 * snapshot, which can be read from any thread without locking until
+	 * it is released; see GnssStatusPublisher.
+	 */
+	public GnssSnapshot acquireGnssStatus(){
+		return publisher.acquire();
 	}
 
+  private void publishEpoch(){
+    publisher.publish(gnssStatus);
+  }
+
+  /**
+   * Decodes only the sentences carrying data requested in demand, ex.
+   * GSV only while a sky view is displayed. Sentences are still checked
+   * and delimit epochs as usual.
+   *
+   * @param demand demand of the consumers, null to decode every sentence.
+   */
+  public void setDataDemand(DataDemand demand){
+    this.demand = demand;
+  }
+
+  /**
+   * @return number of sentences left undecoded because not requested.
+   */
+  public long getSkippedSentenceCount(){
+    return skippedSentences;
+  }
+
   public long getFirstFixTimestamp(){
     return this.firstFixTimestamp;
   }
 
+  /**
+   * @return number of fixes notified to the mock provider.
+   */
+  public long getFixCount(){
+    return fixCount;
+  }
+
   /*
    * As same as GpsBabel developer noted as follows, we should treat
    * every NMEA sentence as optional and pragmatic.
@@ -118,156 +183,462 @@ public class NmeaParser {
    *
    * To determine NMEA sentence status, use currentNmeaStatus object to watch it.
    * every sentence parser calls NmeaState method to record it.
-   * currentNmeaStatus can say NMEA sentence is begin , complete or invalid.
+   * currentNmeaStatus finds where an epoch of sentences begins and ends, and
+   * one fix merged from all sentences of the epoch is notified at its end.
    *
    */
 
 	// parse NMEA Sentence 
 	public String parseNmeaSentence(String gpsSentence) throws SecurityException {
-		String nmeaSentence = null;
-		Pattern xx = Pattern.compile("(\\$([^*$]*)(?:\\*([0-9A-F][0-9A-F]))?)\r\n");
-		Matcher m = xx.matcher(gpsSentence);
-		if (m.matches()){
-			nmeaSentence = m.group(1);
-			String sentence = m.group(2);
-			String checkSum = m.group(3);
-			Log.v(LOG_TAG, "data: "+System.currentTimeMillis()+" "+sentence+" cheksum: "+checkSum +" control: "+String.format("%02X",computeChecksum(sentence)));
-			splitter = new TextUtils.SimpleStringSplitter(',');
-			splitter.setString(sentence);
-			String command = splitter.next();
-      try {
-        if (command.equals("GPGGA") ||
-            command.equals("GNGGA")){
-          long updateTime = currentNmeaStatus.getTimestamp(); 
-          if (parseGGA()){ // when fixed
-            if (! mockProvider.isMockStatus(LocationProvider.AVAILABLE)){
-              firstFixTimestamp = updateTime;
-              mockProvider.notifyStatusChanged(LocationProvider.AVAILABLE, null, updateTime);
-              if (!gpsFixNotified) {
-                currentGpsStatus = GPS_FIXED;
-              }
-            }
-            Location fix = gnssStatus.getFixLocation();
-            if (fix.hasAccuracy() && fix.hasAltitude()) {
-              mockProvider.notifyFix(fix);
-            } else {
-              Log.e(LOG_TAG, "Failed to notify Fix becaues the fix does not have accuracy and/or altitude");
-            }
-         } else {
-            if (!mockProvider.isMockStatus(LocationProvider.TEMPORARILY_UNAVAILABLE)){
-              mockProvider.notifyStatusChanged(LocationProvider.TEMPORARILY_UNAVAILABLE, null, updateTime);
-            }
-          } 
-          // FIXME: ad-hoc work around..
-          gnssStatus.clearTrackedSatellites();
-        } else if (command.equals("GPVTG") ||
-                   command.equals("GNVTG")){
-          parseVTG();
-          currentGpsStatus = GPS_NOTIFY;
-        } else if (command.equals("GPRMC") || command.equals("GNRMC")){
-          if (currentNmeaStatus.shouldUseRMC()) {
-            long updateTime = currentNmeaStatus.getTimestamp();
-            if (parseRMC()) {
-              if (! mockProvider.isMockStatus(LocationProvider.AVAILABLE)){
-                mockProvider.notifyStatusChanged(LocationProvider.AVAILABLE, null, updateTime);
-                firstFixTimestamp = updateTime;
-                if (!gpsFixNotified){
-                  currentGpsStatus = GPS_FIXED;
-                }
-              }
-              Location fix = gnssStatus.getFixLocation();
-              if (fix.hasAccuracy() && fix.hasAltitude()) {
-                mockProvider.notifyFix(fix);
-                gpsFixNotified = true;
-              } else {
-                Log.e(LOG_TAG, "Failed to notify Fix becaues the fix does not have accuracy and/or altitude");
-              }
-            } else {
-              if (! mockProvider.isMockStatus(LocationProvider.TEMPORARILY_UNAVAILABLE)){
-                mockProvider.notifyStatusChanged(LocationProvider.TEMPORARILY_UNAVAILABLE, null, updateTime);
-              }
-              currentGpsStatus = GPS_NOTIFY;
-            }
-          }
-        } else if (command.equals("GPGSA")){
-          // GPS active satellites
-          parseGSA("GP");
-        } else if (command.equals("GNGSA")){
-          // gps/glonass active satellites
-          // two GNGSA will be generated.
-          parseGSA("GN");
-        } else if (command.equals("QZGSA")){
-          // QZSS active satellites
-          parseGSA("QZ");
-        } else if (command.equals("BDGSA")){
-          // Beidou satellites
-          parseGSA("BD");
-        } else if (command.equals("GPGSV")){
-          // GPS satellites in View
-          parseGSV("GP");
-        } else if (command.equals("GLGSV")){
-          // Glonass satellites in View
-          parseGSV("GL");
-        } else if (command.equals("QZGSV")){
-          // QZSS satellites in View
-          parseGSV("QZ");
-        } else if (command.equals("BDGSV")){
-          // Beidou satellites in view
-          parseGSV("BD");
-        } else if (command.equals("GPGLL")){
-          if (currentNmeaStatus.shouldUseGLL()) {
-            // GPS fix
-            parseGLL();
-          }
-        } else if (command.equals("GNGLL")){
-          if (currentNmeaStatus.shouldUseGLL()) {
-            // multi-GNSS fix or glonass/qzss fix
-            parseGLL();
-          }
-        } else if (command.equals("GNGNS")){
-          parseGNS();
-        } else if (command.equals("GPGRS")){
-          /* range residuals
-           * 1 	UTC of GGA position fix
-           * 2 	Residuals
-           *    0: used to calculate position in GGA line
-           *    1: recomputed after GGA was computed
-           * 3–14 	Range residuals in the solution, in meters
-           */
-          Log.i(LOG_TAG, "Range residuals message: "+System.currentTimeMillis()+" "+gpsSentence);
-        } else if (command.equals("GPLLQ")){
-          /* Leica local position and quality
-           *
-           * 1 	hhmmss.ss - UTC time of position
-           * 2 	ddmmyy - UTC date
-           * 3 	xxx.xxx - Grid easting (meters)
-           * 4 	M - Meter, fixed text
-           * 5 	xxxx.xxxx - Grid northing (meters)
-           * 6 	M - Meter, fixed text
-           * 7 	x - GPS quality. 0 = not valid. 1 = GPS Nav Fix. 2 = DGPS Fix. 3 = RTK Fix.
-           * 8 	x - Number of satellites used in computation
-           * 9 	xx.xx - Position quality (meters)
-           * 10 	xxxx.xxxx - Height (meters)
-           * 11 	M - Meter, fixed text
-           */
-          Log.i(LOG_TAG, "Leica local position and quality message: "+System.currentTimeMillis()+" "+gpsSentence);
-        } else {
-          Log.d(LOG_TAG, "Unkown nmea data: "+System.currentTimeMillis()+" "+gpsSentence);
-        }
-      } catch (Exception e){
-        // not propergate to caller.
-        Log.d(LOG_TAG, "Caught exception on NmeaParser");
-      }
-		} else {
+    updateDemand();
+		if (!tokenizer.tokenize(gpsSentence)){
       // no returns the mismatched data.
 			Log.d(LOG_TAG, "Mismatched data: "+System.currentTimeMillis()+" "+gpsSentence);
       return null;
 		}
+    dispatchSentence();
     // gpsSentence == nmeaSentence+"/r/n"
     // should return with "/r/n"
 		return gpsSentence;
 	}
 
+  /**
+   * Parses a sentence held in a byte array, ex. a frame of NmeaFramer,
+   * without decoding it into a String.
+   *
+   * @return false when the sentence is mismatched.
+   */
+  public boolean parseNmeaSentence(byte[] data, int offset, int length) throws SecurityException {
+    updateDemand();
+    if (decodedKinds != DataDemand.ALL && skipRawSentence(data, offset, length)){
+      return true;
+    }
+    if (!tokenizer.tokenize(data, offset, length)){
+      Log.d(LOG_TAG, "Mismatched data: "+System.currentTimeMillis()+" "+new String(data, offset, length, NmeaTokenizer.US_ASCII));
+      return false;
+    }
+    dispatchSentence();
+    return true;
+  }
+
+  /**
+   * Parses a SiRF binary frame, ex. a frame of NmeaFramer, for receivers
+   * switched to binary output. A Geodetic Navigation Data message (MID 41)
+   * ends the epoch, like the last sentence of a NMEA epoch.
+   *
+   * @return false when the message is not one SirfDecoder knows.
+   */
+  public boolean parseSirfFrame(byte[] frame, int offset, int length) throws SecurityException {
+    int id = sirfDecoder.decode(frame, offset, length, gnssStatus);
+    if (id == SirfDecoder.MID_GEODETIC_NAV){
+      completeEpoch(sirfDecoder.isFixed(), sirfDecoder.getFixTime());
+    }
+    return id >= 0;
+  }
+
+  /**
+   * Parses a u-blox UBX frame, ex. a frame of NmeaFramer, for receivers
+   * with UBX output enabled. A NAV-PVT message ends the epoch, like the
+   * last sentence of a NMEA epoch.
+   *
+   * @return false when the message is not one UbxDecoder knows.
+   */
+  public boolean parseUbxFrame(byte[] frame, int offset, int length) throws SecurityException {
+    int id = ubxDecoder.decode(frame, offset, length, gnssStatus);
+    if (id == UbxDecoder.NAV_PVT){
+      completeEpoch(ubxDecoder.isFixed(), ubxDecoder.getFixTime());
+    }
+    return id >= 0;
+  }
+
+  /*
+   * Follows the kinds of data requested, decoding the sentences of the
+   * epoch skipped so far for kinds newly requested.
+   */
+  private void updateDemand(){
+    DataDemand d = demand;
+    int kinds = (d == null) ? DataDemand.ALL : d.getKinds();
+    int added = kinds & ~decodedKinds;
+    decodedKinds = kinds;
+    if ((added & DataDemand.SKY_VIEW) != 0){
+      // parts staged before GSV were skipped are outdated
+      gsvAssembler.reset();
+    }
+    if (added == 0 || skippedCount == 0){
+      return;
+    }
+    int start = 0;
+    for (int i = 0; i < skippedCount; i++){
+      int type = skippedTypes[i];
+      if (type != SKIPPED_DECODED && (kindsOf(type) & added) != 0
+          && tokenizer.tokenize(skippedBytes, start, skippedEnds[i] - start)){
+        decodeSkipped(type);
+        skippedTypes[i] = SKIPPED_DECODED;
+      }
+      start = skippedEnds[i];
+    }
+  }
+
+  private boolean isDecoded(int kinds){
+    return (decodedKinds & kinds) != 0;
+  }
+
+  private static int kindsOf(int type){
+    switch (type){
+      case SKIPPED_GSA:
+        return DataDemand.DOP | DataDemand.SKY_VIEW;
+      case SKIPPED_VTG:
+        return DataDemand.POSITION;
+      default:
+        return DataDemand.SKY_VIEW;
+    }
+  }
+
+  private void decodeSkipped(int type){
+    switch (type){
+      case SKIPPED_GSA:
+        decodeGSA();
+        break;
+      case SKIPPED_VTG:
+        decodeVTG();
+        break;
+      default:
+        gsvAssembler.add(type, tokenizer, gnssStatus);
+        break;
+    }
+  }
+
+  private boolean isSkipped(int type){
+    switch (type){
+      case SKIPPED_GSA:
+        return !isDecoded(DataDemand.DOP | DataDemand.SKY_VIEW);
+      case SKIPPED_VTG:
+        // speed and bearing are also given by RMC
+        return !isDecoded(DataDemand.POSITION) || (demand != null && currentNmeaStatus.hasRMC());
+      default:
+        return !isDecoded(DataDemand.SKY_VIEW);
+    }
+  }
+
+  private void registerLazy(String address, int type){
+    lazyKeys[lazyCount] = NmeaDispatcher.key(address);
+    lazyTypes[lazyCount] = type;
+    lazyCount++;
+  }
+
+  private void unregisterLazy(String address){
+    int key = NmeaDispatcher.key(address);
+    for (int i = 0; i < lazyCount; i++){
+      if (lazyKeys[i] == key){
+        lazyCount--;
+        lazyKeys[i] = lazyKeys[lazyCount];
+        lazyTypes[i] = lazyTypes[lazyCount];
+        return;
+      }
+    }
+  }
+
+  /*
+   * Skips a sentence not to be decoded without tokenizing it: only its
+   * address, and the part numbers of GSV, are read. Its checksum has been
+   * checked by the framer, and is checked again if it is decoded later.
+   *
+   * @return false when the sentence is to be decoded.
+   */
+  private boolean skipRawSentence(byte[] data, int offset, int length){
+    int end = offset + length;
+    int comma = offset + 1;
+    while (comma < end && data[comma] != ','){
+      comma++;
+    }
+    int key = NmeaDispatcher.key(data, offset + 1, comma - offset - 1);
+    int type = -1;
+    for (int i = 0; i < lazyCount; i++){
+      if (lazyKeys[i] == key){
+        type = lazyTypes[i];
+        break;
+      }
+    }
+    if (type < 0 || !isSkipped(type)){
+      return false;
+    }
+    boolean canEnd = true;
+    if (type != SKIPPED_GSA && type != SKIPPED_VTG){
+      // GSV: only the last part can end the epoch
+      int total = 0;
+      int part = 0;
+      int field = 0;
+      for (int i = comma + 1; i < end && field < 2; i++){
+        int b = data[i];
+        if (b == ','){
+          field++;
+        } else if (b >= '0' && b <= '9'){
+          if (field == 0){
+            total = total * 10 + b - '0';
+          } else {
+            part = part * 10 + b - '0';
+          }
+        } else {
+          break;
+        }
+      }
+      canEnd = (part == total);
+    }
+    skipSentence(type, key, canEnd, data, offset, length);
+    return true;
+  }
+
+  /*
+   * Keeps the epoch going through a sentence which is not decoded, and
+   * keeps the sentence in case its data is requested before the epoch ends.
+   */
+  private void skipSentence(int type, int key, boolean canEnd, byte[] data, int offset, int length){
+    enterSentence(0, key);
+    skippedSentences++;
+    int start = (skippedCount == 0) ? 0 : skippedEnds[skippedCount - 1];
+    if (skippedCount < MAX_SKIPPED && start + length <= SKIPPED_BYTES){
+      System.arraycopy(data, offset, skippedBytes, start, length);
+      skippedEnds[skippedCount] = start + length;
+      skippedTypes[skippedCount] = type;
+      skippedCount++;
+    }
+    leaveSentence(key, canEnd);
+  }
+
+  private void skipSentence(int type, boolean canEnd){
+    skipSentence(type, NmeaDispatcher.key(tokenizer), canEnd,
+        tokenizer.getBuffer(), 0, tokenizer.getLength());
+  }
+
+  private void dispatchSentence(){
+    if (Log.isLoggable(LOG_TAG, Log.VERBOSE)){
+      Log.v(LOG_TAG, "data: "+System.currentTimeMillis()+" "+tokenizer+" cheksum: "+tokenizer.getChecksum()+" control: "+tokenizer.getComputedChecksum());
+    }
+    try {
+      if (!dispatcher.dispatch(tokenizer)){
+        Log.d(LOG_TAG, "Unkown nmea data: "+System.currentTimeMillis()+" "+tokenizer);
+      }
+    } catch (Exception e){
+      // not propergate to caller.
+      Log.d(LOG_TAG, "Caught exception on NmeaParser");
+    }
+  }
+
+  /**
+   * Registers a handler for sentences with given address field
+   * (ex. "GPLLQ", "PUBX", "PSRF150"), replacing the built-in one if any.
+   *
+   * @param address address field of the sentence
+   * @param handler handler to call, or null to ignore these sentences.
+   */
+  public void registerSentenceHandler(String address, NmeaSentenceHandler handler){
+    // the replaced built-in handler may skip the sentence, this one may not
+    unregisterLazy(address);
+    dispatcher.register(address, handler);
+  }
+
+  private void registerDefaultHandlers(){
+    NmeaSentenceHandler gga = new NmeaSentenceHandler(){
+      @Override
+      public void handleSentence(NmeaTokenizer tokenizer){
+        parseGGA();
+      }
+    };
+    dispatcher.register("GPGGA", gga);
+    dispatcher.register("GNGGA", gga);
+
+    NmeaSentenceHandler vtg = new NmeaSentenceHandler(){
+      @Override
+      public void handleSentence(NmeaTokenizer tokenizer){
+        if (isSkipped(SKIPPED_VTG)){
+          skipSentence(SKIPPED_VTG, true);
+        } else {
+          parseVTG();
+        }
+      }
+    };
+    dispatcher.register("GPVTG", vtg);
+    dispatcher.register("GNVTG", vtg);
+    registerLazy("GPVTG", SKIPPED_VTG);
+    registerLazy("GNVTG", SKIPPED_VTG);
+
+    NmeaSentenceHandler rmc = new NmeaSentenceHandler(){
+      @Override
+      public void handleSentence(NmeaTokenizer tokenizer){
+        parseRMC();
+      }
+    };
+    dispatcher.register("GPRMC", rmc);
+    dispatcher.register("GNRMC", rmc);
+
+    // GPS active satellites
+    registerGSA("GPGSA", "GP");
+    // gps/glonass active satellites
+    // two GNGSA will be generated.
+    registerGSA("GNGSA", "GN");
+    // QZSS active satellites
+    registerGSA("QZGSA", "QZ");
+    // Beidou satellites
+    registerGSA("BDGSA", "BD");
+
+    // satellites in view, of each constellation
+    // GN for receivers with GPS, SBAS and GLONASS numbering in one group
+    registerGSV("GPGSV", SatelliteNumbering.GP);
+    registerGSV("GNGSV", SatelliteNumbering.GN);
+    registerGSV("GLGSV", SatelliteNumbering.GL);
+    registerGSV("GAGSV", SatelliteNumbering.GA);
+    registerGSV("GBGSV", SatelliteNumbering.GB);
+    registerGSV("BDGSV", SatelliteNumbering.BD);
+    registerGSV("GQGSV", SatelliteNumbering.GQ);
+    registerGSV("QZGSV", SatelliteNumbering.QZ);
+    registerGSV("GIGSV", SatelliteNumbering.GI);
+
+    // GPS fix, multi-GNSS fix or glonass/qzss fix
+    NmeaSentenceHandler gll = new NmeaSentenceHandler(){
+      @Override
+      public void handleSentence(NmeaTokenizer tokenizer){
+        parseGLL();
+      }
+    };
+    dispatcher.register("GPGLL", gll);
+    dispatcher.register("GNGLL", gll);
+
+    dispatcher.register("GNGNS", new NmeaSentenceHandler(){
+      @Override
+      public void handleSentence(NmeaTokenizer tokenizer){
+        parseGNS();
+      }
+    });
+
+    /* range residuals
+     * 1 	UTC of GGA position fix
+     * 2 	Residuals
+     *    0: used to calculate position in GGA line
+     *    1: recomputed after GGA was computed
+     * 3–14 	Range residuals in the solution, in meters
+     */
+    dispatcher.register("GPGRS", new NmeaSentenceHandler(){
+      @Override
+      public void handleSentence(NmeaTokenizer tokenizer){
+        Log.i(LOG_TAG, "Range residuals message: "+System.currentTimeMillis()+" "+tokenizer);
+      }
+    });
+
+    /* Leica local position and quality
+     *
+     * 1 	hhmmss.ss - UTC time of position
+     * 2 	ddmmyy - UTC date
+     * 3 	xxx.xxx - Grid easting (meters)
+     * 4 	M - Meter, fixed text
+     * 5 	xxxx.xxxx - Grid northing (meters)
+     * 6 	M - Meter, fixed text
+     * 7 	x - GPS quality. 0 = not valid. 1 = GPS Nav Fix. 2 = DGPS Fix. 3 = RTK Fix.
+     * 8 	x - Number of satellites used in computation
+     * 9 	xx.xx - Position quality (meters)
+     * 10 	xxxx.xxxx - Height (meters)
+     * 11 	M - Meter, fixed text
+     */
+    dispatcher.register("GPLLQ", new NmeaSentenceHandler(){
+      @Override
+      public void handleSentence(NmeaTokenizer tokenizer){
+        Log.i(LOG_TAG, "Leica local position and quality message: "+System.currentTimeMillis()+" "+tokenizer);
+      }
+    });
+  }
+
+  private void registerGSA(String address, final String system){
+    dispatcher.register(address, new NmeaSentenceHandler(){
+      @Override
+      public void handleSentence(NmeaTokenizer tokenizer){
+        if (isSkipped(SKIPPED_GSA)){
+          skipSentence(SKIPPED_GSA, true);
+        } else {
+          parseGSA(system);
+        }
+      }
+    });
+    registerLazy(address, SKIPPED_GSA);
+  }
+
+  private void registerGSV(String address, final int talker){
+    dispatcher.register(address, new NmeaSentenceHandler(){
+      @Override
+      public void handleSentence(NmeaTokenizer tokenizer){
+        if (isSkipped(talker)){
+          skipSentence(talker, tokenizer.getInt(2, 0) == tokenizer.getInt(1, 0));
+        } else {
+          parseGSV(talker);
+        }
+      }
+    });
+    registerLazy(address, talker);
+  }
+
+  /*
+   * Every parser calls enterSentence() with the UTC time of the sentence,
+   * if any, before updating gnssStatus, and leaveSentence() after it.
+   * When a sentence starts a new epoch, the epoch in progress is completed
+   * first, so gnssStatus only ever holds the sentences of one epoch.
+   */
+  private void enterSentence(long time){
+    enterSentence(time, NmeaDispatcher.key(tokenizer));
+  }
+
+  private void enterSentence(long time, int key){
+    if (currentNmeaStatus.isNewEpoch(time, key)){
+      if (currentNmeaStatus.isReceiving()){
+        // the end of the epoch was not seen
+        completeEpoch(currentNmeaStatus.isFixed(), currentNmeaStatus.getTimestamp());
+      }
+      currentNmeaStatus.beginEpoch(time);
+      gnssStatus.clearTrackedSatellites();
+      skippedCount = 0;
+    } else if (time != 0){
+      currentNmeaStatus.recvTime(time);
+    }
+  }
+
+  /*
+   * @param canEnd false for a part of a sentence that is not the last one.
+   */
+  private void leaveSentence(boolean canEnd){
+    leaveSentence(NmeaDispatcher.key(tokenizer), canEnd);
+  }
+
+  private void leaveSentence(int key, boolean canEnd){
+    if (currentNmeaStatus.recvSentence(key, canEnd)){
+      completeEpoch(currentNmeaStatus.isFixed(), currentNmeaStatus.getTimestamp());
+      currentNmeaStatus.complete();
+    }
+  }
+
+  /*
+   * Notifies the fix merged from all sentences of the epoch, if any,
+   * and publishes the epoch.
+   */
+  private void completeEpoch(boolean fixed, long updateTime){
+    if (fixed){
+      if (! mockProvider.isMockStatus(LocationProvider.AVAILABLE)){
+        firstFixTimestamp = updateTime;
+        mockProvider.notifyStatusChanged(LocationProvider.AVAILABLE, null, updateTime);
+      }
+      Location fix = gnssStatus.getFixLocation();
+      if (fix.hasAccuracy() && fix.hasAltitude()) {
+        mockProvider.notifyFix(fix);
+        fixCount++;
+      } else {
+        Log.e(LOG_TAG, "Failed to notify Fix becaues the fix does not have accuracy and/or altitude");
+      }
+      currentGpsStatus = gpsFixNotified ? GPS_NOTIFY : GPS_FIXED;
+    } else {
+      if (! mockProvider.isMockStatus(LocationProvider.TEMPORARILY_UNAVAILABLE)){
+        mockProvider.notifyStatusChanged(LocationProvider.TEMPORARILY_UNAVAILABLE, null, updateTime);
+      }
+      currentGpsStatus = GPS_NOTIFY;
+    }
+    publishEpoch();
+  }
+
 	public int getGpsStatusChange(){
     currentNmeaStatus.notified();
     if (currentGpsStatus == GPS_NOTIFY){
@@ -282,10 +653,6 @@ public class NmeaParser {
 		return 0;
 	}
 
-  public Iterator<Entry<Integer, GnssSatellite>> getSatellitesIter(){
-    return gnssStatus.getSatellitesIter();
-  }
-
   /*
    * @return true if fixed.
    */
@@ -315,16 +682,10 @@ public class NmeaParser {
            (empty field) DGPS station ID number
            *47          the checksum data, always begins with *
      */
-    // UTC time of fix HHmmss.S
-    String time = splitter.next();
-    // latitude ddmm.M
-    String lat = splitter.next();
-    // direction (N/S)
-    String latDir = splitter.next();
-    // longitude dddmm.M
-    String lon = splitter.next();
-    // direction (E/W)
-    String lonDir = splitter.next();
+    // fields of the sentence
+    final int TIME     = 1;  // UTC time of fix HHmmss.S
+    final int LAT      = 2;  // latitude ddmm.M, direction (N/S)
+    final int LON      = 4;  // longitude dddmm.M, direction (E/W)
     /* fix quality: 
       0= invalid
       1 = GPS fix (SPS)
@@ -336,53 +697,60 @@ public class NmeaParser {
       7 = Manual input mode
       8 = Simulation mode
      */
-    String quality = splitter.next();
-    // Number of satellites being tracked
-    String nbSat = splitter.next();
-    // Horizontal dilution of position (float)
-    String hdop = splitter.next();
-    // Altitude, Meters, above mean sea level
-    String alt = splitter.next();
-    String altUnit = splitter.next();
-    // Height of geoid (mean sea level) above WGS84 ellipsoid
-    String geoAlt = splitter.next();
-    String geoUnit = splitter.next();
+    final int QUALITY  = 6;
+    final int NBSAT    = 7;  // Number of satellites being tracked
+    final int HDOP     = 8;  // Horizontal dilution of position (float)
+    final int ALT      = 9;  // Altitude, Meters, above mean sea level, unit
+    final int GEOALT   = 11; // Height of geoid (mean sea level) above WGS84 ellipsoid, unit
     // time in seconds since last DGPS update
     // DGPS station ID number
     //
     // Update GNSS object status
-    if (quality != null && !quality.equals("") && !quality.equals("0") ){
-      long timestamp = parserUtil.parseNmeaTime(time);
-      currentNmeaStatus.recvGGA(true, timestamp);
-      gnssStatus.setFixTimestamp(timestamp);
-      gnssStatus.setQuality(parserUtil.parseNmeaInt(quality));
-      if (lat != null && !lat.equals("")){
-        gnssStatus.setLatitude(parserUtil.parseNmeaLatitude(lat,latDir));
-      }
-      if (lon != null && !lon.equals("")){
-        gnssStatus.setLongitude(parserUtil.parseNmeaLongitude(lon,lonDir));
+    long timestamp = parserUtil.parseNmeaTime(tokenizer, TIME);
+    enterSentence(timestamp);
+    boolean fixed = false;
+    if (tokenizer.isEmpty(QUALITY)){
+      Log.e(LOG_TAG, "Unknown status of GGA quality");
+      leaveSentence(true);
+      return false;
+    }
+    int quality = tokenizer.getInt(QUALITY, -1);
+    if (quality < 0){
+      Log.e(LOG_TAG, "Malformed GGA quality");
+      leaveSentence(true);
+      return false;
+    }
+    if (quality != 0){
+      double latitude = parserUtil.parseNmeaLatitude(tokenizer, LAT);
+      double longitude = parserUtil.parseNmeaLongitude(tokenizer, LON);
+      if (Double.isNaN(latitude) || Double.isNaN(longitude)){
+        Log.e(LOG_TAG, "Malformed GGA position");
+        leaveSentence(true);
+        return false;
       }
-      if (hdop != null && !hdop.equals("")){
-        gnssStatus.setHDOP(parserUtil.parseNmeaFloat(hdop));
+      fixed = true;
+      gnssStatus.setFixTimestamp(timestamp);
+      gnssStatus.setQuality(quality);
+      gnssStatus.setLatitude(latitude);
+      gnssStatus.setLongitude(longitude);
+      if (!tokenizer.isEmpty(HDOP)){
+        gnssStatus.setHDOP(tokenizer.getFloat(HDOP));
       }
-      if (alt != null && !alt.equals("")){
-        gnssStatus.setAltitude(parserUtil.parseNmeaAlt(alt, altUnit));
+      if (!tokenizer.isEmpty(ALT)){
+        gnssStatus.setAltitude(parserUtil.parseNmeaAlt(tokenizer, ALT));
       }
-      if (nbSat != null && !nbSat.equals("")){
-        gnssStatus.setNbSat(parserUtil.parseNmeaInt(nbSat));
+      if (!tokenizer.isEmpty(NBSAT)){
+        gnssStatus.setNbSat(tokenizer.getInt(NBSAT));
       }
-      if (geoAlt != null & !geoAlt.equals("")){
-        gnssStatus.setHeight(parserUtil.parseNmeaFloat(geoAlt));
+      if (!tokenizer.isEmpty(GEOALT)){
+        gnssStatus.setHeight(tokenizer.getFloat(GEOALT));
       }
-      return true;
-    } else if(quality.equals("0")){
-      long timestamp = parserUtil.parseNmeaTime(time);
-      gnssStatus.setTimestamp(timestamp);
-      return false;
     } else {
-      Log.e(LOG_TAG, "Unknown status of GGA quality");
-      return false;
+      gnssStatus.setTimestamp(timestamp);
     }
+    currentNmeaStatus.recvGGA(fixed);
+    leaveSentence(true);
+    return fixed;
 	}
 
   /*
@@ -403,53 +771,45 @@ public class NmeaParser {
          003.1,W      Magnetic Variation
          *6A          The checksum data, always begins with *
     */
-    // UTC time of fix HHmmss.S
-    String time = splitter.next();
-    // fix status (A/V)
-    String status = splitter.next();
-    // latitude ddmm.M
-    String lat = splitter.next();
-    // direction (N/S)
-    String latDir = splitter.next();
-    // longitude dddmm.M
-    String lon = splitter.next();
-    // direction (E/W)
-    String lonDir = splitter.next();
-    // Speed over the ground in knots		 
-    String speed = splitter.next();
-    // Track angle in degrees True
-    String bearing = splitter.next();
-    // UTC date of fix DDMMYY
-    String date = splitter.next();
-    // Magnetic Variation ddd.D
-    String magn = splitter.next();
-    // Magnetic variation direction (E/W)
-    String magnDir = splitter.next();
+    final int TIME     = 1;  // UTC time of fix HHmmss.S
+    final int STATUS   = 2;  // fix status (A/V)
+    final int LAT      = 3;  // latitude ddmm.M, direction (N/S)
+    final int LON      = 5;  // longitude dddmm.M, direction (E/W)
+    final int SPEED    = 7;  // Speed over the ground in knots
+    final int BEARING  = 8;  // Track angle in degrees True
+    // 9: UTC date of fix DDMMYY
+    // 10: Magnetic Variation ddd.D, 11: Magnetic variation direction (E/W)
     // for NMEA 0183 version 3.00 active the Mode indicator field is added
     // Mode indicator, (A=autonomous, D=differential, E=Estimated, N=not valid, S=Simulator )
-    gnssStatus.setMode(status);
-    long timestamp = parserUtil.parseNmeaTime(time);
-    if (status != null && !status.equals("") && status.equals("A") ){
-      gnssStatus.setFixTimestamp(timestamp);
-      currentNmeaStatus.recvRMC(true, timestamp);
-      if (lat != null && !lat.equals("")){
-        gnssStatus.setLatitude(parserUtil.parseNmeaLatitude(lat,latDir));
+    long timestamp = parserUtil.parseNmeaTime(tokenizer, TIME);
+    enterSentence(timestamp);
+    char status = tokenizer.getChar(STATUS);
+    gnssStatus.setMode(modeString(status));
+    boolean fixed = false;
+    if (status == 'A'){
+      double latitude = parserUtil.parseNmeaLatitude(tokenizer, LAT);
+      double longitude = parserUtil.parseNmeaLongitude(tokenizer, LON);
+      if (Double.isNaN(latitude) || Double.isNaN(longitude)){
+        Log.e(LOG_TAG, "Malformed RMC position");
+        leaveSentence(true);
+        return false;
       }
-      if (lon != null && !lon.equals("")){
-        gnssStatus.setLongitude(parserUtil.parseNmeaLongitude(lon,lonDir));
-      }
-    if (speed != null && !speed.equals("")){
-        gnssStatus.setSpeed(parserUtil.parseNmeaSpeed(speed, "N"));
+      fixed = true;
+      gnssStatus.setFixTimestamp(timestamp);
+      gnssStatus.setLatitude(latitude);
+      gnssStatus.setLongitude(longitude);
+      if (!tokenizer.isEmpty(SPEED)){
+        gnssStatus.setSpeed(parserUtil.parseNmeaSpeed(tokenizer, SPEED, 'N'));
       }
-      if (bearing != null && !bearing.equals("")){
-        gnssStatus.setBearing(parserUtil.parseNmeaFloat(bearing));
+      if (!tokenizer.isEmpty(BEARING)){
+        gnssStatus.setBearing(tokenizer.getFloat(BEARING));
       }
-      return true;
-    } else if(status.equals("V")){
-      currentNmeaStatus.recvRMC(false, timestamp);
-      return false;
     }
-    return false;
+    if (fixed || status == 'V'){
+      currentNmeaStatus.recvRMC(fixed);
+    }
+    leaveSentence(true);
+    return fixed;
 	}
 
 	private void parseGSA(String system){
@@ -468,41 +828,47 @@ public class NmeaParser {
            2.1      Vertical dilution of precision (VDOP)
            *39      the checksum data, always begins with *
      */
+    enterSentence(0);
+    decodeGSA();
+    leaveSentence(true);
+	}
+
+  private void decodeGSA(){
     // mode : A Auto selection of 2D or 3D fix / M = manual
-    String mode = splitter.next();
-    gnssStatus.setMode(mode);
+    gnssStatus.setMode(modeString(tokenizer.getChar(1)));
     // fix type  : 1 - no fix / 2 - 2D / 3 - 3D
-    String fixType = splitter.next();
-
-    if (system.equals("GP")){
-        gnssStatus.clearTrackedSatellites();
-    }
-
-    if (! fixType.equals("1")) {
-      String prn;
+    final int FIXTYPE = 2;
+    // PRNs of satellites used for fix, then PDOP, HDOP and VDOP
+    final int PRN  = 3;
+    final int PDOP = 15;
+    final int HDOP = 16;
+    final int VDOP = 17;
 
+    // satellites used by all GSA of the epoch are accumulated;
+    // the list is cleared when a new epoch begins.
+    if (! tokenizer.fieldEquals(FIXTYPE, "1")) {
       for (int i=0 ; i<12  ; i++){
-        prn = splitter.next();
-        if (prn != null && !prn.equals("")){
-            gnssStatus.addTrackedSatellites(Integer.parseInt(prn));
+        if (!tokenizer.isEmpty(PRN+i)){
+            gnssStatus.addTrackedSatellites(tokenizer.getInt(PRN+i));
         }
       }
 
-
       // Position dilution of precision (float)
-      String pdop = splitter.next();
+      if (!tokenizer.isEmpty(PDOP)){
+        gnssStatus.setPDOP(tokenizer.getFloat(PDOP));
+      }
       // Horizontal dilution of precision (float)
-      String hdop = splitter.next();
+      if (!tokenizer.isEmpty(HDOP)){
+        gnssStatus.setHDOP(tokenizer.getFloat(HDOP));
+      }
       // Vertical dilution of precision (float)
-      String vdop = splitter.next();
-      gnssStatus.setPDOP(Float.parseFloat(pdop));
-      gnssStatus.setHDOP(Float.parseFloat(hdop));
-      gnssStatus.setVDOP(Float.parseFloat(vdop));
+      if (!tokenizer.isEmpty(VDOP)){
+        gnssStatus.setVDOP(tokenizer.getFloat(VDOP));
+      }
     }
-    currentNmeaStatus.recvGSA();
-	}
+  }
 
-	private void parseGSV(String system){
+	private void parseGSV(int talker){
     /*   $GPGSV,2,1,08,01,40,083,46,02,17,308,41,12,07,344,39,14,22,228,45*75
         Where:
             GSV          Satellites in view
@@ -521,126 +887,14 @@ public class NmeaParser {
         or inside building.
 
      */
-    String totalGsvSentence = splitter.next();
-    String currentGsvSentence = splitter.next();
-    String satellitesInView = splitter.next();
-
-    Integer numCurrentGsvSentence = Integer.parseInt(currentGsvSentence);
-    Integer numTotalGsvSentence   = Integer.parseInt(totalGsvSentence);
-    Integer numSatellitesInView   = Integer.parseInt(satellitesInView);
-
-    if (numCurrentGsvSentence == 1){ // count num of satellites in view
-      if ("GP".equals(system)){ // first sentence and GP
-        activeSatellites.clear();
-        gnssStatus.setNumSatellites(numSatellitesInView);
-      } else {
-        gnssStatus.addNumSatellites(numSatellitesInView);
-      }
-    }
-
-    if (numSatellitesInView != 0) {
-      int numRecord = 4;
-      if (numCurrentGsvSentence == numTotalGsvSentence){ // last sentence
-        numRecord = numSatellitesInView % 4;
-        if (numRecord == 0){
-          numRecord = 4;
-        }
-      }
-      for (int i =0; i < numRecord; i++){
-          //
-          // Heulistics for recognize satellite system
-          //
-            // GPGSA sometimes report Galilleo, QZSS, SBS others with 
-            // PRN > 32
-            // known example
-            //
-            //-------------------------------------------------------------------
-            // SBS numbering with GPGSV
-            //
-            //   PRN 122, 134, 135, 138‚ are American WAAS satellites
-            //   PRN 120, 124, 126, 131 are European EGNOS satellites
-            //   PRN 127, 128 are GAGAN satellites
-            //   PRN 129, 137 are Japanese‚ MSAS satellites
-            //   PRN 140, 125, 141 are SDCM satellites
-            //
-            //   NMEA ID 42, 50 for MSAS by JP
-            //
-            //   PRN  -  NMEA ID 
-            //    120 = 33
-            //    121 = 34
-            //    122 = 35
-            //    123 = 36
-            //    135 = 48
-            //    136 = 49
-            //    137 = 50
-            //    138 = 51
-            //    157 = 70
-            //    158 = 71
-            //   NMEA ID is same as PRN -87 for SBS
-            //
-            // -----------------------------------------------------------------
-            //   PRN 193..197 for QZSS ID
-            //   PRN 183 for QZSS L1-SAIF
-            //   PRN 201..210 for BEIDOU
-            //
-            // some GNSS report QZ*** and PRN=1 for QZSS.
-            // other report  GP*** and RPN=193.
-            //
-            // Galileo has Satellite ID 1..36 with GA specifier
-            //
-            // SBS numbering with GLGSV
-            //   PRN 33-64 are reserved for SBS
-            //
-            // SBS numbering with GAGSV
-            //   PRN 37-64 are reserved for SBS
-            //
-            //------------------------------------------------------------------
-            // IMES id are 173-182
-         String prn = splitter.next();
-         String decidedSystem;
-         if (prn != null && !prn.equals("")){
-            String elevation = splitter.next();
-            String azimuth = splitter.next();
-            String snr = splitter.next();
-
-            int nprn = Integer.parseInt(prn);
-            if (system.equals("QZ")){
-                  decidedSystem = "QZ";
-            } else if (system.equals("GL") && nprn < 64) {
-                  // Maybe GLONASS SBS satellite
-                  // treat as GLONASS (FIXME)
-                  decidedSystem = "GL";
-            } else if (system.equals("GP") && nprn == 193) {
-                  // Some receiver report QZSS with GP prefix
-                  decidedSystem = "QZ";
-            } else if (system.equals("GP") && 200 < nprn && nprn < 211) {
-                  decidedSystem = "BD"; // maybe beidou/compass
-            } else if (system.equals("GP") && 32 < nprn && nprn < 72) {
-                  decidedSystem = "SB";
-                  nprn = nprn + 87;
-            } else if (system.equals("GP") && 119 < nprn && nprn < 139) { // 120..138
-                  decidedSystem = "SB";
-            } else if (system.equals("BD") && nprn < 16 ) {
-                  decidedSystem = "BD";
-                  nprn = nprn + 200;
-            } else {
-                  decidedSystem = system;
-            }
-            GnssSatellite sat = new GnssSatellite(decidedSystem, nprn);
-            sat.setStatus(parserUtil.parseNmeaFloat(elevation),
-                        parserUtil.parseNmeaFloat(azimuth),
-                        parserUtil.parseNmeaFloat(snr));
-            gnssStatus.addSatellite(sat);
-            activeSatellites.add(nprn);
-         } else {
-            break;
-         }
-      }
-      if (numCurrentGsvSentence == numTotalGsvSentence){ // last sentence
-        gnssStatus.clearSatellitesList(activeSatellites);
-      }
-    }
-    currentNmeaStatus.recvGSV();
+    enterSentence(0);
+    int numTotalGsvSentence   = tokenizer.getInt(1);
+    int numCurrentGsvSentence = tokenizer.getInt(2);
+    // parts are staged, and the satellites of the talker replaced
+    // at once when its group is complete
+    gsvAssembler.add(talker, tokenizer, gnssStatus);
+    // only the last part of the group can end an epoch
+    leaveSentence(numCurrentGsvSentence == numTotalGsvSentence);
   }
 
 	private void parseVTG(){
@@ -654,28 +908,28 @@ public class NmeaParser {
               010.2,K      Ground speed, Kilometers per hour
               *48          Checksum
      */
-    // Track angle in degrees True
-    //String bearing = splitter.next();
-    // T
-    //splitter.next();
-    // Magnetic track made good
-    //String magn = splitter.next();
-    // M
-    //splitter.next();
-    // Speed over the ground in knots		 
-    //String speedKnots = splitter.next();
-    // N
-    //splitter.next();
-    // Speed over the ground in Kilometers per hour
-    //String speedKm = splitter.next();
-    // K
-    //splitter.next();
+    enterSentence(0);
+    decodeVTG();
+    leaveSentence(true);
+	}
+
+  private void decodeVTG(){
+    final int BEARING     = 1;  // True track made good (degrees), T
+    // 3: Magnetic track made good, M
+    final int SPEED_KNOTS = 5;  // Ground speed, knots, N
+    final int SPEED_KMH   = 7;  // Ground speed, Kilometers per hour, K
     // for NMEA 0183 version 3.00 active the Mode indicator field is added
     // Mode indicator, (A=autonomous, D=differential, E=Estimated, N=not valid, S=Simulator )
- 
-    // notify VTG received
-    currentNmeaStatus.recvVTG();
-	}
+    // speed and bearing of the fix, for receivers without RMC
+    if (!tokenizer.isEmpty(BEARING)){
+      gnssStatus.setBearing(tokenizer.getFloat(BEARING));
+    }
+    if (!tokenizer.isEmpty(SPEED_KMH)){
+      gnssStatus.setSpeed(parserUtil.parseNmeaSpeed(tokenizer, SPEED_KMH, 'K'));
+    } else if (!tokenizer.isEmpty(SPEED_KNOTS)){
+      gnssStatus.setSpeed(parserUtil.parseNmeaSpeed(tokenizer, SPEED_KNOTS, 'N'));
+    }
+  }
 
   private void parseGLL(){
     /*  $GPGLL,4916.45,N,12311.12,W,225444,A,*1D
@@ -688,30 +942,22 @@ public class NmeaParser {
 			                     *iD          checksum data
 	  */
     // latitude ddmm.M
-    //String lat = splitter.next();
-    splitter.next();
-    
     // direction (N/S)
-    //String latDir = splitter.next();
-    splitter.next();
-
     // longitude dddmm.M
-    //String lon = splitter.next();
-    splitter.next();
-
     // direction (E/W)
-    //String lonDir = splitter.next();
-    splitter.next();
-
     // UTC time of fix HHmmss.S
-    String time = splitter.next();
+    final int TIME = 5;
 
     // fix status (A/V)
     //String status = splitter.next();
 
     // for NMEA 0183 version 3.00 active the Mode indicator field is 
     // Mode indicator, (A=autonomous, D=differential, E=Estimated, N=
-    currentNmeaStatus.recvGLL(parserUtil.parseNmeaTime(time));
+    enterSentence(parserUtil.parseNmeaTime(tokenizer, TIME));
+    if (currentNmeaStatus.shouldUseGLL()){
+      currentNmeaStatus.recvGLL();
+    }
+    leaveSentence(true);
   }
 
   public void parseGNS(){
@@ -766,7 +1012,7 @@ public class NmeaParser {
      *        and/or GL Reference station ID
      * 13 	The checksum data, always begins with *
      */
-    String time = splitter.next();
+    final int TIME = 1;
     //String latitude = splitter.next();
     //String latDir = splitter.next();
     //String longitude = splitter.next();
@@ -776,15 +1022,34 @@ public class NmeaParser {
     //String hdop   = splitter.next();
     //String height = splitter.next();
     //String geoid  = splitter.next();
-    currentNmeaStatus.recvGNS(parserUtil.parseNmeaTime(time));
+    enterSentence(parserUtil.parseNmeaTime(tokenizer, TIME));
+    leaveSentence(true);
   }
 
 	public byte computeChecksum(String s){
 		byte checksum = 0;
-		for (char c : s.toCharArray()){
-			checksum ^= (byte)c;
+		for (int i = 0; i < s.length(); i++){
+			checksum ^= (byte)s.charAt(i);
 		}
 		return checksum;
 	}
 
+  /*
+   * Mode and status indicators are single letters; map them to constant
+   * strings so that storing them does not allocate.
+   */
+  private static String modeString(char c){
+    switch (c){
+      case 'A': return "A";
+      case 'D': return "D";
+      case 'E': return "E";
+      case 'M': return "M";
+      case 'N': return "N";
+      case 'S': return "S";
+      case 'V': return "V";
+      case '\0': return "";
+      default:  return String.valueOf(c);
+    }
+  }
+
 }
@@ -19,10 +19,7 @@
 
 package org.da_cha.android.bluegnss.util.nmea;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Locale;
-import java.util.TimeZone;
+import org.da_cha.android.bluegnss.util.GnssTime;
 
 import android.util.Log;
 
@@ -31,72 +28,353 @@ import android.util.Log;
  */
 public class NmeaParserUtil {
   private String LOG_TAG = "BlueGNSS";
+	// reused to decode String arguments without allocating
+	private final byte[] scratch = new byte[32];
 
 	public double parseNmeaLatitude(String lat,String orientation){
 		double latitude = 0.0;
 		if (lat != null && orientation != null && !lat.equals("") && !orientation.equals("")){
-			double temp1 = Double.parseDouble(lat);
-			double temp2 = Math.floor(temp1/100); 
-			double temp3 = (temp1/100 - temp2)/0.6;
-			if (orientation.equals("S")){
-				latitude = -(temp2+temp3);
-			} else if (orientation.equals("N")){
-				latitude = (temp2+temp3);
-			}
+			latitude = toLatitude(parseNanoMinutes(lat), orientation.charAt(0));
 		}
 		return latitude;
 	}
 	public double parseNmeaLongitude(String lon,String orientation){
 		double longitude = 0.0;
 		if (lon != null && orientation != null && !lon.equals("") && !orientation.equals("")){
-			double temp1 = Double.parseDouble(lon);
-			double temp2 = Math.floor(temp1/100); 
-			double temp3 = (temp1/100 - temp2)/0.6;
-			if (orientation.equals("W")){
-				longitude = -(temp2+temp3);
-			} else if (orientation.equals("E")){
-				longitude = (temp2+temp3);
-			}
+			longitude = toLongitude(parseNanoMinutes(lon), orientation.charAt(0));
 		}
 		return longitude;
 	}
+  /*
+   * Tokenizer variants: the coordinate is in field and its direction
+   * (N/S or E/W) in field+1. They return NaN when either is empty or
+   * malformed, so that a fix is never placed at 0.0.
+   */
+	public double parseNmeaLatitude(NmeaTokenizer tokenizer, int field){
+		if (tokenizer.isEmpty(field) || tokenizer.isEmpty(field+1)){
+			return Double.NaN;
+		}
+		return toLatitude(parseNanoMinutes(tokenizer.getBuffer(),
+					tokenizer.getFieldStart(field), tokenizer.getFieldLength(field)),
+				tokenizer.getChar(field+1));
+	}
+	public double parseNmeaLongitude(NmeaTokenizer tokenizer, int field){
+		if (tokenizer.isEmpty(field) || tokenizer.isEmpty(field+1)){
+			return Double.NaN;
+		}
+		return toLongitude(parseNanoMinutes(tokenizer.getBuffer(),
+					tokenizer.getFieldStart(field), tokenizer.getFieldLength(field)),
+				tokenizer.getChar(field+1));
+	}
+
+	private static final long NANOS_PER_MINUTE = 1000000000L;
+	private static final long NANOS_PER_DEGREE = 60L * NANOS_PER_MINUTE;
+
+	private long parseNanoMinutes(String ddmm){
+		if (ddmm.length() > scratch.length){
+			return -1;
+		}
+		int len = ddmm.length();
+		for (int i = 0; i < len; i++){
+			scratch[i] = (byte)ddmm.charAt(i);
+		}
+		return parseNanoMinutes(scratch, 0, len);
+	}
+
+	/*
+	 * Decodes (d)ddmm[.mmmmmmmmm] into an integer count of 1e-9 minutes of arc,
+	 * so that the 7-8 fraction digits of RTK receivers are kept exactly.
+	 * Digits beyond the ninth (below 2 micrometres) are truncated.
+	 *
+	 * @return 1e-9 minutes, or -1 when malformed.
+	 */
+	private static long parseNanoMinutes(byte[] b, int off, int len){
+		int end = off + len;
+		int pos = off;
+		long whole = 0;
+		for (; pos < end && b[pos] != '.'; pos++){
+			int d = b[pos] - '0';
+			if (d < 0 || d > 9 || pos - off >= 5){
+				return -1;
+			}
+			whole = whole * 10 + d;
+		}
+		if (pos == off || whole % 100 > 59){
+			return -1;
+		}
+		long frac = 0;
+		long scale = NANOS_PER_MINUTE;
+		for (pos++; pos < end; pos++){
+			int d = b[pos] - '0';
+			if (d < 0 || d > 9){
+				return -1;
+			}
+			if (scale > 1){
+				scale /= 10;
+				frac += d * scale;
+			}
+		}
+		return ((whole / 100) * 60 + whole % 100) * NANOS_PER_MINUTE + frac;
+	}
+
+	/*
+	 * Whole degrees are exact in a double, so the only rounding is the one of
+	 * the fraction of degree.
+	 */
+	private static double toDegrees(long nanoMinutes){
+		return (nanoMinutes / NANOS_PER_DEGREE)
+			+ (double)(nanoMinutes % NANOS_PER_DEGREE) / NANOS_PER_DEGREE;
+	}
+	private static double toLatitude(long nanoMinutes, char orientation){
+		if (nanoMinutes < 0 || nanoMinutes > 90 * NANOS_PER_DEGREE){
+			return Double.NaN;
+		}
+		if (orientation == 'S'){
+			return -toDegrees(nanoMinutes);
+		} else if (orientation == 'N'){
+			return toDegrees(nanoMinutes);
+		}
+		return Double.NaN;
+	}
+	private static double toLongitude(long nanoMinutes, char orientation){
+		if (nanoMinutes < 0 || nanoMinutes > 180 * NANOS_PER_DEGREE){
+			return Double.NaN;
+		}
+		if (orientation == 'W'){
+			return -toDegrees(nanoMinutes);
+		} else if (orientation == 'E'){
+			return toDegrees(nanoMinutes);
+		}
+		return Double.NaN;
+	}
 	public float parseNmeaSpeed(String speed,String metric){
 		float meterSpeed = 0.0f;
 		if (speed != null && metric != null && !speed.equals("") && !metric.equals("")){
-			float temp1 = Float.parseFloat(speed)/3.6f;
-			if (metric.equals("K")){
-				meterSpeed = temp1;
-			} else if (metric.equals("N")){
-				meterSpeed = temp1*1.852f;
-			}
+			meterSpeed = toMeterSpeed(Float.parseFloat(speed), metric.charAt(0));
 		}
 		return meterSpeed;
 	}
+	public float parseNmeaSpeed(NmeaTokenizer tokenizer, int field, char metric){
+		if (tokenizer.isEmpty(field)){
+			return 0.0f;
+		}
+		return toMeterSpeed(tokenizer.getFloat(field), metric);
+	}
+	private float toMeterSpeed(float speed, char metric){
+		float temp1 = speed/3.6f;
+		if (metric == 'K'){
+			return temp1;
+		} else if (metric == 'N'){
+			return temp1*1.852f;
+		}
+		return 0.0f;
+	}
+	private static final long DAY = 86400000L;
+	private static final long HALF_DAY = 43200000L;
+
+	// UTC midnight of the current day, recomputed only when the day rolls over
+	private long midnight = 0;
+	private long nextMidnight = 0;
+
+	/**
+	 * Parses an NMEA UTC time of day, hhmmss[.sss], into a UTC timestamp.
+	 *
+	 * @return timestamp in milliseconds, or 0 when time can not be parsed.
+	 */
 	public long parseNmeaTime(String time){
-		long timestamp = 0;
-		SimpleDateFormat fmt = new SimpleDateFormat("HHmmss.SSS");
-		fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
-		try {
-			if (time != null && time != null){
-				long now = System.currentTimeMillis();
-				long today = now - (now %86400000L);
-				long temp1;
-				// sometime we don't have millisecond in the time string, so we have to reformat it 
-				temp1 = fmt.parse(String.format((Locale)null,"%010.3f", Double.parseDouble(time))).getTime();
-				long temp2 = today+temp1;
-				// if we're around midnight we could have a problem...
-				if (temp2 - now > 43200000L) {
-					timestamp  = temp2 - 86400000L;
-				} else if (now - temp2 > 43200000L){
-					timestamp  = temp2 + 86400000L;
-				} else {
-					timestamp  = temp2;
+		if (time == null || time.length() > scratch.length){
+			return 0;
+		}
+		int len = time.length();
+		for (int i = 0; i < len; i++){
+			scratch[i] = (byte)time.charAt(i);
+		}
+		return toTimestamp(parseMillisOfDay(scratch, 0, len));
+	}
+	public long parseNmeaTime(NmeaTokenizer tokenizer, int field){
+		if (tokenizer.isEmpty(field)){
+			return 0;
+		}
+		return toTimestamp(parseMillisOfDay(tokenizer.getBuffer(),
+					tokenizer.getFieldStart(field), tokenizer.getFieldLength(field)));
+	}
+
+	/*
+	 * Decodes hhmmss with an optional fraction of any length (sometime we
+	 * don't have millisecond in the time string) into milliseconds of day.
+	 *
+	 * @return milliseconds of day, or -1 when malformed.
+	 */
+	private static long parseMillisOfDay(byte[] b, int off, int len){
+		if (len < 6){
+			return -1;
+		}
+		int hh = twoDigits(b, off);
+		int mm = twoDigits(b, off+2);
+		int ss = twoDigits(b, off+4);
+		if (hh < 0 || hh > 23 || mm < 0 || mm > 59 || ss < 0 || ss > 60){
+			return -1;
+		}
+		long millis = ((hh * 60L + mm) * 60L + ss) * 1000L;
+		if (len > 6){
+			if (b[off+6] != '.'){
+				return -1;
+			}
+			int frac = 0;
+			int scale = 100;
+			for (int i = off+7; i < off+len; i++){
+				int d = b[i] - '0';
+				if (d < 0 || d > 9){
+					return -1;
 				}
+				if (scale > 0){
+					frac += d * scale;
+					scale /= 10;
+				} else if (scale == 0){
+					// round the sub-millisecond digit, like the former %010.3f did
+					if (d >= 5){
+						frac++;
+					}
+					scale = -1;
+				}
+			}
+			millis += frac;
+		}
+		return millis;
+	}
+
+	/**
+	 * Reads the time of day of a raw sentence, without tokenizing it: the
+	 * time of GGA, RMC, GNS and ZDA is in their first field, the one of GLL
+	 * in the fifth.
+	 *
+	 * @return time of day of the sentence in ms, -1 if it has none.
+	 */
+	public static long getUtcMillis(byte[] buffer, int offset, int length){
+		if (length < 7){
+			return -1;
+		}
+		// $ttSSS: sentence type after the talker
+		int t = offset + 3;
+		int field;
+		if (is(buffer, t, 'G', 'G', 'A') || is(buffer, t, 'R', 'M', 'C')
+				|| is(buffer, t, 'G', 'N', 'S') || is(buffer, t, 'Z', 'D', 'A')){
+			field = 1;
+		} else if (is(buffer, t, 'G', 'L', 'L')){
+			field = 5;
+		} else {
+			return -1;
+		}
+		int end = offset + length;
+		int i = findField(buffer, offset, end, field);
+		if (i < 0){
+			return -1;
+		}
+		return parseMillisOfDay(buffer, i, fieldEnd(buffer, i, end) - i);
+	}
+
+	/**
+	 * Reads the date of a raw RMC or ZDA sentence, without tokenizing it.
+	 *
+	 * @return midnight UTC of the date in ms since the epoch, -1 if the
+	 *         sentence has no valid date.
+	 */
+	public static long getUtcDateMillis(byte[] buffer, int offset, int length){
+		if (length < 7){
+			return -1;
+		}
+		int t = offset + 3;
+		int end = offset + length;
+		int day, month, year;
+		if (is(buffer, t, 'R', 'M', 'C')){
+			// ddmmyy in the ninth field
+			int i = findField(buffer, offset, end, 9);
+			if (i < 0 || fieldEnd(buffer, i, end) - i != 6){
+				return -1;
+			}
+			day = twoDigits(buffer, i);
+			month = twoDigits(buffer, i+2);
+			year = twoDigits(buffer, i+4);
+			if (year < 0){
+				return -1;
+			}
+			year += (year < 80) ? 2000 : 1900;
+		} else if (is(buffer, t, 'Z', 'D', 'A')){
+			// dd,mm,yyyy in the second to fourth fields
+			int i = findField(buffer, offset, end, 2);
+			if (i < 0 || i + 10 > end || buffer[i+2] != ',' || buffer[i+5] != ','){
+				return -1;
 			}
-		} catch (ParseException e) {
-			Log.e(LOG_TAG, "Error while parsing NMEA time", e);
+			day = twoDigits(buffer, i);
+			month = twoDigits(buffer, i+3);
+			int century = twoDigits(buffer, i+6);
+			year = twoDigits(buffer, i+8);
+			if (century < 0 || year < 0){
+				return -1;
+			}
+			year += century * 100;
+		} else {
+			return -1;
 		}
-		return timestamp;
+		long millis = GnssTime.toMillis(year, month, day, 0, 0, 0);
+		return (millis == 0) ? -1 : millis;
+	}
+
+	/*
+	 * @return start of the field, after the given number of commas, -1 if
+	 *         the sentence is shorter.
+	 */
+	private static int findField(byte[] buffer, int i, int end, int field){
+		for (int commas = 0; commas < field; i++){
+			if (i >= end){
+				return -1;
+			}
+			if (buffer[i] == ','){
+				commas++;
+			}
+		}
+		return i;
+	}
+
+	private static int fieldEnd(byte[] buffer, int i, int end){
+		while (i < end && buffer[i] != ',' && buffer[i] != '*'
+				&& buffer[i] != '\r' && buffer[i] != '\n'){
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean is(byte[] buffer, int i, char a, char b, char c){
+		return buffer[i] == a && buffer[i+1] == b && buffer[i+2] == c;
+	}
+
+	private static int twoDigits(byte[] b, int off){
+		int d1 = b[off] - '0';
+		int d2 = b[off+1] - '0';
+		if (d1 < 0 || d1 > 9 || d2 < 0 || d2 > 9){
+			return -1;
+		}
+		return d1 * 10 + d2;
+	}
+
+	private long toTimestamp(long millisOfDay){
+		if (millisOfDay < 0){
+			Log.e(LOG_TAG, "Error while parsing NMEA time");
+			return 0;
+		}
+		long now = System.currentTimeMillis();
+		if (now >= nextMidnight || now < midnight){
+			midnight = now - (now % DAY);
+			nextMidnight = midnight + DAY;
+		}
+		long temp2 = midnight + millisOfDay;
+		// if we're around midnight we could have a problem...
+		if (temp2 - now > HALF_DAY) {
+			return temp2 - DAY;
+		} else if (now - temp2 > HALF_DAY){
+			return temp2 + DAY;
+		}
+		return temp2;
 	}
 
   public Double parseNmeaAlt(String s, String u){
@@ -113,6 +391,20 @@ public class NmeaParserUtil {
 		}
   }
 
+  /*
+   * Tokenizer variant: the altitude is in field and its unit in field+1.
+   */
+  public double parseNmeaAlt(NmeaTokenizer tokenizer, int field){
+    if (tokenizer.isEmpty(field) || tokenizer.isEmpty(field+1)){
+      return Double.NaN;
+    }
+    double alt = tokenizer.getDouble(field);
+    if (tokenizer.fieldEquals(field+1, "KM") || tokenizer.fieldEquals(field+1, "km")){
+      return alt * 1000.0;
+    }
+    return alt;
+  }
+
 	public float parseNmeaFloat(String s){
 		if (s!=null &&!s.equals("")){
 			return Float.parseFloat(s);
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+/**
+ * Handler of one kind of NMEA sentence, registered in {@link NmeaDispatcher}
+ * with the address field it understands (ex. "GPGGA", "PUBX").
+ */
+public interface NmeaSentenceHandler {
+  /**
+   * Called for each valid sentence whose address matches.
+   * The tokenizer is only valid during the call.
+   *
+   * @param tokenizer tokenized sentence; field 0 is the address field.
+   */
+  void handleSentence(NmeaTokenizer tokenizer);
+}
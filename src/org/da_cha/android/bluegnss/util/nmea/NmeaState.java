@@ -20,11 +20,14 @@
 package org.da_cha.android.bluegnss.util.nmea;
 
 /**
- * This class is used to keep NMEA sentence status.
+ * This class is used to keep NMEA sentence status, and to find where
+ * an epoch of sentences starts and ends.
  *
  */
 public class NmeaState {
 
+  private static final int LEARN_EPOCHS = 2;
+
   private long timestamp;
   private boolean fixed = false;
   private enum nmeastate {START, RECEIVE, COMPLETE}
@@ -34,7 +37,20 @@ public class NmeaState {
   private boolean hasGGA = false;
   private boolean hasRMC = false;
   private boolean hasGLL = false;
-  
+
+  // first sentence of the current epoch
+  private int firstKey = NmeaDispatcher.INVALID_KEY;
+  // last sentence of the current epoch, and how many times in a row
+  private int lastKey = NmeaDispatcher.INVALID_KEY;
+  private int lastCount = 0;
+  private boolean lastCanEnd = false;
+  // learned last sentence of an epoch
+  private int endKey = NmeaDispatcher.INVALID_KEY;
+  private int endCount = 0;
+  private int candidateKey = NmeaDispatcher.INVALID_KEY;
+  private int candidateCount = 0;
+  private int candidateEpochs = 0;
+
   public long getTimestamp(){
     return this.timestamp;
   }
@@ -71,63 +87,146 @@ public class NmeaState {
    * 
    * Some (BCM) produces QZGSV
    *
-   * Assumes every receiver produce GPRMC/GNRMC and can send fix just after
-   * RMC sentence.
-   * Assumes just after GGA, starting new sequence of sentences.
-   * When accepting VTG, sequence is lasted.
+   * As the order differs between receivers, sentences are grouped into
+   * epochs by their UTC time: an epoch ends when a sentence carries a time
+   * other than the one of the epoch. The last sentence seen before the
+   * time changed is remembered, and once the same sentence has ended
+   * LEARN_EPOCHS epochs in a row, it is taken as the end of the sequence
+   * of this receiver, so that following epochs are completed as soon as it
+   * is received instead of waiting for the next epoch to start.
+   * Sentences sent in several parts (GSV) can only end an epoch with their
+   * last part, and a sentence repeated in a row (GNGSA) ends it with the
+   * same count of repetitions.
+   * A sentence received after the epoch was completed, with the same time
+   * or without time, still belongs to the completed epoch, unless it is
+   * the sentence which began that epoch: it then begins the next one.
    *
    * An input file may have both GGA and GLL and RMC sentences for the exact
    * same position fix. If we see a single GGA, start ignoring GLL's and RMC's.
    * GLL's will also be ignored if RMC's are found and GGA's not found.
    *
    */
-  public boolean recvGGA(boolean fixed, long time){
-    this.hasGGA = true;
-    this.fixed = fixed;
-    this.timestamp = time;
-    nmeastate previousStatus = currentStatus;
+
+  /*
+   * @param time UTC time carried by the sentence, 0 when it has none.
+   * @param key packed address of the sentence, see NmeaDispatcher.
+   * @return true when the sentence starts a new epoch.
+   */
+  public boolean isNewEpoch(long time, int key){
+    switch (this.currentStatus){
+      case START:
+        return true;
+      case COMPLETE:
+        if (time != 0){
+          return (time != this.timestamp);
+        }
+        return (key == this.firstKey);
+      default:
+        return (time != 0 && this.timestamp != 0 && time != this.timestamp);
+    }
+  }
+
+  /*
+   * @return true while an epoch has been started and not completed.
+   */
+  public boolean isReceiving(){
+    return (this.currentStatus == nmeastate.RECEIVE);
+  }
+
+  public void beginEpoch(long time){
+    if (this.currentStatus == nmeastate.RECEIVE){
+      // previous epoch was ended by a change of time
+      learnEnd();
+    }
     this.currentStatus = nmeastate.RECEIVE;
+    this.timestamp = time;
+    this.fixed = false;
     this.notified = false;
-    return (previousStatus == nmeastate.START);
+    this.firstKey = NmeaDispatcher.INVALID_KEY;
+    this.lastKey = NmeaDispatcher.INVALID_KEY;
+    this.lastCount = 0;
+    this.lastCanEnd = false;
   }
 
-  public boolean shouldUseRMC(){
-    if (hasGGA) {
-      return false;
+  // epoch started by a sentence without time gets the time of the first timed one
+  public void recvTime(long time){
+    if (this.timestamp == 0){
+      this.timestamp = time;
     }
-    return true;
   }
 
-  public boolean shouldUseGLL(){
-    if (hasGGA || hasRMC) {
+  /*
+   * Records a sentence of the current epoch, or of the completed one.
+   *
+   * @param key packed address of the sentence, see NmeaDispatcher.
+   * @param canEnd false for a part of a sentence that is not the last one.
+   * @return true when the sentence is the learned end of epoch.
+   */
+  public boolean recvSentence(int key, boolean canEnd){
+    if (this.currentStatus == nmeastate.COMPLETE){
+      // late sentence of the completed epoch
       return false;
     }
-    return true;
+    if (this.firstKey == NmeaDispatcher.INVALID_KEY){
+      this.firstKey = key;
+    }
+    if (key != this.lastKey){
+      this.lastKey = key;
+      this.lastCount = 0;
+    }
+    if (canEnd){
+      this.lastCount++;
+    }
+    this.lastCanEnd = canEnd;
+    return (canEnd && key == this.endKey && this.lastCount == this.endCount);
   }
 
-  public boolean recvRMC(boolean fixed, long time){
-    this.hasRMC=true;
-    if (this.timestamp != time){
-      this.currentStatus = nmeastate.START;
-      return false; // invalid
-    }
+  public void complete(){
     this.currentStatus = nmeastate.COMPLETE;
-    return true;
   }
-  public void recvVTG(){
-    this.currentStatus = nmeastate.START;
+
+  private void learnEnd(){
+    if (!this.lastCanEnd){
+      this.candidateEpochs = 0;
+      return;
+    }
+    if (this.lastKey == this.candidateKey && this.lastCount == this.candidateCount){
+      this.candidateEpochs++;
+    } else {
+      this.candidateKey = this.lastKey;
+      this.candidateCount = this.lastCount;
+      this.candidateEpochs = 1;
+    }
+    if (this.candidateEpochs >= LEARN_EPOCHS){
+      this.endKey = this.candidateKey;
+      this.endCount = this.candidateCount;
+    }
+  }
+
+  public void recvGGA(boolean fixed){
+    this.hasGGA = true;
+    this.fixed = fixed;
   }
-  public boolean recvGLL(long time){
-    this.hasGLL=true;
-    return (this.timestamp == time && this.currentStatus == nmeastate.RECEIVE);
+
+  public void recvRMC(boolean fixed){
+    this.hasRMC = true;
+    if (!this.hasGGA){
+      this.fixed = fixed;
+    }
   }
-  public boolean recvGNS(long time){
-    return (this.timestamp == time && this.currentStatus == nmeastate.RECEIVE);
+
+  public boolean shouldUseGLL(){
+    if (hasGGA || hasRMC) {
+      return false;
+    }
+    return true;
   }
-  public boolean recvGSA(){
-    return (this.currentStatus == nmeastate.RECEIVE);
+
+  public void recvGLL(){
+    this.hasGLL = true;
   }
-  public boolean recvGSV(){
-    return (this.currentStatus == nmeastate.RECEIVE);
+
+  public boolean hasRMC(){
+    return this.hasRMC;
   }
 }
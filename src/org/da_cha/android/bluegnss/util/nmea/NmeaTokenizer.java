@@ -0,0 +1,381 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+import java.nio.charset.Charset;
+
+/**
+ * Byte level tokenizer of NMEA sentences.
+ *
+ * A sentence is copied once into a reusable buffer, its $...*hh framing and
+ * checksum are checked while scanning, and each comma separated field is
+ * remembered as an offset/length slice of the buffer.
+ * Fields are read back with primitive accessors, so a steady stream of
+ * sentences can be parsed without creating any object.
+ *
+ * Field 0 is the address field (talker and sentence ID, ex. "GPGGA"),
+ * fields beyond the last one received are seen as empty.
+ *
+ * An instance is not thread safe and is meant to be owned by one parser.
+ */
+public class NmeaTokenizer {
+
+  /*
+   * NMEA-0183 limits a sentence to 82 characters, but several receivers
+   * emit longer proprietary sentences, so keep some room.
+   */
+  public static final int MAX_SENTENCE_LENGTH = 256;
+  public static final int MAX_FIELDS = 64;
+  /**
+   * Longest integer field getInt() accepts: 9 digits always fit an int.
+   */
+  public static final int MAX_INT_DIGITS = 9;
+  /**
+   * NMEA is 7-bit ASCII: charset of the sentences, when they have to be
+   * turned into Strings or back.
+   */
+  public static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+  private static final double[] POW10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+    1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+  };
+
+  private final byte[] buffer = new byte[MAX_SENTENCE_LENGTH];
+  private final int[] fieldStart = new int[MAX_FIELDS];
+  private final int[] fieldEnd = new int[MAX_FIELDS];
+  private int fieldCount = 0;
+  private int length = 0;
+  private boolean hasChecksum = false;
+  private int checksum = 0;
+  private int computedChecksum = 0;
+
+  /**
+   * Tokenizes a sentence held in a CharSequence, ex. "$GPGGA,...*47\r\n".
+   *
+   * @return true when the sentence is well framed and its checksum, if any, matches.
+   */
+  public boolean tokenize(CharSequence sentence){
+    int len = sentence.length();
+    if (len > MAX_SENTENCE_LENGTH){
+      reset();
+      return false;
+    }
+    for (int i = 0; i < len; i++){
+      buffer[i] = (byte)sentence.charAt(i);
+    }
+    return scan(len);
+  }
+
+  /**
+   * Tokenizes a sentence held in a byte array.
+   *
+   * @return true when the sentence is well framed and its checksum, if any, matches.
+   */
+  public boolean tokenize(byte[] data, int offset, int len){
+    if (len > MAX_SENTENCE_LENGTH){
+      reset();
+      return false;
+    }
+    System.arraycopy(data, offset, buffer, 0, len);
+    return scan(len);
+  }
+
+  private void reset(){
+    fieldCount = 0;
+    length = 0;
+    hasChecksum = false;
+    checksum = 0;
+    computedChecksum = 0;
+  }
+
+  /*
+   * Accepts the same frames as the former regular expression
+   *   (\$([^*$]*)(?:\*([0-9A-F][0-9A-F]))?)\r\n
+   * with the trailing CR/LF being optional, and additionally rejects
+   * sentences whose checksum does not match. Encapsulated sentences
+   * starting with '!' are accepted as well.
+   */
+  private boolean scan(int len){
+    reset();
+    // strip trailing end of line
+    while (len > 0 && (buffer[len-1] == '\n' || buffer[len-1] == '\r')){
+      len--;
+    }
+    if (len < 2 || (buffer[0] != '$' && buffer[0] != '!')){
+      return false;
+    }
+    length = len;
+    int sum = 0;
+    int start = 1;
+    int i = 1;
+    for (; i < len; i++){
+      byte b = buffer[i];
+      if (b == '*'){
+        break;
+      } else if (b == '$'){
+        return false;
+      } else if (b == ','){
+        if (!addField(start, i)){
+          return false;
+        }
+        start = i + 1;
+      }
+      sum ^= b;
+    }
+    if (!addField(start, i)){
+      return false;
+    }
+    computedChecksum = sum & 0xff;
+    if (i < len){
+      // checksum field: exactly two upper case hexadecimal digits
+      if (len - i != 3){
+        return false;
+      }
+      int hi = hexValue(buffer[i+1]);
+      int lo = hexValue(buffer[i+2]);
+      if (hi < 0 || lo < 0){
+        return false;
+      }
+      hasChecksum = true;
+      checksum = (hi << 4) | lo;
+      return checksum == computedChecksum;
+    }
+    return true;
+  }
+
+  private boolean addField(int start, int end){
+    if (fieldCount >= MAX_FIELDS){
+      return false;
+    }
+    fieldStart[fieldCount] = start;
+    fieldEnd[fieldCount] = end;
+    fieldCount++;
+    return true;
+  }
+
+  private static int hexValue(byte b){
+    if (b >= '0' && b <= '9'){
+      return b - '0';
+    } else if (b >= 'A' && b <= 'F'){
+      return b - 'A' + 10;
+    }
+    return -1;
+  }
+
+  public int getFieldCount(){
+    return fieldCount;
+  }
+
+  public boolean hasChecksum(){
+    return hasChecksum;
+  }
+
+  public int getChecksum(){
+    return checksum;
+  }
+
+  public int getComputedChecksum(){
+    return computedChecksum;
+  }
+
+  /**
+   * @return the raw buffer; valid bytes are in [0, getLength()).
+   */
+  public byte[] getBuffer(){
+    return buffer;
+  }
+
+  /**
+   * @return length of the sentence in the buffer, without CR/LF.
+   */
+  public int getLength(){
+    return length;
+  }
+
+  public int getFieldStart(int field){
+    return (field < fieldCount) ? fieldStart[field] : length;
+  }
+
+  public int getFieldLength(int field){
+    return (field < fieldCount) ? fieldEnd[field] - fieldStart[field] : 0;
+  }
+
+  public boolean isEmpty(int field){
+    return getFieldLength(field) == 0;
+  }
+
+  /**
+   * @return first character of the field or '\0' when it is empty.
+   */
+  public char getChar(int field){
+    if (isEmpty(field)){
+      return '\0';
+    }
+    return (char)buffer[fieldStart[field]];
+  }
+
+  /**
+   * Compares a field with a string without allocating.
+   */
+  public boolean fieldEquals(int field, String s){
+    int len = getFieldLength(field);
+    if (len != s.length()){
+      return false;
+    }
+    int start = fieldStart[field];
+    for (int i = 0; i < len; i++){
+      if (buffer[start+i] != s.charAt(i)){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Parses a field as a decimal integer.
+   *
+   * @return parsed value, or defaultValue when the field is empty,
+   *         malformed, or has more than MAX_INT_DIGITS digits.
+   */
+  public int getInt(int field, int defaultValue){
+    int len = getFieldLength(field);
+    if (len == 0){
+      return defaultValue;
+    }
+    int pos = fieldStart[field];
+    int end = pos + len;
+    boolean negative = false;
+    if (buffer[pos] == '-' || buffer[pos] == '+'){
+      negative = (buffer[pos] == '-');
+      pos++;
+      if (pos == end){
+        return defaultValue;
+      }
+    }
+    if (end - pos > MAX_INT_DIGITS){
+      // would overflow an int
+      return defaultValue;
+    }
+    int value = 0;
+    for (; pos < end; pos++){
+      int d = buffer[pos] - '0';
+      if (d < 0 || d > 9){
+        return defaultValue;
+      }
+      value = value * 10 + d;
+    }
+    return negative ? -value : value;
+  }
+
+  public int getInt(int field){
+    return getInt(field, 0);
+  }
+
+  /**
+   * Parses a field as a decimal number such as "-0012.3450".
+   * Exponents are not part of NMEA and are not accepted.
+   *
+   * @return parsed value, or defaultValue when the field is empty or
+   *         malformed, ex. "-" or ".".
+   */
+  public double getDouble(int field, double defaultValue){
+    int len = getFieldLength(field);
+    if (len == 0){
+      return defaultValue;
+    }
+    int pos = fieldStart[field];
+    int end = pos + len;
+    boolean negative = false;
+    if (buffer[pos] == '-' || buffer[pos] == '+'){
+      negative = (buffer[pos] == '-');
+      pos++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean dot = false;
+    boolean digit = false;
+    for (; pos < end; pos++){
+      byte b = buffer[pos];
+      if (b == '.'){
+        if (dot){
+          return defaultValue;
+        }
+        dot = true;
+      } else if (b >= '0' && b <= '9'){
+        digit = true;
+        if (digits < 18 && scale < 18){
+          mantissa = mantissa * 10 + (b - '0');
+          if (mantissa != 0){
+            digits++;
+          }
+          if (dot){
+            scale++;
+          }
+        } else if (!dot){
+          // too many significant digits; keep magnitude
+          scale--;
+        }
+      } else {
+        return defaultValue;
+      }
+    }
+    if (!digit || scale < -18){
+      return defaultValue;
+    }
+    double value;
+    if (scale >= 0){
+      value = mantissa / POW10[scale];
+    } else {
+      value = mantissa * POW10[-scale];
+    }
+    return negative ? -value : value;
+  }
+
+  public double getDouble(int field){
+    return getDouble(field, Double.NaN);
+  }
+
+  public float getFloat(int field){
+    return (float)getDouble(field, Double.NaN);
+  }
+
+  /**
+   * Returns a field as a String. This allocates and is kept for rare
+   * paths such as logging.
+   */
+  public String getString(int field){
+    int len = getFieldLength(field);
+    if (len == 0){
+      return "";
+    }
+    return new String(buffer, fieldStart[field], len, US_ASCII);
+  }
+
+  /**
+   * Returns the whole sentence, without CR/LF, as a String. This allocates.
+   */
+  @Override
+  public String toString(){
+    return new String(buffer, 0, length, US_ASCII);
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.util.nmea;
+
+import org.da_cha.android.bluegnss.GnssSatellite;
+
+/**
+ * Resolves the satellite numbers of GSV sentences, which depend on the
+ * talker and on the numbering scheme of the receiver, into a satellite
+ * system and the number GnssSatellite uses for it:
+ *
+ * <pre>
+ *  system    number     talkers
+ *  GPS       1-32       GP, GN
+ *  SBAS      120-158    GP, GN (also 33-64 = PRN-87), GL, GA (33/37-64)
+ *  GLONASS   65-96      GL (also 1-32 = slot), GP, GN (65-96)
+ *  Galileo   1-36       GA
+ *  BeiDou    201-263    GB, BD (also 1-63), GP, GN (201-255)
+ *  QZSS      193-202    GQ, QZ (also 1-10), GP, GN (193-200)
+ *  IRNSS     1-14       GI
+ * </pre>
+ *
+ * The extended numbers of u-blox receivers, Galileo 301-336 and BeiDou
+ * 401-463, are resolved for any talker.
+ *
+ * Every (talker, number) pair is resolved once into a table, so parsing
+ * a satellite is a single array lookup. Numbers a talker does not define
+ * are kept, with the system of the talker; IMES (173-182) is ignored.
+ */
+final class SatelliteNumbering {
+
+  /**
+   * Talkers, in the table.
+   */
+  static final int GP = 0;
+  static final int GN = 1;
+  static final int GL = 2;
+  static final int GA = 3;
+  static final int GB = 4;
+  static final int BD = 5;
+  static final int GQ = 6;
+  static final int QZ = 7;
+  static final int GI = 8;
+  static final int TALKERS = 9;
+
+  private static final int MAX_NUMBER = 464;
+  private static final int SBAS_OFFSET = 87;
+  private static final int GLONASS_OFFSET = 64;
+  private static final int QZSS_OFFSET = 192;
+  private static final int BEIDOU_OFFSET = 200;
+  // u-blox extended numbering
+  private static final int UBX_GALILEO_OFFSET = 300;
+  private static final int UBX_BEIDOU_OFFSET = 400;
+  // GnssSatellite numbers are below GnssStatus.MAX_PRN
+  private static final int MAX_SATELLITE = 263;
+
+  private static final int GPS = GnssSatellite.systemIndex("GP");
+  private static final int SBAS = GnssSatellite.systemIndex("SB");
+  private static final int GLONASS = GnssSatellite.systemIndex("GL");
+  private static final int GALILEO = GnssSatellite.systemIndex("GA");
+  private static final int BEIDOU = GnssSatellite.systemIndex("BD");
+  private static final int QZSS = GnssSatellite.systemIndex("QZ");
+  private static final int IRNSS = GnssSatellite.systemIndex("GI");
+
+  /*
+   * (system << 16) | number, indexed by talker * MAX_NUMBER + number,
+   * -1 when the satellite is to be ignored.
+   */
+  private static final int[] TABLE = new int[TALKERS * MAX_NUMBER];
+
+  static {
+    for (int talker = 0; talker < TALKERS; talker++){
+      TABLE[talker * MAX_NUMBER] = -1;
+      for (int n = 1; n < MAX_NUMBER; n++){
+        TABLE[talker * MAX_NUMBER + n] = resolve(talker, n);
+      }
+    }
+  }
+
+  private SatelliteNumbering(){
+  }
+
+  /**
+   * @return entry of a satellite number in sentences of a talker, to be
+   * read with system() and number(), -1 if the satellite is to be ignored.
+   */
+  static int lookup(int talker, int number){
+    if (number <= 0 || number >= MAX_NUMBER){
+      return -1;
+    }
+    return TABLE[talker * MAX_NUMBER + number];
+  }
+
+  /**
+   * @return system index of GnssSatellite for an entry of lookup().
+   */
+  static int system(int entry){
+    return entry >>> 16;
+  }
+
+  /**
+   * @return satellite number of GnssSatellite for an entry of lookup().
+   */
+  static int number(int entry){
+    return entry & 0xffff;
+  }
+
+  private static int entry(int system, int number){
+    return (system << 16) | number;
+  }
+
+  private static int resolve(int talker, int n){
+    if (n > UBX_GALILEO_OFFSET && n <= UBX_GALILEO_OFFSET + 36){
+      return entry(GALILEO, n - UBX_GALILEO_OFFSET);
+    } else if (n > UBX_BEIDOU_OFFSET && n <= UBX_BEIDOU_OFFSET + 63){
+      return entry(BEIDOU, n - UBX_BEIDOU_OFFSET + BEIDOU_OFFSET);
+    } else if (n > MAX_SATELLITE){
+      return -1;
+    }
+    switch (talker){
+      case GP:
+      case GN:
+        if (n <= 32){
+          return entry(GPS, n);
+        } else if (n <= 64){
+          return entry(SBAS, n + SBAS_OFFSET);
+        } else if (n <= 96){
+          return entry(GLONASS, n);
+        } else if (n >= 120 && n <= 158){
+          return entry(SBAS, n);
+        } else if (n >= 173 && n <= 182){
+          // IMES
+          return -1;
+        } else if (n >= 193 && n <= 200){
+          return entry(QZSS, n);
+        } else if (n >= 201){
+          return entry(BEIDOU, n);
+        }
+        return entry(GPS, n);
+      case GL:
+        if (n <= 32){
+          return entry(GLONASS, n + GLONASS_OFFSET);
+        } else if (n <= 64){
+          return entry(SBAS, n + SBAS_OFFSET);
+        }
+        return entry(GLONASS, n);
+      case GA:
+        if (n >= 37 && n <= 64){
+          return entry(SBAS, n + SBAS_OFFSET);
+        }
+        return entry(GALILEO, n);
+      case GB:
+      case BD:
+        if (n <= 63){
+          return entry(BEIDOU, n + BEIDOU_OFFSET);
+        }
+        return entry(BEIDOU, n);
+      case GQ:
+      case QZ:
+        if (n <= 10){
+          return entry(QZSS, n + QZSS_OFFSET);
+        }
+        return entry(QZSS, n);
+      default:
+        return entry(IRNSS, n);
+    }
+  }
+}
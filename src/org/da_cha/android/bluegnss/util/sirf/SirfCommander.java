@@ -45,6 +45,16 @@ public class SirfCommander {
     public static final String PREF_SIRF_ENABLE_SBAS = "enableSBAS";
     public static final String PREF_SIRF_ENABLE_NMEA = "enableNMEA";
     public static final String PREF_SIRF_ENABLE_STATIC_NAVIGATION = "enableStaticNavigation";
+    public static final String PREF_SIRF_ADAPTIVE_RATES = "adaptiveRates";
+
+    // NMEA messages of the PSRF103 query/rate control command
+    public static final int NMEA_GGA = 0;
+    public static final int NMEA_GLL = 1;
+    public static final int NMEA_GSA = 2;
+    public static final int NMEA_GSV = 3;
+    public static final int NMEA_RMC = 4;
+    public static final int NMEA_VTG = 5;
+    public static final int NMEA_ZDA = 8;
 
     private BluetoothGnssManager gpsManager = null;
     private Context appContext;
@@ -120,6 +130,42 @@ public class SirfCommander {
         }
     }
 
+    /**
+     * Sets how often the GPS outputs a NMEA message.
+     *
+     * @param message one of NMEA_GGA, NMEA_GLL, NMEA_GSA, NMEA_GSV, NMEA_RMC, NMEA_VTG or NMEA_ZDA.
+     * @param seconds output period in seconds, 0 to turn it off.
+     */
+    public void setNmeaRate(int message, int seconds){
+        if (gpsManager != null){
+            gpsManager.sendNmeaCommand(appContext.getString(R.string.sirf_nmea_rate, message, seconds));
+        }
+    }
+
+    /**
+     * @return output period in seconds of a NMEA message as set in the preferences, 0 if off.
+     */
+    public static int getPreferredRate(SharedPreferences sharedPreferences, int message){
+        switch (message){
+            case NMEA_GGA:
+                return (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_GGA, true)) ? 1 : 0 ;
+            case NMEA_RMC:
+                return (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_RMC, true)) ? 1 : 0 ;
+            case NMEA_GLL:
+                return (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_GLL, false)) ? 1 : 0 ;
+            case NMEA_VTG:
+                return (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_VTG, false)) ? 1 : 0 ;
+            case NMEA_GSA:
+                return (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_GSA, false)) ? 5 : 0 ;
+            case NMEA_GSV:
+                return (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_GSV, false)) ? 5 : 0 ;
+            case NMEA_ZDA:
+                return (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_ZDA, false)) ? 1 : 0 ;
+            default:
+                return 0;
+        }
+    }
+
     private void enableNmeaGGA(boolean enable){
         if (gpsManager != null){
             if (enable){
@@ -204,11 +250,11 @@ public class SirfCommander {
         if (gpsManager != null){
             if (enable){
                 SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(appContext);
-                int gll = (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_GLL, false)) ? 1 : 0 ;
-                int vtg = (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_VTG, false)) ? 1 : 0 ;
-                int gsa = (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_GSA, false)) ? 5 : 0 ;
-                int gsv = (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_GSV, false)) ? 5 : 0 ;
-                int zda = (sharedPreferences.getBoolean(PREF_SIRF_ENABLE_ZDA, false)) ? 1 : 0 ;
+                int gll = getPreferredRate(sharedPreferences, NMEA_GLL);
+                int vtg = getPreferredRate(sharedPreferences, NMEA_VTG);
+                int gsa = getPreferredRate(sharedPreferences, NMEA_GSA);
+                int gsv = getPreferredRate(sharedPreferences, NMEA_GSV);
+                int zda = getPreferredRate(sharedPreferences, NMEA_ZDA);
                 int mss = 0;
                 int epe = 0;
                 int gga = 1;
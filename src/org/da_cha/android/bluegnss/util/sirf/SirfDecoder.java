@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.util.sirf;
+
+import org.da_cha.android.bluegnss.GnssStatus;
+import org.da_cha.android.bluegnss.util.GnssTime;
+
+/**
+ * Decodes SiRF binary (OSP) output messages into a GnssStatus.
+ *
+ * It is fed the frames found by NmeaFramer, which has already checked
+ * their start, length, checksum and end, and reads the fields in place:
+ * nothing is decoded into characters and nothing is allocated.
+ *
+ * <ul>
+ *  <li>MID 41, Geodetic Navigation Data: the fix, with full precision
+ *  position, speed and course, time, DOP and satellites used. It is the
+ *  last navigation message of an epoch, and ends it.</li>
+ *  <li>MID 4, Measured Tracker Data: azimuth, elevation and C/N0 of the
+ *  satellites tracked by the 12 channels, which make the sky view.</li>
+ *  <li>MID 7, Clock Status Data: receiver clock drift and bias.</li>
+ * </ul>
+ *
+ * Other messages are ignored. An instance is not thread safe, and is
+ * meant to be fed by the framing thread.
+ */
+public class SirfDecoder {
+
+  public static final int MID_MEASURED_TRACKER = 4;
+  public static final int MID_CLOCK_STATUS = 7;
+  public static final int MID_GEODETIC_NAV = 41;
+
+  // frame: start(2), length(2), payload, checksum(2), end(2)
+  private static final int PAYLOAD = 4;
+  private static final int OVERHEAD = 8;
+
+  private static final int GEODETIC_NAV_LENGTH = 91;
+  private static final int MEASURED_TRACKER_LENGTH = 188;
+  private static final int CLOCK_STATUS_LENGTH = 20;
+  private static final int CHANNELS = 12;
+  private static final int CHANNEL_LENGTH = 15;
+  private static final int CN0_SAMPLES = 10;
+
+  // Nav Type of MID 41
+  private static final int NAV_TYPE_MASK = 0x07;
+  private static final int NAV_TYPE_DR = 7;
+  private static final int NAV_TYPE_DGPS = 0x80;
+  // Nav Valid bit 0 only tells that the solution is not over-determined
+  private static final int NAV_VALID_MASK = 0xfffe;
+
+  private static final int MAX_GPS_PRN = 32;
+
+  private boolean fixed = false;
+  private long fixTime = 0;
+  private long messages = 0;
+
+  /**
+   * @param frame  buffer holding the frame, from 0xA0 0xA2 up to 0xB0 0xB3.
+   * @return message id of the frame if it was decoded, -1 otherwise.
+   */
+  public int decode(byte[] frame, int offset, int length, GnssStatus status){
+    if (length <= OVERHEAD){
+      return -1;
+    }
+    int p = offset + PAYLOAD;
+    int payloadLength = length - OVERHEAD;
+    int id = frame[p] & 0xff;
+    switch (id){
+      case MID_GEODETIC_NAV:
+        if (payloadLength < GEODETIC_NAV_LENGTH){
+          return -1;
+        }
+        decodeGeodeticNav(frame, p, status);
+        break;
+      case MID_MEASURED_TRACKER:
+        if (payloadLength < MEASURED_TRACKER_LENGTH){
+          return -1;
+        }
+        decodeMeasuredTracker(frame, p, status);
+        break;
+      case MID_CLOCK_STATUS:
+        if (payloadLength < CLOCK_STATUS_LENGTH){
+          return -1;
+        }
+        status.setClockDrift(u32(frame, p+8));
+        status.setClockBias(u32(frame, p+12));
+        break;
+      default:
+        return -1;
+    }
+    messages++;
+    return id;
+  }
+
+  /**
+   * @return true if the last MID 41 carried a valid fix.
+   */
+  public boolean isFixed(){
+    return fixed;
+  }
+
+  /**
+   * @return UTC time of the last MID 41, in ms since the epoch, 0 if unknown.
+   */
+  public long getFixTime(){
+    return fixTime;
+  }
+
+  public long getMessageCount(){
+    return messages;
+  }
+
+  /**
+   * @return time of day of a MID 41 frame in ms, -1 for other frames.
+   */
+  public static long getUtcMillis(byte[] frame, int offset, int length){
+    int p = offset + PAYLOAD;
+    if (length - OVERHEAD < GEODETIC_NAV_LENGTH || (frame[p] & 0xff) != MID_GEODETIC_NAV){
+      return -1;
+    }
+    return ((u8(frame, p+15) * 60L + u8(frame, p+16)) * 60000L) + u16(frame, p+17);
+  }
+
+  /*
+   * MID 41, fields at their offset in the payload:
+   *  1 Nav Valid (2), 3 Nav Type (2), 11 UTC year (2), 13 month, 14 day,
+   *  15 hour, 16 minute, 17 second (2, ms), 19 SVs used bitmap (4),
+   *  23 latitude (4, deg*1e7), 27 longitude (4, deg*1e7),
+   *  31 altitude from ellipsoid (4, m*100), 35 altitude from MSL (4, m*100),
+   *  40 speed over ground (2, m/s*100), 42 course over ground (2, deg*100),
+   *  50 estimated horizontal position error (4, m*100),
+   *  88 SVs in fix (1), 89 HDOP (1, *5)
+   */
+  private void decodeGeodeticNav(byte[] b, int p, GnssStatus status){
+    int navValid = u16(b, p+1);
+    int navType = u16(b, p+3);
+    int solution = navType & NAV_TYPE_MASK;
+    fixed = (solution != 0) && ((navValid & NAV_VALID_MASK) == 0);
+    fixTime = GnssTime.toMillis(u16(b, p+11), u8(b, p+13), u8(b, p+14),
+        u8(b, p+15), u8(b, p+16), u16(b, p+17));
+
+    long used = u32(b, p+19);
+    status.clearTrackedSatellites();
+    for (int prn = 1; prn <= MAX_GPS_PRN; prn++){
+      if ((used & (1L << (prn - 1))) != 0){
+        status.addTrackedSatellites(prn);
+      }
+    }
+    if (!fixed){
+      status.setTimestamp(fixTime);
+      status.setFixMode(1);
+      status.setQuality(0);
+      status.setMode("N");
+      return;
+    }
+    status.setFixTimestamp(fixTime);
+    status.setLatitude(s32(b, p+23) / 1e7);
+    status.setLongitude(s32(b, p+27) / 1e7);
+    double ellipsoid = s32(b, p+31) / 100d;
+    double msl = s32(b, p+35) / 100d;
+    status.setAltitude(msl);
+    status.setHeight(ellipsoid - msl);
+    status.setSpeed(u16(b, p+40) / 100f);
+    status.setBearing(u16(b, p+42) / 100f);
+    status.setNbSat(u8(b, p+88));
+    status.setHDOP(u8(b, p+89) / 5f);
+    status.setAccuracy(u32(b, p+50) / 100f);
+    // 1 to 3 satellites or 2D least squares: 2D, otherwise 3D
+    status.setFixMode((solution == 4 || solution >= 6) ? 3 : 2);
+    if (solution == NAV_TYPE_DR){
+      status.setQuality(6);
+      status.setMode("E");
+    } else if ((navType & NAV_TYPE_DGPS) != 0){
+      status.setQuality(2);
+      status.setMode("D");
+    } else {
+      status.setQuality(1);
+      status.setMode("A");
+    }
+  }
+
+  /*
+   * MID 4: 1 GPS week (2), 3 GPS TOW (4), 7 channels (1), then for each
+   * channel: SV id (1), azimuth (1, deg*2/3), elevation (1, deg*2),
+   * state (2), C/N0 of the last 10 measurements (10, dB-Hz).
+   */
+  private void decodeMeasuredTracker(byte[] b, int p, GnssStatus status){
+    int channels = Math.min(CHANNELS, u8(b, p+7));
+    status.beginSatellitesEpoch();
+    int count = 0;
+    for (int c = 0; c < channels; c++){
+      int q = p + 8 + c * CHANNEL_LENGTH;
+      int prn = u8(b, q);
+      if (prn == 0){
+        continue;
+      }
+      float azimuth = u8(b, q+1) * 1.5f;
+      float elevation = u8(b, q+2) / 2f;
+      int sum = 0;
+      int samples = 0;
+      for (int i = 0; i < CN0_SAMPLES; i++){
+        int cn0 = u8(b, q+5+i);
+        if (cn0 != 0){
+          sum += cn0;
+          samples++;
+        }
+      }
+      float snr = (samples == 0) ? 0f : (float)sum / samples;
+      // SiRF only tracks GPS and SBAS (PRN 120 and up)
+      if (status.updateSatellite(prn <= MAX_GPS_PRN ? "GP" : "SB", prn, elevation, azimuth, snr) != null){
+        count++;
+      }
+    }
+    status.evictStaleSatellites();
+    status.setNumSatellites(count);
+  }
+
+  private static int u8(byte[] b, int i){
+    return b[i] & 0xff;
+  }
+
+  private static int u16(byte[] b, int i){
+    return ((b[i] & 0xff) << 8) | (b[i+1] & 0xff);
+  }
+
+  private static int s32(byte[] b, int i){
+    return ((b[i] & 0xff) << 24) | ((b[i+1] & 0xff) << 16) | ((b[i+2] & 0xff) << 8) | (b[i+3] & 0xff);
+  }
+
+  private static long u32(byte[] b, int i){
+    return s32(b, i) & 0xffffffffL;
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.da_cha.android.bluegnss.util.sirf;
+
+import android.content.SharedPreferences;
+
+import org.da_cha.android.bluegnss.util.nmea.DataDemand;
+
+/**
+ * Sets the NMEA output rates of a SiRF GPS from the data its consumers
+ * need, instead of keeping the rates of the preferences all the time.
+ *
+ * <ul>
+ *  <li>GSV is output every second while the sky view is requested, ex.
+ *  while the main screen (satellites in view) or the status screen is
+ *  displayed, and is off otherwise, ex. while the screen is off.</li>
+ *  <li>GSA is output every second while the sky view or the DOP are
+ *  requested, and is off otherwise.</li>
+ *  <li>GLL repeats the position of GGA, and VTG the speed of RMC: each
+ *  is off while the sentence it repeats is enabled in the preferences,
+ *  and at the rate of the preferences otherwise, as it is then the only
+ *  source of its data.</li>
+ *  <li>ZDA repeats the time of GGA and RMC, and is off.</li>
+ *  <li>While raw sentences are requested, ex. by the track recorder,
+ *  every message is output at least at the rate of the preferences, so
+ *  that the track holds the sentences the user chose.</li>
+ * </ul>
+ *
+ * GGA and RMC are left as SirfCommander set them, every second, which
+ * is the highest rate PSRF103 can set: the location provider needs them,
+ * and the connection is watched through them.
+ *
+ * The rate last set for each message is kept, and a PSRF103 command is
+ * only sent for the messages whose rate has to change.
+ */
+public class SirfRateController implements DataDemand.Listener {
+
+  private static final int UNKNOWN = -1;
+  // output period of the displayed messages, in seconds
+  private static final int LIVE_RATE = 1;
+
+  private static final int[] MESSAGES = {
+    SirfCommander.NMEA_GLL,
+    SirfCommander.NMEA_GSA,
+    SirfCommander.NMEA_GSV,
+    SirfCommander.NMEA_VTG,
+    SirfCommander.NMEA_ZDA,
+  };
+  private static final String[] PREF_KEYS = {
+    SirfCommander.PREF_SIRF_ENABLE_GLL,
+    SirfCommander.PREF_SIRF_ENABLE_GSA,
+    SirfCommander.PREF_SIRF_ENABLE_GSV,
+    SirfCommander.PREF_SIRF_ENABLE_VTG,
+    SirfCommander.PREF_SIRF_ENABLE_ZDA,
+  };
+
+  private final SirfCommander commander;
+  private final SharedPreferences sharedPreferences;
+  private final int[] rates = new int[MESSAGES.length];
+  private int kinds = 0;
+  private long commandCount = 0;
+
+  /**
+   * @param commander         used to send the commands.
+   * @param sharedPreferences preferences the GPS was configured from.
+   */
+  public SirfRateController(SirfCommander commander, SharedPreferences sharedPreferences){
+    this.commander = commander;
+    this.sharedPreferences = sharedPreferences;
+    for (int i = 0; i < rates.length; i++){
+      rates[i] = UNKNOWN;
+    }
+  }
+
+  /**
+   * Sets the rates needed by the data requested, the GPS having been
+   * configured from the preferences.
+   *
+   * @param kinds kinds of data requested, as given by DataDemand.
+   */
+  public synchronized void start(int kinds){
+    this.kinds = kinds;
+    configured();
+  }
+
+  /**
+   * Takes into account that SirfCommander has just configured the GPS
+   * from the preferences, and sets the rates needed again.
+   */
+  public synchronized void configured(){
+    for (int i = 0; i < MESSAGES.length; i++){
+      if (sharedPreferences.contains(PREF_KEYS[i])
+          || sharedPreferences.contains(SirfCommander.PREF_SIRF_ENABLE_NMEA)){
+        rates[i] = SirfCommander.getPreferredRate(sharedPreferences, MESSAGES[i]);
+      } else {
+        rates[i] = UNKNOWN;
+      }
+    }
+    apply(false);
+  }
+
+  /**
+   * Sets back the rates of the preferences.
+   */
+  public synchronized void restore(){
+    apply(true);
+  }
+
+  @Override
+  public synchronized void onDataDemandChanged(int kinds){
+    this.kinds = kinds;
+    apply(false);
+  }
+
+  /**
+   * @return number of rate commands sent.
+   */
+  public synchronized long getCommandCount(){
+    return commandCount;
+  }
+
+  private void apply(boolean preferred){
+    // PSRF103 is not understood in SiRF binary mode
+    if (!sharedPreferences.getBoolean(SirfCommander.PREF_SIRF_ENABLE_NMEA, true)){
+      return;
+    }
+    for (int i = 0; i < MESSAGES.length; i++){
+      int rate = SirfCommander.getPreferredRate(sharedPreferences, MESSAGES[i]);
+      if (!preferred){
+        rate = getNeededRate(MESSAGES[i], rate);
+      }
+      if (rates[i] != rate){
+        commander.setNmeaRate(MESSAGES[i], rate);
+        rates[i] = rate;
+        commandCount++;
+      }
+    }
+  }
+
+  private int getNeededRate(int message, int preferredRate){
+    int rate = ((kinds & DataDemand.RAW) != 0) ? preferredRate : 0;
+    switch (message){
+      case SirfCommander.NMEA_GSA:
+        if ((kinds & (DataDemand.DOP | DataDemand.SKY_VIEW)) != 0){
+          rate = faster(rate, LIVE_RATE);
+        }
+        break;
+      case SirfCommander.NMEA_GSV:
+        if ((kinds & DataDemand.SKY_VIEW) != 0){
+          rate = faster(rate, LIVE_RATE);
+        }
+        break;
+      case SirfCommander.NMEA_GLL:
+        if (SirfCommander.getPreferredRate(sharedPreferences, SirfCommander.NMEA_GGA) == 0){
+          rate = preferredRate;
+        }
+        break;
+      case SirfCommander.NMEA_VTG:
+        if (SirfCommander.getPreferredRate(sharedPreferences, SirfCommander.NMEA_RMC) == 0){
+          rate = preferredRate;
+        }
+        break;
+      default:
+        break;
+    }
+    return rate;
+  }
+
+  /*
+   * Shorter of two output periods, 0 being off.
+   */
+  private static int faster(int a, int b){
+    if (a == 0){
+      return b;
+    } else if (b == 0){
+      return a;
+    }
+    return Math.min(a, b);
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014, Hiroshi Miura <miurahr@linux.com>
+ * Copyright 2014, BlueGnss4OSM Project
+ *
+ * This file is part of BlueGnss4OSM.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * It is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with it. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.da_cha.android.bluegnss.util.ubx;
+
+import org.da_cha.android.bluegnss.GnssStatus;
+import org.da_cha.android.bluegnss.util.GnssTime;
+
+/**
+ * Decodes u-blox UBX messages into a GnssStatus.
+ *
+ * It is fed the frames found by NmeaFramer, which has already checked
+ * their header, length and checksum, and reads the fields in place:
+ * nothing is decoded into characters and nothing is allocated.
+ *
+ * <ul>
+ *  <li>NAV-PVT (0x01 0x07): the fix, with what GGA, RMC, GSA and VTG
+ *  carry together, plus the accuracy estimated by the receiver. It
+ *  ends the epoch.</li>
+ *  <li>NAV-SAT (0x01 0x35): azimuth, elevation, C/N0 and use in the fix
+ *  of every satellite, of all constellations, which make the sky
+ *  view.</li>
+ * </ul>
+ *
+ * Other messages are ignored. An instance is not thread safe, and is
+ * meant to be fed by the framing thread.
+ */
+public class UbxDecoder {
+
+  /**
+   * Message ids: class in the high byte, id in the low one.
+   */
+  public static final int NAV_PVT = 0x0107;
+  public static final int NAV_SAT = 0x0135;
+
+  // frame: sync(2), class, id, length(2), payload, checksum(2)
+  private static final int PAYLOAD = 6;
+  private static final int OVERHEAD = 8;
+
+  // NAV-PVT is 84 bytes on u-blox 7, 92 since u-blox 8
+  private static final int NAV_PVT_LENGTH = 84;
+  private static final int NAV_SAT_HEADER = 8;
+  private static final int NAV_SAT_BLOCK = 12;
+
+  // NAV-PVT valid and flags
+  private static final int VALID_DATE = 0x01;
+  private static final int VALID_TIME = 0x02;
+  private static final int GNSS_FIX_OK = 0x01;
+  private static final int DIFF_SOLN = 0x02;
+  private static final int CARR_SOLN_SHIFT = 6;
+  // NAV-PVT fixType
+  private static final int FIX_DR = 1;
+  private static final int FIX_2D = 2;
+  private static final int FIX_3D = 3;
+  private static final int FIX_GNSS_DR = 4;
+  // NAV-SAT flags
+  private static final int SV_USED = 0x08;
+
+  /*
+   * System of each gnssId, and offset of svId to the satellite numbers
+   * of GnssSatellite, as resolved from GSV sentences.
+   */
+  private static final String[] SYSTEMS = {"GP", "SB", "GA", "BD", null, "QZ", "GL", "GI"};
+  private static final int[] PRN_OFFSETS = {0, 0, 0, 200, 0, 192, 64, 0};
+
+  private boolean fixed = false;
+  private long fixTime = 0;
+  private long messages = 0;
+
+  /**
+   * @param frame  buffer holding the frame, from 0xB5 0x62 up to the checksum.
+   * @return message id of the frame if it was decoded, -1 otherwise.
+   */
+  public int decode(byte[] frame, int offset, int length, GnssStatus status){
+    if (length < OVERHEAD){
+      return -1;
+    }
+    int id = ((frame[offset+2] & 0xff) << 8) | (frame[offset+3] & 0xff);
+    int p = offset + PAYLOAD;
+    int payloadLength = length - OVERHEAD;
+    switch (id){
+      case NAV_PVT:
+        if (payloadLength < NAV_PVT_LENGTH){
+          return -1;
+        }
+        decodeNavPvt(frame, p, status);
+        break;
+      case NAV_SAT:
+        if (payloadLength < NAV_SAT_HEADER){
+          return -1;
+        }
+        decodeNavSat(frame, p, payloadLength, status);
+        break;
+      default:
+        return -1;
+    }
+    messages++;
+    return id;
+  }
+
+  /**
+   * @return true if the last NAV-PVT carried a valid fix.
+   */
+  public boolean isFixed(){
+    return fixed;
+  }
+
+  /**
+   * @return UTC time of the last NAV-PVT, in ms since the epoch, 0 if unknown.
+   */
+  public long getFixTime(){
+    return fixTime;
+  }
+
+  public long getMessageCount(){
+    return messages;
+  }
+
+  /**
+   * @return time of day of a NAV-PVT frame in ms, -1 for other frames or
+   * when the receiver does not know the time yet.
+   */
+  public static long getUtcMillis(byte[] frame, int offset, int length){
+    int p = offset + PAYLOAD;
+    if (length - OVERHEAD < NAV_PVT_LENGTH || (frame[offset+2] & 0xff) != (NAV_PVT >> 8)
+        || (frame[offset+3] & 0xff) != (NAV_PVT & 0xff) || (u8(frame, p+11) & VALID_TIME) == 0){
+      return -1;
+    }
+    return ((u8(frame, p+8) * 60L + u8(frame, p+9)) * 60L + u8(frame, p+10)) * 1000L
+        + Math.round(s32(frame, p+16) / 1e6);
+  }
+
+  /*
+   * NAV-PVT, little-endian fields at their offset in the payload:
+   *  4 year (2), 6 month, 7 day, 8 hour, 9 min, 10 sec, 11 valid,
+   *  16 nano (4, ns), 20 fixType, 21 flags, 23 numSV,
+   *  24 lon (4, deg*1e-7), 28 lat (4, deg*1e-7), 32 height (4, mm),
+   *  36 hMSL (4, mm), 40 hAcc (4, mm), 60 gSpeed (4, mm/s),
+   *  64 headMot (4, deg*1e-5), 76 pDOP (2, *0.01)
+   */
+  private void decodeNavPvt(byte[] b, int p, GnssStatus status){
+    int valid = u8(b, p+11);
+    int fixType = u8(b, p+20);
+    int flags = u8(b, p+21);
+    fixed = (flags & GNSS_FIX_OK) != 0 && fixType >= FIX_2D && fixType <= FIX_GNSS_DR;
+    if ((valid & (VALID_DATE | VALID_TIME)) == (VALID_DATE | VALID_TIME)){
+      long millis = u8(b, p+10) * 1000L + Math.round(s32(b, p+16) / 1e6);
+      fixTime = GnssTime.toMillis(u16(b, p+4), u8(b, p+6), u8(b, p+7),
+          u8(b, p+8), u8(b, p+9), millis);
+    } else {
+      fixTime = 0;
+    }
+    status.setNbSat(u8(b, p+23));
+    status.setPDOP(u16(b, p+76) / 100f);
+    if (!fixed){
+      status.setTimestamp(fixTime);
+      status.setFixMode(1);
+      status.setQuality(0);
+      status.setMode(fixType == FIX_DR ? "E" : "N");
+      return;
+    }
+    status.setFixTimestamp(fixTime);
+    status.setLongitude(s32(b, p+24) / 1e7);
+    status.setLatitude(s32(b, p+28) / 1e7);
+    double ellipsoid = s32(b, p+32) / 1000d;
+    double msl = s32(b, p+36) / 1000d;
+    status.setAltitude(msl);
+    status.setHeight(ellipsoid - msl);
+    status.setAccuracy(u32(b, p+40) / 1000f);
+    status.setSpeed(s32(b, p+60) / 1000f);
+    status.setBearing(s32(b, p+64) / 1e5f);
+    status.setFixMode(fixType == FIX_2D ? 2 : 3);
+    int carrier = (flags >> CARR_SOLN_SHIFT) & 0x03;
+    if (carrier == 2){
+      // RTK fixed
+      status.setQuality(4);
+      status.setMode("D");
+    } else if (carrier == 1){
+      // RTK float
+      status.setQuality(5);
+      status.setMode("D");
+    } else if ((flags & DIFF_SOLN) != 0){
+      status.setQuality(2);
+      status.setMode("D");
+    } else if (fixType == FIX_GNSS_DR){
+      status.setQuality(6);
+      status.setMode("E");
+    } else {
+      status.setQuality(1);
+      status.setMode("A");
+    }
+  }
+
+  /*
+   * NAV-SAT: 0 iTOW (4), 4 version, 5 numSvs, 2 reserved, then for each
+   * satellite: gnssId, svId, cno (dBHz), elev (signed, deg),
+   * azim (2, signed, deg), prRes (2), flags (4).
+   */
+  private void decodeNavSat(byte[] b, int p, int length, GnssStatus status){
+    int count = Math.min(u8(b, p+5), (length - NAV_SAT_HEADER) / NAV_SAT_BLOCK);
+    status.beginSatellitesEpoch();
+    status.clearTrackedSatellites();
+    int inView = 0;
+    for (int i = 0; i < count; i++){
+      int q = p + NAV_SAT_HEADER + i * NAV_SAT_BLOCK;
+      int gnssId = u8(b, q);
+      if (gnssId >= SYSTEMS.length || SYSTEMS[gnssId] == null){
+        continue;
+      }
+      int prn = u8(b, q+1) + PRN_OFFSETS[gnssId];
+      float snr = u8(b, q+2);
+      float elevation = b[q+3];
+      float azimuth = (short)u16(b, q+4);
+      if (status.updateSatellite(SYSTEMS[gnssId], prn, elevation, azimuth, snr) == null){
+        continue;
+      }
+      inView++;
+      if ((u8(b, q+8) & SV_USED) != 0){
+        status.addTrackedSatellites(prn);
+      }
+    }
+    status.evictStaleSatellites();
+    status.setNumSatellites(inView);
+  }
+
+  private static int u8(byte[] b, int i){
+    return b[i] & 0xff;
+  }
+
+  private static int u16(byte[] b, int i){
+    return (b[i] & 0xff) | ((b[i+1] & 0xff) << 8);
+  }
+
+  private static int s32(byte[] b, int i){
+    return (b[i] & 0xff) | ((b[i+1] & 0xff) << 8) | ((b[i+2] & 0xff) << 16) | ((b[i+3] & 0xff) << 24);
+  }
+
+  private static long u32(byte[] b, int i){
+    return s32(b, i) & 0xffffffffL;
+  }
+}